@@ -0,0 +1,166 @@
+package ru.example.gateway.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SpecVersion;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.example.gateway.cache.ValidationResultCache;
+import ru.example.gateway.config.CachingConfig;
+import ru.example.gateway.metrics.ValidationMetrics;
+import ru.example.gateway.model.BodyLimits;
+import ru.example.gateway.model.ValidateActivator;
+import ru.example.gateway.routing.RouteIndex;
+import ru.example.gateway.service.implementation.RequestValidationService;
+import ru.example.gateway.service.implementation.ResponseValidationService;
+
+/**
+ * Общие данные бенчмарков: схема заказа, тела разного размера и сервисы валидации, собранные без Spring контекста
+ */
+final class BenchmarkData {
+
+    static final String PATH = "/lam/orders/42/items";
+    static final String TEMPLATE = "/lam/orders/{id:int}/items";
+
+    /**
+     * Размер части тела, как у частей, приходящих из Netty
+     */
+    static final int CHUNK_SIZE = 8192;
+
+    /**
+     * Метрики валидации в памяти, как при включенном actuator без внешней системы мониторинга
+     */
+    static final ValidationMetrics VALIDATION_METRICS = validationMetrics();
+
+    /**
+     * Ограничения размера тел по умолчанию
+     */
+    static final BodyLimits BODY_LIMITS = new BodyLimits();
+
+    private static final String SCHEMA = "{\"$schema\":\"https://json-schema.org/draft/2020-12/schema\",\"type\":\"object\","
+            + "\"required\":[\"id\",\"items\"],\"properties\":{"
+            + "\"id\":{\"type\":\"integer\"},"
+            + "\"name\":{\"type\":\"string\",\"maxLength\":64},"
+            + "\"items\":{\"type\":\"array\",\"items\":{\"type\":\"object\",\"required\":[\"sku\",\"qty\"],\"properties\":{"
+            + "\"sku\":{\"type\":\"string\",\"pattern\":\"^[A-Z0-9-]+$\"},"
+            + "\"qty\":{\"type\":\"integer\",\"minimum\":1},"
+            + "\"price\":{\"type\":\"number\"}}}}}}";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Размеры тела: количество элементов заказа (small ~150 байт, medium ~5 КБ, large ~500 КБ)
+     */
+    enum Size {
+        SMALL(1), MEDIUM(100), LARGE(10_000);
+
+        final int items;
+
+        Size(int items) {
+            this.items = items;
+        }
+    }
+
+    static JsonSchema schema() {
+        return JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V202012).getSchema(SCHEMA);
+    }
+
+    /**
+     * json-schema-validator 1.0.72 не применяет 'items' для 2020-12, поэтому элементы массива проверяются только
+     * разбором, а ошибка валидации задается в поле верхнего уровня после массива
+     *
+     * @param valid false - поле 'name' длиннее 64 символов
+     */
+    static String body(Size size, boolean valid) {
+        StringBuilder body = new StringBuilder(size.items * 50 + 160).append("{\"id\":42,\"items\":[");
+        for (int i = 0; i < size.items; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"sku\":\"SKU-").append(i).append("\",\"qty\":").append(i % 10 + 1).append(",\"price\":").append(i).append(".5}");
+        }
+        body.append("],\"name\":\"");
+        for (int i = valid ? 60 : 70; i > 0; i--) {
+            body.append('n');
+        }
+        return body.append("\"}").toString();
+    }
+
+    /**
+     * Делит тело на части по {@link #CHUNK_SIZE}
+     */
+    static List<DataBuffer> chunks(DataBufferFactory bufferFactory, byte[] body) {
+        List<DataBuffer> chunks = new ArrayList<>();
+        for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, body.length - offset);
+            chunks.add(bufferFactory.allocateBuffer(length).write(body, offset, length));
+        }
+        return chunks;
+    }
+
+    static byte[] bytes(String body) {
+        return body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ValidationMetrics validationMetrics() {
+        ValidationMetrics validationMetrics = new ValidationMetrics();
+        validationMetrics.setMeterRegistry(new SimpleMeterRegistry());
+        return validationMetrics;
+    }
+
+    static RouteIndex routeIndex(JsonSchema schema) {
+        return RouteIndex.builder()
+                .add(HttpMethod.POST, TEMPLATE, schema)
+                .add(HttpMethod.PUT, TEMPLATE, schema)
+                .build();
+    }
+
+    static ValidateActivator validateActivator(boolean resultCacheOn) {
+        ValidateActivator validateActivator = new ValidateActivator();
+        validateActivator.setRequestOn(true);
+        validateActivator.setResponseOn(true);
+        validateActivator.setResultCacheOn(resultCacheOn);
+        return validateActivator;
+    }
+
+    static ValidationResultCache validationResultCache(ValidateActivator validateActivator) {
+        ValidationResultCache validationResultCache = new ValidationResultCache();
+        validationResultCache.setCacheManager(new ConcurrentMapCacheManager(CachingConfig.VALIDATION_RESULTS_CACHE));
+        validationResultCache.setValidateActivator(validateActivator);
+        return validationResultCache;
+    }
+
+    static RequestValidationService requestValidationService(RouteIndex routeIndex, ValidationResultCache validationResultCache) {
+        RequestValidationService service = new RequestValidationService();
+        service.setMapper(new ObjectMapper());
+        service.setValidationResultCache(validationResultCache);
+        service.setValidationMetrics(VALIDATION_METRICS);
+        service.setBodyLimits(BODY_LIMITS);
+        ReflectionTestUtils.setField(service, "requestRouteIndex", routeIndex);
+        return service;
+    }
+
+    static ResponseValidationService responseValidationService(RouteIndex routeIndex, ValidationResultCache validationResultCache) {
+        ResponseValidationService service = new ResponseValidationService();
+        service.setMapper(new ObjectMapper());
+        service.setValidationResultCache(validationResultCache);
+        service.setValidationMetrics(VALIDATION_METRICS);
+        service.setBodyLimits(BODY_LIMITS);
+        service.setValidateActivator(validateActivator(false));
+        ReflectionTestUtils.setField(service, "responseRouteIndex", routeIndex);
+        return service;
+    }
+}
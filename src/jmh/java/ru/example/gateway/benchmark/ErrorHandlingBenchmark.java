@@ -0,0 +1,121 @@
+package ru.example.gateway.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import ru.example.gateway.config.exception.ValidationException;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.routing.RouteIndex;
+import ru.example.gateway.service.implementation.RequestValidationService;
+
+/**
+ * Формирование ответа с ошибкой валидации ({@link ru.example.gateway.service.IValidationService#errorHandling}).
+ * Ответ изменяется при каждом вызове, поэтому для каждого вызова создается новый обмен - его стоимость
+ * показывает {@link #exchangeBaseline()}. Бенчмарки '*Rejection' измеряют весь путь отказа: создание исключения
+ * сервисом и формирование ответа. Исключения создаются без стека вызовов, стоимость стека показывает
+ * {@link #stackTraceBaseline()}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ErrorHandlingBenchmark {
+
+    private RequestValidationService requestValidationService;
+    private ValidationException validationError;
+    private ValidationException noSchemaError;
+    private Route route;
+    private JsonNode invalidBody;
+
+    @Setup
+    public void setUp() {
+        RouteIndex routeIndex = BenchmarkData.routeIndex(BenchmarkData.schema());
+        requestValidationService = BenchmarkData.requestValidationService(routeIndex,
+                BenchmarkData.validationResultCache(BenchmarkData.validateActivator(false)));
+        validationError = new ValidationException(RequestValidationService.VALIDATION_ERROR,
+                Arrays.asList("$.name: may only be 64 characters long"),
+                HttpStatus.PRECONDITION_FAILED);
+        noSchemaError = new ValidationException(RequestValidationService.VALIDATION_ERROR,
+                Arrays.asList(RequestValidationService.NO_SCHEME_ERROR), HttpStatus.PRECONDITION_FAILED);
+        route = routeIndex.find(HttpMethod.POST, BenchmarkData.PATH);
+        try {
+            invalidBody = new ObjectMapper().readTree(BenchmarkData.body(BenchmarkData.Size.SMALL, false));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public MockServerWebExchange exchangeBaseline() {
+        return exchange();
+    }
+
+    @Benchmark
+    public DataBuffer validationError() throws JsonProcessingException {
+        return handle(validationError);
+    }
+
+    @Benchmark
+    public DataBuffer noSchemaError() throws JsonProcessingException {
+        return handle(noSchemaError);
+    }
+
+    @Benchmark
+    public RuntimeException stackTraceBaseline() {
+        return new RuntimeException(RequestValidationService.VALIDATION_ERROR);
+    }
+
+    @Benchmark
+    public DataBuffer schemaMissRejection() throws JsonProcessingException {
+        try {
+            requestValidationService.getRoute(HttpMethod.POST, "/lam/unknown");
+        } catch (ValidationException e) {
+            return handle(e);
+        }
+        throw new IllegalStateException("Route must not be found");
+    }
+
+    @Benchmark
+    public DataBuffer validationErrorRejection() throws JsonProcessingException {
+        try {
+            requestValidationService.validate(route, invalidBody);
+        } catch (ValidationException e) {
+            return handle(e);
+        }
+        throw new IllegalStateException("Body must be invalid");
+    }
+
+    private DataBuffer handle(ValidationException error) throws JsonProcessingException {
+        DataBuffer dataBuffer = requestValidationService.errorHandling(error, exchange());
+        DataBufferUtils.release(dataBuffer);
+        return dataBuffer;
+    }
+
+    private static MockServerWebExchange exchange() {
+        return MockServerWebExchange.from(MockServerHttpRequest.post(BenchmarkData.PATH).build());
+    }
+}
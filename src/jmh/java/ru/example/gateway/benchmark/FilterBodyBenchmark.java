@@ -0,0 +1,160 @@
+package ru.example.gateway.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import io.netty.buffer.PooledByteBufAllocator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ru.example.gateway.cache.ValidationResultCache;
+import ru.example.gateway.filter.RequestGlobalFilter;
+import ru.example.gateway.filter.ResponseGlobalFilter;
+import ru.example.gateway.model.BodyLimits;
+import ru.example.gateway.model.ResponseSampling;
+import ru.example.gateway.model.ValidateActivator;
+import ru.example.gateway.model.ValidationQueue;
+import ru.example.gateway.routing.RouteIndex;
+import ru.example.gateway.sampling.ResponseSampler;
+import ru.example.gateway.scheduler.ValidationScheduler;
+import ru.example.gateway.service.ShadowResponseValidator;
+
+/**
+ * Полный путь тела через {@link RequestGlobalFilter} и {@link ResponseGlobalFilter}: сбор частей, разбор, валидация
+ * и передача частей дальше. Части тела - буферы из пула Netty по 8 КБ, следующий фильтр или клиент освобождает их,
+ * как это делает Netty. Копирование тела в буферы пула входит в измерение
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBodyBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public String size;
+
+    @Param({"true", "false"})
+    public boolean valid;
+
+    @Param({"false", "true"})
+    public boolean resultCacheOn;
+
+    /**
+     * Валидация в пуле {@link ValidationScheduler} или в вызывающем потоке
+     */
+    @Param({"true", "false"})
+    public boolean offload;
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    private RequestGlobalFilter requestFilter;
+    private ResponseGlobalFilter responseFilter;
+    private ValidationScheduler validationScheduler;
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        RouteIndex routeIndex = BenchmarkData.routeIndex(BenchmarkData.schema());
+        ValidateActivator validateActivator = BenchmarkData.validateActivator(resultCacheOn);
+        ValidationResultCache validationResultCache = BenchmarkData.validationResultCache(validateActivator);
+        BodyLimits bodyLimits = new BodyLimits();
+        ValidationQueue validationQueue = new ValidationQueue();
+        validationQueue.setEnabled(offload);
+        validationScheduler = new ValidationScheduler();
+        validationScheduler.setValidationQueue(validationQueue);
+        validationScheduler.setMeterRegistry(new SimpleMeterRegistry());
+        validationScheduler.start();
+
+        requestFilter = new RequestGlobalFilter();
+        requestFilter.setValidateActivator(validateActivator);
+        requestFilter.setValidationMetrics(BenchmarkData.VALIDATION_METRICS);
+        requestFilter.setBodyLimits(bodyLimits);
+        requestFilter.setValidationScheduler(validationScheduler);
+        requestFilter.setValidationQueue(validationQueue);
+        requestFilter.setRequestValidationService(BenchmarkData.requestValidationService(routeIndex, validationResultCache));
+
+        responseFilter = new ResponseGlobalFilter();
+        responseFilter.setValidateActivator(validateActivator);
+        responseFilter.setValidationMetrics(BenchmarkData.VALIDATION_METRICS);
+        responseFilter.setBodyLimits(bodyLimits);
+        responseFilter.setValidationScheduler(validationScheduler);
+        responseFilter.setValidationQueue(validationQueue);
+        ResponseSampler responseSampler = new ResponseSampler();
+        responseSampler.setResponseSampling(new ResponseSampling());
+        responseFilter.setResponseSampler(responseSampler);
+        ShadowResponseValidator shadowResponseValidator = new ShadowResponseValidator();
+        shadowResponseValidator.setValidateActivator(validateActivator);
+        shadowResponseValidator.setResponseValidationService(BenchmarkData.responseValidationService(routeIndex, validationResultCache));
+        shadowResponseValidator.setValidationScheduler(validationScheduler);
+        shadowResponseValidator.setValidationMetrics(BenchmarkData.VALIDATION_METRICS);
+        shadowResponseValidator.setResponseSampler(responseSampler);
+        shadowResponseValidator.setMeterRegistry(new SimpleMeterRegistry());
+        shadowResponseValidator.registerMetrics();
+        responseFilter.setShadowResponseValidator(shadowResponseValidator);
+        responseFilter.setResponseSchemasService(BenchmarkData.responseValidationService(routeIndex, validationResultCache));
+
+        body = BenchmarkData.bytes(BenchmarkData.body(BenchmarkData.Size.valueOf(size), valid));
+    }
+
+    @TearDown
+    public void tearDown() {
+        validationScheduler.shutdown();
+    }
+
+    @Benchmark
+    public HttpStatus requestFilter() {
+        MockServerHttpRequest request = MockServerHttpRequest.post(BenchmarkData.PATH)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Flux.defer(() -> Flux.fromIterable(chunks())));
+        MockServerWebExchange exchange = MockServerWebExchange.from(request);
+        exchange.getResponse().setWriteHandler(written -> Flux.from(written)
+                .doOnNext(DataBufferUtils::release)
+                .then());
+        requestFilter.filter(exchange, forwarded -> forwarded.getRequest().getBody()
+                .doOnNext(DataBufferUtils::release)
+                .then()).block();
+        return exchange.getResponse().getStatusCode();
+    }
+
+    @Benchmark
+    public HttpStatus responseFilter() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post(BenchmarkData.PATH).build());
+        exchange.getResponse().setWriteHandler(written -> Flux.from(written)
+                .doOnNext(DataBufferUtils::release)
+                .then());
+        responseFilter.filter(exchange, filtered -> {
+            filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            return filtered.getResponse().writeWith(Flux.defer(() -> Flux.fromIterable(chunks())));
+        }).block();
+        return exchange.getResponse().getStatusCode();
+    }
+
+    private List<DataBuffer> chunks() {
+        return BenchmarkData.chunks(bufferFactory, body);
+    }
+}
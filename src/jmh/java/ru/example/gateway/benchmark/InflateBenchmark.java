@@ -0,0 +1,97 @@
+package ru.example.gateway.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ru.example.gateway.cache.ValidationResultCache;
+import ru.example.gateway.config.exception.ValidationException;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.service.implementation.RequestValidationService;
+
+/**
+ * Валидация тел со сжатием: распаковка по мере разбора из частей тела против тела без сжатия
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InflateBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public String size;
+
+    @Param({"identity", "gzip", "deflate"})
+    public String encoding;
+
+    private RequestValidationService requestValidationService;
+    private Route route;
+    private List<DataBuffer> chunks;
+
+    @Setup
+    public void setUp() throws IOException {
+        requestValidationService = BenchmarkData.requestValidationService(BenchmarkData.routeIndex(BenchmarkData.schema()),
+                BenchmarkData.validationResultCache(BenchmarkData.validateActivator(false)));
+        route = requestValidationService.getRoute(HttpMethod.POST, BenchmarkData.PATH);
+        byte[] body = BenchmarkData.bytes(BenchmarkData.body(BenchmarkData.Size.valueOf(size), true));
+        byte[] encoded = encode(body);
+        chunks = BenchmarkData.chunks(new DefaultDataBufferFactory(), encoded);
+    }
+
+    @TearDown
+    public void tearDown() {
+        chunks.forEach(DataBufferUtils::release);
+    }
+
+    @Benchmark
+    public Object validate() {
+        try {
+            requestValidationService.validate(route, chunks, encoding);
+            return route;
+        } catch (ValidationException e) {
+            return e;
+        }
+    }
+
+    private byte[] encode(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        switch (encoding) {
+            case "gzip":
+                try (OutputStream gzip = new GZIPOutputStream(out)) {
+                    gzip.write(body);
+                }
+                return out.toByteArray();
+            case "deflate":
+                try (OutputStream deflate = new DeflaterOutputStream(out)) {
+                    deflate.write(body);
+                }
+                return out.toByteArray();
+            default:
+                return body;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.example.gateway.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import ru.example.gateway.model.RateLimits;
+import ru.example.gateway.ratelimit.RateLimiter;
+
+/**
+ * Проверка ограничения частоты ({@link RateLimiter#check}) из нескольких потоков: 'allowed' - корзины с большим
+ * запасом, 'rejected' - пустые корзины (стоимость отказа). Пользователи выбираются из principals случайно,
+ * поэтому при большом их количестве в измерение входят создание и вытеснение корзин
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class RateLimitBenchmark {
+
+    private static final String ROUTE_ID = "lam";
+
+    @Param({"allowed", "rejected"})
+    public String mode;
+
+    @Param({"16", "1000000"})
+    public int principals;
+
+    private RateLimiter rateLimiter;
+    private String[] names;
+
+    @Setup
+    public void setUp() {
+        RateLimits rateLimits = new RateLimits();
+        rateLimits.setEnabled(true);
+        rateLimits.setMaxKeys(100_000);
+        RateLimits.Limit limit = new RateLimits.Limit();
+        if ("allowed".equals(mode)) {
+            limit.setReplenishRate(1_000_000_000L);
+            limit.setBurstCapacity(1_000_000_000L);
+        } else {
+            limit.setReplenishRate(1);
+            limit.setBurstCapacity(1);
+        }
+        rateLimits.getDefaults().setPrincipal(limit);
+        rateLimiter = new RateLimiter();
+        rateLimiter.setRateLimits(rateLimits);
+        rateLimiter.setMeterRegistry(new SimpleMeterRegistry());
+        rateLimiter.start();
+        names = new String[Math.min(principals, 1 << 20)];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "user-" + i;
+        }
+    }
+
+    @Benchmark
+    public RateLimiter.Decision check() {
+        return rateLimiter.check(ROUTE_ID, names[ThreadLocalRandom.current().nextInt(names.length)]);
+    }
+}
@@ -0,0 +1,77 @@
+package ru.example.gateway.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.http.HttpMethod;
+
+import java.util.concurrent.TimeUnit;
+
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.routing.RouteIndex;
+
+/**
+ * Поиск маршрута со схемой по методу и пути ({@link RouteIndex#find}, заменил перебор isSchemaMapContainsPath)
+ * при растущем количестве маршрутов
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteIndexBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int routes;
+
+    private RouteIndex routeIndex;
+    private String literalPath;
+    private String templatedPath;
+    private String numericIdPath;
+    private String missingPath;
+
+    @Setup
+    public void setUp() {
+        RouteIndex.Builder builder = RouteIndex.builder();
+        for (int i = 0; i < routes / 2; i++) {
+            builder.add(HttpMethod.POST, "/lam/service" + i + "/resource" + i + "/action", null);
+            builder.add(HttpMethod.POST, "/lam/service" + i + "/orders/{id:int}/items/{itemId}", null);
+        }
+        routeIndex = builder.build();
+        int last = routes / 2 - 1;
+        literalPath = "/lam/service" + last + "/resource" + last + "/action";
+        templatedPath = "/lam/service" + last + "/orders/42/items/a-1";
+        numericIdPath = "/lam/service" + last + "/resource" + last + "/action/42";
+        missingPath = "/lam/service" + last + "/resource" + last + "/unknown";
+    }
+
+    @Benchmark
+    public Route literal() {
+        return routeIndex.find(HttpMethod.POST, literalPath);
+    }
+
+    @Benchmark
+    public Route templated() {
+        return routeIndex.find(HttpMethod.POST, templatedPath);
+    }
+
+    @Benchmark
+    public Route trailingNumericId() {
+        return routeIndex.find(HttpMethod.POST, numericIdPath);
+    }
+
+    @Benchmark
+    public Route missing() {
+        return routeIndex.find(HttpMethod.POST, missingPath);
+    }
+}
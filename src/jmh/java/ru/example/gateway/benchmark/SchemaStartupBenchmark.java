@@ -0,0 +1,120 @@
+package ru.example.gateway.benchmark;
+
+import org.eclipse.jgit.api.Git;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import ru.example.gateway.service.LocalRepoService;
+import ru.example.gateway.service.SchemaRegistry;
+import ru.example.gateway.service.SchemaSnapshotService;
+
+/**
+ * Время готовности схем при запуске нового пода: клонирование репозитория и чтение файлов против чтения снимка
+ * с диска. В обоих случаях время включает компиляцию всех схем. GitLab заменен локальным репозиторием (file://),
+ * поэтому реальная разница больше на величину сетевых задержек
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SchemaStartupBenchmark {
+
+    @Param({"100", "500"})
+    public int files;
+
+    @Param({"false", "true"})
+    public boolean snapshot;
+
+    private Path directory;
+    private Path remote;
+    private Path local;
+    private Path snapshotFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("schema-startup");
+        remote = createRemote(directory.resolve("remote"), files);
+        local = directory.resolve("local");
+        snapshotFile = directory.resolve("schemas.snapshot");
+        //первый запуск сохраняет снимок
+        registry().init();
+    }
+
+    /**
+     * Новый под: локального репозитория нет, снимок есть только на подключенном томе
+     */
+    @Setup(Level.Invocation)
+    public void newPod() throws IOException {
+        FileSystemUtils.deleteRecursively(local);
+        if (!snapshot) {
+            Files.deleteIfExists(snapshotFile);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public SchemaRegistry timeToReady() throws Exception {
+        SchemaRegistry registry = registry();
+        registry.init();
+        registry.getJsonFiles().keySet().forEach(registry::getSchema);
+        return registry;
+    }
+
+    private SchemaRegistry registry() {
+        LocalRepoService localRepoService = new LocalRepoService();
+        ReflectionTestUtils.setField(localRepoService, "gitlabUsername", "");
+        ReflectionTestUtils.setField(localRepoService, "gitlabPassword", "");
+        ReflectionTestUtils.setField(localRepoService, "pathToLocalRepo", local.toString());
+        ReflectionTestUtils.setField(localRepoService, "pathToRemoteRepo", remote.toUri().toString());
+        SchemaSnapshotService snapshotService = new SchemaSnapshotService();
+        ReflectionTestUtils.setField(snapshotService, "snapshotPath", snapshotFile.toString());
+        SchemaRegistry registry = new SchemaRegistry();
+        registry.setLocalRepoService(localRepoService);
+        registry.setSnapshotService(snapshotService);
+        return registry;
+    }
+
+    private static Path createRemote(Path remote, int files) throws Exception {
+        try (Git git = Git.init().setDirectory(remote.toFile()).call()) {
+            for (int i = 0; i < files; i++) {
+                Path file = remote.resolve("request/schema" + i + ".json");
+                Files.createDirectories(file.getParent());
+                String schema = "{\"$schema\":\"https://json-schema.org/draft/2020-12/schema\",\"type\":\"object\","
+                        + "\"properties\":{\"id\":{\"type\":\"integer\"},\"name\":{\"type\":\"string\",\"maxLength\":" + (i + 1)
+                        + "},\"tags\":{\"type\":\"array\",\"items\":{\"type\":\"string\"}}},\"required\":[\"id\",\"name\"]}";
+                Files.write(file, schema.getBytes(StandardCharsets.UTF_8));
+            }
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("schemas").setAuthor("benchmark", "benchmark@localhost")
+                    .setCommitter("benchmark", "benchmark@localhost").call();
+        }
+        return remote;
+    }
+}
@@ -0,0 +1,109 @@
+package ru.example.gateway.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ru.example.gateway.cache.ValidationResultCache;
+import ru.example.gateway.config.exception.ValidationException;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.routing.RouteIndex;
+import ru.example.gateway.service.implementation.RequestValidationService;
+import ru.example.gateway.service.implementation.ResponseValidationService;
+
+/**
+ * Валидация тел запросов и ответов: по строке (validate(method, body, path)) и по частям тела, как в фильтрах
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public String size;
+
+    @Param({"true", "false"})
+    public boolean valid;
+
+    private RequestValidationService requestValidationService;
+    private ResponseValidationService responseValidationService;
+    private Route requestRoute;
+    private Route responseRoute;
+    private String body;
+    private List<DataBuffer> chunks;
+
+    @Setup
+    public void setUp() {
+        RouteIndex routeIndex = BenchmarkData.routeIndex(BenchmarkData.schema());
+        ValidationResultCache validationResultCache = BenchmarkData.validationResultCache(BenchmarkData.validateActivator(false));
+        requestValidationService = BenchmarkData.requestValidationService(routeIndex, validationResultCache);
+        responseValidationService = BenchmarkData.responseValidationService(routeIndex, validationResultCache);
+        requestRoute = requestValidationService.getRoute(HttpMethod.POST, BenchmarkData.PATH);
+        responseRoute = responseValidationService.getRoute(HttpMethod.POST, BenchmarkData.PATH);
+        body = BenchmarkData.body(BenchmarkData.Size.valueOf(size), valid);
+        chunks = BenchmarkData.chunks(new DefaultDataBufferFactory(), BenchmarkData.bytes(body));
+    }
+
+    @TearDown
+    public void tearDown() {
+        chunks.forEach(DataBufferUtils::release);
+    }
+
+    @Benchmark
+    public Object requestFromString() {
+        try {
+            return requestValidationService.validate("post", body, BenchmarkData.PATH);
+        } catch (ValidationException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object requestFromBuffers() {
+        try {
+            requestValidationService.validate(requestRoute, chunks);
+            return requestRoute;
+        } catch (ValidationException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object responseFromString() {
+        try {
+            return responseValidationService.validate("post", body, BenchmarkData.PATH);
+        } catch (ValidationException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object responseFromBuffers() {
+        try {
+            responseValidationService.validate(responseRoute, chunks);
+            return responseRoute;
+        } catch (ValidationException e) {
+            return e;
+        }
+    }
+}
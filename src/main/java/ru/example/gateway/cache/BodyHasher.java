@@ -0,0 +1,121 @@
+package ru.example.gateway.cache;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * 64-битный хэш тела SipHash-2-4 для ключей кэша результатов валидации. Ключ хэша случайный и создается при запуске
+ * процесса, поэтому подобрать тело с тем же хэшем, что у уже проверенного, можно только перебором.
+ * Читает буферы через {@link DataBuffer#asByteBuffer()} без копирования и не изменяя их позиции. Результат не зависит
+ * от того, как тело разбито на части
+ */
+public final class BodyHasher {
+
+    private static final long[] PROCESS_KEY = randomKey();
+
+    //состояние v0..v3
+    private final long[] v = new long[4];
+    private long pending;
+    private int pendingBytes;
+    private long length;
+
+    public BodyHasher() {
+        this(PROCESS_KEY[0], PROCESS_KEY[1]);
+    }
+
+    /**
+     * @param k0 первая половина 128-битного ключа (little-endian)
+     * @param k1 вторая половина ключа
+     */
+    BodyHasher(long k0, long k1) {
+        v[0] = k0 ^ 0x736f6d6570736575L;
+        v[1] = k1 ^ 0x646f72616e646f6dL;
+        v[2] = k0 ^ 0x6c7967656e657261L;
+        v[3] = k1 ^ 0x7465646279746573L;
+    }
+
+    /**
+     * Считает хэш тела, разбитого на части
+     *
+     * @param dataBuffers части тела
+     * @return хэш
+     */
+    public static long hash(List<? extends DataBuffer> dataBuffers) {
+        BodyHasher hasher = new BodyHasher();
+        for (DataBuffer dataBuffer : dataBuffers) {
+            hasher.update(dataBuffer);
+        }
+        return hasher.getValue();
+    }
+
+    public void update(DataBuffer dataBuffer) {
+        update(dataBuffer.asByteBuffer());
+    }
+
+    void update(ByteBuffer buffer) {
+        ByteBuffer byteBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        length += byteBuffer.remaining();
+        while (byteBuffer.hasRemaining()) {
+            if (pendingBytes == 0 && byteBuffer.remaining() >= Long.BYTES) {
+                compress(byteBuffer.getLong());
+            } else {
+                pending |= (byteBuffer.get() & 0xFFL) << (pendingBytes * 8);
+                if (++pendingBytes == Long.BYTES) {
+                    compress(pending);
+                    pending = 0;
+                    pendingBytes = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return хэш полученных частей, состояние не меняется
+     */
+    public long getValue() {
+        long[] v = this.v.clone();
+        long last = (length & 0xFFL) << 56 | pending;
+        v[3] ^= last;
+        round(v);
+        round(v);
+        v[0] ^= last;
+        v[2] ^= 0xFF;
+        for (int i = 0; i < 4; i++) {
+            round(v);
+        }
+        return v[0] ^ v[1] ^ v[2] ^ v[3];
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    private void compress(long m) {
+        v[3] ^= m;
+        round(v);
+        round(v);
+        v[0] ^= m;
+    }
+
+    private static void round(long[] v) {
+        v[0] += v[1];
+        v[1] = Long.rotateLeft(v[1], 13) ^ v[0];
+        v[0] = Long.rotateLeft(v[0], 32);
+        v[2] += v[3];
+        v[3] = Long.rotateLeft(v[3], 16) ^ v[2];
+        v[0] += v[3];
+        v[3] = Long.rotateLeft(v[3], 21) ^ v[0];
+        v[2] += v[1];
+        v[1] = Long.rotateLeft(v[1], 17) ^ v[2];
+        v[2] = Long.rotateLeft(v[2], 32);
+    }
+
+    private static long[] randomKey() {
+        SecureRandom random = new SecureRandom();
+        return new long[]{random.nextLong(), random.nextLong()};
+    }
+}
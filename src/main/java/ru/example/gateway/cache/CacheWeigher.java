@@ -0,0 +1,81 @@
+package ru.example.gateway.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.networknt.schema.JsonSchema;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+
+import ru.example.gateway.config.exception.ValidationException;
+
+/**
+ * Оценивает размер записей кэша в байтах для ограничения кэшей по maximumWeight. Размер схемы считается по ее
+ * json представлению, поэтому кэши со схемами ограничиваются пропорционально объему схем, а не их количеству
+ */
+public class CacheWeigher implements Weigher<Object, Object> {
+
+    private static final int OBJECT_OVERHEAD = 16;
+
+    @Override
+    public int weigh(Object key, Object value) {
+        return (int) Math.min(Integer.MAX_VALUE, estimate(key) + estimate(value));
+    }
+
+    /**
+     * @param value значение
+     * @return примерный размер значения в байтах
+     */
+    public static long estimate(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof JsonSchema) {
+            return estimate(((JsonSchema) value).getSchemaNode());
+        } else if (value instanceof JsonNode) {
+            return estimateNode((JsonNode) value);
+        } else if (value instanceof CharSequence) {
+            return OBJECT_OVERHEAD + 2L * ((CharSequence) value).length();
+        } else if (value instanceof Map) {
+            long size = OBJECT_OVERHEAD;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += OBJECT_OVERHEAD + estimate(entry.getKey()) + estimate(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof Collection) {
+            long size = OBJECT_OVERHEAD;
+            for (Object element : (Collection<?>) value) {
+                size += estimate(element);
+            }
+            return size;
+        } else if (value instanceof ValidationException) {
+            return OBJECT_OVERHEAD + estimate(((ValidationException) value).getDetails());
+        }
+        return OBJECT_OVERHEAD;
+    }
+
+    private static long estimateNode(JsonNode root) {
+        long size = 0;
+        Deque<JsonNode> nodes = new ArrayDeque<>();
+        nodes.push(root);
+        while (!nodes.isEmpty()) {
+            JsonNode node = nodes.pop();
+            size += OBJECT_OVERHEAD;
+            if (node.isObject()) {
+                Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    size += OBJECT_OVERHEAD + 2L * field.getKey().length();
+                    nodes.push(field.getValue());
+                }
+            } else if (node.isArray()) {
+                node.forEach(nodes::push);
+            } else if (node.isTextual()) {
+                size += 2L * node.textValue().length();
+            }
+        }
+        return size;
+    }
+}
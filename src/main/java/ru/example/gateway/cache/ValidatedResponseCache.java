@@ -0,0 +1,272 @@
+package ru.example.gateway.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.networknt.schema.JsonSchema;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import ru.example.gateway.model.ResponseCaching;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.routing.RouteIndex;
+
+/**
+ * Кэш проверенных ответов на GET запросы маршрутов из {@link ResponseCaching}. Тела хранятся вне кучи
+ * (в direct {@link ByteBuffer}) и отдаются клиентам без копирования, заголовки - в куче. Размер кэша ограничен
+ * суммарным размером тел. Запись действительна, пока схема маршрута не изменилась: при формировании нового индекса
+ * маршрутов ответов удаляются записи маршрутов, схема которых перекомпилирована или удалена ({@link #retain}).
+ * Статистика публикуется в метриках 'cache.*' с тегом cache={@link #CACHE_NAME}, объем тел - в {@link #BYTES},
+ * результаты обращений - в {@link #REQUESTS} с тегом result
+ */
+@Component
+@Slf4j
+public class ValidatedResponseCache {
+
+    public static final String CACHE_NAME = "validatedResponses";
+    public static final String REQUESTS = "gateway.response.cache.requests";
+    public static final String BYTES = "gateway.response.cache.bytes";
+
+    //заголовки, которые относятся к отдельному ответу или клиенту и не сохраняются
+    private static final List<String> EXCLUDED_HEADERS = Arrays.asList(HttpHeaders.CONNECTION, "Keep-Alive",
+            HttpHeaders.TRANSFER_ENCODING, HttpHeaders.SET_COOKIE, HttpHeaders.AGE, HttpHeaders.CONTENT_LENGTH,
+            "RateLimit-Limit", "RateLimit-Remaining", "RateLimit-Reset");
+    //примерный объем заголовков записи в куче
+    private static final int HEADERS_WEIGHT = 512;
+
+    private ResponseCaching responseCaching;
+    private MeterRegistry meterRegistry;
+
+    private Cache<Key, Entry> cache;
+    private final Map<Result, Counter> requests = new EnumMap<>(Result.class);
+
+    @Autowired
+    public void setResponseCaching(ResponseCaching responseCaching) {
+        this.responseCaching = responseCaching;
+    }
+
+    @Autowired
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(responseCaching.getMaxSize().toBytes())
+                .weigher((Key key, Entry entry) -> entry.body.capacity() + HEADERS_WEIGHT)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        Gauge.builder(BYTES, this, ValidatedResponseCache::bytes)
+                .description("Size of cached response bodies stored off-heap")
+                .register(meterRegistry);
+        for (Result result : Result.values()) {
+            requests.put(result, Counter.builder(REQUESTS)
+                    .description("Requests to cached routes by result")
+                    .tag("result", result.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * После обновления свойств из Configuration Server применяет новый размер кэша
+     */
+    @EventListener(RefreshScopeRefreshedEvent.class)
+    public void applySettings(RefreshScopeRefreshedEvent event) {
+        cache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(responseCaching.getMaxSize().toBytes()));
+    }
+
+    /**
+     * @param route маршрут, по схеме которого проверен ответ
+     * @param key   ключ запроса
+     * @return сохраненный ответ или null, если его нет или он проверен по другой схеме
+     */
+    public Entry find(Route route, Key key) {
+        Entry entry = cache.getIfPresent(key);
+        if (entry != null && entry.schema != route.getSchema()) {
+            cache.invalidate(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Сохраняет проверенный ответ
+     *
+     * @param route     маршрут, по схеме которого проверен ответ
+     * @param key       ключ запроса
+     * @param headers   заголовки ответа
+     * @param body      части тела ответа
+     * @param size      размер тела
+     * @param freshness время свежести ответа
+     */
+    public void put(Route route, Key key, HttpHeaders headers, List<byte[]> body, int size, Duration freshness) {
+        ByteBuffer stored = ByteBuffer.allocateDirect(size);
+        body.forEach(stored::put);
+        stored.flip();
+        cache.put(key, new Entry(route.getTemplate(), route.getSchema(), storedHeaders(headers), stored.asReadOnlyBuffer(),
+                System.currentTimeMillis(), freshness));
+    }
+
+    /**
+     * Обновляет запись после подтверждения сервисом (ответ 304): заголовки ответа 304 заменяют сохраненные,
+     * тело остается прежним
+     *
+     * @return обновленная запись
+     */
+    public Entry revalidated(Key key, Entry entry, HttpHeaders notModified, Duration freshness) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(entry.headers);
+        headers.putAll(storedHeaders(notModified));
+        Entry updated = new Entry(entry.template, entry.schema, HttpHeaders.readOnlyHttpHeaders(headers), entry.body,
+                System.currentTimeMillis(), freshness);
+        cache.put(key, updated);
+        return updated;
+    }
+
+    public void remove(Key key) {
+        cache.invalidate(key);
+    }
+
+    /**
+     * Удаляет записи маршрутов, которых нет в новом индексе или схема которых изменилась
+     *
+     * @param routeIndex новый индекс маршрутов ответов
+     */
+    public void retain(RouteIndex routeIndex) {
+        if (cache == null) {
+            return;
+        }
+        Map<String, JsonSchema> schemas = new HashMap<>();
+        for (Route route : routeIndex.getRoutes()) {
+            if (route.getMethod() == HttpMethod.GET) {
+                schemas.put(route.getTemplate(), route.getSchema());
+            }
+        }
+        long before = cache.estimatedSize();
+        cache.asMap().values().removeIf(entry -> schemas.get(entry.template) != entry.schema);
+        log.info("Response cache retained {} of {} entries after route index update", cache.estimatedSize(), before);
+    }
+
+    public void invalidate() {
+        cache.invalidateAll();
+    }
+
+    public void record(Result result) {
+        requests.get(result).increment();
+    }
+
+    /**
+     * @return суммарный размер тел в кэше
+     */
+    public long bytes() {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0) - cache.estimatedSize() * HEADERS_WEIGHT)
+                .orElse(0L);
+    }
+
+    /**
+     * @param headers заголовки ответа сервиса
+     * @return неизменяемая копия заголовков без относящихся к отдельному ответу или клиенту (соединение, Set-Cookie,
+     * Age, RateLimit-*), которую можно отдать другим клиентам
+     */
+    public static HttpHeaders storedHeaders(HttpHeaders headers) {
+        HttpHeaders stored = new HttpHeaders();
+        headers.forEach((name, values) -> {
+            if (EXCLUDED_HEADERS.stream().noneMatch(name::equalsIgnoreCase)) {
+                stored.put(name, values);
+            }
+        });
+        return HttpHeaders.readOnlyHttpHeaders(stored);
+    }
+
+    /**
+     * Результат обращения к кэшу: hit - ответ из кэша, not_modified - клиенту отправлен ответ 304,
+     * revalidated - сервис подтвердил устаревший ответ (304), miss - ответ получен от сервиса
+     */
+    public enum Result {
+        HIT, NOT_MODIFIED, REVALIDATED, MISS
+    }
+
+    /**
+     * Ключ: шаблон пути маршрута, путь с параметрами запроса и заголовок Accept-Encoding (тело хранится в том виде,
+     * в котором его вернул сервис, в том числе сжатым)
+     */
+    @EqualsAndHashCode
+    public static final class Key {
+        private final String template;
+        private final String uri;
+        private final String acceptEncoding;
+
+        public Key(String template, String uri, String acceptEncoding) {
+            this.template = template;
+            this.uri = uri;
+            this.acceptEncoding = acceptEncoding;
+        }
+    }
+
+    /**
+     * Сохраненный ответ 200: заголовки, тело и время, до которого ответ свежий
+     */
+    @Getter
+    public static final class Entry {
+        private final String template;
+        private final JsonSchema schema;
+        private final HttpHeaders headers;
+        private final ByteBuffer body;
+        private final long storedAt;
+        private final long freshUntil;
+
+        private Entry(String template, JsonSchema schema, HttpHeaders headers, ByteBuffer body, long storedAt, Duration freshness) {
+            this.template = template;
+            this.schema = schema;
+            this.headers = headers;
+            this.body = body;
+            this.storedAt = storedAt;
+            this.freshUntil = storedAt + freshness.toMillis();
+        }
+
+        public boolean isFresh(long now) {
+            return now < freshUntil;
+        }
+
+        /**
+         * @return true, если ответ можно подтвердить условным запросом (есть ETag или Last-Modified)
+         */
+        public boolean hasValidators() {
+            return headers.getETag() != null || headers.getFirst(HttpHeaders.LAST_MODIFIED) != null;
+        }
+
+        /**
+         * @return тело для отправки клиенту, каждый вызов возвращает независимую позицию чтения
+         */
+        public ByteBuffer body() {
+            return body.duplicate();
+        }
+    }
+}
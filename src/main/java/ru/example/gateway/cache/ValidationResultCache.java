@@ -0,0 +1,170 @@
+package ru.example.gateway.cache;
+
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import ru.example.gateway.config.CachingConfig;
+import ru.example.gateway.config.exception.ValidationException;
+import ru.example.gateway.model.ValidateActivator;
+import ru.example.gateway.parser.ContentEncodings;
+import ru.example.gateway.routing.Route;
+
+/**
+ * Кэш результатов валидации для повторяющихся тел запросов и ответов. Ключ - направление, метод, шаблон пути,
+ * версия схем ({@link Route#getVersion()}), сжатие тела, режим разбора ({@link Mode}), длина и хэш тела со случайным
+ * ключом процесса ({@link BodyHasher}).
+ * При попадании в кэш не выполняются ни разбор json, ни валидация по схеме. Включается через
+ * {@link ValidateActivator#isResultCacheOn()}, хранится в кэше {@link CachingConfig#VALIDATION_RESULTS_CACHE}
+ */
+@Component
+@Slf4j
+public class ValidationResultCache {
+
+    /**
+     * Значение для успешной валидации
+     */
+    private static final String VALID = "valid";
+
+    private Cache cache;
+    private ValidateActivator validateActivator;
+
+    @Autowired
+    public void setCacheManager(CacheManager cacheManager) {
+        this.cache = cacheManager.getCache(CachingConfig.VALIDATION_RESULTS_CACHE);
+    }
+
+    @Autowired
+    public void setValidateActivator(ValidateActivator validateActivator) {
+        this.validateActivator = validateActivator;
+    }
+
+    public boolean isEnabled() {
+        return validateActivator.isResultCacheOn();
+    }
+
+    /**
+     * Выполняет валидацию несжатого тела, разобранного целиком, с использованием кэша: если тело с таким же хэшем
+     * уже проверялось для этого маршрута и версии схем, то возвращает сохраненный результат (или выбрасывает
+     * сохраненное исключение), иначе выполняет validation и сохраняет ее результат
+     *
+     * @param direction   направление (запрос/ответ)
+     * @param route       маршрут со схемой
+     * @param dataBuffers части тела
+     * @param validation  разбор и валидация тела
+     * @throws ValidationException если тело не прошло валидацию
+     */
+    public void validate(Direction direction, Route route, List<? extends DataBuffer> dataBuffers, Runnable validation) {
+        validate(direction, route, dataBuffers, null, Mode.BODY, validation);
+    }
+
+    /**
+     * Выполняет валидацию с использованием кэша. Одинаковые байты тела с разным сжатием или в разном режиме разбора
+     * дают разные результаты, поэтому они входят в ключ
+     *
+     * @param direction       направление (запрос/ответ)
+     * @param route           маршрут со схемой
+     * @param dataBuffers     части тела
+     * @param contentEncoding значение заголовка 'Content-Encoding' или null
+     * @param mode            режим разбора тела
+     * @param validation      разбор и валидация тела
+     * @throws ValidationException если тело не прошло валидацию
+     */
+    public void validate(Direction direction, Route route, List<? extends DataBuffer> dataBuffers, String contentEncoding,
+                         Mode mode, Runnable validation) {
+        if (!isEnabled()) {
+            validation.run();
+            return;
+        }
+        BodyHasher hasher = new BodyHasher();
+        dataBuffers.forEach(hasher::update);
+        validate(direction, route, hasher, contentEncoding, mode, validation);
+    }
+
+    /**
+     * Выполняет валидацию с использованием кэша по хэшу, уже посчитанному из частей тела. Используется, когда части
+     * по мере получения передаются и в потоковый парсер, и в {@link BodyHasher}
+     *
+     * @param direction       направление (запрос/ответ)
+     * @param route           маршрут со схемой
+     * @param hasher          хэш всех частей тела
+     * @param contentEncoding значение заголовка 'Content-Encoding' или null
+     * @param mode            режим разбора тела
+     * @param validation      завершение разбора и валидация тела
+     * @throws ValidationException если тело не прошло валидацию
+     */
+    public void validate(Direction direction, Route route, BodyHasher hasher, String contentEncoding, Mode mode,
+                         Runnable validation) {
+        if (!isEnabled()) {
+            validation.run();
+            return;
+        }
+        Key key = new Key(direction, route.getMethod(), route.getTemplate(), route.getVersion(),
+                ContentEncodings.normalize(contentEncoding), mode, hasher.getLength(), hasher.getValue());
+        Object cached = cache.get(key, Object.class);
+        if (cached != null) {
+            log.debug("Validation result for {} {} found in cache", direction, route);
+            if (cached instanceof ValidationException) {
+                throw (ValidationException) cached;
+            }
+            return;
+        }
+        try {
+            validation.run();
+        } catch (ValidationException e) {
+            cache.put(key, e);
+            throw e;
+        }
+        cache.put(key, VALID);
+    }
+
+    /**
+     * Удаляет все результаты. Вызывается при формировании новых индексов маршрутов (обновлении схем)
+     */
+    public void invalidate() {
+        cache.invalidate();
+    }
+
+    public enum Direction {
+        REQUEST, RESPONSE
+    }
+
+    /**
+     * Режим разбора тела: целиком, по элементам массива верхнего уровня или по записям NDJSON
+     */
+    public enum Mode {
+        BODY, ELEMENTS, NDJSON
+    }
+
+    @EqualsAndHashCode
+    private static final class Key {
+        private final Direction direction;
+        private final HttpMethod method;
+        private final String template;
+        private final long version;
+        private final String encoding;
+        private final Mode mode;
+        private final long length;
+        private final long hash;
+
+        private Key(Direction direction, HttpMethod method, String template, long version, String encoding, Mode mode,
+                    long length, long hash) {
+            this.direction = direction;
+            this.method = method;
+            this.template = template;
+            this.version = version;
+            this.encoding = encoding;
+            this.mode = mode;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+}
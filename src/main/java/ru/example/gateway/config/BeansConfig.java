@@ -1,8 +1,6 @@
 package ru.example.gateway.config;
 
 import com.networknt.schema.JsonSchema;
-import com.networknt.schema.JsonSchemaFactory;
-import com.networknt.schema.SpecVersion;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -15,13 +13,24 @@ import org.springframework.cloud.context.config.annotation.RefreshScope;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.DependsOn;
+import org.springframework.http.HttpMethod;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import ru.example.gateway.service.LocalRepoService;
+import ru.example.gateway.cache.ValidatedResponseCache;
+import ru.example.gateway.cache.ValidationResultCache;
+import ru.example.gateway.metrics.ValidationMetrics;
+import ru.example.gateway.model.ValidationPolicies;
+import ru.example.gateway.routing.RouteIndex;
+import ru.example.gateway.sampling.ResponseSampler;
+import ru.example.gateway.service.SchemaRegistry;
 
 /**
  * Класс для конфигурации бинов. Формируются в порядке расположения (@DependsOn)
@@ -30,29 +39,72 @@ import ru.example.gateway.service.LocalRepoService;
 @Slf4j
 public class BeansConfig {
 
-    LocalRepoService localRepoService;
+    public static final String REQUEST_ROUTE_INDEX = "requestRouteIndex";
+    public static final String RESPONSE_ROUTE_INDEX = "responseRouteIndex";
+
+    /**
+     * Бины, которые нужно пересоздать после изменения json файлов в репозитории
+     */
+    public static final List<String> SCHEMA_BEANS = Collections.unmodifiableList(Arrays.asList(
+            "responseSchemaMap", "requestSchemaMap", RESPONSE_ROUTE_INDEX, REQUEST_ROUTE_INDEX));
+
+    SchemaRegistry schemaRegistry;
+
+    ValidationResultCache validationResultCache;
+
+    ValidationPolicies validationPolicies;
+
+    ValidatedResponseCache validatedResponseCache;
+
+    ValidationMetrics validationMetrics;
+
+    ResponseSampler responseSampler;
 
     @Autowired
-    public void setLocalRepoService(LocalRepoService localRepoService) {
-        this.localRepoService = localRepoService;
+    public void setSchemaRegistry(SchemaRegistry schemaRegistry) {
+        this.schemaRegistry = schemaRegistry;
+    }
+
+    @Autowired
+    public void setValidationResultCache(ValidationResultCache validationResultCache) {
+        this.validationResultCache = validationResultCache;
+    }
+
+    @Autowired
+    public void setValidationPolicies(ValidationPolicies validationPolicies) {
+        this.validationPolicies = validationPolicies;
+    }
+
+    @Autowired
+    public void setValidatedResponseCache(ValidatedResponseCache validatedResponseCache) {
+        this.validatedResponseCache = validatedResponseCache;
+    }
+
+    @Autowired
+    public void setValidationMetrics(ValidationMetrics validationMetrics) {
+        this.validationMetrics = validationMetrics;
+    }
+
+    @Autowired
+    public void setResponseSampler(ResponseSampler responseSampler) {
+        this.responseSampler = responseSampler;
     }
 
     /**
-     * Вызывает {@link LocalRepoService} для обновления локального репозитория и считывания файлов из него
+     * Вызывает {@link SchemaRegistry} для считывания json файлов из снимка на диске или из локального репозитория.
+     * При обновлении конфигурации бин не пересоздается: {@link SchemaRegistry#refresh()} применяет к нему
+     * только изменения между коммитами
      *
      * @return Map с полными путями файлов json и их содержимым в строковом представлении
      */
-    @RefreshScope
     @Bean(name = "localJsonFiles")
     public Map<String, String> localJsonFiles() {
-        Map<String, String> mapWithJsonFiles;
         try {
-            localRepoService.getRepoToLocal();
-            mapWithJsonFiles = localRepoService.formTextSchemasFromLocalRepo();
+            schemaRegistry.init();
         } catch (GitAPIException | IOException e) {
             throw new RuntimeException(e);
         }
-        return mapWithJsonFiles;
+        return schemaRegistry.getJsonFiles();
     }
 
     /**
@@ -82,7 +134,8 @@ public class BeansConfig {
     }
 
     /**
-     * Формируем bean с методами, путями запросов и схемами валидации для ответов
+     * Формируем bean с методами, путями запросов и схемами валидации для ответов. Схемы компилируются с политиками
+     * маршрутов из {@link ValidationPolicies}
      *
      * @return Map с методом, путем запроса и схемой для проверки тела ответа
      */
@@ -97,7 +150,8 @@ public class BeansConfig {
                         e -> e.getValue().entrySet().parallelStream()
                                 .collect(Collectors.toMap(
                                         x -> formUrlPath(x.getKey()),
-                                        x -> getJsonSchemaFromStringContent(localJsonFiles().get(x.getValue().toLowerCase()))
+                                        x -> schemaRegistry.getSchema(x.getValue(),
+                                                validationPolicies.responsePolicy(formUrlPath(x.getKey())))
                                 ))
                 ));
         log.info("'responseSchemaMap' bean formed with paths: {}", responseSchemaMapWithMethod.keySet());
@@ -105,7 +159,8 @@ public class BeansConfig {
     }
 
     /**
-     * Формируем bean с методами, путями запросов и схемами валидации для запросов
+     * Формируем bean с методами, путями запросов и схемами валидации для запросов. Схемы компилируются с политиками
+     * маршрутов из {@link ValidationPolicies}
      *
      * @return Map с методом, путем запроса и схемой для проверки тела запроса
      */
@@ -120,7 +175,8 @@ public class BeansConfig {
                         e -> e.getValue().entrySet().parallelStream()
                                 .collect(Collectors.toMap(
                                         x -> formUrlPath(x.getKey()),
-                                        x -> getJsonSchemaFromStringContent(localJsonFiles().get(x.getValue().toLowerCase()))
+                                        x -> schemaRegistry.getSchema(x.getValue(),
+                                                validationPolicies.requestPolicy(formUrlPath(x.getKey())))
                                 ))
                 ));
         log.info("'requestSchemaMap' bean formed with paths: {}", requestSchemaMapWithMethod.keySet());
@@ -128,28 +184,163 @@ public class BeansConfig {
     }
 
     /**
-     * Фабрика для создания {@link JsonSchema}
+     * Формируем индекс маршрутов для валидации ответов на основе {@link #responseSchemaMap()}.
+     * Из {@link ValidatedResponseCache} удаляются ответы маршрутов, схема которых изменилась, из метрик и выборки
+     * ответов - маршруты прежнего индекса
+     *
+     * @return {@link RouteIndex} с методами, шаблонами путей и схемами для проверки тела ответа
+     */
+    @RefreshScope
+    @Bean(name = RESPONSE_ROUTE_INDEX)
+    @DependsOn("responseSchemaMap")
+    public RouteIndex responseRouteIndex() {
+        RouteIndex routeIndex = formRouteIndex(responseSchemaMap(), validationPolicies::responsePolicy, responseElementSchemaMap());
+        log.info("'responseRouteIndex' bean formed with {} routes", routeIndex.size());
+        validatedResponseCache.retain(routeIndex);
+        validationMetrics.retain(ValidationResultCache.Direction.RESPONSE, routeIndex);
+        responseSampler.retain(routeIndex);
+        return routeIndex;
+    }
+
+    /**
+     * Формируем индекс маршрутов для валидации запросов на основе {@link #requestSchemaMap()}
      *
-     * @param schemaContent строка содержащая схему валидации
-     * @return {@link JsonSchema}
+     * @return {@link RouteIndex} с методами, шаблонами путей и схемами для проверки тела запроса
      */
-    private JsonSchema getJsonSchemaFromStringContent(String schemaContent) {
-        JsonSchemaFactory factory = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V202012);
+    @RefreshScope
+    @Bean(name = REQUEST_ROUTE_INDEX)
+    @DependsOn("requestSchemaMap")
+    public RouteIndex requestRouteIndex() {
+        RouteIndex routeIndex = formRouteIndex(requestSchemaMap(), validationPolicies::requestPolicy, Collections.emptyMap());
+        log.info("'requestRouteIndex' bean formed with {} routes", routeIndex.size());
+        validationMetrics.retain(ValidationResultCache.Direction.REQUEST, routeIndex);
+        return routeIndex;
+    }
 
-        return factory.getSchema(schemaContent);
+    /**
+     * Применяет изменения json файлов к действующим индексам маршрутов без пересоздания бинов. Используется, когда
+     * свойства из Configuration Server не изменились: маршрутам, схемы которых {@link SchemaRegistry} перекомпилировал
+     * (из кэша удаляются схемы, прямо или через $ref зависящие от измененных файлов), назначаются новые схемы,
+     * остальные маршруты не меняются
+     *
+     * @return количество маршрутов с замененными схемами
+     * @throws IllegalArgumentException если файла схемы маршрута больше нет в репозитории
+     */
+    public int applySchemaChanges() {
+        int updated = updateRoutes(responseRouteIndex(), responseSchemaMap(), responseSchema(), validationPolicies::responsePolicy, true)
+                + updateRoutes(requestRouteIndex(), requestSchemaMap(), requestSchema(), validationPolicies::requestPolicy, false);
+        if (updated > 0) {
+            validationResultCache.invalidate();
+            validatedResponseCache.retain(responseRouteIndex());
+            validationMetrics.retain(ValidationResultCache.Direction.RESPONSE, responseRouteIndex());
+            validationMetrics.retain(ValidationResultCache.Direction.REQUEST, requestRouteIndex());
+            responseSampler.retain(responseRouteIndex());
+        }
+        log.info("Json schemas replaced in place for {} routes", updated);
+        return updated;
     }
 
     /**
-     * Превращает название свойств в путь запроса
+     * Заменяет в индексе схемы маршрутов, для которых {@link SchemaRegistry} вернул другой экземпляр схемы
+     *
+     * @param routeIndex индекс маршрутов
+     * @param schemaMap Map с методом, путем запроса и схемой, из которой построен индекс
+     * @param files Map с методом, путем запроса (в виде ключа свойства) и полным именем файла со схемой
+     * @param policies политики валидации маршрутов по шаблону пути
+     * @param elements true, если у маршрутов есть схемы элементов (ответы)
+     * @return количество маршрутов с замененными схемами
+     */
+    private int updateRoutes(RouteIndex routeIndex, Map<String, Map<String, JsonSchema>> schemaMap,
+                             Map<String, Map<String, String>> files, Function<String, ValidationPolicies.Policy> policies,
+                             boolean elements) {
+        int updated = 0;
+        for (Map.Entry<String, Map<String, String>> methodFiles : files.entrySet()) {
+            HttpMethod httpMethod = HttpMethod.resolve(methodFiles.getKey().toUpperCase());
+            Map<String, JsonSchema> schemas = schemaMap.get(methodFiles.getKey());
+            if (httpMethod == null || schemas == null) {
+                continue;
+            }
+            for (Map.Entry<String, String> file : methodFiles.getValue().entrySet()) {
+                String path = formUrlPath(file.getKey());
+                ValidationPolicies.Policy policy = policies.apply(path);
+                JsonSchema schema = schemaRegistry.getSchema(file.getValue(), policy);
+                JsonSchema elementSchema = elements ? schemaRegistry.getElementSchema(file.getValue(), policy) : null;
+                if (routeIndex.update(httpMethod, path, schema, elementSchema) != null) {
+                    schemas.put(path, schema);
+                    updated++;
+                }
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Собирает схемы элементов для ответов, схема которых - массив с 'items' (см. {@link SchemaRegistry#getElementSchema})
+     *
+     * @return Map с методом, путем запроса и схемой элемента массива, только для таких ответов
+     */
+    private Map<String, Map<String, JsonSchema>> responseElementSchemaMap() {
+        Map<String, Map<String, JsonSchema>> elementSchemaMap = new HashMap<>();
+        responseSchema().forEach((method, schemas) -> schemas.forEach((key, fileName) -> {
+            String path = formUrlPath(key);
+            JsonSchema elementSchema = schemaRegistry.getElementSchema(fileName, validationPolicies.responsePolicy(path));
+            if (elementSchema != null) {
+                elementSchemaMap.computeIfAbsent(method, m -> new HashMap<>()).put(path, elementSchema);
+            }
+        }));
+        return elementSchemaMap;
+    }
+
+    /**
+     * Строит {@link RouteIndex} из Map с методами (в нижнем регистре), путями и схемами
+     *
+     * @param schemaMap Map с методом, путем запроса и схемой
+     * @param policies политики валидации маршрутов по шаблону пути
+     * @param elementSchemaMap Map с методом, путем запроса и схемой элемента массива для поэлементной валидации
+     * @return индекс маршрутов
+     */
+    private RouteIndex formRouteIndex(Map<String, Map<String, JsonSchema>> schemaMap,
+                                      Function<String, ValidationPolicies.Policy> policies,
+                                      Map<String, Map<String, JsonSchema>> elementSchemaMap) {
+        //результаты валидации по старым схемам больше не нужны (и не будут найдены, так как версия индекса в ключе)
+        validationResultCache.invalidate();
+        RouteIndex.Builder builder = RouteIndex.builder();
+        schemaMap.forEach((method, schemas) -> {
+            HttpMethod httpMethod = HttpMethod.resolve(method.toUpperCase());
+            if (httpMethod == null) {
+                log.warn("Unknown http method '{}' in validation config, paths {} are skipped", method, schemas.keySet());
+                return;
+            }
+            Map<String, JsonSchema> elementSchemas = elementSchemaMap.getOrDefault(method, Collections.emptyMap());
+            schemas.forEach((path, schema) -> builder.add(httpMethod, path, schema, elementSchemas.get(path),
+                    policies.apply(path).getMaxErrors()));
+        });
+        return builder.build();
+    }
+
+    /**
+     * Превращает название свойств в шаблон пути запроса. Переменные пути ({id}, {id:uuid}, {id:regex})
+     * переносятся без изменений, в ключе свойства их нужно задавать в квадратных скобках: '[lam.user.{id}]'
      *
      * @param value строковое представление свойств
-     * @return путь входящего запроса
+     * @return шаблон пути входящего запроса
      */
     private String formUrlPath(String value) {
-        String replaceString = value.replace(".", "/");
-        StringBuilder pathBuilder = new StringBuilder(replaceString);
-        pathBuilder.insert(0, "/");
-        return pathBuilder.toString().toLowerCase();
+        StringBuilder pathBuilder = new StringBuilder(value.length() + 1).append('/');
+        boolean inVariable = false;
+        for (char c : value.toCharArray()) {
+            if (c == '{') {
+                inVariable = true;
+            } else if (c == '}') {
+                inVariable = false;
+            }
+            if (inVariable) {
+                pathBuilder.append(c);
+            } else {
+                pathBuilder.append(c == '.' ? '/' : Character.toLowerCase(c));
+            }
+        }
+        return pathBuilder.toString();
     }
 
 
@@ -1,29 +1,132 @@
 package ru.example.gateway.config;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
 
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCache;
 import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import ru.example.gateway.cache.CacheWeigher;
+import ru.example.gateway.model.CachePolicies;
 
 /**
- * Конфигурирует спринговый кэш на основе Caffeine
+ * Конфигурирует спринговый кэш на основе Caffeine. Размер, время жизни и сбор статистики задаются для каждого кэша
+ * в {@link CachePolicies}. Статистика кэшей, созданных при старте, публикуется actuator в метриках 'cache.*'
  */
 @Configuration
 @EnableCaching
+@Slf4j
 public class CachingConfig {
 
+    /**
+     * Кэш результатов валидации повторяющихся тел ({@link ru.example.gateway.cache.ValidationResultCache})
+     */
+    public static final String VALIDATION_RESULTS_CACHE = "validationResults";
+    public static final String RESPONSE_SCHEMA_CACHE = "responseSchema";
+    public static final String REQUEST_SCHEMAS_CACHE = "requestsSchemas";
+
+    private CachePolicies cachePolicies;
+
+    private CaffeineCacheManager caffeineCacheManager;
+
+    @Autowired
+    public void setCachePolicies(CachePolicies cachePolicies) {
+        this.cachePolicies = cachePolicies;
+    }
+
+    /**
+     * Настройки для кэшей, которые создаются динамически (не перечислены в {@link CachePolicies#getCaches()})
+     */
     @Bean
-    public Caffeine caffeineConfig() {
-        return Caffeine.newBuilder();
+    public Caffeine<Object, Object> caffeineConfig() {
+        return builder("defaults", cachePolicies.getDefaults());
     }
 
     @Bean
-    public CacheManager cacheManager(Caffeine caffeine) {
-        CaffeineCacheManager caffeineCacheManager = new CaffeineCacheManager();
+    public CacheManager cacheManager(Caffeine<Object, Object> caffeine) {
+        caffeineCacheManager = new CaffeineCacheManager();
         caffeineCacheManager.setCaffeine(caffeine);
+        Set<String> cacheNames = new LinkedHashSet<>(Arrays.asList(VALIDATION_RESULTS_CACHE, RESPONSE_SCHEMA_CACHE, REQUEST_SCHEMAS_CACHE));
+        cacheNames.addAll(cachePolicies.getCaches().keySet());
+        for (String cacheName : cacheNames) {
+            Cache<Object, Object> cache = builder(cacheName, cachePolicies.getPolicy(cacheName)).build();
+            caffeineCacheManager.registerCustomCache(cacheName, cache);
+        }
+        log.info("Caches {} created", cacheNames);
         return caffeineCacheManager;
     }
+
+    /**
+     * После обновления свойств из Configuration Server применяет новые размеры и время жизни к существующим кэшам.
+     * Менять можно только ограничения, которые были заданы при создании кэша
+     */
+    @EventListener(RefreshScopeRefreshedEvent.class)
+    public void applyPolicies(RefreshScopeRefreshedEvent event) {
+        for (String cacheName : caffeineCacheManager.getCacheNames()) {
+            org.springframework.cache.Cache cache = caffeineCacheManager.getCache(cacheName);
+            if (cache instanceof CaffeineCache) {
+                applyPolicy(cacheName, ((CaffeineCache) cache).getNativeCache().policy(), cachePolicies.getPolicy(cacheName));
+            }
+        }
+    }
+
+    private void applyPolicy(String cacheName, Policy<Object, Object> policy, CachePolicies.Policy settings) {
+        policy.eviction().ifPresent(eviction -> {
+            if (eviction.isWeighted() && settings.getMaximumWeight() != null) {
+                eviction.setMaximum(settings.getMaximumWeight().toBytes());
+            } else if (!eviction.isWeighted() && settings.getMaximumSize() != null) {
+                eviction.setMaximum(settings.getMaximumSize());
+            }
+        });
+        if (settings.getExpireAfterWrite() != null) {
+            policy.expireAfterWrite().ifPresent(expiration -> expiration.setExpiresAfter(settings.getExpireAfterWrite()));
+        }
+        if (settings.getExpireAfterAccess() != null) {
+            policy.expireAfterAccess().ifPresent(expiration -> expiration.setExpiresAfter(settings.getExpireAfterAccess()));
+        }
+        log.debug("Cache '{}' policy applied", cacheName);
+    }
+
+    /**
+     * Создает построитель Caffeine по настройкам кэша
+     */
+    private static Caffeine<Object, Object> builder(String cacheName, CachePolicies.Policy policy) {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder();
+        if (policy.getMaximumWeight() != null) {
+            builder.maximumWeight(policy.getMaximumWeight().toBytes()).weigher(new CacheWeigher());
+        } else if (policy.getMaximumSize() != null) {
+            builder.maximumSize(policy.getMaximumSize());
+        }
+        if (policy.getExpireAfterWrite() != null) {
+            builder.expireAfterWrite(policy.getExpireAfterWrite());
+        }
+        if (policy.getExpireAfterAccess() != null) {
+            builder.expireAfterAccess(policy.getExpireAfterAccess());
+        }
+        if (policy.getRefreshAfterWrite() != null) {
+            //кэши шлюза заполняются через @CachePut и не имеют загрузчика, а Caffeine требует его для refreshAfterWrite
+            log.warn("refreshAfterWrite is ignored for cache '{}': cache has no loader", cacheName);
+        }
+        if (policy.isSoftValues()) {
+            builder.softValues();
+        }
+        if (policy.isRecordStats()) {
+            builder.recordStats();
+        }
+        return builder;
+    }
 }
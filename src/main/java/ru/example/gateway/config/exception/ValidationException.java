@@ -1,27 +1,79 @@
 package ru.example.gateway.config.exception;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import lombok.Getter;
 import org.springframework.http.HttpStatus;
 
 import java.util.List;
 
+import ru.example.gateway.model.ErrorResponse;
+import ru.example.gateway.model.ValidationOutcome;
+
 /**
- * Исключение для передачи информации внутри шлюза
+ * Исключение для передачи информации внутри шлюза. Описывает ответ клиенту, а не место ошибки, поэтому создается
+ * без стека вызовов. Неизменяемо: исключения с постоянным текстом создаются один раз и переиспользуются,
+ * а тело ответа с ошибкой сериализуется при первом обращении
  */
 public class ValidationException  extends RuntimeException{
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     @Getter
     private final String status;
 
     @Getter
     private final List<String> details;
 
+    //описание ошибки в ответе клиенту, по умолчанию совпадает с details
+    private final List<String> responseDetails;
+
     @Getter
     private final HttpStatus httpStatus;
 
+    /**
+     * Причина ошибки для метрик, по умолчанию {@link ValidationOutcome#VALIDATION_ERROR}
+     */
+    @Getter
+    private final ValidationOutcome outcome;
+
+    //сериализованный ErrorResponse. Общие экземпляры читаются из разных потоков: volatile публикует массив вместе
+    //с содержимым. При одновременном первом обращении тело может быть сериализовано дважды, результат одинаковый
+    private volatile byte[] body;
+
     public ValidationException(String status, List<String> details, HttpStatus httpStatus) {
+        this(status, details, httpStatus, ValidationOutcome.VALIDATION_ERROR);
+    }
+
+    public ValidationException(String status, List<String> details, HttpStatus httpStatus, ValidationOutcome outcome) {
+        this(status, details, details, httpStatus, outcome);
+    }
+
+    /**
+     * @param details         описание ошибки для лога (например, ошибки валидации ответа сервиса)
+     * @param responseDetails описание ошибки, которое передается клиенту
+     */
+    public ValidationException(String status, List<String> details, List<String> responseDetails, HttpStatus httpStatus,
+                               ValidationOutcome outcome) {
+        super(status, null, false, false);
         this.status = status;
         this.details = details;
+        this.responseDetails = responseDetails;
         this.httpStatus = httpStatus;
+        this.outcome = outcome;
+    }
+
+    /**
+     * @return {@link ErrorResponse} в виде json
+     * @throws JsonProcessingException если ответ не удалось сериализовать
+     */
+    public byte[] getBody() throws JsonProcessingException {
+        byte[] serialized = body;
+        if (serialized == null) {
+            serialized = MAPPER.writeValueAsBytes(new ErrorResponse(status, responseDetails));
+            body = serialized;
+        }
+        return serialized;
     }
 }
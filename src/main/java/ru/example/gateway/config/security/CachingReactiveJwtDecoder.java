@@ -0,0 +1,128 @@
+package ru.example.gateway.config.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ReactiveJwtDecoder}, который запоминает проверенные токены, чтобы не разбирать их и не проверять подпись
+ * при каждом запросе. Ключ кэша - SHA-256 токена, запись удаляется в момент 'exp' токена (токены без 'exp'
+ * не кэшируются), количество записей ограничено. Ошибки проверки не кэшируются.
+ * Время проверки токенов, не найденных в кэше, публикуется в метрике {@link #VERIFICATION} с тегом result
+ * (valid/invalid), статистика кэша - в метриках 'cache.*' с тегом cache={@link #CACHE_NAME}
+ */
+public class CachingReactiveJwtDecoder implements ReactiveJwtDecoder {
+
+	public static final String VERIFICATION = "gateway.jwt.verification";
+	public static final String CACHE_NAME = "jwtClaims";
+
+	private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	private final ReactiveJwtDecoder delegate;
+	private final Cache<String, Jwt> cache;
+	private final Timer valid;
+	private final Timer invalid;
+
+	/**
+	 * @param delegate      декодер, который проверяет подпись и утверждения токена
+	 * @param maximumSize   максимальное количество токенов в кэше
+	 * @param meterRegistry реестр метрик
+	 */
+	public CachingReactiveJwtDecoder(ReactiveJwtDecoder delegate, long maximumSize, MeterRegistry meterRegistry) {
+		this.delegate = delegate;
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfter(new UntilExpiresAt())
+				.recordStats()
+				.build();
+		CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+		this.valid = timer(meterRegistry, "valid");
+		this.invalid = timer(meterRegistry, "invalid");
+	}
+
+	@Override
+	public Mono<Jwt> decode(String token) {
+		String key = hash(token);
+		Jwt cached = cache.getIfPresent(key);
+		if (cached != null) {
+			return Mono.just(cached);
+		}
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			return delegate.decode(token)
+					.doOnNext(jwt -> {
+						valid.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+						if (jwt.getExpiresAt() != null) {
+							cache.put(key, jwt);
+						}
+					})
+					.doOnError(e -> invalid.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+		});
+	}
+
+	/**
+	 * @return количество токенов в кэше (после удаления истекших)
+	 */
+	long size() {
+		cache.cleanUp();
+		return cache.estimatedSize();
+	}
+
+	private static String hash(String token) {
+		MessageDigest digest = SHA_256.get();
+		return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	private static Timer timer(MeterRegistry meterRegistry, String result) {
+		return Timer.builder(VERIFICATION)
+				.description("Time to parse and verify jwt tokens missing in cache")
+				.tag("result", result)
+				.publishPercentileHistogram()
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Время жизни записи - до 'exp' токена
+	 */
+	private static final class UntilExpiresAt implements Expiry<String, Jwt> {
+
+		@Override
+		public long expireAfterCreate(String key, Jwt jwt, long currentTime) {
+			Instant expiresAt = jwt.getExpiresAt();
+			long millis = expiresAt == null ? 0 : expiresAt.toEpochMilli() - System.currentTimeMillis();
+			return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+		}
+
+		@Override
+		public long expireAfterUpdate(String key, Jwt jwt, long currentTime, long currentDuration) {
+			return expireAfterCreate(key, jwt, currentTime);
+		}
+
+		@Override
+		public long expireAfterRead(String key, Jwt jwt, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+}
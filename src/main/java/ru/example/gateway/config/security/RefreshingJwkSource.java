@@ -0,0 +1,239 @@
+package ru.example.gateway.config.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ru.example.gateway.model.JwtVerification;
+
+/**
+ * Источник ключей проверки подписи jwt (JWKS) для {@link org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder}.
+ * Ключи загружаются при запуске и обновляются в фоне до истечения срока из 'Cache-Control: max-age' ответа JWKS
+ * (или через {@link JwtVerification#getJwksRefreshInterval()}), поэтому после смены ключей в Keycloak запросы
+ * не ждут загрузки JWKS. Токен с неизвестным 'kid' вызывает внеочередное обновление, но не чаще
+ * {@link JwtVerification#getJwksMinRefreshInterval()}. Одновременные обновления объединяются в один запрос.
+ * При ошибке загрузки используются прежние ключи. Обновления публикуются в метрике {@link #REFRESHES}
+ */
+@Slf4j
+public class RefreshingJwkSource implements Function<SignedJWT, Flux<JWK>> {
+
+	public static final String REFRESHES = "gateway.jwt.jwks.refreshes";
+
+	private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+	private static final String DISCOVERY_PATH = "/.well-known/openid-configuration";
+	//доля max-age, после которой ключи обновляются в фоне
+	private static final double REFRESH_AHEAD = 0.8;
+
+	private final WebClient webClient;
+	private final String jwkSetUri;
+	private final String issuerUri;
+	private final JwtVerification jwtVerification;
+	private final MeterRegistry meterRegistry;
+
+	private final AtomicReference<JWKSet> keys = new AtomicReference<>();
+	private volatile long fetchedAt;
+	private volatile String resolvedJwkSetUri;
+	private Mono<JWKSet> inflight;
+	private volatile Disposable scheduled;
+	private volatile boolean stopped;
+
+	/**
+	 * @param webClient       клиент для запросов JWKS
+	 * @param jwkSetUri       адрес JWKS или null, если он определяется по издателю
+	 * @param issuerUri       издатель токенов, адрес JWKS берется из его '/.well-known/openid-configuration'
+	 * @param jwtVerification настройки обновления
+	 * @param meterRegistry   реестр метрик
+	 */
+	public RefreshingJwkSource(WebClient webClient, String jwkSetUri, String issuerUri, JwtVerification jwtVerification,
+							   MeterRegistry meterRegistry) {
+		if (jwkSetUri == null && issuerUri == null) {
+			throw new IllegalArgumentException("Either jwk-set-uri or issuer-uri must be configured for jwt verification");
+		}
+		this.webClient = webClient;
+		this.jwkSetUri = jwkSetUri;
+		this.issuerUri = issuerUri;
+		this.jwtVerification = jwtVerification;
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * Загружает ключи в фоне и запускает их периодическое обновление
+	 */
+	public void start() {
+		refresh("scheduled").subscribe(null, e -> { });
+	}
+
+	public void stop() {
+		stopped = true;
+		Disposable task = scheduled;
+		if (task != null) {
+			task.dispose();
+		}
+	}
+
+	/**
+	 * Ключи для проверки подписи токена. Если подходящего ключа нет, JWKS загружается заново (с ограничением частоты)
+	 */
+	@Override
+	public Flux<JWK> apply(SignedJWT jwt) {
+		JWKSet current = keys.get();
+		List<JWK> matched = select(jwt, current);
+		if (!matched.isEmpty()) {
+			return Flux.fromIterable(matched);
+		}
+		if (current != null && System.nanoTime() - fetchedAt < jwtVerification.getJwksMinRefreshInterval().toNanos()) {
+			return Flux.empty();
+		}
+		log.info("No JWKS key for token kid {}, keys are refreshed", jwt.getHeader().getKeyID());
+		return refresh("unknown_key").flatMapIterable(jwkSet -> select(jwt, jwkSet));
+	}
+
+	/**
+	 * @return текущий набор ключей или null, если он еще не загружен
+	 */
+	public JWKSet getKeys() {
+		return keys.get();
+	}
+
+	/**
+	 * Загружает JWKS. Пока загрузка не завершена, повторные вызовы получают ее результат
+	 *
+	 * @param trigger причина обновления для метрики: scheduled или unknown_key
+	 * @return новый набор ключей
+	 */
+	synchronized Mono<JWKSet> refresh(String trigger) {
+		if (inflight == null) {
+			inflight = fetch()
+					.doOnNext(fetched -> {
+						keys.set(fetched.jwkSet);
+						fetchedAt = System.nanoTime();
+						counter(trigger, "success").increment();
+						log.debug("JWKS refreshed ({}): {} keys", trigger, fetched.jwkSet.getKeys().size());
+						schedule(fetched.maxAge != null
+								? Duration.ofMillis((long) (fetched.maxAge.toMillis() * REFRESH_AHEAD))
+								: jwtVerification.getJwksRefreshInterval());
+					})
+					.doOnError(e -> {
+						counter(trigger, "failure").increment();
+						log.warn("JWKS refresh ({}) failed, previous keys are kept: {}", trigger, e.getMessage());
+						schedule(jwtVerification.getJwksMinRefreshInterval());
+					})
+					.map(fetched -> fetched.jwkSet)
+					.doFinally(signal -> clearInflight())
+					.cache();
+		}
+		return inflight;
+	}
+
+	private synchronized void clearInflight() {
+		inflight = null;
+	}
+
+	/**
+	 * Планирует следующее фоновое обновление, заменяя запланированное ранее
+	 */
+	private void schedule(Duration delay) {
+		if (stopped) {
+			return;
+		}
+		Duration next = delay.compareTo(jwtVerification.getJwksMinRefreshInterval()) < 0 ? jwtVerification.getJwksMinRefreshInterval() : delay;
+		Disposable previous = scheduled;
+		scheduled = Mono.delay(next).flatMap(tick -> refresh("scheduled")).subscribe(null, e -> { });
+		if (previous != null) {
+			previous.dispose();
+		}
+	}
+
+	private Mono<Fetched> fetch() {
+		return jwkSetUri().flatMap(uri -> webClient.get().uri(uri)
+				.exchangeToMono(response -> {
+					if (!response.statusCode().is2xxSuccessful()) {
+						return response.createException().flatMap(Mono::error);
+					}
+					Duration maxAge = maxAge(response.headers().asHttpHeaders());
+					return response.bodyToMono(String.class).map(body -> {
+						try {
+							return new Fetched(JWKSet.parse(body), maxAge);
+						} catch (ParseException e) {
+							throw new IllegalStateException("Invalid JWKS from " + uri + ": " + e.getMessage(), e);
+						}
+					});
+				}));
+	}
+
+	private Mono<String> jwkSetUri() {
+		if (jwkSetUri != null) {
+			return Mono.just(jwkSetUri);
+		}
+		if (resolvedJwkSetUri != null) {
+			return Mono.just(resolvedJwkSetUri);
+		}
+		String discovery = issuerUri.replaceAll("/$", "") + DISCOVERY_PATH;
+		return webClient.get().uri(discovery).retrieve().bodyToMono(JsonNode.class)
+				.map(configuration -> {
+					JsonNode uri = configuration.get("jwks_uri");
+					if (uri == null || !uri.isTextual()) {
+						throw new IllegalStateException("No jwks_uri in " + discovery);
+					}
+					resolvedJwkSetUri = uri.asText();
+					return resolvedJwkSetUri;
+				});
+	}
+
+	private static List<JWK> select(SignedJWT jwt, JWKSet jwkSet) {
+		if (jwkSet == null) {
+			return Collections.emptyList();
+		}
+		return new JWKSelector(JWKMatcher.forJWSHeader(jwt.getHeader())).select(jwkSet);
+	}
+
+	private static Duration maxAge(HttpHeaders headers) {
+		String cacheControl = headers.getCacheControl();
+		if (cacheControl == null) {
+			return null;
+		}
+		Matcher matcher = MAX_AGE.matcher(cacheControl);
+		return matcher.find() ? Duration.ofSeconds(Long.parseLong(matcher.group(1))) : null;
+	}
+
+	private Counter counter(String trigger, String result) {
+		return Counter.builder(REFRESHES)
+				.description("JWKS refreshes by trigger and result")
+				.tags("trigger", trigger, "result", result)
+				.register(meterRegistry);
+	}
+
+	private static final class Fetched {
+		private final JWKSet jwkSet;
+		private final Duration maxAge;
+
+		private Fetched(JWKSet jwkSet, Duration maxAge) {
+			this.jwkSet = jwkSet;
+			this.maxAge = maxAge;
+		}
+	}
+}
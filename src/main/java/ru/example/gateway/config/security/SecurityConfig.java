@@ -1,7 +1,12 @@
 package ru.example.gateway.config.security;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.Customizer;
@@ -9,14 +14,26 @@ import org.springframework.security.config.annotation.web.reactive.EnableWebFlux
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.oauth2.client.oidc.web.server.logout.OidcClientInitiatedServerLogoutSuccessHandler;
 import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
 import org.springframework.security.web.server.SecurityWebFilterChain;
 import org.springframework.security.web.server.authentication.logout.ServerLogoutHandler;
 import org.springframework.security.web.server.authentication.logout.DelegatingServerLogoutHandler;
 import org.springframework.security.web.server.authentication.logout.WebSessionServerLogoutHandler;
 import org.springframework.security.web.server.authentication.logout.SecurityContextServerLogoutHandler;
 import org.springframework.security.web.server.authentication.logout.ServerLogoutSuccessHandler;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+import org.springframework.web.server.session.DefaultWebSessionManager;
+import org.springframework.web.server.session.WebSessionIdResolver;
+import org.springframework.web.server.session.WebSessionManager;
 import ru.example.gateway.controller.JsonSchemasController;
 import ru.example.gateway.controller.RefreshController;
+import ru.example.gateway.model.JwtVerification;
+import ru.example.gateway.model.SessionStore;
+import ru.example.gateway.session.BoundedWebSessionStore;
 
 /**
  * Класс для настройки Spring Security
@@ -34,9 +51,60 @@ public class SecurityConfig {
 		this.clientRegistrationRepository = clientRegistrationRepository;
 	}
 
+	/**
+	 * Ключи проверки подписи jwt, которые обновляются в фоне до истечения срока
+	 */
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	public RefreshingJwkSource jwkSource(OAuth2ResourceServerProperties properties, JwtVerification jwtVerification,
+										 WebClient.Builder webClientBuilder, MeterRegistry meterRegistry) {
+		OAuth2ResourceServerProperties.Jwt jwt = properties.getJwt();
+		return new RefreshingJwkSource(webClientBuilder.build(), jwt.getJwkSetUri(), jwt.getIssuerUri(), jwtVerification, meterRegistry);
+	}
+
+	/**
+	 * Декодер jwt для oauth2ResourceServer: ключи из {@link RefreshingJwkSource}, проверенные токены кэшируются
+	 * до 'exp' (если не выключено в {@link JwtVerification#isCacheOn()})
+	 */
+	@Bean
+	public ReactiveJwtDecoder jwtDecoder(RefreshingJwkSource jwkSource, OAuth2ResourceServerProperties properties,
+										 JwtVerification jwtVerification, MeterRegistry meterRegistry) {
+		OAuth2ResourceServerProperties.Jwt jwt = properties.getJwt();
+		NimbusReactiveJwtDecoder decoder = NimbusReactiveJwtDecoder.withJwkSource(jwkSource)
+				.jwsAlgorithm(SignatureAlgorithm.from(jwt.getJwsAlgorithm()))
+				.build();
+		if (jwt.getIssuerUri() != null) {
+			decoder.setJwtValidator(JwtValidators.createDefaultWithIssuer(jwt.getIssuerUri()));
+		}
+		if (!jwtVerification.isCacheOn()) {
+			return decoder;
+		}
+		return new CachingReactiveJwtDecoder(decoder, jwtVerification.getMaximumSize(), meterRegistry);
+	}
+
+	/**
+	 * Хранилище web-сессий oauth2Login с ограничением количества сессий в памяти
+	 */
+	@Bean(destroyMethod = "clear")
+	public BoundedWebSessionStore webSessionStore(SessionStore sessionStore, ServerProperties serverProperties,
+												  MeterRegistry meterRegistry) {
+		return new BoundedWebSessionStore(sessionStore, serverProperties.getReactive().getSession().getTimeout(), meterRegistry);
+	}
+
+	/**
+	 * Менеджер сессий вместо стандартного (с неограниченным хранилищем в памяти)
+	 */
+	@Bean(name = WebHttpHandlerBuilder.WEB_SESSION_MANAGER_BEAN_NAME)
+	public WebSessionManager webSessionManager(BoundedWebSessionStore webSessionStore,
+											   ObjectProvider<WebSessionIdResolver> webSessionIdResolver) {
+		DefaultWebSessionManager webSessionManager = new DefaultWebSessionManager();
+		webSessionManager.setSessionStore(webSessionStore);
+		webSessionIdResolver.ifAvailable(webSessionManager::setSessionIdResolver);
+		return webSessionManager;
+	}
+
 	/**
 	 * Настройка безопасности: csrf отключен, все запросы должны быть аутентифицированные
-	 * (исключение '/refresh' {@link RefreshController} - у него своя проверка
+	 * (исключение '/refresh' и '/refresh/status/**' {@link RefreshController} - у него своя проверка
 	 * и '/jsonschema/**' - {@link JsonSchemasController}),
 	 * есть возможность oAuth2 аутентификации (с редиректом на страницу логина Keycloak и обратно)
 	 * и возможность передачи уже полученного jwt токена с дальнейшей передачей его целевому сервису
@@ -47,7 +115,7 @@ public class SecurityConfig {
 		http
 				.csrf().disable()
 				.authorizeExchange()
-				.pathMatchers("/jsonschema/**", "/refresh").permitAll()
+				.pathMatchers("/jsonschema/**", "/refresh", "/refresh/status/**").permitAll()
 				.anyExchange().authenticated()
 				.and()
                 .oauth2Login(Customizer.withDefaults())
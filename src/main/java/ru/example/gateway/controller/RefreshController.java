@@ -1,70 +1,98 @@
 package ru.example.gateway.controller;
 
-import com.networknt.schema.JsonSchema;
-
 import lombok.extern.slf4j.Slf4j;
 
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cloud.context.refresh.ContextRefresher;
-import org.springframework.cloud.endpoint.RefreshEndpoint;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
-import javax.annotation.Resource;
-
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Map;
+
+import ru.example.gateway.model.RefreshStatus;
+import ru.example.gateway.service.RefreshService;
 
 /**
  * Контроллер для перехвата вэбхуков от GitLab с информацией о том что в репозитории с файлами свойств были изменения
  */
 @RestController
 @Slf4j
-public class RefreshController extends RefreshEndpoint {
-
-    @Resource(name = "requestSchemaMap")
-    private Map<String, Map<String, JsonSchema>> requestsSchemas;
-
-    @Resource(name = "responseSchemaMap")
-    private Map<String, Map<String, JsonSchema>> responsesSchemas;
+public class RefreshController {
 
     private static final String TOKEN_HEADER = "X-Gitlab-Token";
     @Value("${gitlab.access_token}")
     private String gitLabAccessToken;
 
-    public RefreshController(ContextRefresher contextRefresher) {
-        super(contextRefresher);
+    private final RefreshService refreshService;
+
+    public RefreshController(RefreshService refreshService) {
+        this.refreshService = refreshService;
     }
 
     /**
      * Эндпоинт получает запросы от GitLab, проверяет наличие и корректность заголовка с токеном доступа и либо
-     * инициирует процесс обновления свойств приложения (через запрос новых у Configuration Server), либо
-     * возвращает описание ошибки
+     * планирует обновление свойств приложения (через запрос новых у Configuration Server) и схем валидации, либо
+     * возвращает описание ошибки. Обновление выполняется в фоне, вебхуки в пределах окна 'refresh.debounce'
+     * объединяются в одно обновление
      *
      * @param accessToken токен передаваемый GitLab для проверки подлинности запроса
-     * @return результат запроса с сообщением об успехе/ошибке и Http статусом
+     * @return состояние запланированного обновления (с его идентификатором) или сообщение об ошибке и Http статус
      */
     @PostMapping("/refresh")
-    public ResponseEntity<Collection<String>> refresh(@RequestHeader(value=TOKEN_HEADER, required = false) String accessToken) {
+    public ResponseEntity<?> refresh(@RequestHeader(value=TOKEN_HEADER, required = false) String accessToken) {
+        ResponseEntity<?> forbidden = checkAccessToken(accessToken);
+        if (forbidden != null) {
+            return forbidden;
+        }
+        return new ResponseEntity<>(refreshService.request(), HttpStatus.ACCEPTED);
+    }
+
+    /**
+     * @param accessToken токен доступа GitLab
+     * @return состояния последних обновлений, начиная с самого нового
+     */
+    @GetMapping("/refresh/status")
+    public ResponseEntity<?> statuses(@RequestHeader(value=TOKEN_HEADER, required = false) String accessToken) {
+        ResponseEntity<?> forbidden = checkAccessToken(accessToken);
+        if (forbidden != null) {
+            return forbidden;
+        }
+        return new ResponseEntity<>(refreshService.getHistory(), HttpStatus.OK);
+    }
+
+    /**
+     * @param accessToken токен доступа GitLab
+     * @param id идентификатор обновления, полученный в ответ на вебхук
+     * @return состояние, время и результат обновления
+     */
+    @GetMapping("/refresh/status/{id}")
+    public ResponseEntity<?> status(@RequestHeader(value=TOKEN_HEADER, required = false) String accessToken,
+                                    @PathVariable("id") long id) {
+        ResponseEntity<?> forbidden = checkAccessToken(accessToken);
+        if (forbidden != null) {
+            return forbidden;
+        }
+        RefreshStatus status = refreshService.getStatus(id);
+        if (status == null) {
+            return new ResponseEntity<>(Collections.singletonList("Unknown refresh " + id), HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(status, HttpStatus.OK);
+    }
 
+    private ResponseEntity<?> checkAccessToken(String accessToken) {
         if(accessToken == null){
             log.warn("Header {} is missing", TOKEN_HEADER);
             return new ResponseEntity<>(Collections.singletonList("Missing access token"), HttpStatus.FORBIDDEN);
-        } else if(accessToken.equals(gitLabAccessToken)) {
-            log.debug("Access token from header {} is correct", TOKEN_HEADER);
-            Collection<String> refresh = super.refresh();
-            log.info("Reload bean requestSchemaMap. Size - {}", requestsSchemas.size());
-            log.info("Reload bean responseSchemaMap. Size - {}", responsesSchemas.size());
-
-            return new ResponseEntity<>(refresh, HttpStatus.OK);
-        } else {
+        } else if(!accessToken.equals(gitLabAccessToken)) {
             log.warn("Invalid access token in header {}", TOKEN_HEADER);
             return new ResponseEntity<>(Collections.singletonList("Invalid access token"), HttpStatus.FORBIDDEN);
         }
+        log.debug("Access token from header {} is correct", TOKEN_HEADER);
+        return null;
     }
 
 }
@@ -0,0 +1,117 @@
+package ru.example.gateway.filter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+
+import java.security.Principal;
+import java.util.Collections;
+
+import ru.example.gateway.config.exception.ValidationException;
+import ru.example.gateway.model.RateLimits;
+import ru.example.gateway.ratelimit.RateLimiter;
+
+/**
+ * Ограничение частоты запросов до сбора и валидации тела в {@link RequestGlobalFilter}. Пользователь - имя
+ * аутентифицированного principal (subject jwt токена), запрос без него проверяется только по ограничению маршрута.
+ * Отклоненный запрос получает ответ 429 с заранее сериализованным телом и заголовками RateLimit-Limit,
+ * RateLimit-Remaining, RateLimit-Reset и Retry-After, тело запроса не читается
+ */
+@Slf4j
+@Component
+public class RateLimitGlobalFilter implements GlobalFilter, Ordered {
+
+    public static final String RATE_LIMIT_LIMIT = "RateLimit-Limit";
+    public static final String RATE_LIMIT_REMAINING = "RateLimit-Remaining";
+    public static final String RATE_LIMIT_RESET = "RateLimit-Reset";
+
+    private static final String NO_PRINCIPAL = "";
+    private static final ValidationException TOO_MANY_REQUESTS = new ValidationException("Too many requests",
+            Collections.singletonList("Request rate limit exceeded"), HttpStatus.TOO_MANY_REQUESTS);
+
+    private RateLimits rateLimits;
+    private RateLimiter rateLimiter;
+
+    @Autowired
+    public void setRateLimits(RateLimits rateLimits) {
+        this.rateLimits = rateLimits;
+    }
+
+    @Autowired
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        if (!rateLimits.isEnabled() || route == null) {
+            return chain.filter(exchange);
+        }
+        return exchange.getPrincipal()
+                .map(Principal::getName)
+                .defaultIfEmpty(NO_PRINCIPAL)
+                .flatMap(principal -> {
+                    RateLimiter.Decision decision = rateLimiter.check(route.getId(), NO_PRINCIPAL.equals(principal) ? null : principal);
+                    if (decision == null) {
+                        return chain.filter(exchange);
+                    }
+                    if (!decision.isAllowed()) {
+                        log.debug("Rate limit exceeded for route {}, principal '{}'", route.getId(), principal);
+                        return reject(exchange, decision);
+                    }
+                    if (rateLimits.isIncludeHeaders()) {
+                        headers(exchange.getResponse().getHeaders(), decision);
+                    }
+                    return chain.filter(exchange);
+                });
+    }
+
+    private Mono<Void> reject(ServerWebExchange exchange, RateLimiter.Decision decision) {
+        byte[] body;
+        try {
+            body = TOO_MANY_REQUESTS.getBody();
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
+        }
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        HttpHeaders headers = response.getHeaders();
+        headers(headers, decision);
+        headers.set(HttpHeaders.RETRY_AFTER, Long.toString(decision.getReset()));
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setContentLength(body.length);
+        // ответ формирует шлюз, его не нужно проверять по схеме ответа
+        exchange.getAttributes().put(ResponseGlobalFilter.SKIP_VALIDATION_ATTRIBUTE, Boolean.TRUE);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+
+    private static void headers(HttpHeaders headers, RateLimiter.Decision decision) {
+        headers.set(RATE_LIMIT_LIMIT, Long.toString(decision.getLimit()));
+        headers.set(RATE_LIMIT_REMAINING, Long.toString(decision.getRemaining()));
+        headers.set(RATE_LIMIT_RESET, Long.toString(decision.getReset()));
+    }
+
+    /**
+     * Перед {@link RequestGlobalFilter}
+     */
+    @Override
+    public int getOrder() {
+        return -3;
+    }
+}
@@ -0,0 +1,321 @@
+package ru.example.gateway.filter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import org.reactivestreams.Publisher;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import javax.annotation.PostConstruct;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.example.gateway.cache.ValidatedResponseCache;
+import ru.example.gateway.model.RequestCoalescing;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.service.implementation.ResponseValidationService;
+
+/**
+ * Объединяет одинаковые одновременные GET запросы маршрутов из {@link RequestCoalescing}: сервису передается только
+ * первый запрос, его ответ (после проверки в {@link ResponseGlobalFilter} и кэша {@link ResponseCacheFilter})
+ * получают все запросы с тем же ключом, каждый - в собственном буфере. Ключ - метод, путь, параметры и значения
+ * заголовков {@link RequestCoalescing#getVaryHeaders()}. Ожидающий запрос передается сервису отдельно, если ответ
+ * не получен за {@link RequestCoalescing#getMaxWait()}, больше {@link RequestCoalescing#getMaxResponseSize()}
+ * или содержит Set-Cookie. Ответ копируется, только если его ждет хотя бы один запрос; запрос, пришедший после
+ * начала записи ответа без ожидающих, передается сервису отдельно. Результаты публикуются в метрике {@link #REQUESTS} с тегом role:
+ * доля объединенных запросов - follower / (leader + follower)
+ */
+@Slf4j
+@Component
+public class RequestCoalescingFilter implements WebFilter, Ordered {
+
+    public static final String REQUESTS = "gateway.coalescing.requests";
+    public static final String IN_FLIGHT = "gateway.coalescing.inflight";
+
+    private RequestCoalescing requestCoalescing;
+
+    private ResponseValidationService responseValidationService;
+
+    private MeterRegistry meterRegistry;
+
+    private final Map<Key, Flight> flights = new ConcurrentHashMap<>();
+    private final Map<Role, Counter> requests = new EnumMap<>(Role.class);
+
+    @Autowired
+    public void setRequestCoalescing(RequestCoalescing requestCoalescing) {
+        this.requestCoalescing = requestCoalescing;
+    }
+
+    @Autowired
+    public void setResponseValidationService(ResponseValidationService responseValidationService) {
+        this.responseValidationService = responseValidationService;
+    }
+
+    @Autowired
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        for (Role role : Role.values()) {
+            requests.put(role, Counter.builder(REQUESTS)
+                    .description("Coalesced GET requests by role")
+                    .tag("role", role.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+        Gauge.builder(IN_FLIGHT, flights, Map::size)
+                .description("Upstream requests shared by concurrent duplicates")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (!requestCoalescing.isEnabled() || request.getMethod() != HttpMethod.GET) {
+            return chain.filter(exchange);
+        }
+        String path = request.getPath().toString();
+        Route route = responseValidationService.findRoute(HttpMethod.GET, path);
+        if (route == null || !requestCoalescing.isCoalesced(route.getTemplate())) {
+            return chain.filter(exchange);
+        }
+        Key key = key(request, path);
+        Flight flight = new Flight();
+        Flight leader = flights.putIfAbsent(key, flight);
+        if (leader != null) {
+            return follow(exchange, chain, leader);
+        }
+        requests.get(Role.LEADER).increment();
+        return chain.filter(exchange.mutate().response(getDecoratedResponse(exchange.getResponse(), key, flight)).build())
+                .doFinally(signal -> {
+                    flights.remove(key, flight);
+                    // ответ не получен полностью: ожидающие запросы передаются сервису отдельно
+                    flight.sink.tryEmitEmpty();
+                });
+    }
+
+    /**
+     * Ждет ответ первого запроса и отдает его копию. Если ответ не получен за отведенное время или его нельзя
+     * передать, запрос передается сервису отдельно
+     */
+    private Mono<Void> follow(ServerWebExchange exchange, WebFilterChain chain, Flight leader) {
+        if (!leader.join()) {
+            // ответ первого запроса уже записывается без копии
+            requests.get(Role.FALLBACK).increment();
+            return chain.filter(exchange);
+        }
+        return leader.sink.asMono()
+                .timeout(requestCoalescing.getMaxWait())
+                .onErrorResume(TimeoutException.class, e -> {
+                    log.debug("Coalesced request {} timed out after {}", exchange.getRequest().getPath(), requestCoalescing.getMaxWait());
+                    return Mono.empty();
+                })
+                .flatMap(shared -> {
+                    requests.get(Role.FOLLOWER).increment();
+                    return write(exchange.getResponse(), shared).thenReturn(shared);
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    requests.get(Role.FALLBACK).increment();
+                    return chain.filter(exchange).then(Mono.empty());
+                }))
+                .then();
+    }
+
+    private static Mono<Void> write(ServerHttpResponse response, Shared shared) {
+        response.setStatusCode(shared.status);
+        response.getHeaders().putAll(shared.headers);
+        if (shared.body == null) {
+            return response.setComplete();
+        }
+        return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(shared.body)));
+    }
+
+    /**
+     * Копирует ответ первого запроса для ожидающих запросов. Если ответ записывается повторно (ошибка проверки
+     * заменяет тело ответом сервера), передается первый вариант, записанный без ошибок. Если ожидающих запросов нет,
+     * ответ не копируется, а новые одинаковые запросы передаются сервису
+     */
+    private ServerHttpResponseDecorator getDecoratedResponse(ServerHttpResponse response, Key key, Flight flight) {
+        return new ServerHttpResponseDecorator(response) {
+
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                if (flight.close()) {
+                    flights.remove(key, flight);
+                    return super.writeWith(body);
+                }
+                HttpHeaders headers = snapshot();
+                if (headers == null) {
+                    return super.writeWith(body);
+                }
+                HttpStatus status = getStatusCode();
+                long maxResponseSize = requestCoalescing.getMaxResponseSize().toBytes();
+                List<byte[]> copy = new ArrayList<>();
+                long[] size = new long[1];
+                return super.writeWith(Flux.from(body)
+                        .doOnNext(dataBuffer -> {
+                            int readable = dataBuffer.readableByteCount();
+                            if (size[0] >= 0 && size[0] + readable <= maxResponseSize) {
+                                byte[] bytes = new byte[readable];
+                                dataBuffer.asByteBuffer(dataBuffer.readPosition(), readable).get(bytes);
+                                copy.add(bytes);
+                                size[0] += readable;
+                            } else {
+                                size[0] = -1;
+                                copy.clear();
+                            }
+                        })
+                        .doOnComplete(() -> {
+                            if (size[0] >= 0) {
+                                flight.sink.tryEmitValue(new Shared(status, headers, join(copy, (int) size[0])));
+                            }
+                        }));
+            }
+
+            @Override
+            public Mono<Void> setComplete() {
+                HttpHeaders headers = snapshot();
+                if (headers != null && !isCommitted()) {
+                    flight.sink.tryEmitValue(new Shared(getStatusCode(), headers, null));
+                }
+                return super.setComplete();
+            }
+
+            /**
+             * @return заголовки ответа до отправки без заголовков отдельного ответа (RateLimit-* и т.д.) или null,
+             * если ответ нельзя передать другим клиентам
+             */
+            private HttpHeaders snapshot() {
+                if (getHeaders().containsKey(HttpHeaders.SET_COOKIE)) {
+                    return null;
+                }
+                return ValidatedResponseCache.storedHeaders(getHeaders());
+            }
+        };
+    }
+
+    private Key key(ServerHttpRequest request, String path) {
+        String query = request.getURI().getRawQuery();
+        List<List<String>> vary = new ArrayList<>(requestCoalescing.getVaryHeaders().size() + 2);
+        for (String header : requestCoalescing.getVaryHeaders()) {
+            vary.add(request.getHeaders().getOrEmpty(header));
+        }
+        // от условий запроса зависит, получит ли клиент тело или 304
+        vary.add(request.getHeaders().getOrEmpty(HttpHeaders.IF_NONE_MATCH));
+        vary.add(request.getHeaders().getOrEmpty(HttpHeaders.IF_MODIFIED_SINCE));
+        return new Key(request.getMethodValue(), query == null ? path : path + "?" + query, vary);
+    }
+
+    private static byte[] join(List<byte[]> parts, int size) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        parts.forEach(part -> out.write(part, 0, part.length));
+        return out.toByteArray();
+    }
+
+    /**
+     * Выполняется первым из фильтров ответа, чтобы объединенные запросы не проверялись и не искались в кэше повторно
+     */
+    @Override
+    public int getOrder() {
+        return -3;
+    }
+
+    /**
+     * Роль запроса: leader - передан сервису, follower - получил ответ leader, fallback - не дождался ответа
+     * leader или ответ нельзя передать, и передан сервису отдельно
+     */
+    enum Role {
+        LEADER, FOLLOWER, FALLBACK
+    }
+
+    @EqualsAndHashCode
+    private static final class Key {
+        private final String method;
+        private final String uri;
+        private final List<List<String>> vary;
+
+        private Key(String method, String uri, List<List<String>> vary) {
+            this.method = method;
+            this.uri = uri;
+            this.vary = vary;
+        }
+    }
+
+    /**
+     * Запрос, переданный сервису; ожидающие запросы подписываются на его ответ
+     */
+    private static final class Flight {
+        private final Sinks.One<Shared> sink = Sinks.one();
+        //количество ожидающих запросов или -1, если ответ записывается без копии
+        private final AtomicInteger followers = new AtomicInteger();
+
+        /**
+         * @return true, если запрос получит ответ первого запроса, false, если ответ уже записывается без копии
+         */
+        private boolean join() {
+            int count;
+            do {
+                count = followers.get();
+                if (count < 0) {
+                    return false;
+                }
+            } while (!followers.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * @return true, если ожидающих запросов нет и новые к этому запросу больше не присоединятся
+         */
+        private boolean close() {
+            return followers.compareAndSet(0, -1) || followers.get() < 0;
+        }
+    }
+
+    /**
+     * Ответ первого запроса: статус, заголовки и тело (null для ответа без тела)
+     */
+    private static final class Shared {
+        private final HttpStatus status;
+        private final HttpHeaders headers;
+        private final byte[] body;
+
+        private Shared(HttpStatus status, HttpHeaders headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+}
@@ -10,21 +10,34 @@ import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.core.Ordered;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
-import org.springframework.http.codec.HttpMessageReader;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
 import org.springframework.stereotype.Component;
-import org.springframework.web.reactive.function.server.HandlerStrategies;
-import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.server.ServerWebExchange;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import ru.example.gateway.cache.BodyHasher;
+import ru.example.gateway.cache.ValidationResultCache;
+import ru.example.gateway.config.exception.ValidationException;
+import ru.example.gateway.metrics.ValidationMetrics;
+import ru.example.gateway.model.BodyLimits;
+import ru.example.gateway.model.ValidationQueue;
+import ru.example.gateway.model.ValidationOutcome;
+import ru.example.gateway.parser.ContentEncodings;
+import ru.example.gateway.parser.JsonTreeStreamParser;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.scheduler.ValidationScheduler;
 import ru.example.gateway.service.implementation.RequestValidationService;
 import ru.example.gateway.model.ValidateActivator;
 
@@ -35,13 +48,12 @@ import ru.example.gateway.model.ValidateActivator;
 @Component
 public class RequestGlobalFilter implements GlobalFilter, Ordered {
 
-    /**
-     * default HttpMessageReader
-     */
-    private final List<HttpMessageReader<?>> messageReaders = HandlerStrategies.withDefaults().messageReaders();
-
     private RequestValidationService requestValidationService;
     private ValidateActivator validateActivator;
+    private ValidationMetrics validationMetrics;
+    private BodyLimits bodyLimits;
+    private ValidationScheduler validationScheduler;
+    private ValidationQueue validationQueue;
 
     @Autowired
     public void setValidateActivator(ValidateActivator validateActivator) {
@@ -53,6 +65,26 @@ public class RequestGlobalFilter implements GlobalFilter, Ordered {
         this.requestValidationService = requestValidationService;
     }
 
+    @Autowired
+    public void setValidationMetrics(ValidationMetrics validationMetrics) {
+        this.validationMetrics = validationMetrics;
+    }
+
+    @Autowired
+    public void setBodyLimits(BodyLimits bodyLimits) {
+        this.bodyLimits = bodyLimits;
+    }
+
+    @Autowired
+    public void setValidationScheduler(ValidationScheduler validationScheduler) {
+        this.validationScheduler = validationScheduler;
+    }
+
+    @Autowired
+    public void setValidationQueue(ValidationQueue validationQueue) {
+        this.validationQueue = validationQueue;
+    }
+
     /**
      * Реализация метода фильтра входящих запросов. Может быть включен или выключен {@link ValidateActivator}
      * Применяется только в POST, PUT, PATCH запросах и при Content-Type = application/json
@@ -80,44 +112,148 @@ public class RequestGlobalFilter implements GlobalFilter, Ordered {
     }
 
     /**
-     * Метод получает тело запроса и в случае нахождения для него схемы в schemaMap выполняет валидацию
+     * Метод получает тело запроса и в случае нахождения для него схемы в schemaMap выполняет валидацию.
+     * Части тела по мере поступления передаются в {@link JsonTreeStreamParser}, поэтому некорректный json отсекается
+     * на первой ошибочной части, а сами части без копирования передаются дальше после успешной валидации.
+     * Если включен кэш результатов валидации, те же части передаются в {@link BodyHasher}, и при попадании в кэш
+     * не выполняется проверка по схеме.
+     * Время получения, разбора и проверки тела, его размер и результат записываются в {@link ValidationMetrics}.
+     * Тело больше ограничения из {@link BodyLimits} отклоняется с ответом 413, как только ограничение превышено.
+     * Завершение разбора и проверка по схеме выполняются в {@link ValidationScheduler}.
+     * Тело со сжатием gzip или deflate собирается в исходном виде и распаковывается по мере разбора при проверке,
+     * дальше передаются исходные сжатые части
      */
     private Mono<Void> getRequestBody(ServerWebExchange exchange, GatewayFilterChain chain) {
-        return DataBufferUtils.join(exchange.getRequest().getBody())
-                .flatMap(dataBuffer -> {
-                    DataBufferUtils.retain(dataBuffer);
-                    Flux<DataBuffer> cachedFlux = Flux.defer(() -> Flux.just(dataBuffer.slice(0, dataBuffer.readableByteCount())));
-                    ServerHttpRequest mutatedRequest = new ServerHttpRequestDecorator(exchange.getRequest()) {
-                        @Override
-                        public Flux<DataBuffer> getBody() {
-                            return cachedFlux;
-                        }
-                    };
-
-                    return ServerRequest
-                            // создаем новый экземпляр exchange
-                            .create(exchange.mutate().request(mutatedRequest).build(), messageReaders)
-                            .bodyToMono(String.class)
-                            .flatMap(requestBody -> {
-                                // получаем путь запроса, метод и выполняем валидацию
-                                String path = exchange.getRequest().getPath().pathWithinApplication().value();
-                                String httpMethod = exchange.getRequest().getMethod().toString().toLowerCase();
-                                requestValidationService.validate(httpMethod, requestBody, path);
-                                // при успехе пропускаем запрос
-                                return chain.filter(exchange.mutate().request(mutatedRequest).build());
-                            }).onErrorResume(err -> {
-                                DataBuffer errorDataBuffer;
-                                // в случае возникновении ошибок при валидации - обрабатываем их и возвращаем ответ на запрос
-                                try {
-                                    errorDataBuffer = requestValidationService.errorHandling(err, exchange);
-                                } catch (JsonProcessingException e) {
-                                    return Mono.error(e);
+        // получаем путь запроса и метод
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+        HttpMethod httpMethod = exchange.getRequest().getMethod();
+        JsonTreeStreamParser parser = new JsonTreeStreamParser();
+        String contentEncoding = exchange.getRequest().getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+        // сжатое тело потоковый парсер не читает - оно распаковывается при разборе собранных частей
+        boolean aggregated = !ContentEncodings.isIdentity(contentEncoding);
+        // хэш для кэша результатов считается из тех же частей, что получает парсер
+        BodyHasher hasher = !aggregated && validateActivator.isResultCacheOn() ? new BodyHasher() : null;
+
+        return Mono.fromCallable(() -> requestValidationService.getRoute(httpMethod, path))
+                .doOnError(ValidationException.class, e -> validationMetrics.outcome(ValidationResultCache.Direction.REQUEST, httpMethod, null, e.getOutcome()))
+                .flatMap(route -> {
+                    long limit = bodyLimits.maxRequestBytes(route);
+                    // тело с заявленным размером больше ограничения отклоняем, не читая его
+                    if (exchange.getRequest().getHeaders().getContentLength() > limit) {
+                        ValidationException e = requestValidationService.bodyTooLarge(route, limit);
+                        validationMetrics.outcome(ValidationResultCache.Direction.REQUEST, httpMethod, route, e.getOutcome());
+                        return Mono.error(e);
+                    }
+                    long start = System.nanoTime();
+                    AtomicLong received = new AtomicLong();
+                    return exchange.getRequest().getBody()
+                            .doOnNext(dataBuffer -> {
+                                // при превышении ограничения прекращаем получение тела, собранные части освобождает collectList
+                                if (received.addAndGet(dataBuffer.readableByteCount()) > limit) {
+                                    DataBufferUtils.release(dataBuffer);
+                                    validationMetrics.bodyRejected(ValidationResultCache.Direction.REQUEST, httpMethod, route, received.get());
+                                    throw requestValidationService.bodyTooLarge(route, limit);
+                                }
+                                if (!aggregated) {
+                                    feed(parser, dataBuffer);
+                                }
+                                if (hasher != null) {
+                                    hasher.update(dataBuffer);
                                 }
-                                return exchange.getResponse().writeWith(Flux.just(errorDataBuffer));
+                            })
+                            .collectList()
+                            .doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release)
+                            // некорректный json или превышение размера, найденные при получении частей
+                            .doOnError(ValidationException.class, e -> validationMetrics.outcome(ValidationResultCache.Direction.REQUEST, httpMethod, route, e.getOutcome()))
+                            .flatMap(dataBuffers -> {
+                                validationMetrics.bodyReceived(ValidationResultCache.Direction.REQUEST, route, System.nanoTime() - start, size(dataBuffers));
+                                // разбор и проверка по схеме выполняются в пуле валидации, а не в потоке Netty
+                                // при отмене (клиент закрыл соединение) части освобождаются, когда валидация их больше не читает
+                                return validationScheduler.run(() -> validate(route, dataBuffers, parser, hasher, contentEncoding, aggregated),
+                                                () -> dataBuffers.forEach(DataBufferUtils::release))
+                                        .onErrorResume(RejectedExecutionException.class, e -> shed(route))
+                                        .doOnError(e -> {
+                                            if (e instanceof ValidationException) {
+                                                validationMetrics.outcome(ValidationResultCache.Direction.REQUEST, httpMethod, route, ((ValidationException) e).getOutcome());
+                                            }
+                                            dataBuffers.forEach(DataBufferUtils::release);
+                                        })
+                                        .then(Mono.defer(() -> {
+                                            // при успехе пропускаем запрос с исходными частями тела
+                                            Flux<DataBuffer> cachedFlux = Flux.defer(() -> Flux.fromIterable(dataBuffers)
+                                                    .map(dataBuffer -> dataBuffer.slice(dataBuffer.readPosition(), dataBuffer.readableByteCount())));
+                                            ServerHttpRequest mutatedRequest = new ServerHttpRequestDecorator(exchange.getRequest()) {
+                                                @Override
+                                                public Flux<DataBuffer> getBody() {
+                                                    return cachedFlux;
+                                                }
+                                            };
+                                            return chain.filter(exchange.mutate().request(mutatedRequest).build());
+                                        }));
                             });
+                })
+                .onErrorResume(ValidationException.class, err -> {
+                    DataBuffer errorDataBuffer;
+                    // в случае возникновении ошибок при валидации - обрабатываем их и возвращаем ответ на запрос
+                    try {
+                        errorDataBuffer = requestValidationService.errorHandling(err, exchange);
+                    } catch (JsonProcessingException e) {
+                        return Mono.error(e);
+                    }
+                    // ответ с ошибкой формирует шлюз, его не нужно проверять по схеме ответа
+                    exchange.getAttributes().put(ResponseGlobalFilter.SKIP_VALIDATION_ATTRIBUTE, Boolean.TRUE);
+                    return exchange.getResponse().writeWith(Flux.just(errorDataBuffer));
                 });
     }
 
+    /**
+     * Разбирает и проверяет тело запроса. Сжатое тело разбирается из собранных частей (с кэшем результатов - только
+     * при промахе кэша), иначе завершается потоковый разбор
+     */
+    private void validate(Route route, List<DataBuffer> dataBuffers, JsonTreeStreamParser parser, BodyHasher hasher,
+                          String contentEncoding, boolean aggregated) {
+        if (aggregated) {
+            requestValidationService.validate(route, dataBuffers, contentEncoding);
+        } else {
+            requestValidationService.validate(route, parser, hasher);
+        }
+        validationMetrics.outcome(ValidationResultCache.Direction.REQUEST, route.getMethod(), route, ValidationOutcome.PASS);
+    }
+
+    /**
+     * Очередь валидации заполнена: запрос отклоняется с ответом 503 или пропускается без валидации
+     * (в зависимости от {@link ValidationQueue#getRequestShedding()})
+     */
+    private Mono<Void> shed(Route route) {
+        if (validationQueue.getRequestShedding() == ValidationQueue.SheddingPolicy.SKIP) {
+            log.warn("Validation queue is full, request {} passed without validation", route);
+            validationMetrics.outcome(ValidationResultCache.Direction.REQUEST, route.getMethod(), route, ValidationOutcome.SHED);
+            return Mono.empty();
+        }
+        return Mono.error(requestValidationService.overloaded(route));
+    }
+
+    private static long size(List<? extends DataBuffer> dataBuffers) {
+        long size = 0;
+        for (DataBuffer dataBuffer : dataBuffers) {
+            size += dataBuffer.readableByteCount();
+        }
+        return size;
+    }
+
+    /**
+     * Передает часть тела в парсер. Если часть содержит некорректный json, она освобождается (остальные части
+     * освобождает collectList при ошибке), а поток завершается с {@link ValidationException}
+     */
+    private void feed(JsonTreeStreamParser parser, DataBuffer dataBuffer) {
+        try {
+            parser.feed(dataBuffer);
+        } catch (IOException e) {
+            DataBufferUtils.release(dataBuffer);
+            throw requestValidationService.deserializationError(e);
+        }
+    }
+
     @Override
     public int getOrder() {
         return -2;
@@ -0,0 +1,327 @@
+package ru.example.gateway.filter;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import org.reactivestreams.Publisher;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import ru.example.gateway.cache.ValidatedResponseCache;
+import ru.example.gateway.model.ResponseCaching;
+import ru.example.gateway.model.ValidateActivator;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.service.implementation.ResponseValidationService;
+
+/**
+ * Отдает проверенные ответы на GET запросы из {@link ValidatedResponseCache}. Работает снаружи
+ * {@link ResponseGlobalFilter}: свежий ответ из кэша отдается без запроса к сервису и без повторной проверки,
+ * устаревший ответ с ETag или Last-Modified подтверждается условным запросом к сервису. В кэш попадают только
+ * ответы 200, проверенные по схеме без ошибок ({@link ResponseGlobalFilter#VALIDATED_ATTRIBUTE}), поэтому
+ * в режиме {@link ValidateActivator.ResponseMode#SHADOW} и при выключенной проверке ответов кэш не используется.
+ * Ответ не сохраняется, если сервис запретил это ('Cache-Control: no-store/private', Set-Cookie) или он зависит
+ * от заголовков запроса кроме Accept-Encoding (Vary). Ответ на запрос с Authorization или Cookie сохраняется, только
+ * если сервис явно разрешил общий кэш ('public', 's-maxage' или 'must-revalidate', RFC 7234 §3.2). Запрос клиента с 'Cache-Control: no-cache/no-store'
+ * всегда передается сервису
+ */
+@Slf4j
+@Component
+public class ResponseCacheFilter implements WebFilter, Ordered {
+
+    private ResponseCaching responseCaching;
+
+    private ValidatedResponseCache validatedResponseCache;
+
+    private ResponseValidationService responseValidationService;
+
+    private ValidateActivator validateActivator;
+
+    @Autowired
+    public void setResponseCaching(ResponseCaching responseCaching) {
+        this.responseCaching = responseCaching;
+    }
+
+    @Autowired
+    public void setValidatedResponseCache(ValidatedResponseCache validatedResponseCache) {
+        this.validatedResponseCache = validatedResponseCache;
+    }
+
+    @Autowired
+    public void setResponseValidationService(ResponseValidationService responseValidationService) {
+        this.responseValidationService = responseValidationService;
+    }
+
+    @Autowired
+    public void setValidateActivator(ValidateActivator validateActivator) {
+        this.validateActivator = validateActivator;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (!responseCaching.isEnabled() || request.getMethod() != HttpMethod.GET || !validateActivator.isResponseOn()
+                || validateActivator.getResponseMode() == ValidateActivator.ResponseMode.SHADOW) {
+            return chain.filter(exchange);
+        }
+        String path = request.getPath().toString();
+        if (validateActivator.isExcluded(path)) {
+            return chain.filter(exchange);
+        }
+        Route route = responseValidationService.findRoute(HttpMethod.GET, path);
+        if (route == null || !responseCaching.isCached(route.getTemplate())) {
+            return chain.filter(exchange);
+        }
+        String query = request.getURI().getRawQuery();
+        ValidatedResponseCache.Key key = new ValidatedResponseCache.Key(route.getTemplate(),
+                query == null ? path : path + "?" + query, request.getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING));
+        List<String> requestCacheControl = request.getHeaders().getOrEmpty(HttpHeaders.CACHE_CONTROL);
+        ValidatedResponseCache.Entry entry = directive(requestCacheControl, "no-cache") != null
+                || directive(requestCacheControl, "no-store") != null ? null : validatedResponseCache.find(route, key);
+        if (entry != null && entry.isFresh(System.currentTimeMillis())) {
+            return serve(request.getHeaders(), exchange.getResponse(), entry);
+        }
+        ServerWebExchange forwarded = exchange;
+        HttpHeaders conditions = request.getHeaders();
+        if (entry != null && entry.hasValidators()) {
+            // условия клиента нужны для ответа из кэша, а заголовки запроса может изменить mutate
+            conditions = new HttpHeaders();
+            conditions.addAll(HttpHeaders.IF_NONE_MATCH, request.getHeaders().getOrEmpty(HttpHeaders.IF_NONE_MATCH));
+            conditions.addAll(HttpHeaders.IF_MODIFIED_SINCE, request.getHeaders().getOrEmpty(HttpHeaders.IF_MODIFIED_SINCE));
+            // устаревший ответ подтверждаем условным запросом с валидаторами из кэша
+            String etag = entry.getHeaders().getETag();
+            String lastModified = entry.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED);
+            forwarded = exchange.mutate().request(r -> r.headers(headers -> {
+                headers.remove(HttpHeaders.IF_NONE_MATCH);
+                headers.remove(HttpHeaders.IF_MODIFIED_SINCE);
+                if (etag != null) {
+                    headers.set(HttpHeaders.IF_NONE_MATCH, etag);
+                }
+                if (lastModified != null) {
+                    headers.set(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+                }
+            })).build();
+        } else if (entry != null) {
+            validatedResponseCache.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            validatedResponseCache.record(ValidatedResponseCache.Result.MISS);
+        }
+        ServerHttpResponseDecorator response = getDecoratedResponse(exchange, conditions, route, key, entry);
+        return chain.filter(forwarded.mutate().response(response).build());
+    }
+
+    private ServerHttpResponseDecorator getDecoratedResponse(ServerWebExchange exchange, HttpHeaders conditions, Route route,
+                                                             ValidatedResponseCache.Key key, ValidatedResponseCache.Entry stale) {
+        return new ServerHttpResponseDecorator(exchange.getResponse()) {
+
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                HttpStatus status = getStatusCode();
+                if (stale != null && status == HttpStatus.NOT_MODIFIED) {
+                    return Flux.from(body)
+                            .doOnNext(DataBufferUtils::release)
+                            .then(Mono.defer(this::revalidated));
+                }
+                if (stale != null) {
+                    validatedResponseCache.record(ValidatedResponseCache.Result.MISS);
+                }
+                if (status == HttpStatus.OK && storable(exchange.getRequest().getHeaders(), getHeaders())) {
+                    return super.writeWith(store(Flux.from(body)));
+                }
+                if (stale != null) {
+                    validatedResponseCache.remove(key);
+                }
+                return super.writeWith(body);
+            }
+
+            @Override
+            public Mono<Void> setComplete() {
+                if (stale != null && getStatusCode() == HttpStatus.NOT_MODIFIED) {
+                    return revalidated();
+                }
+                return super.setComplete();
+            }
+
+            /**
+             * Сервис подтвердил сохраненный ответ (304): обновляем запись и отдаем клиенту тело из кэша
+             */
+            private Mono<Void> revalidated() {
+                HttpHeaders merged = new HttpHeaders();
+                merged.putAll(stale.getHeaders());
+                merged.putAll(getHeaders());
+                ValidatedResponseCache.Entry updated = validatedResponseCache.revalidated(key, stale, getHeaders(),
+                        freshness(route, merged));
+                validatedResponseCache.record(ValidatedResponseCache.Result.REVALIDATED);
+                getHeaders().remove(HttpHeaders.TRANSFER_ENCODING);
+                return serve(conditions, getDelegate(), updated);
+            }
+
+            /**
+             * Копирует части тела, пока не превышен {@link ResponseCaching#getMaxEntrySize()}, и после передачи
+             * последней части сохраняет ответ, если {@link ResponseGlobalFilter} проверил его без ошибок.
+             * Заголовки запоминаются до отправки ответа: при отправке к ним добавляются заголовки Spring Security
+             */
+            private Flux<DataBuffer> store(Flux<DataBuffer> body) {
+                long maxEntrySize = responseCaching.getMaxEntrySize().toBytes();
+                HttpHeaders headers = new HttpHeaders();
+                headers.putAll(getHeaders());
+                Duration freshness = freshness(route, headers);
+                if (freshness.isZero() && headers.getETag() == null && headers.getFirst(HttpHeaders.LAST_MODIFIED) == null) {
+                    // такой ответ пришлось бы запрашивать у сервиса при каждом обращении
+                    return body;
+                }
+                List<byte[]> copy = new ArrayList<>();
+                int[] size = new int[1];
+                return body.doOnNext(dataBuffer -> {
+                    int readable = dataBuffer.readableByteCount();
+                    if (size[0] >= 0 && size[0] + (long) readable <= maxEntrySize) {
+                        byte[] bytes = new byte[readable];
+                        dataBuffer.asByteBuffer(dataBuffer.readPosition(), readable).get(bytes);
+                        copy.add(bytes);
+                        size[0] += readable;
+                    } else {
+                        // ответ больше ограничения не кэшируется
+                        size[0] = -1;
+                        copy.clear();
+                    }
+                }).doOnComplete(() -> {
+                    if (size[0] >= 0 && exchange.getAttribute(ResponseGlobalFilter.VALIDATED_ATTRIBUTE) != null) {
+                        validatedResponseCache.put(route, key, headers, copy, size[0], freshness);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Отдает ответ из кэша: 304, если ETag или Last-Modified совпадает с условием запроса клиента, иначе 200 с телом
+     */
+    private Mono<Void> serve(HttpHeaders conditions, ServerHttpResponse response, ValidatedResponseCache.Entry entry) {
+        HttpHeaders headers = response.getHeaders();
+        headers.putAll(entry.getHeaders());
+        headers.set(HttpHeaders.AGE, String.valueOf(Math.max(0, (System.currentTimeMillis() - entry.getStoredAt()) / 1000)));
+        if (notModified(conditions, entry.getHeaders())) {
+            validatedResponseCache.record(ValidatedResponseCache.Result.NOT_MODIFIED);
+            response.setStatusCode(HttpStatus.NOT_MODIFIED);
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            return response.setComplete();
+        }
+        validatedResponseCache.record(ValidatedResponseCache.Result.HIT);
+        response.setStatusCode(HttpStatus.OK);
+        headers.setContentLength(entry.getBody().remaining());
+        return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(entry.body())));
+    }
+
+    private static boolean notModified(HttpHeaders request, HttpHeaders stored) {
+        List<String> ifNoneMatch = request.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            String etag = stored.getETag();
+            return etag != null && ifNoneMatch.stream().anyMatch(tag -> "*".equals(tag) || weak(tag).equals(weak(etag)));
+        }
+        long ifModifiedSince = request.getIfModifiedSince();
+        return ifModifiedSince >= 0 && stored.getLastModified() >= 0 && stored.getLastModified() <= ifModifiedSince;
+    }
+
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * Ответ на запрос с учетными данными может зависеть от пользователя, а ключ кэша их не содержит, поэтому такой
+     * ответ сохраняется, только если сервис явно разрешил общий кэш (RFC 7234 §3.2)
+     *
+     * @param request заголовки запроса клиента
+     * @param headers заголовки ответа
+     * @return true, если сервис разрешил хранить ответ в общем кэше
+     */
+    static boolean storable(HttpHeaders request, HttpHeaders headers) {
+        List<String> cacheControl = headers.getOrEmpty(HttpHeaders.CACHE_CONTROL);
+        if (directive(cacheControl, "no-store") != null || directive(cacheControl, "private") != null
+                || headers.containsKey(HttpHeaders.SET_COOKIE)) {
+            return false;
+        }
+        if ((request.containsKey(HttpHeaders.AUTHORIZATION) || request.containsKey(HttpHeaders.COOKIE))
+                && directive(cacheControl, "public") == null && directive(cacheControl, "s-maxage") == null
+                && directive(cacheControl, "must-revalidate") == null) {
+            return false;
+        }
+        return headers.getVary().stream().allMatch(HttpHeaders.ACCEPT_ENCODING::equalsIgnoreCase);
+    }
+
+    /**
+     * Время свежести ответа: 's-maxage' или 'max-age' за вычетом Age, иначе разница Expires и Date, иначе время
+     * маршрута из {@link ResponseCaching#getRoutes()}. Ответ с 'no-cache' подтверждается при каждом запросе
+     */
+    Duration freshness(Route route, HttpHeaders headers) {
+        List<String> cacheControl = headers.getOrEmpty(HttpHeaders.CACHE_CONTROL);
+        if (directive(cacheControl, "no-cache") != null) {
+            return Duration.ZERO;
+        }
+        String maxAge = directive(cacheControl, "s-maxage");
+        if (maxAge == null) {
+            maxAge = directive(cacheControl, "max-age");
+        }
+        if (maxAge != null) {
+            try {
+                long age = headers.containsKey(HttpHeaders.AGE) ? Long.parseLong(headers.getFirst(HttpHeaders.AGE).trim()) : 0;
+                return Duration.ofSeconds(Math.max(0, Long.parseLong(maxAge) - age));
+            } catch (NumberFormatException e) {
+                log.debug("Invalid max-age or Age in response for {}: {}", route, e.getMessage());
+                return Duration.ZERO;
+            }
+        }
+        if (headers.containsKey(HttpHeaders.EXPIRES)) {
+            long expires = headers.getExpires();
+            long date = headers.getDate();
+            return Duration.ofMillis(Math.max(0, expires - (date >= 0 ? date : System.currentTimeMillis())));
+        }
+        return responseCaching.getDefaultTtl(route.getTemplate());
+    }
+
+    /**
+     * @return значение директивы Cache-Control, пустая строка для директивы без значения, null если ее нет
+     */
+    private static String directive(List<String> cacheControl, String name) {
+        for (String header : cacheControl) {
+            for (String token : StringUtils.tokenizeToStringArray(header, ",")) {
+                int eq = token.indexOf('=');
+                String directive = (eq < 0 ? token : token.substring(0, eq)).trim().toLowerCase(Locale.ROOT);
+                if (directive.equals(name)) {
+                    return eq < 0 ? "" : StringUtils.trimTrailingCharacter(StringUtils.trimLeadingCharacter(
+                            token.substring(eq + 1).trim(), '"'), '"');
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Выполняется до {@link ResponseGlobalFilter}, чтобы ответы из кэша не проверялись повторно
+     */
+    @Override
+    public int getOrder() {
+        return -2;
+    }
+}
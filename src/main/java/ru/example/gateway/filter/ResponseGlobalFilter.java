@@ -9,9 +9,11 @@ import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
 import org.springframework.core.io.buffer.DataBuffer;
-import org.springframework.core.io.buffer.DataBufferFactory;
-import org.springframework.core.io.buffer.DefaultDataBuffer;
-import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpResponse;
@@ -25,8 +27,23 @@ import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
+import ru.example.gateway.cache.ValidationResultCache;
+import ru.example.gateway.config.exception.ValidationException;
+import ru.example.gateway.metrics.ValidationMetrics;
+import ru.example.gateway.model.BodyLimits;
+import ru.example.gateway.model.ValidationQueue;
+import ru.example.gateway.model.ValidationOutcome;
+import ru.example.gateway.parser.ContentEncodings;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.sampling.ResponseSampler;
+import ru.example.gateway.scheduler.ValidationScheduler;
+import ru.example.gateway.service.ShadowResponseValidator;
 import ru.example.gateway.service.implementation.ResponseValidationService;
 import ru.example.gateway.model.ValidateActivator;
 
@@ -37,14 +54,30 @@ import ru.example.gateway.model.ValidateActivator;
 @Slf4j
 public class ResponseGlobalFilter implements WebFilter, Ordered {
     /**
-     * ответ от {@link RequestGlobalFilter}
+     * Атрибут обмена: если он задан (например, {@link RequestGlobalFilter} уже ответил ошибкой), ответ не проверяется
      */
-    private static final String ERROR_RESPONSE = "{\"status\":";
+    public static final String SKIP_VALIDATION_ATTRIBUTE = ResponseGlobalFilter.class.getName() + ".skipValidation";
+    /**
+     * Атрибут обмена: задается, когда тело ответа полностью проверено по схеме маршрута и ошибок нет
+     */
+    public static final String VALIDATED_ATTRIBUTE = ResponseGlobalFilter.class.getName() + ".validated";
 
     private ValidateActivator validateActivator;
 
     private ResponseValidationService responseValidationService;
 
+    private ValidationMetrics validationMetrics;
+
+    private BodyLimits bodyLimits;
+
+    private ValidationScheduler validationScheduler;
+
+    private ValidationQueue validationQueue;
+
+    private ResponseSampler responseSampler;
+
+    private ShadowResponseValidator shadowResponseValidator;
+
     @Autowired
     public void setValidateActivator(ValidateActivator validateActivator) {
         this.validateActivator = validateActivator;
@@ -55,19 +88,47 @@ public class ResponseGlobalFilter implements WebFilter, Ordered {
         this.responseValidationService = responseValidationService;
     }
 
+    @Autowired
+    public void setValidationMetrics(ValidationMetrics validationMetrics) {
+        this.validationMetrics = validationMetrics;
+    }
+
+    @Autowired
+    public void setBodyLimits(BodyLimits bodyLimits) {
+        this.bodyLimits = bodyLimits;
+    }
+
+    @Autowired
+    public void setValidationScheduler(ValidationScheduler validationScheduler) {
+        this.validationScheduler = validationScheduler;
+    }
+
+    @Autowired
+    public void setValidationQueue(ValidationQueue validationQueue) {
+        this.validationQueue = validationQueue;
+    }
+
+    @Autowired
+    public void setResponseSampler(ResponseSampler responseSampler) {
+        this.responseSampler = responseSampler;
+    }
+
+    @Autowired
+    public void setShadowResponseValidator(ShadowResponseValidator shadowResponseValidator) {
+        this.shadowResponseValidator = shadowResponseValidator;
+    }
+
     /**
-     * Реализация метода фильтра ответов. Может быть включен или выключен {@link ValidateActivator}
+     * Реализация метода фильтра ответов. Может быть включен или выключен {@link ValidateActivator}.
+     * Ответы собственных эндпоинтов шлюза ({@link ValidateActivator#getExcludedPaths()}) не проверяются
      */
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
         String path = exchange.getRequest().getPath().toString();
         ServerHttpResponse response = exchange.getResponse();
         ServerHttpRequest request = exchange.getRequest();
-        DataBufferFactory dataBufferFactory = response.bufferFactory();
-        MediaType responseContentType = response.getHeaders().getContentType();
-        System.out.println(responseContentType);
-        if (validateActivator.isResponseOn()) {
-            ServerHttpResponseDecorator decoratedResponse = getDecoratedResponse(path, response, request, dataBufferFactory, exchange);
+        if (validateActivator.isResponseOn() && !validateActivator.isExcluded(path)) {
+            ServerHttpResponseDecorator decoratedResponse = getDecoratedResponse(path, response, request, exchange);
             return chain.filter(exchange.mutate().response(decoratedResponse).build());
         } else {
             log.debug("Validate response off");
@@ -76,39 +137,59 @@ public class ResponseGlobalFilter implements WebFilter, Ordered {
     }
 
     /**
-     * Получает и валидирует тело ответа
+     * Получает и валидирует тело ответа. Время получения, разбора и проверки тела, его размер и результат
+     * записываются в {@link ValidationMetrics}. Части тела собираются, пока не превышено ограничение из
+     * {@link BodyLimits}: ответ большего размера пропускается без валидации или заменяется ошибкой сервера
+     * (в зависимости от {@link BodyLimits#getOversizedResponse()}). Разбор и проверка по схеме выполняются
+     * в {@link ValidationScheduler}. Проверяются только ответы, отобранные {@link ResponseSampler}.
+     * В режиме {@link ValidateActivator.ResponseMode#SHADOW} ответ не задерживается, а проверяется в фоне
+     * ({@link ShadowResponseValidator}). Решение о проверке принимается по статусу, заголовкам и атрибутам обмена
+     * до получения тела: ответы, которые не нужно проверять, передаются без сбора частей.
+     * Тело со сжатием gzip или deflate распаковывается по мере разбора, клиенту передаются исходные сжатые части.
+     * Распакованное тело больше {@link BodyLimits#getMaxInflatedSize()} обрабатывается как ответ больше ограничения.
+     * При включенной поэлементной валидации ({@link ValidateActivator#isElementWiseOn()}) проверяются и ответы
+     * 'application/x-ndjson', а массивы со схемой элемента разбираются и проверяются по одному элементу
      */
-    private ServerHttpResponseDecorator getDecoratedResponse(String path, ServerHttpResponse response, ServerHttpRequest request, DataBufferFactory dataBufferFactory, ServerWebExchange exchange) {
+    private ServerHttpResponseDecorator getDecoratedResponse(String path, ServerHttpResponse response, ServerHttpRequest request, ServerWebExchange exchange) {
         return new ServerHttpResponseDecorator(response) {
 
             @Override
             public Mono<Void> writeWith(final Publisher<? extends DataBuffer> body) {
 
-                if (body instanceof Flux) {
-                    Flux<? extends DataBuffer> fluxBody = (Flux<? extends DataBuffer>) body;
-                    return super.writeWith(fluxBody.buffer().map(dataBuffers -> {
-
-                        DefaultDataBuffer joinedBuffers = new DefaultDataBufferFactory().join(dataBuffers);
-                        byte[] content = new byte[joinedBuffers.readableByteCount()];
-                        joinedBuffers.read(content);
-                        String responseBody = new String(content, StandardCharsets.UTF_8);
-                        log.debug("requestId: {}, method: {}, url: {}, \nresponse body :{}", request.getId(), request.getMethodValue(), request.getURI(), responseBody);
-                        MediaType responseContentType = exchange.getResponse().getHeaders().getContentType();
-                        // Проверяем: если ответ от фильтра входящих запросов, то сразу пропускаем его. Иначе начинаем валидацию
-                        if (responseBody.startsWith(ERROR_RESPONSE)) {
-                            log.debug("Skip validation. Error in request validator filter");
-                            return dataBufferFactory.wrap(responseBody.getBytes());
-                        }
-                        if (!MediaType.APPLICATION_JSON.equalsTypeAndSubtype(responseContentType)) {
-                            log.debug("Skip validation. Response content type is {}", responseContentType);
-                            return dataBufferFactory.wrap(responseBody.getBytes());
-                        }
-                        String method = request.getMethodValue().toLowerCase();
-                        String result = responseValidationService.validate(method, responseBody, path);
-                        return dataBufferFactory.wrap(result.getBytes());
-
-
-                    })).onErrorResume(err -> {
+                if (body instanceof Flux && validated()) {
+                    Flux<DataBuffer> fluxBody = Flux.from(body);
+                    Route limitRoute = responseValidationService.findRoute(request.getMethod(), path);
+                    // ответ, не попавший в выборку, передается без сбора тела
+                    if (limitRoute != null && !responseSampler.sample(limitRoute)) {
+                        validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, limitRoute.getMethod(), limitRoute, ValidationOutcome.SAMPLED_OUT);
+                        return super.writeWith(body);
+                    }
+                    long limit = bodyLimits.maxResponseBytes(limitRoute);
+                    if (validateActivator.getResponseMode() == ValidateActivator.ResponseMode.SHADOW) {
+                        // части передаются клиенту сразу, копия тела (или каждый разобранный элемент) проверяется в фоне
+                        return super.writeWith(shadowResponseValidator.tee(limitRoute, request.getMethod(), fluxBody, limit, contentEncoding(), ndjson()));
+                    }
+                    Flux<DataBuffer> checkedBody;
+                    if (getHeaders().getContentLength() > limit) {
+                        // размер известен заранее - тело не собираем
+                        checkedBody = oversized(fluxBody, limitRoute, limit, 0, Collections.emptyList());
+                    } else {
+                        checkedBody = Flux.defer(() -> {
+                            long start = System.nanoTime();
+                            AtomicLong received = new AtomicLong();
+                            // части собираются в один список, пока не превышено ограничение, затем передаются по одной
+                            return fluxBody.bufferUntil(dataBuffer -> received.addAndGet(dataBuffer.readableByteCount()) > limit)
+                                    .doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release)
+                                    .switchOnFirst((first, lists) -> {
+                                        if (first.hasValue() && received.get() > limit) {
+                                            return oversized(lists.flatMapIterable(Function.identity()), limitRoute, limit,
+                                                    received.get(), first.get());
+                                        }
+                                        return validate(first.hasValue() ? first.get() : Collections.emptyList(), System.nanoTime() - start);
+                                    });
+                        });
+                    }
+                    return super.writeWith(checkedBody).onErrorResume(ValidationException.class, err -> {
                         // в случае возникновении ошибок при валидации - обрабатываем их и возвращаем пользователю ошибку сервера
                         DataBuffer exception;
                         try {
@@ -122,6 +203,130 @@ public class ResponseGlobalFilter implements WebFilter, Ordered {
                 }
                 return super.writeWith(body);
             }
+
+            /**
+             * @return true, если тело ответа нужно проверить: это json (или NDJSON при поэлементной валидации) ответ
+             * с телом на запрос не HEAD без сжатия или со сжатием gzip/deflate, и обмен не помечен
+             * {@link #SKIP_VALIDATION_ATTRIBUTE}
+             */
+            private boolean validated() {
+                if (exchange.getAttribute(SKIP_VALIDATION_ATTRIBUTE) != null) {
+                    log.debug("Skip validation. Response already formed by gateway");
+                    return false;
+                }
+                if (request.getMethod() == HttpMethod.HEAD) {
+                    return false;
+                }
+                HttpStatus status = getStatusCode();
+                if (status != null && (status.is1xxInformational() || status == HttpStatus.NO_CONTENT || status == HttpStatus.NOT_MODIFIED)) {
+                    return false;
+                }
+                MediaType responseContentType = getHeaders().getContentType();
+                if (!MediaType.APPLICATION_JSON.equalsTypeAndSubtype(responseContentType) && !ndjson()) {
+                    log.debug("Skip validation. Response content type is {}", responseContentType);
+                    return false;
+                }
+                if (!ContentEncodings.isSupported(contentEncoding())) {
+                    log.debug("Skip validation. Response content encoding is {}", contentEncoding());
+                    return false;
+                }
+                return true;
+            }
+
+            private String contentEncoding() {
+                return getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+            }
+
+            /**
+             * @return true для ответа 'application/x-ndjson', если включена поэлементная валидация
+             */
+            private boolean ndjson() {
+                return validateActivator.isElementWiseOn() && MediaType.APPLICATION_NDJSON.equalsTypeAndSubtype(getHeaders().getContentType());
+            }
+
+            /**
+             * Валидирует полностью полученное тело ответа и при успехе отдает его части без изменений
+             */
+            private Flux<DataBuffer> validate(List<DataBuffer> dataBuffers, long aggregationNanos) {
+                long size = dataBuffers.stream().mapToLong(DataBuffer::readableByteCount).sum();
+                log.debug("requestId: {}, method: {}, url: {}, response body size: {}", request.getId(), request.getMethodValue(),
+                        request.getURI(), size);
+                if (dataBuffers.isEmpty()) {
+                    return Flux.empty();
+                }
+                Route route;
+                try {
+                    route = responseValidationService.getRoute(request.getMethod(), path);
+                } catch (ValidationException e) {
+                    validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, request.getMethod(), null, e.getOutcome());
+                    dataBuffers.forEach(DataBufferUtils::release);
+                    return Flux.error(e);
+                }
+                validationMetrics.bodyReceived(ValidationResultCache.Direction.RESPONSE, route, aggregationNanos, size);
+                String contentEncoding = contentEncoding();
+                boolean ndjson = ndjson();
+                // разбираем тело прямо из буферов ответа в пуле валидации и при успехе отдаем их без изменений
+                return validationScheduler.run(() -> {
+                            responseValidationService.validate(route, dataBuffers, contentEncoding, ndjson);
+                            validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, route.getMethod(), route, ValidationOutcome.PASS);
+                            responseSampler.record(route, true);
+                            exchange.getAttributes().put(VALIDATED_ATTRIBUTE, route);
+                        }, () -> dataBuffers.forEach(DataBufferUtils::release))
+                        .onErrorResume(RejectedExecutionException.class, e -> shed(route))
+                        .onErrorResume(e -> e instanceof ValidationException
+                                && ((ValidationException) e).getOutcome() == ValidationOutcome.BODY_TOO_LARGE
+                                && bodyLimits.getOversizedResponse() == BodyLimits.OversizedPolicy.PASS_THROUGH, e -> {
+                            // распакованное тело больше ограничения: сжатый ответ передается без валидации
+                            log.warn("Skip validation. Inflated response body for {} {} exceeds {} bytes", request.getMethod(), path,
+                                    bodyLimits.getMaxInflatedSize().toBytes());
+                            validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, route.getMethod(), route, ValidationOutcome.BODY_TOO_LARGE);
+                            return Mono.empty();
+                        })
+                        .doOnError(e -> {
+                            if (e instanceof ValidationException) {
+                                ValidationOutcome outcome = ((ValidationException) e).getOutcome();
+                                validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, route.getMethod(), route, outcome);
+                                if (outcome == ValidationOutcome.VALIDATION_ERROR || outcome == ValidationOutcome.PARSE_ERROR) {
+                                    responseSampler.record(route, false);
+                                }
+                            }
+                            dataBuffers.forEach(DataBufferUtils::release);
+                        })
+                        .thenMany(Flux.fromIterable(dataBuffers));
+            }
+
+            /**
+             * Очередь валидации заполнена: ответ пропускается без валидации или заменяется ошибкой 503
+             * (в зависимости от {@link ValidationQueue#getResponseShedding()})
+             */
+            private Mono<Void> shed(Route route) {
+                if (validationQueue.getResponseShedding() == ValidationQueue.SheddingPolicy.SKIP) {
+                    log.warn("Validation queue is full, response {} passed without validation", route);
+                    validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, route.getMethod(), route, ValidationOutcome.SHED);
+                    return Mono.empty();
+                }
+                return Mono.error(responseValidationService.overloaded(route));
+            }
+
+            /**
+             * Обрабатывает ответ больше ограничения согласно {@link BodyLimits#getOversizedResponse()}
+             *
+             * @param body      все части тела ответа, включая уже полученные
+             * @param received  количество уже полученных байт
+             * @param collected уже полученные части (освобождаются, если ответ заменяется ошибкой)
+             */
+            private Flux<DataBuffer> oversized(Flux<DataBuffer> body, Route route, long limit, long received, List<DataBuffer> collected) {
+                validationMetrics.bodyRejected(ValidationResultCache.Direction.RESPONSE, request.getMethod(), route, received);
+                validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, request.getMethod(), route, ValidationOutcome.BODY_TOO_LARGE);
+                if (bodyLimits.getOversizedResponse() == BodyLimits.OversizedPolicy.PASS_THROUGH) {
+                    log.warn("Skip validation. Response body for {} {} exceeds {} bytes", request.getMethod(), path, limit);
+                    return body;
+                }
+                collected.forEach(DataBufferUtils::release);
+                ValidationException error = responseValidationService.bodyTooLarge(route, limit);
+                // подписываемся на тело только для того, чтобы отменить получение оставшихся частей
+                return body.take(0).thenMany(Flux.error(error));
+            }
         };
     }
 
@@ -0,0 +1,193 @@
+package ru.example.gateway.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import ru.example.gateway.cache.ValidationResultCache.Direction;
+import ru.example.gateway.model.ValidationOutcome;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.routing.RouteIndex;
+
+/**
+ * Метрики этапов валидации тел запросов и ответов. Все метрики помечены тегами 'direction' (request/response),
+ * 'method' и 'route' - шаблоном пути из {@link Route}, поэтому количество их значений ограничено количеством маршрутов
+ * со схемами. Для запросов без схемы 'route' = {@link #UNMATCHED_ROUTE}. Для таймеров и размеров тел публикуются
+ * гистограммы, по которым считаются перцентили (например, p99 времени валидации по маршруту)
+ */
+@Component
+public class ValidationMetrics {
+
+    public static final String BODY_AGGREGATION = "gateway.validation.body.aggregation";
+    public static final String PARSE = "gateway.validation.parse";
+    public static final String SCHEMA_VALIDATION = "gateway.validation.schema";
+    public static final String BODY_SIZE = "gateway.validation.body.size";
+    public static final String OUTCOMES = "gateway.validation.outcomes";
+    public static final String AGGREGATED_BYTES = "gateway.validation.body.aggregated";
+
+    public static final String UNMATCHED_ROUTE = "UNMATCHED";
+
+    private MeterRegistry meterRegistry;
+
+    //метрики маршрутов текущих индексов по направлениям. Маршруты сравниваются по ссылке, записи маршрутов, которых
+    //нет в текущем индексе, удаляет retain
+    private final Map<Direction, Map<Route, RouteMeters>> routeMeters = new EnumMap<>(Direction.class);
+
+    public ValidationMetrics() {
+        for (Direction direction : Direction.values()) {
+            routeMeters.put(direction, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Autowired
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Время получения тела целиком и его размер
+     *
+     * @param nanos время от подписки на тело до получения последней части
+     * @param bytes размер тела
+     */
+    public void bodyReceived(Direction direction, Route route, long nanos, long bytes) {
+        RouteMeters meters = meters(direction, route);
+        meters.aggregation.record(nanos, TimeUnit.NANOSECONDS);
+        meters.bodySize.record(bytes);
+        meters.aggregatedBytes.increment(bytes);
+    }
+
+    /**
+     * Байты тела, собранные до превышения ограничения размера
+     *
+     * @param route маршрут или null, если схема для метода и пути не найдена
+     */
+    public void bodyRejected(Direction direction, HttpMethod method, Route route, long bytes) {
+        if (route == null) {
+            aggregatedBytes(tags(direction, method, UNMATCHED_ROUTE)).increment(bytes);
+        } else {
+            meters(direction, route).aggregatedBytes.increment(bytes);
+        }
+    }
+
+    /**
+     * Время разбора json
+     */
+    public void parsed(Direction direction, Route route, long nanos) {
+        meters(direction, route).parse.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Время проверки разобранного тела по схеме
+     */
+    public void validated(Direction direction, Route route, long nanos) {
+        meters(direction, route).schemaValidation.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Результат валидации тела
+     *
+     * @param route маршрут или null, если схема для метода и пути не найдена
+     */
+    public void outcome(Direction direction, HttpMethod method, Route route, ValidationOutcome outcome) {
+        if (route == null) {
+            Counter.builder(OUTCOMES)
+                    .description("Validation outcomes")
+                    .tags(tags(direction, method, UNMATCHED_ROUTE))
+                    .tag("outcome", tag(outcome))
+                    .register(meterRegistry)
+                    .increment();
+        } else {
+            meters(direction, route).outcomes.get(outcome).increment();
+        }
+    }
+
+    /**
+     * Удаляет ссылки на метрики маршрутов, которых нет в индексе (метрики в реестре сохраняются). Вызывается при
+     * формировании индекса и замене схем на месте
+     *
+     * @param routeIndex текущий индекс маршрутов направления
+     */
+    public void retain(Direction direction, RouteIndex routeIndex) {
+        routeMeters.get(direction).keySet().retainAll(new HashSet<>(routeIndex.getRoutes()));
+    }
+
+    private RouteMeters meters(Direction direction, Route route) {
+        Map<Route, RouteMeters> meters = routeMeters.get(direction);
+        RouteMeters found = meters.get(route);
+        if (found == null) {
+            //маршрут нового индекса получает метрики из реестра с теми же тегами
+            found = meters.computeIfAbsent(route, key -> new RouteMeters(tags(direction, key.getMethod(), key.getTemplate())));
+        }
+        return found;
+    }
+
+    private Counter aggregatedBytes(Tags tags) {
+        return Counter.builder(AGGREGATED_BYTES)
+                .description("Bytes held in memory for validation")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    private static Tags tags(Direction direction, HttpMethod method, String route) {
+        return Tags.of("direction", tag(direction), "method", method == null ? "UNKNOWN" : method.name(), "route", route);
+    }
+
+    private static String tag(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Зарегистрированные метрики одного маршрута, чтобы не искать их в реестре при каждом запросе
+     */
+    private final class RouteMeters {
+        private final Timer aggregation;
+        private final Timer parse;
+        private final Timer schemaValidation;
+        private final DistributionSummary bodySize;
+        private final Counter aggregatedBytes;
+        private final Map<ValidationOutcome, Counter> outcomes = new EnumMap<>(ValidationOutcome.class);
+
+        private RouteMeters(Tags tags) {
+            aggregation = timer(BODY_AGGREGATION, "Time to receive the whole body", tags);
+            parse = timer(PARSE, "Time to parse the body as json", tags);
+            schemaValidation = timer(SCHEMA_VALIDATION, "Time to validate the parsed body against the schema", tags);
+            bodySize = DistributionSummary.builder(BODY_SIZE)
+                    .description("Size of validated bodies")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            aggregatedBytes = aggregatedBytes(tags);
+            for (ValidationOutcome outcome : ValidationOutcome.values()) {
+                outcomes.put(outcome, Counter.builder(OUTCOMES)
+                        .description("Validation outcomes")
+                        .tags(tags)
+                        .tag("outcome", tag(outcome))
+                        .register(meterRegistry));
+            }
+        }
+
+        private Timer timer(String name, String description, Tags tags) {
+            return Timer.builder(name)
+                    .description(description)
+                    .tags(tags)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ru.example.gateway.routing.Route;
+
+/**
+ * POJO с ограничениями размера тел, которые собираются для валидации. Считывается из файла свойств по ключу
+ * 'bodyLimits': общие ограничения и ограничения для отдельных маршрутов в 'routes' (ключ - шаблон пути из секций
+ * request/response). Размер проверяется по мере получения частей тела, поэтому в памяти не собирается больше ограничения
+ */
+@Component
+@ConfigurationProperties(prefix = "body-limits")
+@Setter
+@Getter
+public class BodyLimits {
+
+    private DataSize maxRequestSize = DataSize.ofMegabytes(10);
+    private DataSize maxResponseSize = DataSize.ofMegabytes(10);
+
+    /**
+     * Максимальный размер распакованного тела со сжатием gzip или deflate. Ограничения выше проверяются по сжатому
+     * размеру, а это - при распаковке во время разбора, поэтому сжатая "бомба" не разворачивается в памяти
+     */
+    private DataSize maxInflatedSize = DataSize.ofMegabytes(50);
+
+    /**
+     * Что делать с ответом больше ограничения: пропустить без валидации или вернуть ошибку сервера
+     */
+    private OversizedPolicy oversizedResponse = OversizedPolicy.PASS_THROUGH;
+
+    private Map<String, Limit> routes = new HashMap<>();
+
+    /**
+     * @param route маршрут со схемой
+     * @return максимальный размер тела запроса для маршрута в байтах
+     */
+    public long maxRequestBytes(Route route) {
+        Limit limit = routes.get(route.getTemplate());
+        return (limit == null || limit.getMaxRequestSize() == null ? maxRequestSize : limit.getMaxRequestSize()).toBytes();
+    }
+
+    /**
+     * @param route маршрут со схемой или null, если схема для ответа не задана
+     * @return максимальный размер тела ответа для маршрута в байтах
+     */
+    public long maxResponseBytes(Route route) {
+        Limit limit = route == null ? null : routes.get(route.getTemplate());
+        return (limit == null || limit.getMaxResponseSize() == null ? maxResponseSize : limit.getMaxResponseSize()).toBytes();
+    }
+
+    /**
+     * Ограничения отдельного маршрута. Не заданные значения берутся из общих
+     */
+    @Setter
+    @Getter
+    public static class Limit {
+        private DataSize maxRequestSize;
+        private DataSize maxResponseSize;
+    }
+
+    public enum OversizedPolicy {
+        PASS_THROUGH, FAIL
+    }
+}
@@ -0,0 +1,80 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import ru.example.gateway.config.CachingConfig;
+
+/**
+ * POJO с настройками кэшей Caffeine. Считывается из файла свойств по ключу 'cache': 'defaults' применяется ко всем
+ * кэшам, для которых нет собственной секции в 'caches' (ключ - имя кэша)
+ */
+@Component
+@ConfigurationProperties(prefix = "cache")
+@Setter
+@Getter
+public class CachePolicies {
+
+    private static final long DEFAULT_VALIDATION_RESULTS_SIZE = 10_000;
+
+    private Policy defaults = new Policy();
+    private Map<String, Policy> caches = new HashMap<>();
+
+    public CachePolicies() {
+        defaults.setMaximumSize(1000L);
+        //кэш результатов валидации по умолчанию больше остальных, секция из свойств заменяет эти настройки
+        Policy validationResults = new Policy();
+        validationResults.setMaximumSize(DEFAULT_VALIDATION_RESULTS_SIZE);
+        caches.put(CachingConfig.VALIDATION_RESULTS_CACHE, validationResults);
+    }
+
+    /**
+     * @param cacheName имя кэша
+     * @return настройки кэша или настройки по умолчанию
+     */
+    public Policy getPolicy(String cacheName) {
+        return caches.getOrDefault(cacheName, defaults);
+    }
+
+    /**
+     * Настройки отдельного кэша
+     */
+    @Setter
+    @Getter
+    public static class Policy {
+
+        /**
+         * Максимальное количество записей
+         */
+        private Long maximumSize;
+
+        /**
+         * Максимальный суммарный размер записей (оценка по размеру схем и тел, см. CacheWeigher).
+         * Если задан, то maximumSize не применяется
+         */
+        private DataSize maximumWeight;
+
+        private Duration expireAfterWrite;
+        private Duration expireAfterAccess;
+
+        /**
+         * Фоновое обновление записи после записи. Применяется только к кэшам с загрузчиком
+         */
+        private Duration refreshAfterWrite;
+
+        /**
+         * Хранить значения по мягким ссылкам, чтобы GC мог освободить их при нехватке памяти
+         */
+        private boolean softValues;
+
+        private boolean recordStats = true;
+    }
+}
@@ -0,0 +1,42 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * POJO с настройками проверки jwt токенов в {@link ru.example.gateway.config.security.SecurityConfig}. Считывается
+ * из файла свойств по ключу 'jwtVerification'. Адрес ключей (JWKS) и издатель берутся из стандартных свойств
+ * 'spring.security.oauth2.resourceserver.jwt'
+ */
+@Component
+@ConfigurationProperties(prefix = "jwt-verification")
+@Setter
+@Getter
+public class JwtVerification {
+
+    /**
+     * Кэширование проверенных токенов до их 'exp'. Ключ - SHA-256 токена
+     */
+    private boolean cacheOn = true;
+
+    /**
+     * Максимальное количество токенов в кэше
+     */
+    private long maximumSize = 10_000;
+
+    /**
+     * Период фонового обновления ключей, если ответ JWKS не содержит 'Cache-Control: max-age'.
+     * При заданном max-age ключи обновляются по прошествии 80% от него
+     */
+    private Duration jwksRefreshInterval = Duration.ofMinutes(5);
+
+    /**
+     * Минимальный интервал между запросами JWKS из-за токенов с неизвестным 'kid'
+     */
+    private Duration jwksMinRefreshInterval = Duration.ofSeconds(30);
+}
@@ -0,0 +1,68 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * POJO с настройками ограничения частоты запросов ({@link ru.example.gateway.ratelimit.RateLimiter}).
+ * Считывается из файла свойств по ключу 'rateLimits': ограничения по умолчанию в 'defaults' и для отдельных
+ * маршрутов шлюза в 'routes' (ключ - id маршрута Spring Cloud Gateway)
+ */
+@Component
+@ConfigurationProperties(prefix = "rate-limits")
+@Setter
+@Getter
+public class RateLimits {
+
+    private boolean enabled;
+
+    /**
+     * Максимальное количество отслеживаемых корзин (маршрутов и пар маршрут-пользователь). При превышении удаляются
+     * корзины, к которым давно не обращались
+     */
+    private long maxKeys = 100_000;
+
+    /**
+     * Заголовки RateLimit-* в успешных ответах. В ответе 429 они есть всегда
+     */
+    private boolean includeHeaders = true;
+
+    private Policy defaults = new Policy();
+
+    private Map<String, Policy> routes = new HashMap<>();
+
+    /**
+     * @param routeId id маршрута шлюза
+     * @return ограничения маршрута или ограничения по умолчанию
+     */
+    public Policy getPolicy(String routeId) {
+        return routes.getOrDefault(routeId, defaults);
+    }
+
+    /**
+     * Ограничения маршрута: route - для всех запросов маршрута, principal - для запросов одного пользователя
+     * (subject jwt токена) к маршруту. Не заданное ограничение не проверяется
+     */
+    @Setter
+    @Getter
+    public static class Policy {
+        private Limit route;
+        private Limit principal;
+    }
+
+    /**
+     * Корзина токенов: replenishRate токенов в секунду, не больше burstCapacity
+     */
+    @Setter
+    @Getter
+    public static class Limit {
+        private long replenishRate;
+        private long burstCapacity;
+    }
+}
@@ -0,0 +1,38 @@
+package ru.example.gateway.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Результат обновления конфигурации и схем валидации, доступен в {@link RefreshStatus}
+ */
+@Data
+@Builder
+public class RefreshReport {
+
+    /**
+     * Измененные ключи свойств, полученных от Configuration Server
+     */
+    private Collection<String> keys;
+
+    /**
+     * true, если изменились свойства и бины refresh scope пересозданы. Иначе схемы заменены в действующих индексах
+     */
+    private boolean contextRefreshed;
+
+    /**
+     * Количество маршрутов, схемы которых заменены в действующих индексах
+     */
+    private int updatedRoutes;
+
+    private String previousCommit;
+    private String commit;
+    private List<String> added;
+    private List<String> modified;
+    private List<String> removed;
+
+    private long durationMs;
+}
@@ -0,0 +1,60 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Состояние обновления конфигурации и схем валидации. Вебхуки, полученные до начала обновления, объединяются
+ * в одно обновление с общим идентификатором
+ */
+@Getter
+public class RefreshStatus {
+
+    public enum State {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    private final long id;
+    private final Instant requestedAt = Instant.now();
+    private final AtomicInteger requests = new AtomicInteger(1);
+
+    private volatile State state = State.PENDING;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile RefreshReport report;
+    private volatile String error;
+
+    public RefreshStatus(long id) {
+        this.id = id;
+    }
+
+    /**
+     * @return количество вебхуков, объединенных в это обновление
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public void coalesce() {
+        requests.incrementAndGet();
+    }
+
+    public void start() {
+        startedAt = Instant.now();
+        state = State.RUNNING;
+    }
+
+    public void done(RefreshReport report) {
+        this.report = report;
+        finishedAt = Instant.now();
+        state = State.DONE;
+    }
+
+    public void failed(String error) {
+        this.error = error;
+        finishedAt = Instant.now();
+        state = State.FAILED;
+    }
+}
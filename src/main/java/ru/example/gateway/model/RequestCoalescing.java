@@ -0,0 +1,57 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * POJO с настройками объединения одинаковых одновременных GET запросов
+ * ({@link ru.example.gateway.filter.RequestCoalescingFilter}). Считывается из файла свойств по ключу 'requestCoalescing'.
+ * Объединяются только запросы маршрутов из 'routes' (шаблоны пути из секции response)
+ */
+@Component
+@ConfigurationProperties(prefix = "request-coalescing")
+@Setter
+@Getter
+public class RequestCoalescing {
+
+    private boolean enabled;
+
+    private Set<String> routes = new HashSet<>();
+
+    /**
+     * Заголовки запроса, которые входят в ключ вместе с путем и параметрами: запросы с разными значениями
+     * не объединяются
+     */
+    private List<String> varyHeaders = new ArrayList<>(Arrays.asList(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING,
+            HttpHeaders.AUTHORIZATION, HttpHeaders.COOKIE));
+
+    /**
+     * Время ожидания ответа первого запроса, после которого запрос передается сервису отдельно
+     */
+    private Duration maxWait = Duration.ofSeconds(5);
+
+    /**
+     * Ответ больше этого размера не передается ожидающим запросам, они передаются сервису отдельно
+     */
+    private DataSize maxResponseSize = DataSize.ofMegabytes(1);
+
+    /**
+     * @param template шаблон пути маршрута
+     * @return true, если запросы маршрута объединяются
+     */
+    public boolean isCoalesced(String template) {
+        return enabled && routes.contains(template);
+    }
+}
@@ -0,0 +1,56 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * POJO с настройками кэша проверенных ответов на GET запросы ({@link ru.example.gateway.cache.ValidatedResponseCache}).
+ * Считывается из файла свойств по ключу 'responseCaching'. Кэшируются только маршруты из 'routes'
+ * (ключ - шаблон пути из секции response, значение - время свежести ответа без 'Cache-Control: max-age' и 'Expires').
+ * Ответы этих маршрутов не должны зависеть от пользователя: кэш общий для всех клиентов шлюза
+ */
+@Component
+@ConfigurationProperties(prefix = "response-caching")
+@Setter
+@Getter
+public class ResponseCaching {
+
+    private boolean enabled;
+
+    /**
+     * Суммарный размер тел ответов в кэше (хранятся вне кучи)
+     */
+    private DataSize maxSize = DataSize.ofMegabytes(64);
+
+    /**
+     * Ответы с телом больше этого размера не кэшируются
+     */
+    private DataSize maxEntrySize = DataSize.ofMegabytes(1);
+
+    private Map<String, Duration> routes = new HashMap<>();
+
+    /**
+     * @param template шаблон пути маршрута
+     * @return true, если ответы маршрута кэшируются
+     */
+    public boolean isCached(String template) {
+        return enabled && routes.containsKey(template);
+    }
+
+    /**
+     * @param template шаблон пути маршрута
+     * @return время свежести ответа маршрута, если сервис его не указал
+     */
+    public Duration getDefaultTtl(String template) {
+        Duration ttl = routes.get(template);
+        return ttl == null ? Duration.ZERO : ttl;
+    }
+}
@@ -0,0 +1,51 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * POJO с настройками выборочной валидации ответов ({@link ru.example.gateway.sampling.ResponseSampler}).
+ * Считывается из файла свойств по ключу 'responseSampling': общая доля проверяемых ответов (от 0 до 1) и доли для
+ * отдельных маршрутов в 'routes' (ключ - шаблон пути из секции response)
+ */
+@Component
+@ConfigurationProperties(prefix = "response-sampling")
+@Setter
+@Getter
+public class ResponseSampling {
+
+    /**
+     * Доля проверяемых ответов, по умолчанию проверяются все
+     */
+    private double rate = 1.0;
+
+    private Map<String, Double> routes = new HashMap<>();
+
+    private Adaptive adaptive = new Adaptive();
+
+    /**
+     * @param template шаблон пути маршрута
+     * @return доля проверяемых ответов для маршрута
+     */
+    public double getRate(String template) {
+        return routes.getOrDefault(template, rate);
+    }
+
+    /**
+     * Адаптивная доля: после cleanValidations успешных проверок подряд доля маршрута уменьшается вдвое (но не ниже
+     * minRate), после ошибки валидации маршрут снова проверяется полностью
+     */
+    @Setter
+    @Getter
+    public static class Adaptive {
+        private boolean enabled;
+        private int cleanValidations = 1000;
+        private double minRate = 0.01;
+    }
+}
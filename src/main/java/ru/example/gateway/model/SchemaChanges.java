@@ -0,0 +1,34 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Изменения json файлов между двумя коммитами репозитория со схемами. Пути файлов указаны относительно корня
+ * репозитория, как в git
+ */
+@Getter
+public class SchemaChanges {
+
+    private final String previousCommit;
+    private final String commit;
+    private final List<String> added = new ArrayList<>();
+    private final List<String> modified = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+
+    public SchemaChanges(String previousCommit, String commit) {
+        this.previousCommit = previousCommit;
+        this.commit = commit;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && modified.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "added=" + added + ", modified=" + modified + ", removed=" + removed;
+    }
+}
@@ -0,0 +1,20 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * Снимок набора json файлов репозитория со схемами на определенном коммите
+ */
+@Getter
+public class SchemaSnapshot {
+
+    private final String commit;
+    private final Map<String, String> files;
+
+    public SchemaSnapshot(String commit, Map<String, String> files) {
+        this.commit = commit;
+        this.files = files;
+    }
+}
@@ -0,0 +1,54 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * POJO с настройками хранилища web-сессий oauth2Login ({@link ru.example.gateway.session.BoundedWebSessionStore}).
+ * Считывается из файла свойств по ключу 'sessionStore'. Время простоя сессии задается стандартным свойством
+ * 'server.reactive.session.timeout'
+ */
+@Component
+@ConfigurationProperties(prefix = "session-store")
+@Setter
+@Getter
+public class SessionStore {
+
+    /**
+     * Максимальное количество сессий в памяти. При превышении удаляется (или переносится в файлы)
+     * сессия, к которой дольше всего не обращались
+     */
+    private int maxSessions = 10_000;
+
+    /**
+     * Сжатие сериализованных атрибутов сессии
+     */
+    private boolean compressOn = true;
+
+    /**
+     * Дополнительные классы и пакеты (с '.' в конце), объекты которых можно восстанавливать из атрибутов сессии.
+     * Классы Spring Security, коллекций и java.time разрешены всегда
+     */
+    private List<String> allowedClasses = new ArrayList<>();
+
+    private FileTier fileTier = new FileTier();
+
+    /**
+     * Файловый уровень: сессии, вытесненные из памяти, сохраняются в каталог path и возвращаются в память при
+     * следующем обращении. Файлы удаляются при запуске и остановке приложения. Каталог должен принадлежать
+     * пользователю процесса, он создается с правами 0700, файлы - с правами 0600
+     */
+    @Setter
+    @Getter
+    public static class FileTier {
+        private boolean enabled;
+        private String path = System.getProperty("user.home") + "/.gateway/sessions";
+        private int maxSessions = 100_000;
+    }
+}
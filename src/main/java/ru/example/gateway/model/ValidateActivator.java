@@ -5,6 +5,11 @@ import lombok.Setter;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * POJO для включения/отключения валидации запросов и ответов. Считывается из файла свойств по ключу 'validate'
@@ -18,4 +23,47 @@ public class ValidateActivator {
     public boolean requestOn;
     private boolean responseOn;
 
+    /**
+     * Кэширование результатов валидации одинаковых (по хэшу) тел запросов и ответов. По умолчанию выключено
+     */
+    private boolean resultCacheOn;
+
+    /**
+     * Режим валидации ответов. В режиме SHADOW ответ сразу передается клиенту, а его копия проверяется в фоне,
+     * ошибки только записываются в лог и метрики
+     */
+    private ResponseMode responseMode = ResponseMode.ENFORCE;
+
+    /**
+     * Суммарный размер копий тел ответов, ожидающих фоновой валидации в режиме SHADOW
+     */
+    private DataSize shadowBufferLimit = DataSize.ofMegabytes(64);
+
+    /**
+     * Поэлементная валидация ответов: массив верхнего уровня, схема которого задает только 'items', и ответы
+     * 'application/x-ndjson' разбираются и проверяются по одному элементу. По умолчанию выключена
+     */
+    private boolean elementWiseOn;
+
+    /**
+     * Пути собственных эндпоинтов шлюза (с вложенными путями), ответы которых не проверяются
+     */
+    private List<String> excludedPaths = new ArrayList<>(Arrays.asList("/jsonschema", "/refresh", "/actuator"));
+
+    /**
+     * @param path путь запроса
+     * @return true, если путь совпадает с одним из {@link #excludedPaths} или вложен в него
+     */
+    public boolean isExcluded(String path) {
+        for (String excluded : excludedPaths) {
+            if (path.startsWith(excluded) && (path.length() == excluded.length() || path.charAt(excluded.length()) == '/')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public enum ResponseMode {
+        ENFORCE, SHADOW
+    }
 }
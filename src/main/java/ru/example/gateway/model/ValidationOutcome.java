@@ -0,0 +1,35 @@
+package ru.example.gateway.model;
+
+/**
+ * Результат валидации тела запроса/ответа, используется в метриках и в {@link ru.example.gateway.config.exception.ValidationException}
+ */
+public enum ValidationOutcome {
+    /**
+     * Тело соответствует схеме
+     */
+    PASS,
+    /**
+     * Для метода и пути не задана схема
+     */
+    SCHEMA_MISS,
+    /**
+     * Тело не является корректным json
+     */
+    PARSE_ERROR,
+    /**
+     * Тело больше ограничения {@link BodyLimits}
+     */
+    BODY_TOO_LARGE,
+    /**
+     * Очередь валидации заполнена, тело отклонено или пропущено без валидации ({@link ValidationQueue})
+     */
+    SHED,
+    /**
+     * Ответ не попал в выборку и пропущен без валидации ({@link ResponseSampling})
+     */
+    SAMPLED_OUT,
+    /**
+     * Тело не соответствует схеме
+     */
+    VALIDATION_ERROR
+}
@@ -0,0 +1,87 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * POJO с политиками валидации по схемам. Считывается из файла свойств по ключу 'validationPolicies': общая политика
+ * в 'defaults' и политики маршрутов в 'request' и 'response' (ключ - шаблон пути из одноименных секций).
+ * Политика применяется при компиляции схем в {@link ru.example.gateway.config.BeansConfig}
+ */
+@Component
+@ConfigurationProperties(prefix = "validation-policies")
+@Setter
+@Getter
+public class ValidationPolicies {
+
+    private Policy defaults = new Policy();
+
+    private Map<String, Policy> request = new HashMap<>();
+    private Map<String, Policy> response = new HashMap<>();
+
+    /**
+     * @param template шаблон пути маршрута
+     * @return политика валидации запросов маршрута, не заданные значения берутся из 'defaults'
+     */
+    public Policy requestPolicy(String template) {
+        return resolve(request.get(template));
+    }
+
+    /**
+     * @param template шаблон пути маршрута
+     * @return политика валидации ответов маршрута, не заданные значения берутся из 'defaults'
+     */
+    public Policy responsePolicy(String template) {
+        return resolve(response.get(template));
+    }
+
+    private Policy resolve(Policy route) {
+        Policy policy = new Policy();
+        policy.setFailFast(value(route == null ? null : route.getFailFast(), defaults.getFailFast(), false));
+        policy.setMaxErrors(value(route == null ? null : route.getMaxErrors(), defaults.getMaxErrors(), 0));
+        policy.setFormatAssertions(value(route == null ? null : route.getFormatAssertions(), defaults.getFormatAssertions(), true));
+        return policy;
+    }
+
+    private static <T> T value(T route, T defaults, T fallback) {
+        return route != null ? route : defaults != null ? defaults : fallback;
+    }
+
+    /**
+     * Политика валидации. Не заданные (null) значения берутся из общей политики
+     */
+    @Setter
+    @Getter
+    public static class Policy {
+
+        /**
+         * Остановить проверку на первой ошибке. Не применяется к схемам с anyOf, oneOf, not, if и contains:
+         * в них ошибка одной ветки не означает ошибку всей схемы
+         */
+        private Boolean failFast;
+
+        /**
+         * Максимальное количество ошибок в ответе с ошибкой валидации, 0 - без ограничения. При 1 проверка
+         * останавливается на первой ошибке, как с failFast
+         */
+        private Integer maxErrors;
+
+        /**
+         * Проверять ключевое слово 'format' (email, date-time, uuid и т.д.)
+         */
+        private Boolean formatAssertions;
+
+        /**
+         * @return true, если проверку можно остановить на первой ошибке
+         */
+        public boolean stopsOnFirstError() {
+            return Boolean.TRUE.equals(failFast) || (maxErrors != null && maxErrors == 1);
+        }
+    }
+}
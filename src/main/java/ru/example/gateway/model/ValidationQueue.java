@@ -0,0 +1,47 @@
+package ru.example.gateway.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * POJO с настройками пула потоков, в котором выполняется разбор и валидация тел
+ * ({@link ru.example.gateway.scheduler.ValidationScheduler}). Считывается из файла свойств по ключу 'validationQueue'
+ */
+@Component
+@ConfigurationProperties(prefix = "validation-queue")
+@Setter
+@Getter
+public class ValidationQueue {
+
+    /**
+     * Выполнять валидацию в отдельном пуле. Если выключено, валидация выполняется в потоке Netty
+     */
+    private boolean enabled = true;
+
+    /**
+     * Количество потоков, по умолчанию - по количеству ядер
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Максимальное количество тел, ожидающих валидации. Применяется только при запуске
+     */
+    private int queueSize = 1000;
+
+    /**
+     * Что делать с запросом, если очередь заполнена: отклонить с ответом 503 или пропустить без валидации
+     */
+    private SheddingPolicy requestShedding = SheddingPolicy.REJECT;
+
+    /**
+     * Что делать с ответом, если очередь заполнена: вернуть ошибку 503 или пропустить без валидации
+     */
+    private SheddingPolicy responseShedding = SheddingPolicy.SKIP;
+
+    public enum SheddingPolicy {
+        REJECT, SKIP
+    }
+}
@@ -0,0 +1,187 @@
+package ru.example.gateway.parser;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Чтение тел со сжатием из заголовка 'Content-Encoding' (gzip, deflate). Тело распаковывается по мере чтения
+ * парсером прямо из исходных частей, поэтому ни распакованное тело, ни объединенный буфер в памяти не собираются,
+ * а исходные сжатые части передаются дальше без изменений. Размер распакованного тела ограничен для защиты от
+ * сжатых "бомб"
+ */
+public final class ContentEncodings {
+
+    private static final String IDENTITY = "identity";
+    private static final String GZIP = "gzip";
+    private static final String X_GZIP = "x-gzip";
+    private static final String DEFLATE = "deflate";
+
+    private ContentEncodings() {
+    }
+
+    /**
+     * @param encoding значение заголовка 'Content-Encoding' или null
+     * @return true, если тело не сжато
+     */
+    public static boolean isIdentity(String encoding) {
+        return encoding == null || encoding.trim().isEmpty() || IDENTITY.equalsIgnoreCase(encoding.trim());
+    }
+
+    /**
+     * @param encoding значение заголовка 'Content-Encoding' или null
+     * @return сжатие в нижнем регистре без пробелов, 'identity' для несжатого тела, 'gzip' для 'x-gzip'
+     */
+    public static String normalize(String encoding) {
+        if (isIdentity(encoding)) {
+            return IDENTITY;
+        }
+        String normalized = encoding.trim().toLowerCase(Locale.ROOT);
+        return X_GZIP.equals(normalized) ? GZIP : normalized;
+    }
+
+    /**
+     * @param encoding значение заголовка 'Content-Encoding' или null
+     * @return true, если тело можно прочитать через {@link #decode(List, String, long)}
+     */
+    public static boolean isSupported(String encoding) {
+        if (isIdentity(encoding)) {
+            return true;
+        }
+        String normalized = encoding.trim().toLowerCase(Locale.ROOT);
+        return GZIP.equals(normalized) || X_GZIP.equals(normalized) || DEFLATE.equals(normalized);
+    }
+
+    /**
+     * Открывает поток чтения тела с распаковкой. Буферы не изменяются и не освобождаются
+     *
+     * @param dataBuffers части тела
+     * @param encoding    значение заголовка 'Content-Encoding' или null
+     * @param maxBytes    ограничение размера распакованного тела
+     * @return поток распакованного тела
+     * @throws IOException если сжатие не поддерживается или заголовок gzip некорректен
+     */
+    public static InputStream decode(List<? extends DataBuffer> dataBuffers, String encoding, long maxBytes) throws IOException {
+        InputStream body = new DataBufferInputStream(dataBuffers);
+        if (isIdentity(encoding)) {
+            return body;
+        }
+        String normalized = encoding.trim().toLowerCase(Locale.ROOT);
+        if (GZIP.equals(normalized) || X_GZIP.equals(normalized)) {
+            return new LimitedInputStream(new GZIPInputStream(body), maxBytes);
+        }
+        if (DEFLATE.equals(normalized)) {
+            // по RFC 9110 deflate - это поток zlib, но часть серверов отправляет его без заголовка zlib
+            return new LimitedInputStream(new EndingInflaterInputStream(body, new Inflater(!zlibWrapped(dataBuffers))), maxBytes);
+        }
+        throw new IOException("Unsupported Content-Encoding: " + encoding);
+    }
+
+    /**
+     * Проверяет заголовок zlib (RFC 1950): метод сжатия 8 и контрольная сумма первых двух байт
+     */
+    private static boolean zlibWrapped(List<? extends DataBuffer> dataBuffers) {
+        int[] header = new int[2];
+        int read = 0;
+        for (DataBuffer dataBuffer : dataBuffers) {
+            int readPosition = dataBuffer.readPosition();
+            for (int i = 0; i < dataBuffer.readableByteCount() && read < header.length; i++) {
+                header[read++] = dataBuffer.getByte(readPosition + i) & 0xFF;
+            }
+            if (read == header.length) {
+                return (header[0] & 0x0F) == 8 && ((header[0] << 8) | header[1]) % 31 == 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Распакованное тело больше ограничения
+     */
+    public static class InflatedSizeExceededException extends IOException {
+
+        private final long limit;
+
+        public InflatedSizeExceededException(long limit) {
+            super("Inflated body exceeds " + limit + " bytes");
+            this.limit = limit;
+        }
+
+        public long getLimit() {
+            return limit;
+        }
+    }
+
+    /**
+     * Поток распаковки с собственным {@link Inflater}: {@link InflaterInputStream#close()} не освобождает
+     * переданный извне Inflater, поэтому его нативная память освобождается при закрытии потока
+     */
+    private static final class EndingInflaterInputStream extends InflaterInputStream {
+
+        private EndingInflaterInputStream(InputStream in, Inflater inflater) {
+            super(in, inflater);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    /**
+     * Поток, который завершается {@link InflatedSizeExceededException}, как только прочитано больше ограничения
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private final long maxBytes;
+        private long read;
+
+        private LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int count = super.read(bytes, offset, length);
+            if (count > 0) {
+                count(count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long bytes) throws InflatedSizeExceededException {
+            read += bytes;
+            if (read > maxBytes) {
+                throw new InflatedSizeExceededException(maxBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ru.example.gateway.parser;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link InputStream} поверх списка {@link DataBuffer} без их объединения и копирования в промежуточный массив.
+ * Чтение идет через {@link DataBuffer#asByteBuffer()}, поэтому позиции исходных буферов не изменяются и после
+ * разбора они могут быть переданы дальше без изменений. Освобождение буферов остается за вызывающим кодом
+ */
+public class DataBufferInputStream extends InputStream {
+
+    private final Iterator<? extends DataBuffer> buffers;
+    private ByteBuffer current;
+
+    public DataBufferInputStream(List<? extends DataBuffer> dataBuffers) {
+        this.buffers = dataBuffers.iterator();
+    }
+
+    @Override
+    public int read() {
+        if (!hasRemaining()) {
+            return -1;
+        }
+        return current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(length, current.remaining());
+        current.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.remaining();
+    }
+
+    private boolean hasRemaining() {
+        while (current == null || !current.hasRemaining()) {
+            if (!buffers.hasNext()) {
+                return false;
+            }
+            current = buffers.next().asByteBuffer();
+        }
+        return true;
+    }
+}
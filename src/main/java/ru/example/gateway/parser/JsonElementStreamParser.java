@@ -0,0 +1,234 @@
+package ru.example.gateway.parser;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Неблокирующий парсер, который разбирает тело по мере поступления частей и передает обработчику каждый
+ * элемент массива верхнего уровня (или каждую запись NDJSON), как только он разобран полностью. Дерево всего тела
+ * не строится: в памяти находится только текущий незавершенный элемент. Если тело не является массивом, обработчику
+ * передается весь корневой элемент ({@link #isElementWise()} = false).
+ * Экземпляр не потокобезопасен и рассчитан на разбор одного тела
+ */
+public class JsonElementStreamParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.instance;
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private final boolean ndjson;
+    //обработчик разобранного элемента и его размера в байтах
+    private final ObjLongConsumer<JsonNode> listener;
+
+    //контейнеры текущего элемента, которые еще не закрыты
+    private final Deque<ContainerNode<?>> containers = new ArrayDeque<>();
+    private String fieldName;
+    private boolean valueExpected;
+    private boolean started;
+    private boolean array;
+    private boolean complete;
+
+    //смещение начала текущего элемента или -1 между элементами
+    private long elementStart = -1;
+    private long received;
+
+    private long parseNanos;
+
+    //буфер для копирования частей, которые не имеют доступного массива (например, direct буферы Netty)
+    private byte[] scratch = new byte[0];
+
+    /**
+     * @param ndjson   true для тела 'application/x-ndjson': элементами являются значения верхнего уровня
+     * @param listener обработчик разобранного элемента и его размера в байтах
+     */
+    public JsonElementStreamParser(boolean ndjson, ObjLongConsumer<JsonNode> listener) {
+        try {
+            this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        this.ndjson = ndjson;
+        this.listener = listener;
+    }
+
+    /**
+     * Передает очередную часть тела в парсер и передает обработчику все элементы, которые стали доступны.
+     * Содержимое и позиции буфера не изменяются, ссылка на буфер после возврата не сохраняется.
+     * Данные после окончания корневого массива игнорируются
+     *
+     * @param dataBuffer часть тела
+     * @throws IOException если часть содержит некорректный json
+     */
+    public void feed(DataBuffer dataBuffer) throws IOException {
+        if (complete) {
+            return;
+        }
+        int length = dataBuffer.readableByteCount();
+        if (length == 0) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        received += length;
+        ByteBuffer byteBuffer = dataBuffer.asByteBuffer();
+        if (byteBuffer.hasArray()) {
+            int start = byteBuffer.arrayOffset() + byteBuffer.position();
+            feeder.feedInput(byteBuffer.array(), start, start + length);
+        } else {
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            byteBuffer.get(scratch, 0, length);
+            feeder.feedInput(scratch, 0, length);
+        }
+        try {
+            drain();
+        } finally {
+            parseNanos += System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * Сообщает парсеру об окончании тела и передает обработчику последний элемент
+     *
+     * @throws IOException если тело пустое (кроме NDJSON) или json не завершен
+     */
+    public void finish() throws IOException {
+        if (complete) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        feeder.endOfInput();
+        try {
+            drain();
+        } finally {
+            parseNanos += System.nanoTime() - startNanos;
+        }
+        if (elementStart >= 0) {
+            throw new JsonParseException(parser, "Unexpected end-of-input: JSON document is not complete");
+        }
+        if (!ndjson && !complete) {
+            if (!started) {
+                throw new JsonParseException(parser, "No content to map due to end-of-input");
+            }
+            throw new JsonParseException(parser, "Unexpected end-of-input: expected close marker for Array");
+        }
+    }
+
+    /**
+     * @return true, если элементы - это элементы массива верхнего уровня или записи NDJSON, false, если
+     * обработчику передан весь корневой элемент тела
+     */
+    public boolean isElementWise() {
+        return ndjson || array;
+    }
+
+    /**
+     * @return размер в байтах полученной части незавершенного элемента
+     */
+    public long getPendingBytes() {
+        return elementStart < 0 ? 0 : received - elementStart;
+    }
+
+    /**
+     * @return суммарное время разбора частей в {@link #feed(DataBuffer)} и {@link #finish()}, наносекунды,
+     * включая время обработчика
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while (!complete && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (!started) {
+                started = true;
+                if (!ndjson && token == JsonToken.START_ARRAY) {
+                    array = true;
+                    continue;
+                }
+            }
+            if (containers.isEmpty()) {
+                if (array && token == JsonToken.END_ARRAY) {
+                    complete = true;
+                    break;
+                }
+                //асинхронный парсер указывает смещение токена после его первого байта
+                elementStart = parser.getTokenLocation().getByteOffset() - 1;
+            }
+            switch (token) {
+                case START_OBJECT:
+                    open(NODE_FACTORY.objectNode());
+                    break;
+                case START_ARRAY:
+                    open(NODE_FACTORY.arrayNode());
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    //асинхронный парсер пропускает '{"a":}', если части разделены после ':'
+                    if (valueExpected) {
+                        throw new JsonParseException(parser, "Unexpected close marker '}': expected a value");
+                    }
+                    close();
+                    break;
+                case FIELD_NAME:
+                    fieldName = parser.getCurrentName();
+                    valueExpected = true;
+                    break;
+                default:
+                    attach(JsonTreeStreamParser.scalar(parser, token));
+            }
+        }
+    }
+
+    private void open(ContainerNode<?> container) {
+        if (!containers.isEmpty()) {
+            attach(container);
+        }
+        containers.push(container);
+    }
+
+    private void close() {
+        ContainerNode<?> container = containers.pop();
+        if (containers.isEmpty()) {
+            emit(container);
+        }
+    }
+
+    private void attach(JsonNode value) {
+        valueExpected = false;
+        ContainerNode<?> parent = containers.peek();
+        if (parent == null) {
+            emit(value);
+        } else if (parent instanceof ObjectNode) {
+            ((ObjectNode) parent).set(fieldName, value);
+        } else {
+            ((ArrayNode) parent).add(value);
+        }
+    }
+
+    private void emit(JsonNode element) {
+        long bytes = parser.getCurrentLocation().getByteOffset() - elementStart;
+        elementStart = -1;
+        //корневой элемент, который не является массивом, - единственный
+        complete = !isElementWise();
+        listener.accept(element, bytes);
+    }
+}
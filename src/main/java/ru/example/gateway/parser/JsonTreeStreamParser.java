@@ -0,0 +1,213 @@
+package ru.example.gateway.parser;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Неблокирующий парсер json, который строит дерево {@link JsonNode} по мере поступления частей тела запроса/ответа.
+ * Каждая часть ({@link DataBuffer}) сразу передается в асинхронный парсер Jackson, поэтому некорректный json
+ * обнаруживается на первой же ошибочной части, а в памяти не собирается ни объединенный буфер, ни строка с телом.
+ * Экземпляр не потокобезопасен и рассчитан на разбор одного документа
+ */
+public class JsonTreeStreamParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.instance;
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+
+    //контейнеры (объекты и массивы), которые еще не закрыты
+    private final Deque<ContainerNode<?>> containers = new ArrayDeque<>();
+    private String fieldName;
+    private boolean valueExpected;
+    private JsonNode root;
+    private boolean started;
+
+    //время, затраченное на разбор всех частей
+    private long parseNanos;
+
+    //буфер для копирования частей, которые не имеют доступного массива (например, direct буферы Netty)
+    private byte[] scratch = new byte[0];
+
+    public JsonTreeStreamParser() {
+        try {
+            this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Передает очередную часть тела в парсер и разбирает все токены, которые стали доступны.
+     * Содержимое и позиции буфера не изменяются. Данные после окончания корневого значения игнорируются
+     *
+     * @param dataBuffer часть тела
+     * @throws IOException если часть содержит некорректный json
+     */
+    public void feed(DataBuffer dataBuffer) throws IOException {
+        if (root != null) {
+            return;
+        }
+        int length = dataBuffer.readableByteCount();
+        if (length == 0) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        ByteBuffer byteBuffer = dataBuffer.asByteBuffer();
+        if (byteBuffer.hasArray()) {
+            int start = byteBuffer.arrayOffset() + byteBuffer.position();
+            feeder.feedInput(byteBuffer.array(), start, start + length);
+        } else {
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            byteBuffer.get(scratch, 0, length);
+            feeder.feedInput(scratch, 0, length);
+        }
+        try {
+            drain();
+        } finally {
+            parseNanos += System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * Сообщает парсеру об окончании тела и возвращает построенное дерево
+     *
+     * @return корневой элемент json
+     * @throws IOException если тело пустое или json не завершен
+     */
+    public JsonNode finish() throws IOException {
+        if (root == null) {
+            long startNanos = System.nanoTime();
+            feeder.endOfInput();
+            try {
+                drain();
+            } finally {
+                parseNanos += System.nanoTime() - startNanos;
+            }
+        }
+        if (root == null) {
+            if (!started) {
+                throw new JsonParseException(parser, "No content to map due to end-of-input");
+            }
+            throw new JsonParseException(parser, "Unexpected end-of-input: JSON document is not complete");
+        }
+        return root;
+    }
+
+    /**
+     * @return true, если корневое значение полностью разобрано
+     */
+    public boolean isComplete() {
+        return root != null;
+    }
+
+    /**
+     * @return суммарное время разбора частей в {@link #feed(DataBuffer)} и {@link #finish()}, наносекунды
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while (root == null && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            started = true;
+            switch (token) {
+                case START_OBJECT:
+                    open(NODE_FACTORY.objectNode());
+                    break;
+                case START_ARRAY:
+                    open(NODE_FACTORY.arrayNode());
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    //асинхронный парсер пропускает '{"a":}', если части разделены после ':'
+                    if (valueExpected) {
+                        throw new JsonParseException(parser, "Unexpected close marker '}': expected a value");
+                    }
+                    close();
+                    break;
+                case FIELD_NAME:
+                    fieldName = parser.getCurrentName();
+                    valueExpected = true;
+                    break;
+                default:
+                    attach(scalar(parser, token));
+            }
+        }
+    }
+
+    private void open(ContainerNode<?> container) {
+        if (!containers.isEmpty()) {
+            attach(container);
+        }
+        containers.push(container);
+    }
+
+    private void close() {
+        ContainerNode<?> container = containers.pop();
+        if (containers.isEmpty()) {
+            root = container;
+        }
+    }
+
+    private void attach(JsonNode value) {
+        valueExpected = false;
+        ContainerNode<?> parent = containers.peek();
+        if (parent == null) {
+            root = value;
+        } else if (parent instanceof ObjectNode) {
+            ((ObjectNode) parent).set(fieldName, value);
+        } else {
+            ((ArrayNode) parent).add(value);
+        }
+    }
+
+    /**
+     * @return значение текущего скалярного токена парсера
+     */
+    static JsonNode scalar(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return NODE_FACTORY.textNode(parser.getText());
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                        return NODE_FACTORY.numberNode(parser.getIntValue());
+                    case LONG:
+                        return NODE_FACTORY.numberNode(parser.getLongValue());
+                    default:
+                        return NODE_FACTORY.numberNode(parser.getBigIntegerValue());
+                }
+            case VALUE_NUMBER_FLOAT:
+                return NODE_FACTORY.numberNode(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return NODE_FACTORY.booleanNode(true);
+            case VALUE_FALSE:
+                return NODE_FACTORY.booleanNode(false);
+            case VALUE_NULL:
+                return NODE_FACTORY.nullNode();
+            default:
+                throw new JsonParseException(parser, "Unexpected token " + token);
+        }
+    }
+}
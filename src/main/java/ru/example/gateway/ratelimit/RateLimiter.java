@@ -0,0 +1,200 @@
+package ru.example.gateway.ratelimit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import ru.example.gateway.model.RateLimits;
+
+/**
+ * Ограничение частоты запросов корзинами токенов ({@link TokenBucket}) в памяти шлюза, без Redis. Для маршрута
+ * шлюза проверяются две корзины из {@link RateLimits}: пользователя (subject jwt токена) на маршруте и общая
+ * корзина маршрута. Корзина пользователя проверяется первой, поэтому отклоненные запросы одного пользователя
+ * не расходуют токены маршрута. Корзины хранятся в Caffeine с ограничением количества
+ * ({@link RateLimits#getMaxKeys()}), корзина удаляется, когда снова становится полной - это не меняет ограничения.
+ * Статистика корзин публикуется в метриках 'cache.*' с тегом cache={@link #CACHE_NAME}, отклоненные запросы -
+ * в {@link #REJECTIONS} с тегами route и scope (route/principal)
+ */
+@Component
+@Slf4j
+public class RateLimiter {
+
+    public static final String REJECTIONS = "gateway.ratelimit.rejections";
+    public static final String CACHE_NAME = "rateLimitBuckets";
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private RateLimits rateLimits;
+    private MeterRegistry meterRegistry;
+
+    private Cache<Key, TokenBucket> buckets;
+    private final Map<String, Counter> routeRejections = new ConcurrentHashMap<>();
+    private final Map<String, Counter> principalRejections = new ConcurrentHashMap<>();
+
+    @Autowired
+    public void setRateLimits(RateLimits rateLimits) {
+        this.rateLimits = rateLimits;
+    }
+
+    @Autowired
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        buckets = Caffeine.newBuilder()
+                .maximumSize(rateLimits.getMaxKeys())
+                .expireAfter(new UntilFull())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, buckets, CACHE_NAME);
+    }
+
+    /**
+     * После обновления свойств из Configuration Server применяет новое ограничение количества корзин.
+     * Скорость и емкость корзин читаются при каждом запросе
+     */
+    @EventListener(RefreshScopeRefreshedEvent.class)
+    public void applySettings(RefreshScopeRefreshedEvent event) {
+        buckets.policy().eviction().ifPresent(eviction -> eviction.setMaximum(rateLimits.getMaxKeys()));
+    }
+
+    /**
+     * Берет токены запроса
+     *
+     * @param routeId   id маршрута шлюза
+     * @param principal имя пользователя или null, если запрос без аутентификации
+     * @return решение с наименьшим остатком из проверенных корзин или null, если для маршрута нет ограничений
+     */
+    public Decision check(String routeId, String principal) {
+        RateLimits.Policy policy = rateLimits.getPolicy(routeId);
+        long now = System.nanoTime();
+        Decision decision = null;
+        if (principal != null && applies(policy.getPrincipal())) {
+            decision = consume(new Key(routeId, principal), policy.getPrincipal(), now);
+            if (!decision.isAllowed()) {
+                rejections(principalRejections, routeId, "principal").increment();
+                return decision;
+            }
+        }
+        if (applies(policy.getRoute())) {
+            Decision route = consume(new Key(routeId, null), policy.getRoute(), now);
+            if (!route.isAllowed()) {
+                rejections(routeRejections, routeId, "route").increment();
+                return route;
+            }
+            if (decision == null || route.getRemaining() < decision.getRemaining()) {
+                decision = route;
+            }
+        }
+        return decision;
+    }
+
+    /**
+     * @return количество корзин (после удаления полных)
+     */
+    long size() {
+        buckets.cleanUp();
+        return buckets.estimatedSize();
+    }
+
+    private Decision consume(Key key, RateLimits.Limit limit, long now) {
+        TokenBucket bucket = buckets.get(key, k -> new TokenBucket(now));
+        long intervalNanos = Math.max(1, NANOS_PER_SECOND / limit.getReplenishRate());
+        long result = bucket.tryConsume(now, intervalNanos, limit.getBurstCapacity());
+        if (result < 0) {
+            long retryAfter = seconds(-result);
+            return new Decision(false, limit.getBurstCapacity(), 0, retryAfter);
+        }
+        return new Decision(true, limit.getBurstCapacity(), result, seconds(bucket.nanosUntilFull(now)));
+    }
+
+    private Counter rejections(Map<String, Counter> counters, String routeId, String scope) {
+        return counters.computeIfAbsent(routeId, id -> Counter.builder(REJECTIONS)
+                .description("Requests rejected by rate limits")
+                .tags("route", id, "scope", scope)
+                .register(meterRegistry));
+    }
+
+    private static boolean applies(RateLimits.Limit limit) {
+        return limit != null && limit.getReplenishRate() > 0 && limit.getBurstCapacity() > 0;
+    }
+
+    private static long seconds(long nanos) {
+        return (nanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Результат проверки корзины: значения заголовков RateLimit-Limit, RateLimit-Remaining и RateLimit-Reset
+     * (секунд до заполнения корзины, для отклоненного запроса - до появления токена)
+     */
+    @Getter
+    public static final class Decision {
+        private final boolean allowed;
+        private final long limit;
+        private final long remaining;
+        private final long reset;
+
+        Decision(boolean allowed, long limit, long remaining, long reset) {
+            this.allowed = allowed;
+            this.limit = limit;
+            this.remaining = remaining;
+            this.reset = reset;
+        }
+    }
+
+    @EqualsAndHashCode
+    private static final class Key {
+        private final String route;
+        private final String principal;
+
+        private Key(String route, String principal) {
+            this.route = route;
+            this.principal = principal;
+        }
+    }
+
+    /**
+     * Корзина хранится, пока не станет полной. Запас в секунду покрывает токен, взятый после чтения корзины
+     * (при скорости от одного токена в секунду)
+     */
+    private static final class UntilFull implements Expiry<Key, TokenBucket> {
+
+        private static final long MARGIN = NANOS_PER_SECOND;
+
+        @Override
+        public long expireAfterCreate(Key key, TokenBucket bucket, long currentTime) {
+            return bucket.nanosUntilFull(currentTime) + MARGIN;
+        }
+
+        @Override
+        public long expireAfterUpdate(Key key, TokenBucket bucket, long currentTime, long currentDuration) {
+            return bucket.nanosUntilFull(currentTime) + MARGIN;
+        }
+
+        @Override
+        public long expireAfterRead(Key key, TokenBucket bucket, long currentTime, long currentDuration) {
+            return bucket.nanosUntilFull(currentTime) + MARGIN;
+        }
+    }
+}
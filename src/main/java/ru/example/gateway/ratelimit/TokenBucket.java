@@ -0,0 +1,51 @@
+package ru.example.gateway.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Корзина токенов без блокировок. Состояние - одно число: время, когда корзина снова станет полной
+ * (алгоритм GCRA, эквивалентный корзине токенов). Запрос берет токен одной операцией compareAndSet.
+ * Скорость и емкость передаются при каждом запросе, поэтому изменение настроек применяется к существующим корзинам
+ */
+public final class TokenBucket {
+
+    private final AtomicLong fullAt;
+
+    /**
+     * @param now текущее время {@link System#nanoTime()}, корзина создается полной
+     */
+    public TokenBucket(long now) {
+        this.fullAt = new AtomicLong(now);
+    }
+
+    /**
+     * Берет один токен
+     *
+     * @param now           текущее время {@link System#nanoTime()}
+     * @param intervalNanos время появления одного токена
+     * @param capacity      емкость корзины
+     * @return количество оставшихся токенов (0 и больше), если токен взят, иначе отрицательное время
+     * в наносекундах до появления токена
+     */
+    public long tryConsume(long now, long intervalNanos, long capacity) {
+        long capacityNanos = intervalNanos * capacity;
+        while (true) {
+            long current = fullAt.get();
+            long next = (current - now > 0 ? current : now) + intervalNanos;
+            long allowedAt = next - capacityNanos;
+            if (allowedAt - now > 0) {
+                return now - allowedAt;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return (now - allowedAt) / intervalNanos;
+            }
+        }
+    }
+
+    /**
+     * @return время в наносекундах, через которое корзина станет полной
+     */
+    public long nanosUntilFull(long now) {
+        return Math.max(0, fullAt.get() - now);
+    }
+}
@@ -0,0 +1,51 @@
+package ru.example.gateway.routing;
+
+import com.networknt.schema.JsonSchema;
+
+import lombok.Getter;
+
+import org.springframework.http.HttpMethod;
+
+/**
+ * Маршрут из {@link RouteIndex}: http метод, шаблон пути (например /lam/orders/{id}/items/{itemId:int})
+ * и схема валидации для него. Экземпляры неизменяемы, создаются при формировании индекса (и при замене схем маршрута
+ * в {@link RouteIndex#update}) и переиспользуются при каждом поиске, поэтому шаблон пути можно использовать как ограниченное по количеству значение (например, в метриках)
+ */
+@Getter
+public class Route {
+
+    private final HttpMethod method;
+    private final String template;
+    private final JsonSchema schema;
+
+    //схема элемента, если схема маршрута - массив с 'items' без других ограничений. Иначе null
+    private final JsonSchema elementSchema;
+
+    //максимальное количество ошибок валидации в ответе с ошибкой, 0 - без ограничения
+    private final int maxErrors;
+
+    //версия схем маршрута. Меняется при каждом формировании индекса и замене схем маршрута
+    private final long version;
+
+    public Route(HttpMethod method, String template, JsonSchema schema, long version) {
+        this(method, template, schema, 0, version);
+    }
+
+    public Route(HttpMethod method, String template, JsonSchema schema, int maxErrors, long version) {
+        this(method, template, schema, null, maxErrors, version);
+    }
+
+    public Route(HttpMethod method, String template, JsonSchema schema, JsonSchema elementSchema, int maxErrors, long version) {
+        this.method = method;
+        this.template = template;
+        this.schema = schema;
+        this.elementSchema = elementSchema;
+        this.maxErrors = maxErrors;
+        this.version = version;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + template;
+    }
+}
@@ -0,0 +1,378 @@
+package ru.example.gateway.routing;
+
+import com.networknt.schema.JsonSchema;
+
+import org.springframework.http.HttpMethod;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Предварительно построенный индекс маршрутов со схемами валидации: для каждого {@link HttpMethod} дерево
+ * по сегментам пути. Сегмент шаблона может быть литералом или переменной:
+ * <ul>
+ *     <li>{name} - любой непустой сегмент</li>
+ *     <li>{name:int} - целое неотрицательное число</li>
+ *     <li>{name:uuid} - UUID в каноническом виде</li>
+ *     <li>{name:regex} - регулярное выражение (без '/')</li>
+ * </ul>
+ * Литералы имеют приоритет над типизированными переменными, а те - над {name}. Для совместимости маршрут без
+ * переменных также совпадает с путем, у которого в конце добавлен числовой /{id}.
+ * Поиск выполняется за O(количество сегментов) без выделения памяти (кроме переменных с регулярным выражением).
+ * После построения набор маршрутов неизменяем, а схемы маршрута можно заменить на месте ({@link #update}) при изменении
+ * только json файлов. Индекс безопасен для использования из нескольких потоков
+ */
+public class RouteIndex {
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    private static final RouteIndex EMPTY = new RouteIndex(new EnumMap<>(HttpMethod.class), Collections.emptyMap(),
+            Collections.emptyList(), 0);
+
+    private final Map<HttpMethod, Node> roots;
+    //узлы маршрутов по методу и шаблону пути для замены схем
+    private final Map<String, Node> nodes;
+    private volatile List<Route> routes;
+    private final long version;
+
+    private RouteIndex(Map<HttpMethod, Node> roots, Map<String, Node> nodes, List<Route> routes, long version) {
+        this.roots = roots;
+        this.nodes = nodes;
+        this.routes = routes;
+        this.version = version;
+    }
+
+    public static RouteIndex empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Находит маршрут для метода и пути запроса
+     *
+     * @param method http метод
+     * @param path   путь запроса
+     * @return маршрут или null, если схема для метода и пути не задана
+     */
+    public Route find(HttpMethod method, String path) {
+        if (method == null) {
+            return null;
+        }
+        Node root = roots.get(method);
+        if (root == null) {
+            return null;
+        }
+        return root.find(path, skipSlashes(path, 0));
+    }
+
+    /**
+     * @return true, если для метода задан хотя бы один маршрут
+     */
+    public boolean containsMethod(HttpMethod method) {
+        return method != null && roots.containsKey(method);
+    }
+
+    /**
+     * @return все маршруты индекса в порядке добавления
+     */
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    /**
+     * Заменяет схемы маршрута без перестроения индекса. Маршрут заменяется новым экземпляром с новой версией, поэтому
+     * запросы, уже получившие маршрут, проверяются прежними схемами, а результаты валидации по ним не используются
+     * для новых запросов
+     *
+     * @param method        http метод
+     * @param template      шаблон пути маршрута
+     * @param schema        новая схема валидации
+     * @param elementSchema новая схема элемента массива или null
+     * @return новый маршрут или null, если маршрута нет в индексе или его схемы не изменились
+     */
+    public synchronized Route update(HttpMethod method, String template, JsonSchema schema, JsonSchema elementSchema) {
+        Node node = nodes.get(method + " " + template);
+        if (node == null) {
+            return null;
+        }
+        Route previous = node.route;
+        if (previous.getSchema() == schema && previous.getElementSchema() == elementSchema) {
+            return null;
+        }
+        Route route = new Route(method, previous.getTemplate(), schema, elementSchema, previous.getMaxErrors(),
+                VERSIONS.incrementAndGet());
+        List<Route> updated = new ArrayList<>(routes);
+        updated.set(updated.indexOf(previous), route);
+        node.route = route;
+        routes = Collections.unmodifiableList(updated);
+        return route;
+    }
+
+    /**
+     * @return версия индекса, уникальная для каждого построенного индекса
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    private static int skipSlashes(String path, int index) {
+        int length = path.length();
+        while (index < length && path.charAt(index) == '/') {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Построитель {@link RouteIndex}
+     */
+    public static class Builder {
+
+        private final Map<HttpMethod, Node> roots = new EnumMap<>(HttpMethod.class);
+        private final Map<String, Node> nodes = new HashMap<>();
+        private final List<Route> routes = new ArrayList<>();
+        private final long version = VERSIONS.incrementAndGet();
+
+        /**
+         * Добавляет маршрут в индекс
+         *
+         * @param method   http метод
+         * @param template шаблон пути, например /lam/orders/{id}/items/{itemId:int}
+         * @param schema   схема валидации
+         * @return этот построитель
+         * @throws IllegalArgumentException если шаблон некорректен или такой маршрут уже добавлен
+         */
+        public Builder add(HttpMethod method, String template, JsonSchema schema) {
+            return add(method, template, schema, 0);
+        }
+
+        /**
+         * Добавляет маршрут в индекс
+         *
+         * @param method    http метод
+         * @param template  шаблон пути, например /lam/orders/{id}/items/{itemId:int}
+         * @param schema    схема валидации
+         * @param maxErrors максимальное количество ошибок валидации в ответе с ошибкой, 0 - без ограничения
+         * @return этот построитель
+         * @throws IllegalArgumentException если шаблон некорректен или такой маршрут уже добавлен
+         */
+        public Builder add(HttpMethod method, String template, JsonSchema schema, int maxErrors) {
+            return add(method, template, schema, null, maxErrors);
+        }
+
+        /**
+         * Добавляет маршрут в индекс
+         *
+         * @param method        http метод
+         * @param template      шаблон пути, например /lam/orders/{id}/items/{itemId:int}
+         * @param schema        схема валидации
+         * @param elementSchema схема элемента массива верхнего уровня для поэлементной валидации или null
+         * @param maxErrors     максимальное количество ошибок валидации в ответе с ошибкой, 0 - без ограничения
+         * @return этот построитель
+         * @throws IllegalArgumentException если шаблон некорректен или такой маршрут уже добавлен
+         */
+        public Builder add(HttpMethod method, String template, JsonSchema schema, JsonSchema elementSchema, int maxErrors) {
+            Node node = roots.computeIfAbsent(method, m -> new Node());
+            int length = template.length();
+            int start = skipSlashes(template, 0);
+            while (start < length) {
+                int end = template.indexOf('/', start);
+                if (end < 0) {
+                    end = length;
+                }
+                node = node.child(template.substring(start, end));
+                start = skipSlashes(template, end);
+            }
+            if (node.route != null) {
+                throw new IllegalArgumentException("Duplicate route " + method + " " + template + " (already defined as " + node.route.getTemplate() + ")");
+            }
+            node.route = new Route(method, template, schema, elementSchema, maxErrors, version);
+            routes.add(node.route);
+            nodes.put(method + " " + template, node);
+            return this;
+        }
+
+        public RouteIndex build() {
+            roots.values().forEach(Node::freeze);
+            return new RouteIndex(roots, new HashMap<>(nodes), Collections.unmodifiableList(new ArrayList<>(routes)), version);
+        }
+    }
+
+    /**
+     * Узел дерева маршрутов. Литеральные дочерние сегменты хранятся в хэш-таблице с открытой адресацией, чтобы
+     * сравнивать их с участком пути без создания подстрок
+     */
+    private static class Node {
+
+        private Map<String, Node> literals = new LinkedHashMap<>();
+        private final Map<String, Node> variables = new LinkedHashMap<>();
+
+        private String[] literalKeys;
+        private Node[] literalNodes;
+        private SegmentMatcher[] variableMatchers;
+        private Node[] variableNodes;
+
+        private volatile Route route;
+
+        Node child(String segment) {
+            if (segment.startsWith("{")) {
+                if (!segment.endsWith("}")) {
+                    throw new IllegalArgumentException("Invalid path variable " + segment);
+                }
+                int colon = segment.indexOf(':');
+                String type = colon < 0 ? "" : segment.substring(colon + 1, segment.length() - 1);
+                return variables.computeIfAbsent(type, t -> new Node());
+            }
+            return literals.computeIfAbsent(segment, s -> new Node());
+        }
+
+        void freeze() {
+            int capacity = Integer.highestOneBit(Math.max(1, literals.size()) * 2 - 1) << 1;
+            literalKeys = new String[capacity];
+            literalNodes = new Node[capacity];
+            for (Map.Entry<String, Node> entry : literals.entrySet()) {
+                int index = spread(entry.getKey().hashCode()) & (capacity - 1);
+                while (literalKeys[index] != null) {
+                    index = (index + 1) & (capacity - 1);
+                }
+                literalKeys[index] = entry.getKey();
+                literalNodes[index] = entry.getValue();
+                entry.getValue().freeze();
+            }
+            literals = null;
+
+            //типизированные переменные проверяются раньше, чем {name}
+            List<String> types = new ArrayList<>(variables.keySet());
+            if (types.remove("")) {
+                types.add("");
+            }
+            variableMatchers = new SegmentMatcher[types.size()];
+            variableNodes = new Node[types.size()];
+            for (int i = 0; i < types.size(); i++) {
+                variableMatchers[i] = SegmentMatcher.of(types.get(i));
+                variableNodes[i] = variables.get(types.get(i));
+                variableNodes[i].freeze();
+            }
+        }
+
+        Route find(String path, int start) {
+            int length = path.length();
+            if (start >= length) {
+                return route;
+            }
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            int next = skipSlashes(path, end);
+
+            Node literal = literal(path, start, end);
+            if (literal != null) {
+                Route found = literal.find(path, next);
+                if (found != null) {
+                    return found;
+                }
+            }
+            for (int i = 0; i < variableMatchers.length; i++) {
+                if (variableMatchers[i].matches(path, start, end)) {
+                    Route found = variableNodes[i].find(path, next);
+                    if (found != null) {
+                        return found;
+                    }
+                }
+            }
+            //совместимость: путь вида /path/{id}, где id - целое число, проверяется схемой для /path
+            if (route != null && next >= length && SegmentMatcher.INT.matches(path, start, end)) {
+                return route;
+            }
+            return null;
+        }
+
+        private Node literal(String path, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + path.charAt(i);
+            }
+            int mask = literalKeys.length - 1;
+            int length = end - start;
+            for (int index = spread(hash) & mask; literalKeys[index] != null; index = (index + 1) & mask) {
+                String key = literalKeys[index];
+                if (key.length() == length && path.regionMatches(start, key, 0, length)) {
+                    return literalNodes[index];
+                }
+            }
+            return null;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * Проверка сегмента пути на соответствие переменной шаблона
+     */
+    private interface SegmentMatcher {
+
+        SegmentMatcher ANY = (path, start, end) -> end > start;
+
+        SegmentMatcher INT = (path, start, end) -> {
+            if (end <= start) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                char c = path.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        };
+
+        SegmentMatcher UUID = (path, start, end) -> {
+            if (end - start != 36) {
+                return false;
+            }
+            for (int i = 0; i < 36; i++) {
+                char c = path.charAt(start + i);
+                if (i == 8 || i == 13 || i == 18 || i == 23) {
+                    if (c != '-') {
+                        return false;
+                    }
+                } else if (Character.digit(c, 16) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        };
+
+        boolean matches(String path, int start, int end);
+
+        static SegmentMatcher of(String type) {
+            switch (type) {
+                case "":
+                    return ANY;
+                case "int":
+                    return INT;
+                case "uuid":
+                    return UUID;
+                default:
+                    Pattern pattern = Pattern.compile(type);
+                    return (path, start, end) -> end > start && pattern.matcher(path).region(start, end).matches();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ru.example.gateway.sampling;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.example.gateway.model.ResponseSampling;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.routing.RouteIndex;
+
+/**
+ * Решает, проверять ли ответ маршрута, по доле из {@link ResponseSampling}. Ответы, не попавшие в выборку,
+ * передаются клиенту без сбора тела. В адаптивном режиме доля маршрута снижается после серии успешных проверок
+ * и возвращается к 100% после ошибки
+ */
+@Component
+@Slf4j
+public class ResponseSampler {
+
+    private ResponseSampling responseSampling;
+
+    //состояние маршрутов текущего индекса ответов. Маршруты сравниваются по ссылке, записи маршрутов, которых нет
+    //в текущем индексе, удаляет retain
+    private final Map<Route, RouteState> states = new ConcurrentHashMap<>();
+
+    @Autowired
+    public void setResponseSampling(ResponseSampling responseSampling) {
+        this.responseSampling = responseSampling;
+    }
+
+    /**
+     * @param route маршрут со схемой ответа
+     * @return true, если ответ нужно проверить
+     */
+    public boolean sample(Route route) {
+        double rate = state(route).rate;
+        return rate >= 1.0 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * Учитывает результат проверки ответа в адаптивном режиме
+     *
+     * @param route маршрут со схемой ответа
+     * @param valid true, если ответ соответствует схеме
+     */
+    public void record(Route route, boolean valid) {
+        ResponseSampling.Adaptive adaptive = responseSampling.getAdaptive();
+        if (!adaptive.isEnabled()) {
+            return;
+        }
+        RouteState state = state(route);
+        if (!valid) {
+            state.clean.set(0);
+            if (state.rate < 1.0) {
+                log.info("Response validation failed for {}, sample rate reset to 1.0", route);
+            }
+            state.rate = 1.0;
+        } else if (state.clean.incrementAndGet() >= adaptive.getCleanValidations()) {
+            state.clean.set(0);
+            double rate = Math.max(adaptive.getMinRate(), state.rate / 2);
+            if (rate < state.rate) {
+                log.debug("Sample rate for {} lowered to {}", route, rate);
+                state.rate = rate;
+            }
+        }
+    }
+
+    /**
+     * @return текущая доля проверяемых ответов маршрута
+     */
+    public double getRate(Route route) {
+        return state(route).rate;
+    }
+
+    /**
+     * После обновления свойств из Configuration Server доли маршрутов считаются заново
+     */
+    @EventListener(RefreshScopeRefreshedEvent.class)
+    public void reset(RefreshScopeRefreshedEvent event) {
+        states.clear();
+    }
+
+    /**
+     * Удаляет состояние маршрутов, которых нет в индексе. Вызывается при формировании индекса и замене схем на месте:
+     * доли остальных маршрутов сохраняются
+     *
+     * @param routeIndex текущий индекс маршрутов ответов
+     */
+    public void retain(RouteIndex routeIndex) {
+        states.keySet().retainAll(new HashSet<>(routeIndex.getRoutes()));
+    }
+
+    private RouteState state(Route route) {
+        RouteState state = states.get(route);
+        if (state == null) {
+            state = states.computeIfAbsent(route, key -> new RouteState(responseSampling.getRate(key.getTemplate())));
+        }
+        return state;
+    }
+
+    private static final class RouteState {
+        private volatile double rate;
+        private final AtomicInteger clean = new AtomicInteger();
+
+        private RouteState(double rate) {
+            this.rate = rate;
+        }
+    }
+}
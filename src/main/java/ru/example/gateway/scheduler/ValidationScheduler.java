@@ -0,0 +1,158 @@
+package ru.example.gateway.scheduler;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ru.example.gateway.model.ValidationQueue;
+
+/**
+ * Пул потоков для разбора и валидации тел, чтобы тяжелые схемы и большие тела не останавливали потоки Netty.
+ * Размер пула и очереди задаются в {@link ValidationQueue}. Если очередь заполнена, задача не выполняется, а результат
+ * завершается {@link RejectedExecutionException} - решение о сбросе нагрузки принимают фильтры.
+ * Метрики пула публикуются actuator как 'executor.*' с тегом name=validation: 'executor.queued' - глубина очереди,
+ * 'executor.idle' - время ожидания в очереди, 'executor' - время выполнения
+ */
+@Component
+@Slf4j
+public class ValidationScheduler {
+
+    public static final String NAME = "validation";
+
+    private ValidationQueue validationQueue;
+    private MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor executor;
+    private ExecutorService monitored;
+
+    @Autowired
+    public void setValidationQueue(ValidationQueue validationQueue) {
+        this.validationQueue = validationQueue;
+    }
+
+    @Autowired
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        int threads = Math.max(1, validationQueue.getThreads());
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, validationQueue.getQueueSize())), runnable -> {
+            Thread thread = new Thread(runnable, NAME + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        monitored = ExecutorServiceMetrics.monitor(meterRegistry, executor, NAME, Collections.emptyList());
+        log.info("Validation scheduler started with {} threads and queue size {}", threads, validationQueue.getQueueSize());
+    }
+
+    /**
+     * Выполняет валидацию в пуле. Если пул выключен ({@link ValidationQueue#isEnabled()}), то в текущем потоке
+     *
+     * @param validation разбор и валидация тела
+     * @return завершается после валидации, с ошибкой валидации или с {@link RejectedExecutionException},
+     * если очередь заполнена
+     */
+    public Mono<Void> run(Runnable validation) {
+        return run(validation, () -> { });
+    }
+
+    /**
+     * Выполняет валидацию в пуле. Если подписка отменена (например, клиент закрыл соединение) до завершения
+     * валидации, вызывается onCancel: сразу, если задача еще в очереди, или после ее завершения, если она
+     * выполняется и еще читает тело
+     *
+     * @param validation разбор и валидация тела
+     * @param onCancel   освобождение тела, которое читает валидация
+     * @return завершается после валидации, с ошибкой валидации или с {@link RejectedExecutionException},
+     * если очередь заполнена
+     */
+    public Mono<Void> run(Runnable validation, Runnable onCancel) {
+        if (!validationQueue.isEnabled()) {
+            return Mono.fromRunnable(validation);
+        }
+        return Mono.create(sink -> {
+            AtomicReference<TaskState> state = new AtomicReference<>(TaskState.QUEUED);
+            Future<?> future;
+            try {
+                future = monitored.submit(() -> {
+                    if (!state.compareAndSet(TaskState.QUEUED, TaskState.RUNNING)) {
+                        return;
+                    }
+                    try {
+                        validation.run();
+                        sink.success();
+                    } catch (Throwable e) {
+                        sink.error(e);
+                    } finally {
+                        //подписка отменена во время выполнения: результат никто не получит
+                        if (!state.compareAndSet(TaskState.RUNNING, TaskState.DONE)) {
+                            onCancel.run();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                sink.error(e);
+                return;
+            }
+            sink.onCancel(() -> {
+                future.cancel(false);
+                //отмененная задача не должна занимать место в очереди
+                if (future instanceof Runnable) {
+                    executor.remove((Runnable) future);
+                }
+                if (state.getAndSet(TaskState.CANCELLED) == TaskState.QUEUED) {
+                    onCancel.run();
+                }
+            });
+        });
+    }
+
+    /**
+     * После обновления свойств из Configuration Server применяет новое количество потоков
+     */
+    @EventListener(RefreshScopeRefreshedEvent.class)
+    public void applySettings(RefreshScopeRefreshedEvent event) {
+        int threads = Math.max(1, validationQueue.getThreads());
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else if (threads < executor.getMaximumPoolSize()) {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private enum TaskState {
+        QUEUED, RUNNING, DONE, CANCELLED
+    }
+}
@@ -1,18 +1,22 @@
 package ru.example.gateway.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaException;
+import com.networknt.schema.ValidationMessage;
 import org.springframework.core.io.buffer.DataBuffer;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.server.ServerWebExchange;
 import ru.example.gateway.config.exception.ValidationException;
-import ru.example.gateway.model.ErrorResponse;
-import ru.example.gateway.model.ModifiedPath;
+import ru.example.gateway.routing.Route;
 
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Интерфейс для выполнения валидации
@@ -30,43 +34,53 @@ public interface IValidationService {
     String validate(String httpMethod, String body, String path);
 
     /**
-     * Формируем ответ для пользователя на основе информации из {@link ValidationException} в случае неудачной валидации
-     * или других критических ошибках
+     * Проверяет тело по схеме маршрута. Схема, скомпилированная с остановкой на первой ошибке, сообщает о ней
+     * исключением, в этом случае возвращается только эта ошибка
+     * @param route маршрут со схемой валидации
+     * @param jsonNode разобранное тело
+     * @return ошибки валидации, не больше {@link Route#getMaxErrors()}, или пустой список
      */
-    default DataBuffer errorHandling(Throwable error, ServerWebExchange exchange) throws JsonProcessingException {
-        String status = ((ValidationException) error).getStatus();
-        List<String> details = ((ValidationException) error).getDetails();
-        HttpStatus httpStatus = ((ValidationException) error).getHttpStatus();
-        ErrorResponse message = new ErrorResponse(status, details);
-        byte[] bytes = mapper.writeValueAsBytes(message);
-        ServerHttpResponse serverHttpResponse = exchange.getResponse();
-        serverHttpResponse.setStatusCode(httpStatus);
-        serverHttpResponse.getHeaders().add("Content-Type", "application/json");
-        return exchange.getResponse().bufferFactory().wrap(bytes);
+    default List<String> schemaErrors(Route route, JsonNode jsonNode) {
+        return schemaErrors(route.getSchema(), route.getMaxErrors(), jsonNode);
     }
 
     /**
-     * Проверяет, присутствует ли схема валидации для текущего пути. Так же если путь заканчивается на /{id}
-     * и это целое число, то оно отбрасывается при сравнении и записывается в {@link ModifiedPath#setModifiedPath(String)}
-     * для дальнейшего использования
-     * @param schemaMap Map с путями и схемами
-     * @param path путь запроса
-     * @return {@link ModifiedPath}
+     * Проверяет значение по схеме, например элемент массива по схеме элемента маршрута
+     * @param schema схема валидации
+     * @param maxErrors максимальное количество ошибок, 0 - без ограничения
+     * @param jsonNode разобранное значение
+     * @return ошибки валидации, не больше maxErrors, или пустой список
      */
-    default ModifiedPath isSchemaMapContainsPath(Map<String, JsonSchema> schemaMap, String path) {
-        if(!schemaMap.containsKey(path)) {
-            String[] pathArray = new StringBuilder(path).reverse().toString().split("/", 2);
-            if(pathArray[0].matches("\\d+")){
-                String pathWithoutId = new StringBuilder(pathArray[1]).reverse().toString();
-                return ModifiedPath.builder()
-                        .isSchemaMapContainsPath(schemaMap.containsKey(pathWithoutId))
-                        .isPathModified(schemaMap.containsKey(pathWithoutId))
-                        .modifiedPath(pathWithoutId)
-                        .build();
-            } else {
-                return ModifiedPath.builder().isSchemaMapContainsPath(false).build();
+    default List<String> schemaErrors(JsonSchema schema, int maxErrors, JsonNode jsonNode) {
+        Set<ValidationMessage> messages;
+        try {
+            messages = schema.validate(jsonNode);
+        } catch (JsonSchemaException e) {
+            if (e.getValidationMessages().isEmpty()) {
+                throw e;
             }
+            messages = e.getValidationMessages();
         }
-        return ModifiedPath.builder().isSchemaMapContainsPath(true).isPathModified(false).build();
+        return messages.stream()
+                .limit(maxErrors > 0 ? maxErrors : Long.MAX_VALUE)
+                .map(Object::toString)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Формируем ответ для пользователя на основе информации из {@link ValidationException} в случае неудачной валидации
+     * или других критических ошибках. Тело ответа сериализуется исключением один раз, буфер только оборачивает его
+     * без копирования
+     */
+    default DataBuffer errorHandling(ValidationException error, ServerWebExchange exchange) throws JsonProcessingException {
+        byte[] bytes = error.getBody();
+        ServerHttpResponse serverHttpResponse = exchange.getResponse();
+        serverHttpResponse.setStatusCode(error.getHttpStatus());
+        serverHttpResponse.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        // тело ошибки не сжато, даже если сжат исходный ответ сервиса
+        serverHttpResponse.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+        // ответ сервиса мог уже задать длину своего тела
+        serverHttpResponse.getHeaders().setContentLength(bytes.length);
+        return serverHttpResponse.bufferFactory().wrap(bytes);
     }
 }
@@ -4,7 +4,13 @@ import lombok.extern.slf4j.Slf4j;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 
 import org.springframework.beans.factory.annotation.Value;
 
@@ -25,10 +31,14 @@ import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import ru.example.gateway.model.SchemaChanges;
+
 @Service
 @Slf4j
 public class LocalRepoService {
 
+    private static final String JSON_EXTENSION = ".json";
+
     @Value("${gitlab.username}")
     private String gitlabUsername;
 
@@ -50,11 +60,12 @@ public class LocalRepoService {
         Path repoPath = Paths.get(pathToLocalRepo);
         if (Files.exists(repoPath)) {
             //PULL
-            Git git = Git.open(repoPath.toFile());
+            try (Git git = Git.open(repoPath.toFile())) {
                 git
                     .pull()
                     .setCredentialsProvider(new UsernamePasswordCredentialsProvider(gitlabUsername, gitlabPassword))
                     .call();
+            }
 
         } else {
             //CLONE
@@ -63,11 +74,65 @@ public class LocalRepoService {
                     .setDirectory(new File(pathToLocalRepo))
                     .setCredentialsProvider(new UsernamePasswordCredentialsProvider(gitlabUsername, gitlabPassword))
                     .setCloneAllBranches(true)
-                    .call();
+                    .call()
+                    .close();
         }
         log.debug("pull/clone repository to disk {}", pathToLocalRepo);
     }
 
+    /**
+     * Возвращает текущий коммит (HEAD) локального репозитория
+     * @return идентификатор коммита или null, если локального репозитория еще нет
+     * @throws IOException исключение
+     */
+    public ObjectId getHead() throws IOException {
+        Path repoPath = Paths.get(pathToLocalRepo);
+        if (!Files.exists(repoPath)) {
+            return null;
+        }
+        try (Git git = Git.open(repoPath.toFile())) {
+            return git.getRepository().resolve("HEAD");
+        }
+    }
+
+    /**
+     * Сравнивает два коммита локального репозитория и возвращает добавленные, измененные и удаленные json файлы
+     * @param oldHead предыдущий коммит
+     * @param newHead новый коммит
+     * @return изменения json файлов
+     * @throws GitAPIException исключение
+     * @throws IOException исключение
+     */
+    public SchemaChanges diff(ObjectId oldHead, ObjectId newHead) throws GitAPIException, IOException {
+        SchemaChanges changes = new SchemaChanges(oldHead.getName(), newHead.getName());
+        try (Git git = Git.open(Paths.get(pathToLocalRepo).toFile())) {
+            Repository repository = git.getRepository();
+            List<DiffEntry> entries = git.diff()
+                    .setOldTree(treeParser(repository, oldHead))
+                    .setNewTree(treeParser(repository, newHead))
+                    .setShowNameAndStatusOnly(true)
+                    .call();
+            for (DiffEntry entry : entries) {
+                switch (entry.getChangeType()) {
+                    case ADD:
+                    case COPY:
+                        addIfJson(changes.getAdded(), entry.getNewPath());
+                        break;
+                    case MODIFY:
+                        addIfJson(changes.getModified(), entry.getNewPath());
+                        break;
+                    case DELETE:
+                        addIfJson(changes.getRemoved(), entry.getOldPath());
+                        break;
+                    case RENAME:
+                        addIfJson(changes.getRemoved(), entry.getOldPath());
+                        addIfJson(changes.getAdded(), entry.getNewPath());
+                        break;
+                }
+            }
+        }
+        return changes;
+    }
 
     /**
      * Вычитывает из локального репозитория все файлы с расширением .json и формирует Map из полного имени файла
@@ -79,20 +144,58 @@ public class LocalRepoService {
         try (Stream<Path> paths = Files.walk(Paths.get(pathToLocalRepo))) {
             List<File> collect = paths
                     .filter(Files::isRegularFile)
-                    .filter(f -> f.toString().toLowerCase().endsWith(".json"))
+                    .filter(f -> f.toString().toLowerCase().endsWith(JSON_EXTENSION))
                     .map(Path::toFile)
                     .collect(Collectors.toList());
 
             Map<String, String> textSchemasFromLocalRepo = new HashMap<>();
             for (File elem : collect) {
-                try (BufferedReader bufferedReader = new BufferedReader(new FileReader(elem))) {
-                    textSchemasFromLocalRepo.put(formPathToJsonFile(elem.getAbsolutePath()), bufferedReader.lines().collect(Collectors.joining()));
-                }
+                textSchemasFromLocalRepo.put(formPathToJsonFile(elem.getAbsolutePath()), readJsonFile(elem));
             }
             return textSchemasFromLocalRepo;
         }
     }
 
+    /**
+     * Считывает один json файл из локального репозитория
+     * @param repoPath путь к файлу относительно корня репозитория (как в git)
+     * @return полное имя файла (ключ 'localJsonFiles') и его содержимое
+     * @throws IOException исключение
+     */
+    public Map.Entry<String, String> readJsonFileFromLocalRepo(String repoPath) throws IOException {
+        File file = Paths.get(pathToLocalRepo, repoPath).toFile();
+        return new HashMap.SimpleImmutableEntry<>(formPathToJsonFile(file.getAbsolutePath()), readJsonFile(file));
+    }
+
+    /**
+     * Формирует полное имя файла (ключ 'localJsonFiles') из пути относительно корня репозитория
+     * @param repoPath путь к файлу относительно корня репозитория (как в git)
+     * @return путь относительно локального репозитория
+     */
+    public String formPathToJsonFileFromRepoPath(String repoPath) {
+        return formPathToJsonFile(Paths.get(pathToLocalRepo, repoPath).toFile().getAbsolutePath());
+    }
+
+    private String readJsonFile(File file) throws IOException {
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file))) {
+            return bufferedReader.lines().collect(Collectors.joining());
+        }
+    }
+
+    private static void addIfJson(List<String> paths, String path) {
+        if (path.toLowerCase().endsWith(JSON_EXTENSION)) {
+            paths.add(path);
+        }
+    }
+
+    private static CanonicalTreeParser treeParser(Repository repository, ObjectId commitId) throws IOException {
+        try (RevWalk revWalk = new RevWalk(repository); ObjectReader reader = repository.newObjectReader()) {
+            CanonicalTreeParser treeParser = new CanonicalTreeParser();
+            treeParser.reset(reader, revWalk.parseCommit(commitId).getTree().getId());
+            return treeParser;
+        }
+    }
+
     /**
      * Формирует путь к файлу относительно локального репозитория из полного пути
      * @param absolutePath полный путь к файлу
@@ -102,4 +205,3 @@ public class LocalRepoService {
         return absolutePath.replaceFirst(pathToLocalRepo, "").toLowerCase();
     }
 }
-
@@ -0,0 +1,260 @@
+package ru.example.gateway.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.networknt.schema.uri.URIFactory;
+import com.networknt.schema.uri.URIFetcher;
+import com.networknt.schema.uri.URLFetcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Разрешает $ref на файлы репозитория со схемами из Map 'localJsonFiles', без обращения к сети или classpath.
+ * Корневые схемы компилируются с адресом вида 'repo:/request/adduser.json', поэтому относительные ссылки
+ * ('common/defs.json#/$defs/id') получают адрес в той же схеме. http(s) ссылка разрешается в локальный файл, только если:
+ * <ul>
+ *     <li>она равна '$id' одного из файлов репозитория;</li>
+ *     <li>она начинается с адреса репозитория, известного по '$id' файлов: '$id' файла request/user.json вида
+ *     'https://gitlab/lam/config/request/user.json' задает адрес 'https://gitlab/lam/config/';</li>
+ *     <li>ее путь начинается с '/jsonschema/' ({@link ru.example.gateway.controller.JsonSchemasController}).</li>
+ * </ul>
+ * Остальные ссылки не разрешаются и компиляция схемы завершается ошибкой. Загрузка таких схем по сети включается
+ * явно ({@link #setRemoteRefs(boolean)}). Если проверка 'format' отключена политикой валидации, ключевое слово
+ * удаляется из загружаемых схем.
+ * <p>
+ * Индекс '$id' строится при первом разрешении http(s) ссылки и сбрасывается {@link #reset()} при изменении файлов
+ */
+public class LocalSchemaResolver implements URIFetcher, URIFactory {
+
+    public static final String SCHEME = "repo";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    //значения этих ключевых слов - данные, а не схемы, поэтому 'format' в них не удаляется
+    private static final Set<String> DATA_KEYWORDS = new HashSet<>(Arrays.asList("const", "enum", "default", "examples"));
+
+    private static final String JSON_SCHEMA_PATH = "/jsonschema/";
+
+    private final Map<String, String> jsonFiles;
+    private final boolean formatAssertions;
+    private final URLFetcher urlFetcher = new URLFetcher();
+
+    private volatile boolean remoteRefs;
+    private volatile IdIndex idIndex;
+
+    public LocalSchemaResolver(Map<String, String> jsonFiles) {
+        this(jsonFiles, true);
+    }
+
+    /**
+     * @param jsonFiles        Map 'localJsonFiles'
+     * @param formatAssertions false, если из схем нужно удалить 'format'
+     */
+    public LocalSchemaResolver(Map<String, String> jsonFiles, boolean formatAssertions) {
+        this.jsonFiles = jsonFiles;
+        this.formatAssertions = formatAssertions;
+    }
+
+    /**
+     * @param fileName полное имя файла относительно локального репозитория (ключ 'localJsonFiles')
+     * @return адрес файла для компиляции схемы
+     */
+    public static URI uri(String fileName) {
+        try {
+            return new URI(SCHEME, null, fileName.startsWith("/") ? fileName : "/" + fileName, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid json schema file name " + fileName, e);
+        }
+    }
+
+    /**
+     * @param remoteRefs true, если http(s) ссылки, которые не разрешаются в локальные файлы, загружаются по сети
+     */
+    public void setRemoteRefs(boolean remoteRefs) {
+        this.remoteRefs = remoteRefs;
+    }
+
+    /**
+     * Сбрасывает индекс '$id' после изменения файлов
+     */
+    public void reset() {
+        idIndex = null;
+    }
+
+    /**
+     * Находит локальный файл для адреса схемы
+     * @param uri адрес схемы (фрагмент не учитывается)
+     * @return ключ файла в 'localJsonFiles' или null, если файла нет или адрес не относится к репозиторию
+     */
+    public String findFileName(URI uri) {
+        String path = uri.getPath();
+        if (path == null || uri.isOpaque()) {
+            return null;
+        }
+        path = path.toLowerCase();
+        if (SCHEME.equals(uri.getScheme())) {
+            return localFileName(path);
+        }
+        String address = withoutFragment(uri);
+        IdIndex index = idIndex();
+        String fileName = index.files.get(address);
+        if (fileName != null) {
+            return fileName;
+        }
+        for (String base : index.bases) {
+            if (address.startsWith(base)) {
+                return localFileName(address.substring(base.length()));
+            }
+        }
+        if (path.startsWith(JSON_SCHEMA_PATH)) {
+            return localFileName(path.substring(JSON_SCHEMA_PATH.length()));
+        }
+        return null;
+    }
+
+    /**
+     * @param path путь файла относительно корня репозитория, с '/' в начале или без
+     * @return ключ файла в 'localJsonFiles' или null
+     */
+    private String localFileName(String path) {
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (jsonFiles.containsKey(path)) {
+            return path;
+        }
+        if (jsonFiles.containsKey("/" + path)) {
+            return "/" + path;
+        }
+        return null;
+    }
+
+    private IdIndex idIndex() {
+        IdIndex index = idIndex;
+        if (index == null) {
+            index = new IdIndex(jsonFiles);
+            idIndex = index;
+        }
+        return index;
+    }
+
+    private static String withoutFragment(URI uri) {
+        String address = uri.toString();
+        int hash = address.indexOf('#');
+        return (hash < 0 ? address : address.substring(0, hash)).toLowerCase();
+    }
+
+    @Override
+    public InputStream fetch(URI uri) throws IOException {
+        String fileName = findFileName(uri);
+        if (fileName != null) {
+            String content = jsonFiles.get(fileName);
+            if (content != null) {
+                byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+                return new ByteArrayInputStream(formatAssertions ? bytes : MAPPER.writeValueAsBytes(withoutFormat(MAPPER.readTree(bytes))));
+            }
+        }
+        if (SCHEME.equals(uri.getScheme())) {
+            throw new FileNotFoundException("Json schema " + uri + " not found in local repository");
+        }
+        if (!remoteRefs) {
+            throw new FileNotFoundException("Json schema " + uri + " is not a file of local repository, remote references are disabled");
+        }
+        if (formatAssertions) {
+            return urlFetcher.fetch(uri);
+        }
+        try (InputStream inputStream = urlFetcher.fetch(uri)) {
+            return new ByteArrayInputStream(MAPPER.writeValueAsBytes(withoutFormat(MAPPER.readTree(inputStream))));
+        }
+    }
+
+    /**
+     * Удаляет ключевое слово 'format' из схемы и всех ее подсхем. Свойства с именем 'format' (в 'properties')
+     * не удаляются, так как их значение - схема, а не строка
+     *
+     * @param schemaNode схема, изменяется на месте
+     * @return та же схема
+     */
+    public static JsonNode withoutFormat(JsonNode schemaNode) {
+        if (schemaNode.isObject()) {
+            JsonNode format = schemaNode.get("format");
+            if (format != null && format.isTextual()) {
+                ((ObjectNode) schemaNode).remove("format");
+            }
+            Iterator<Map.Entry<String, JsonNode>> fields = schemaNode.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (!DATA_KEYWORDS.contains(field.getKey())) {
+                    withoutFormat(field.getValue());
+                }
+            }
+        } else if (schemaNode.isArray()) {
+            schemaNode.forEach(LocalSchemaResolver::withoutFormat);
+        }
+        return schemaNode;
+    }
+
+    @Override
+    public URI create(String uri) {
+        return URI.create(uri);
+    }
+
+    @Override
+    public URI create(URI baseURI, String segment) {
+        return baseURI.resolve(segment);
+    }
+
+    /**
+     * Адреса файлов репозитория по их '$id' и адреса самого репозитория, полученные из '$id', которые
+     * оканчиваются путем файла
+     */
+    private static final class IdIndex {
+        private final Map<String, String> files = new HashMap<>();
+        private final Set<String> bases = new HashSet<>();
+
+        private IdIndex(Map<String, String> jsonFiles) {
+            jsonFiles.forEach((fileName, content) -> {
+                if (!content.contains("\"$id\"")) {
+                    return;
+                }
+                JsonNode id;
+                try {
+                    id = MAPPER.readTree(content).get("$id");
+                } catch (IOException e) {
+                    return;
+                }
+                if (id == null || !id.isTextual()) {
+                    return;
+                }
+                URI uri;
+                try {
+                    uri = new URI(id.asText());
+                } catch (URISyntaxException e) {
+                    return;
+                }
+                if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+                    return;
+                }
+                String address = withoutFragment(uri);
+                files.put(address, fileName);
+                String path = fileName.startsWith("/") ? fileName : "/" + fileName;
+                if (address.endsWith(path)) {
+                    bases.add(address.substring(0, address.length() - path.length() + 1));
+                }
+            });
+        }
+    }
+}
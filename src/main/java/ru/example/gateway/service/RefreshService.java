@@ -0,0 +1,194 @@
+package ru.example.gateway.service;
+
+import com.networknt.schema.JsonSchema;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.context.refresh.ContextRefresher;
+import org.springframework.cloud.context.scope.refresh.RefreshScope;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.example.gateway.config.BeansConfig;
+import ru.example.gateway.model.RefreshReport;
+import ru.example.gateway.model.RefreshStatus;
+import ru.example.gateway.model.SchemaChanges;
+import ru.example.gateway.routing.RouteIndex;
+
+/**
+ * Выполняет обновление конфигурации (через Configuration Server) и схем валидации в отдельном потоке, а не в потоке
+ * обработки запросов. Вебхуки, пришедшие в течение окна 'refresh.debounce' после первого, объединяются в одно
+ * обновление. Вебхук, пришедший во время выполнения обновления, планирует следующее, поэтому в очереди
+ * не бывает больше одного обновления.
+ * <p>
+ * Бины refresh scope пересоздаются, только если изменились свойства из Configuration Server. Если изменились только
+ * json файлы, их схемы заменяются в действующих индексах маршрутов ({@link BeansConfig#applySchemaChanges()})
+ */
+@Service
+@Slf4j
+public class RefreshService {
+
+    private static final int HISTORY_SIZE = 20;
+
+    /**
+     * Свойства, которые Config Client добавляет сам (например, коммит репозитория конфигурации). Меняются при каждом
+     * коммите и не означают изменения настроек
+     */
+    private static final String CONFIG_CLIENT_PREFIX = "config.client.";
+
+    @Resource(name = "requestSchemaMap")
+    private Map<String, Map<String, JsonSchema>> requestsSchemas;
+
+    @Resource(name = "responseSchemaMap")
+    private Map<String, Map<String, JsonSchema>> responsesSchemas;
+
+    @Resource(name = "requestRouteIndex")
+    private RouteIndex requestRouteIndex;
+
+    @Resource(name = "responseRouteIndex")
+    private RouteIndex responseRouteIndex;
+
+    @Value("${refresh.debounce:5s}")
+    private Duration debounce;
+
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "schema-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private final Map<Long, RefreshStatus> history = new LinkedHashMap<Long, RefreshStatus>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, RefreshStatus> eldest) {
+            return size() > HISTORY_SIZE;
+        }
+    };
+
+    private RefreshStatus pending;
+
+    private ContextRefresher contextRefresher;
+
+    private RefreshScope refreshScope;
+
+    private SchemaRegistry schemaRegistry;
+
+    private BeansConfig beansConfig;
+
+    @Autowired
+    public void setContextRefresher(ContextRefresher contextRefresher) {
+        this.contextRefresher = contextRefresher;
+    }
+
+    @Autowired
+    public void setRefreshScope(RefreshScope refreshScope) {
+        this.refreshScope = refreshScope;
+    }
+
+    @Autowired
+    public void setSchemaRegistry(SchemaRegistry schemaRegistry) {
+        this.schemaRegistry = schemaRegistry;
+    }
+
+    @Autowired
+    public void setBeansConfig(BeansConfig beansConfig) {
+        this.beansConfig = beansConfig;
+    }
+
+    /**
+     * Планирует обновление или присоединяет запрос к уже запланированному, но еще не начатому обновлению
+     * @return состояние обновления
+     */
+    public synchronized RefreshStatus request() {
+        if (pending != null) {
+            pending.coalesce();
+            log.debug("Refresh request coalesced into refresh {}", pending.getId());
+            return pending;
+        }
+        RefreshStatus status = new RefreshStatus(ids.incrementAndGet());
+        pending = status;
+        history.put(status.getId(), status);
+        executor.schedule(() -> run(status), debounce.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Refresh {} scheduled in {} ms", status.getId(), debounce.toMillis());
+        return status;
+    }
+
+    /**
+     * @param id идентификатор обновления
+     * @return состояние обновления или null, если обновления с таким идентификатором нет среди последних
+     */
+    public synchronized RefreshStatus getStatus(long id) {
+        return history.get(id);
+    }
+
+    /**
+     * @return состояния последних обновлений, начиная с самого нового
+     */
+    public synchronized List<RefreshStatus> getHistory() {
+        List<RefreshStatus> statuses = new ArrayList<>(history.values());
+        Collections.reverse(statuses);
+        return statuses;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run(RefreshStatus status) {
+        synchronized (this) {
+            if (pending == status) {
+                pending = null;
+            }
+        }
+        status.start();
+        long start = System.nanoTime();
+        try {
+            SchemaChanges changes = schemaRegistry.refresh();
+            Collection<String> keys = contextRefresher.refreshEnvironment();
+            boolean contextRefreshed = keys.stream().anyMatch(key -> !key.startsWith(CONFIG_CLIENT_PREFIX));
+            int updatedRoutes = 0;
+            if (contextRefreshed) {
+                refreshScope.refreshAll();
+                log.info("Reload bean requestSchemaMap. Size - {}", requestsSchemas.size());
+                log.info("Reload bean responseSchemaMap. Size - {}", responsesSchemas.size());
+            } else {
+                updatedRoutes = beansConfig.applySchemaChanges();
+            }
+            log.info("Reload route indexes. Request routes - {}, response routes - {}", requestRouteIndex.size(), responseRouteIndex.size());
+
+            RefreshReport report = RefreshReport.builder()
+                    .keys(keys)
+                    .contextRefreshed(contextRefreshed)
+                    .updatedRoutes(updatedRoutes)
+                    .previousCommit(changes.getPreviousCommit())
+                    .commit(changes.getCommit())
+                    .added(changes.getAdded())
+                    .modified(changes.getModified())
+                    .removed(changes.getRemoved())
+                    .durationMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                    .build();
+            status.done(report);
+            log.info("Refresh {} ({} requests) finished in {} ms: {}", status.getId(), status.getRequests(), report.getDurationMs(), changes);
+        } catch (Exception e) {
+            status.failed(e.toString());
+            log.error("Refresh {} failed", status.getId(), e);
+        }
+    }
+}
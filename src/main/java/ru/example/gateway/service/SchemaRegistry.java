@@ -0,0 +1,634 @@
+package ru.example.gateway.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaException;
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SchemaValidatorsConfig;
+import com.networknt.schema.SpecVersion;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.context.scope.refresh.RefreshScope;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import ru.example.gateway.config.BeansConfig;
+import ru.example.gateway.model.SchemaChanges;
+import ru.example.gateway.model.SchemaSnapshot;
+import ru.example.gateway.model.ValidationPolicies;
+import ru.example.gateway.routing.RouteIndex;
+
+/**
+ * Хранилище json файлов из репозитория со схемами и скомпилированных по ним {@link JsonSchema}.
+ * При обновлении сравнивает предыдущий и новый коммит репозитория и применяет на месте только изменения:
+ * перечитываются добавленные и измененные файлы, а из кэша скомпилированных схем удаляются только они и удаленные файлы.
+ * Остальные схемы при формировании новых коллекций валидации берутся из кэша без повторной компиляции.
+ * <p>
+ * Если на диске есть снимок последнего загруженного набора файлов ({@link SchemaSnapshotService}), приложение
+ * запускается с ним без обращения к GitLab, а репозиторий обновляется в фоне после запуска, и все файлы снимка
+ * сверяются с ним. Коллекции валидации пересоздаются, только если файлы снимка отличаются от репозитория.
+ * <p>
+ * Все схемы компилируются одной фабрикой, которая разрешает $ref на другие файлы репозитория через
+ * {@link LocalSchemaResolver} и кэширует скомпилированные подсхемы по адресу, поэтому общие определения компилируются
+ * один раз. При изменении файлов фабрика заменяется новой, а из кэша удаляются схемы, которые прямо или через другие
+ * файлы ссылаются на измененные.
+ * <p>
+ * Схема компилируется отдельно для каждого сочетания настроек политики валидации ({@link ValidationPolicies.Policy}):
+ * остановки на первой ошибке и проверки 'format'. Для каждого сочетания своя фабрика, так как подсхемы кэшируются
+ * фабрикой вместе с настройками, с которыми скомпилированы.
+ * <p>
+ * Схемы компилируются без блокировки, а публикуются в кэш под той же блокировкой, что и изменения файлов: схема,
+ * скомпилированная по файлам, которые изменились во время компиляции, компилируется заново
+ */
+@Service
+@Slf4j
+public class SchemaRegistry {
+
+    private final Map<String, String> jsonFiles = new ConcurrentHashMap<>();
+    private final Map<String, JsonSchema> compiledSchemas = new ConcurrentHashMap<>();
+    /**
+     * Файлы, от которых зависит скомпилированная схема (включая ее собственный файл)
+     */
+    private final Map<String, Set<String>> dependencies = new ConcurrentHashMap<>();
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    //ключевые слова, для которых ошибка в подсхеме не означает ошибку схемы. С ними остановка на первой ошибке неверна
+    private static final Set<String> BRANCHING_KEYWORDS = new HashSet<>(Arrays.asList("anyOf", "oneOf", "not", "if", "contains"));
+
+    //ключевые слова корня схемы-массива, с которыми массив можно проверять по элементам: остальные проверяют массив целиком
+    private static final Set<String> ELEMENT_ROOT_KEYWORDS = new HashSet<>(Arrays.asList(
+            "$schema", "$id", "$defs", "definitions", "$comment", "title", "description", "type", "items", "examples", "default"));
+    //ключевые слова корня, которые нужны схеме элемента для разрешения $ref
+    private static final List<String> ELEMENT_INHERITED_KEYWORDS = Arrays.asList("$schema", "$id", "$defs", "definitions");
+
+    private final LocalSchemaResolver resolver = new LocalSchemaResolver(jsonFiles);
+    private final LocalSchemaResolver formatFreeResolver = new LocalSchemaResolver(jsonFiles, false);
+    /**
+     * Фабрики по сочетаниям настроек политики, см. {@link #variant(boolean, boolean)}
+     */
+    private final Map<String, JsonSchemaFactory> factories = new ConcurrentHashMap<>();
+
+    /**
+     * Номер набора файлов: увеличивается при каждом изменении файлов. Схема, скомпилированная по предыдущему набору,
+     * не публикуется в кэш
+     */
+    private volatile long generation;
+
+    private volatile ObjectId head;
+    private volatile boolean startedFromSnapshot;
+
+    private LocalRepoService localRepoService;
+
+    private SchemaSnapshotService snapshotService;
+
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    public void setLocalRepoService(LocalRepoService localRepoService) {
+        this.localRepoService = localRepoService;
+    }
+
+    @Autowired
+    public void setSnapshotService(SchemaSnapshotService snapshotService) {
+        this.snapshotService = snapshotService;
+    }
+
+    @Autowired
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * @param remoteRefs true, если $ref на схемы вне репозитория загружаются по сети. По умолчанию такие ссылки
+     *                   не разрешаются
+     */
+    @Value("${gitlab.remoteRefs:false}")
+    public void setRemoteRefs(boolean remoteRefs) {
+        resolver.setRemoteRefs(remoteRefs);
+        formatFreeResolver.setRemoteRefs(remoteRefs);
+    }
+
+    /**
+     * Первичная загрузка json файлов при запуске: из снимка на диске, если он есть, иначе из репозитория
+     * @throws GitAPIException исключение
+     * @throws IOException исключение
+     */
+    public synchronized void init() throws GitAPIException, IOException {
+        long start = System.nanoTime();
+        SchemaSnapshot snapshot = snapshotService.read();
+        if (snapshot != null) {
+            jsonFiles.putAll(snapshot.getFiles());
+            resetResolvers();
+            head = ObjectId.fromString(snapshot.getCommit());
+            startedFromSnapshot = true;
+            log.info("Schema registry ready from snapshot in {} ms: {} json files, commit {}",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), jsonFiles.size(), snapshot.getCommit());
+        } else {
+            load();
+            log.info("Schema registry ready from repository in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Обновляет локальный репозиторий и полностью перечитывает из него все json файлы
+     * @throws GitAPIException исключение
+     * @throws IOException исключение
+     */
+    public synchronized void load() throws GitAPIException, IOException {
+        localRepoService.getRepoToLocal();
+        Map<String, String> files = localRepoService.formTextSchemasFromLocalRepo();
+        jsonFiles.keySet().retainAll(files.keySet());
+        jsonFiles.putAll(files);
+        generation++;
+        resetResolvers();
+        factories.clear();
+        compiledSchemas.clear();
+        dependencies.clear();
+        head = localRepoService.getHead();
+        snapshotService.write(getCommit(), jsonFiles);
+        log.info("Schema registry loaded {} json files, commit {}", jsonFiles.size(), getCommit());
+    }
+
+    /**
+     * Обновляет локальный репозиторий и применяет изменения json файлов между предыдущим и новым коммитом
+     * @return изменения json файлов
+     * @throws GitAPIException исключение
+     * @throws IOException исключение
+     */
+    public synchronized SchemaChanges refresh() throws GitAPIException, IOException {
+        ObjectId previous = head;
+        if (previous == null) {
+            //предыдущий коммит неизвестен (репозитория не было) - сравнивать не с чем, перечитываем все файлы
+            load();
+            return new SchemaChanges(null, getCommit());
+        }
+        localRepoService.getRepoToLocal();
+        ObjectId current = localRepoService.getHead();
+        if (previous.equals(current)) {
+            return new SchemaChanges(previous.getName(), current.getName());
+        }
+        SchemaChanges changes;
+        try {
+            changes = localRepoService.diff(previous, current);
+        } catch (MissingObjectException e) {
+            //коммита из снимка нет в истории репозитория (например, после force push) - перечитываем все файлы
+            log.warn("Commit {} not found in repository, json files are reloaded completely", previous.getName());
+            load();
+            return new SchemaChanges(previous.getName(), getCommit());
+        }
+        apply(changes);
+        head = current;
+        snapshotService.write(getCommit(), jsonFiles);
+        log.info("Schema registry updated from {} to {}: {}", changes.getPreviousCommit(), changes.getCommit(), changes);
+        return changes;
+    }
+
+    /**
+     * После запуска из снимка обновляет репозиторий в фоне, сверяет с ним файлы снимка и, если они отличаются,
+     * пересоздает коллекции валидации
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void syncAfterStart() {
+        if (!startedFromSnapshot) {
+            return;
+        }
+        Mono.fromCallable(this::syncWithRepository)
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe(changes -> {
+                    if (changes.isEmpty()) {
+                        log.info("Json schema snapshot is up to date with repository, commit {}", changes.getCommit());
+                        return;
+                    }
+                    if (changes.getPreviousCommit().equals(changes.getCommit())) {
+                        log.warn("Json schema snapshot differs from repository at its commit {}: {}", changes.getCommit(), changes);
+                    }
+                    rebuildSchemaBeans();
+                }, e -> log.error("Background update of json schemas from repository failed, snapshot is kept", e));
+    }
+
+    /**
+     * Обновляет репозиторий и сравнивает с ним все файлы, а не только изменения после коммита снимка: содержимое
+     * снимка не проверено по репозиторию, поэтому отличающиеся файлы применяются как изменения
+     * @return отличия файлов снимка от репозитория (полные имена файлов)
+     * @throws GitAPIException исключение
+     * @throws IOException исключение
+     */
+    synchronized SchemaChanges syncWithRepository() throws GitAPIException, IOException {
+        ObjectId previous = head;
+        localRepoService.getRepoToLocal();
+        Map<String, String> files = localRepoService.formTextSchemasFromLocalRepo();
+        ObjectId current = localRepoService.getHead();
+        SchemaChanges changes = new SchemaChanges(previous.getName(), current.getName());
+        for (String file : jsonFiles.keySet()) {
+            if (!files.containsKey(file)) {
+                changes.getRemoved().add(file);
+            }
+        }
+        files.forEach((file, content) -> {
+            String snapshotContent = jsonFiles.get(file);
+            if (snapshotContent == null) {
+                changes.getAdded().add(file);
+            } else if (!snapshotContent.equals(content)) {
+                changes.getModified().add(file);
+            }
+        });
+        Set<String> changed = new HashSet<>(changes.getRemoved());
+        changed.addAll(changes.getAdded());
+        changed.addAll(changes.getModified());
+        jsonFiles.keySet().retainAll(files.keySet());
+        jsonFiles.putAll(files);
+        invalidate(changed);
+        head = current;
+        startedFromSnapshot = false;
+        snapshotService.write(getCommit(), jsonFiles);
+        return changes;
+    }
+
+    /**
+     * Пересоздает бины с коллекциями валидации, чтобы они были построены по новым файлам до первого запроса
+     */
+    private void rebuildSchemaBeans() {
+        RefreshScope refreshScope = applicationContext.getBean(RefreshScope.class);
+        for (String beanName : BeansConfig.SCHEMA_BEANS) {
+            refreshScope.refresh(beanName);
+        }
+        int routes = applicationContext.getBean(BeansConfig.REQUEST_ROUTE_INDEX, RouteIndex.class).size()
+                + applicationContext.getBean(BeansConfig.RESPONSE_ROUTE_INDEX, RouteIndex.class).size();
+        log.info("Beans {} rebuilt for commit {} with {} routes", BeansConfig.SCHEMA_BEANS, getCommit(), routes);
+    }
+
+    /**
+     * Возвращает скомпилированную схему для файла из репозитория. Схема компилируется при первом обращении
+     * и после изменения файла
+     * @param fileName полное имя файла относительно локального репозитория
+     * @return схема валидации
+     * @throws IllegalArgumentException если файла нет в репозитории
+     */
+    public JsonSchema getSchema(String fileName) {
+        return getSchema(fileName, null);
+    }
+
+    /**
+     * Возвращает скомпилированную с настройками политики схему для файла из репозитория
+     * @param fileName полное имя файла относительно локального репозитория
+     * @param policy политика валидации маршрута или null для проверки всех ошибок и 'format'
+     * @return схема валидации
+     * @throws IllegalArgumentException если файла нет в репозитории
+     */
+    public JsonSchema getSchema(String fileName, ValidationPolicies.Policy policy) {
+        String file = fileName.toLowerCase();
+        boolean failFast = policy != null && policy.stopsOnFirstError();
+        boolean formatAssertions = policy == null || !Boolean.FALSE.equals(policy.getFormatAssertions());
+        String variant = variant(failFast, formatAssertions);
+        String key = variant.isEmpty() ? file : file + "?" + variant;
+        while (true) {
+            JsonSchema schema = compiledSchemas.get(key);
+            if (schema != null) {
+                return schema;
+            }
+            long generation = this.generation;
+            Compiled compiled = compile(file, parse(content(fileName, file)), failFast, formatAssertions);
+            schema = publish(key, compiled, generation);
+            if (schema != null) {
+                return schema;
+            }
+        }
+    }
+
+    /**
+     * Возвращает скомпилированную с настройками политики схему элемента массива для поэлементной валидации.
+     * Схема элемента есть, только если корневая схема файла - массив ('type': 'array') со схемой 'items' и без других
+     * ограничений массива (minItems, uniqueItems и т.д.). Она составляется из 'items' и определений корня ($defs)
+     * @param fileName полное имя файла относительно локального репозитория
+     * @param policy политика валидации маршрута или null для проверки всех ошибок и 'format'
+     * @return схема элемента или null, если массив нельзя проверять по элементам
+     * @throws IllegalArgumentException если файла нет в репозитории
+     */
+    public JsonSchema getElementSchema(String fileName, ValidationPolicies.Policy policy) {
+        String file = fileName.toLowerCase();
+        boolean failFast = policy != null && policy.stopsOnFirstError();
+        boolean formatAssertions = policy == null || !Boolean.FALSE.equals(policy.getFormatAssertions());
+        String variant = variant(failFast, formatAssertions);
+        String key = file + "#items" + (variant.isEmpty() ? "" : "?" + variant);
+        while (true) {
+            JsonSchema schema = compiledSchemas.get(key);
+            if (schema != null) {
+                return schema;
+            }
+            long generation = this.generation;
+            JsonNode elementNode = elementSchema(parse(content(fileName, file)));
+            if (elementNode == null) {
+                return null;
+            }
+            schema = publish(key, compile(file, elementNode, failFast, formatAssertions), generation);
+            if (schema != null) {
+                return schema;
+            }
+        }
+    }
+
+    /**
+     * @return Map с полными именами json файлов и их содержимым. Изменяется на месте при обновлении
+     */
+    public Map<String, String> getJsonFiles() {
+        return jsonFiles;
+    }
+
+    /**
+     * @return текущий коммит локального репозитория
+     */
+    public String getCommit() {
+        ObjectId commit = head;
+        return commit == null ? null : commit.getName();
+    }
+
+    private void apply(SchemaChanges changes) throws IOException {
+        Set<String> changed = new HashSet<>();
+        for (String removed : changes.getRemoved()) {
+            String key = localRepoService.formPathToJsonFileFromRepoPath(removed);
+            jsonFiles.remove(key);
+            changed.add(key);
+        }
+        for (String added : changes.getAdded()) {
+            changed.add(put(added));
+        }
+        for (String modified : changes.getModified()) {
+            changed.add(put(modified));
+        }
+        invalidate(changed);
+    }
+
+    private String put(String repoPath) throws IOException {
+        Map.Entry<String, String> file = localRepoService.readJsonFileFromLocalRepo(repoPath);
+        jsonFiles.put(file.getKey(), file.getValue());
+        return file.getKey();
+    }
+
+    /**
+     * Удаляет из кэша схемы, зависящие от измененных файлов. Кэш подсхем фабрики нельзя очистить выборочно,
+     * поэтому фабрика заменяется: оставшиеся схемы ссылаются только на неизмененные подсхемы старой фабрики
+     */
+    private void invalidate(Set<String> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        generation++;
+        resetResolvers();
+        factories.clear();
+        dependencies.entrySet().removeIf(entry -> {
+            if (Collections.disjoint(entry.getValue(), changed)) {
+                return false;
+            }
+            compiledSchemas.remove(entry.getKey());
+            return true;
+        });
+        changed.forEach(compiledSchemas::remove);
+    }
+
+    private void resetResolvers() {
+        resolver.reset();
+        formatFreeResolver.reset();
+    }
+
+    private String content(String fileName, String file) {
+        String content = jsonFiles.get(file);
+        if (content == null) {
+            throw new IllegalArgumentException("Json schema file " + fileName + " not found in local repository");
+        }
+        return content;
+    }
+
+    /**
+     * Публикует скомпилированную схему в кэш под той же блокировкой, под которой применяются изменения файлов.
+     * Если файлы изменились после начала компиляции, схема могла быть скомпилирована по прежнему содержимому
+     * и не публикуется
+     *
+     * @param key ключ схемы в кэше
+     * @param compiled скомпилированная схема и ее файлы
+     * @param generation номер набора файлов, по которому скомпилирована схема
+     * @return схема из кэша или null, если схему нужно скомпилировать заново
+     */
+    private synchronized JsonSchema publish(String key, Compiled compiled, long generation) {
+        if (generation != this.generation) {
+            return null;
+        }
+        JsonSchema existing = compiledSchemas.putIfAbsent(key, compiled.schema);
+        if (existing != null) {
+            return existing;
+        }
+        dependencies.put(key, compiled.files);
+        return compiled.schema;
+    }
+
+    private static JsonNode parse(String schemaContent) {
+        try {
+            return MAPPER.readTree(schemaContent);
+        } catch (IOException e) {
+            throw new JsonSchemaException(e);
+        }
+    }
+
+    /**
+     * @return схема элемента, составленная из 'items' и определений корня, или null, если корень - не массив
+     * только с 'items'
+     */
+    static JsonNode elementSchema(JsonNode schemaNode) {
+        JsonNode type = schemaNode.get("type");
+        JsonNode items = schemaNode.get("items");
+        if (type == null || !"array".equals(type.asText()) || items == null || !items.isObject()) {
+            return null;
+        }
+        Iterator<String> keywords = schemaNode.fieldNames();
+        while (keywords.hasNext()) {
+            if (!ELEMENT_ROOT_KEYWORDS.contains(keywords.next())) {
+                return null;
+            }
+        }
+        ObjectNode elementNode = items.deepCopy();
+        for (String keyword : ELEMENT_INHERITED_KEYWORDS) {
+            if (schemaNode.has(keyword) && !elementNode.has(keyword)) {
+                elementNode.set(keyword, schemaNode.get(keyword).deepCopy());
+            }
+        }
+        return elementNode;
+    }
+
+    /**
+     * Компилирует схему с адресом файла в репозитории, чтобы относительные $ref разрешались через {@link LocalSchemaResolver}
+     *
+     * @param fileName полное имя файла
+     * @param schemaNode схема валидации (изменяется, если 'format' не проверяется)
+     * @param failFast остановка на первой ошибке
+     * @param formatAssertions проверка 'format'
+     * @return {@link JsonSchema} и файлы, от которых она зависит
+     */
+    private Compiled compile(String fileName, JsonNode schemaNode, boolean failFast, boolean formatAssertions) {
+        if (!formatAssertions) {
+            LocalSchemaResolver.withoutFormat(schemaNode);
+        }
+        Set<String> files = references(fileName, schemaNode);
+        if (failFast && branching(fileName, schemaNode, files)) {
+            log.warn("Fail-fast is not applied to json schema {}: it uses one of {}", fileName, BRANCHING_KEYWORDS);
+            failFast = false;
+        }
+        SchemaValidatorsConfig config = new SchemaValidatorsConfig();
+        config.setFailFast(failFast);
+        boolean formatFree = !formatAssertions;
+        JsonSchemaFactory factory = factories.computeIfAbsent(variant(failFast, formatAssertions),
+                variant -> newFactory(formatFree ? formatFreeResolver : resolver));
+        JsonSchema schema = factory.getSchema(LocalSchemaResolver.uri(fileName), schemaNode, config);
+        schema.initializeValidators();
+        return new Compiled(schema, files);
+    }
+
+    /**
+     * @return true, если схема или файлы, на которые она ссылается, используют {@link #BRANCHING_KEYWORDS}
+     */
+    private boolean branching(String fileName, JsonNode schemaNode, Set<String> files) {
+        if (branching(schemaNode)) {
+            return true;
+        }
+        for (String file : files) {
+            String content = jsonFiles.get(file);
+            if (file.equals(fileName) || content == null) {
+                continue;
+            }
+            try {
+                if (branching(MAPPER.readTree(content))) {
+                    return true;
+                }
+            } catch (IOException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean branching(JsonNode node) {
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (BRANCHING_KEYWORDS.contains(field.getKey()) && field.getValue().isContainerNode()) {
+                return true;
+            }
+        }
+        for (JsonNode child : node) {
+            if (child.isContainerNode() && branching(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return имя сочетания настроек политики, пустое для настроек по умолчанию
+     */
+    private static String variant(boolean failFast, boolean formatAssertions) {
+        return (failFast ? "failFast" : "") + (formatAssertions ? "" : "noFormat");
+    }
+
+    /**
+     * Собирает файлы репозитория, на которые схема ссылается через $ref напрямую или через другие файлы
+     */
+    private Set<String> references(String fileName, JsonNode schemaNode) {
+        Set<String> files = new HashSet<>();
+        files.add(fileName);
+        Deque<String> queue = new ArrayDeque<>();
+        collectReferences(schemaNode, baseUri(fileName, schemaNode), queue);
+        while (!queue.isEmpty()) {
+            String file = queue.poll();
+            String content = jsonFiles.get(file);
+            if (!files.add(file) || content == null) {
+                continue;
+            }
+            try {
+                JsonNode node = MAPPER.readTree(content);
+                collectReferences(node, baseUri(file, node), queue);
+            } catch (IOException e) {
+                log.warn("Json schema file {} referenced from {} is not valid json", file, fileName);
+            }
+        }
+        return files;
+    }
+
+    private void collectReferences(JsonNode node, URI base, Deque<String> queue) {
+        JsonNode ref = node.get("$ref");
+        if (ref != null && ref.isTextual() && !ref.asText().startsWith("#")) {
+            try {
+                String file = resolver.findFileName(base.resolve(ref.asText()));
+                if (file != null) {
+                    queue.add(file);
+                }
+            } catch (IllegalArgumentException e) {
+                log.debug("Invalid $ref {} in json schema {}", ref.asText(), base);
+            }
+        }
+        for (JsonNode child : node) {
+            if (child.isContainerNode()) {
+                collectReferences(child, base, queue);
+            }
+        }
+    }
+
+    private static URI baseUri(String fileName, JsonNode schemaNode) {
+        URI uri = LocalSchemaResolver.uri(fileName);
+        JsonNode id = schemaNode.get("$id");
+        if (id != null && id.isTextual()) {
+            try {
+                return uri.resolve(id.asText());
+            } catch (IllegalArgumentException e) {
+                return uri;
+            }
+        }
+        return uri;
+    }
+
+    private static JsonSchemaFactory newFactory(LocalSchemaResolver resolver) {
+        return JsonSchemaFactory.builder(JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V202012))
+                .uriFactory(resolver, LocalSchemaResolver.SCHEME)
+                .uriFetcher(resolver, LocalSchemaResolver.SCHEME, "http", "https")
+                .build();
+    }
+
+    /**
+     * Скомпилированная схема и файлы, от которых она зависит (включая ее собственный файл)
+     */
+    private static final class Compiled {
+        private final JsonSchema schema;
+        private final Set<String> files;
+
+        private Compiled(JsonSchema schema, Set<String> files) {
+            this.schema = schema;
+            this.files = files;
+        }
+    }
+}
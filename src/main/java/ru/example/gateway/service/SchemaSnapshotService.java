@@ -0,0 +1,218 @@
+package ru.example.gateway.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import ru.example.gateway.model.SchemaSnapshot;
+
+/**
+ * Хранит на локальном диске снимок последнего успешно загруженного набора json файлов вместе с коммитом,
+ * чтобы при запуске не ждать клонирования\обновления репозитория из GitLab.
+ * <p>
+ * Снимок включается только явным путем 'gitlab.snapshot' (например, на подключенном томе). Каталог создается
+ * с правами только для владельца, снимок не читается, если он или каталог принадлежат другому пользователю или
+ * доступны на запись группе и остальным. После запуска {@link SchemaRegistry} сверяет файлы снимка с репозиторием.
+ * <p>
+ * Формат файла: int MAGIC, строка коммита, int количество файлов, для каждого файла строка имени и строка
+ * содержимого, в конце SHA-256 всех предыдущих байт. Строка записывается как int длина + байты UTF-8.
+ * Файл пишется во временный и атомарно переименовывается, читается через отображение в память
+ */
+@Service
+@Slf4j
+public class SchemaSnapshotService {
+
+    private static final int MAGIC = 0x47535332;
+    private static final String DIGEST = "SHA-256";
+    private static final int DIGEST_LENGTH = 32;
+
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+
+    /**
+     * Путь к файлу снимка. Пустое значение (по умолчанию) отключает снимок
+     */
+    @Value("${gitlab.snapshot:}")
+    private String snapshotPath;
+
+    public boolean isEnabled() {
+        return snapshotPath != null && !snapshotPath.isEmpty();
+    }
+
+    /**
+     * Считывает снимок с диска
+     * @return снимок или null, если снимок отключен, отсутствует или поврежден
+     */
+    public SchemaSnapshot read() {
+        if (!isEnabled()) {
+            return null;
+        }
+        Path path = Paths.get(snapshotPath).toAbsolutePath();
+        if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+            log.info("Json schema snapshot {} not found", path);
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+            checkOwner(path.getParent());
+            checkOwner(path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return decode(buffer);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Json schema snapshot {} can not be read, it will be ignored: {}", path, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Записывает снимок на диск. Ошибка записи не прерывает работу, так как снимок нужен только для ускорения запуска
+     * @param commit коммит, из которого получены файлы
+     * @param files Map с полными именами json файлов и их содержимым
+     */
+    public void write(String commit, Map<String, String> files) {
+        if (!isEnabled() || commit == null) {
+            return;
+        }
+        Path path = Paths.get(snapshotPath).toAbsolutePath();
+        try {
+            Path directory = path.getParent();
+            if (posix()) {
+                Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+            } else {
+                Files.createDirectories(directory);
+            }
+            checkOwner(directory);
+            Path temp = posix()
+                    ? Files.createTempFile(directory, path.getFileName().toString(), ".tmp", PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE))
+                    : Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    encode(commit, files, out);
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            log.debug("Json schema snapshot of commit {} with {} files written to {}", commit, files.size(), path);
+        } catch (IOException e) {
+            log.warn("Json schema snapshot {} can not be written: {}", path, e.toString());
+        }
+    }
+
+    /**
+     * Проверяет, что файл или каталог принадлежит пользователю процесса и недоступен на запись другим
+     * @throws IOException если проверка не пройдена
+     */
+    private static void checkOwner(Path path) throws IOException {
+        if (!posix()) {
+            return;
+        }
+        PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        String user = System.getProperty("user.name");
+        if (!attributes.owner().getName().equals(user)) {
+            throw new IOException(path + " is owned by " + attributes.owner().getName() + ", not by " + user);
+        }
+        Set<PosixFilePermission> permissions = attributes.permissions();
+        if (permissions.contains(PosixFilePermission.GROUP_WRITE) || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+            throw new IOException(path + " is writable by other users: " + PosixFilePermissions.toString(permissions));
+        }
+    }
+
+    private static boolean posix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+
+    static void encode(String commit, Map<String, String> files, OutputStream target) throws IOException {
+        MessageDigest digest = digest();
+        DataOutputStream out = new DataOutputStream(new DigestOutputStream(new BufferedOutputStream(target), digest));
+        out.writeInt(MAGIC);
+        writeString(out, commit);
+        out.writeInt(files.size());
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            writeString(out, file.getKey());
+            writeString(out, file.getValue());
+        }
+        out.flush();
+        //хэш пишется мимо DigestOutputStream
+        target.write(digest.digest());
+        target.flush();
+    }
+
+    static SchemaSnapshot decode(ByteBuffer buffer) throws IOException {
+        try {
+            int end = buffer.limit() - DIGEST_LENGTH;
+            MessageDigest digest = digest();
+            ByteBuffer content = buffer.duplicate();
+            content.limit(end);
+            digest.update(content);
+            byte[] expected = new byte[DIGEST_LENGTH];
+            ByteBuffer trailer = buffer.duplicate();
+            trailer.position(end);
+            trailer.get(expected);
+            if (!MessageDigest.isEqual(expected, digest.digest())) {
+                throw new IOException("digest mismatch");
+            }
+            buffer.limit(end);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("unknown format");
+            }
+            String commit = readString(buffer);
+            int count = buffer.getInt();
+            Map<String, String> files = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                files.put(readString(buffer), readString(buffer));
+            }
+            return new SchemaSnapshot(commit, files);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("truncated snapshot", e);
+        }
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance(DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(buffer.position() + length);
+        buffer.position(buffer.position() + length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+}
@@ -0,0 +1,455 @@
+package ru.example.gateway.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Flux;
+
+import javax.annotation.PostConstruct;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.example.gateway.cache.ValidationResultCache;
+import ru.example.gateway.config.exception.ValidationException;
+import ru.example.gateway.metrics.ValidationMetrics;
+import ru.example.gateway.model.ValidateActivator;
+import ru.example.gateway.model.ValidationOutcome;
+import ru.example.gateway.parser.ContentEncodings;
+import ru.example.gateway.parser.JsonElementStreamParser;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.sampling.ResponseSampler;
+import ru.example.gateway.scheduler.ValidationScheduler;
+import ru.example.gateway.service.implementation.ResponseValidationService;
+
+/**
+ * Фоновая (теневая) валидация ответов в режиме {@link ValidateActivator.ResponseMode#SHADOW}. Каждая часть тела
+ * сразу передается клиенту, а ее копия сохраняется и после получения всего тела проверяется в
+ * {@link ValidationScheduler}. Результат записывается только в лог и метрики, ответ не изменяется.
+ * Ответы, которые проверяются поэлементно (NDJSON и массивы со схемой элемента при
+ * {@link ValidateActivator#isElementWiseOn()}) и не сжаты, не копируются: части сразу передаются в
+ * {@link JsonElementStreamParser}, а разобранные элементы проверяются в {@link ValidationScheduler} по одному, поэтому
+ * в памяти находятся только незавершенный элемент и элементы, ожидающие проверки.
+ * Суммарный размер копий и элементов ограничен {@link ValidateActivator#getShadowBufferLimit()}: при превышении они
+ * освобождаются, и ответ не проверяется. Текущий размер - метрика {@link #RETAINED_BYTES}
+ */
+@Service
+@Slf4j
+public class ShadowResponseValidator {
+
+    public static final String RETAINED_BYTES = "gateway.validation.shadow.retained";
+
+    private final AtomicLong retained = new AtomicLong();
+
+    private ValidateActivator validateActivator;
+    private ResponseValidationService responseValidationService;
+    private ValidationScheduler validationScheduler;
+    private ValidationMetrics validationMetrics;
+    private ResponseSampler responseSampler;
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    public void setValidateActivator(ValidateActivator validateActivator) {
+        this.validateActivator = validateActivator;
+    }
+
+    @Autowired
+    public void setResponseValidationService(ResponseValidationService responseValidationService) {
+        this.responseValidationService = responseValidationService;
+    }
+
+    @Autowired
+    public void setValidationScheduler(ValidationScheduler validationScheduler) {
+        this.validationScheduler = validationScheduler;
+    }
+
+    @Autowired
+    public void setValidationMetrics(ValidationMetrics validationMetrics) {
+        this.validationMetrics = validationMetrics;
+    }
+
+    @Autowired
+    public void setResponseSampler(ResponseSampler responseSampler) {
+        this.responseSampler = responseSampler;
+    }
+
+    @Autowired
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        Gauge.builder(RETAINED_BYTES, retained, AtomicLong::get)
+                .description("Bytes of response copies and elements waiting for shadow validation")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Добавляет к телу ответа сохранение копий частей и фоновую валидацию после его окончания
+     *
+     * @param route маршрут со схемой ответа или null, если схема не задана
+     * @param method метод запроса
+     * @param body  тело ответа
+     * @param limit максимальный размер тела для валидации
+     * @param contentEncoding значение заголовка 'Content-Encoding' ответа или null
+     * @param ndjson true для ответа 'application/x-ndjson'
+     * @return тело ответа, части которого передаются без задержки и изменений
+     */
+    public Flux<DataBuffer> tee(Route route, HttpMethod method, Flux<DataBuffer> body, long limit, String contentEncoding, boolean ndjson) {
+        if (route == null) {
+            validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, method, null, ValidationOutcome.SCHEMA_MISS);
+            return body;
+        }
+        if (ContentEncodings.isIdentity(contentEncoding)
+                && (ndjson || (validateActivator.isElementWiseOn() && route.getElementSchema() != null))) {
+            return Flux.defer(() -> {
+                ElementTee tee = new ElementTee(route, limit, ndjson);
+                return body.doOnNext(tee::feed)
+                        .doOnComplete(tee::finish)
+                        .doOnError(e -> tee.discard())
+                        .doOnCancel(tee::discard);
+            });
+        }
+        return Flux.defer(() -> {
+            Tee tee = new Tee(route, limit, contentEncoding, ndjson);
+            return body.doOnNext(tee::copy)
+                    .doOnComplete(tee::validate)
+                    .doOnError(e -> tee.discard())
+                    .doOnCancel(tee::discard);
+        });
+    }
+
+    /**
+     * Копии частей одного ответа
+     */
+    private final class Tee {
+        private final Route route;
+        private final long limit;
+        private final String contentEncoding;
+        private final boolean ndjson;
+        private final long start = System.nanoTime();
+        private List<DataBuffer> copies = new ArrayList<>();
+        //размер тела и размер копий, учтенных в retained
+        private long size;
+        private long held;
+        private boolean overflowed;
+
+        private Tee(Route route, long limit, String contentEncoding, boolean ndjson) {
+            this.route = route;
+            this.limit = limit;
+            this.contentEncoding = contentEncoding;
+            this.ndjson = ndjson;
+        }
+
+        private void copy(DataBuffer dataBuffer) {
+            if (overflowed) {
+                return;
+            }
+            int length = dataBuffer.readableByteCount();
+            size += length;
+            if (size > limit) {
+                overflow(ValidationOutcome.BODY_TOO_LARGE);
+                return;
+            }
+            if (retained.addAndGet(length) > validateActivator.getShadowBufferLimit().toBytes()) {
+                retained.addAndGet(-length);
+                overflow(ValidationOutcome.SHED);
+                return;
+            }
+            held += length;
+            byte[] bytes = new byte[length];
+            dataBuffer.asByteBuffer().get(bytes);
+            copies.add(DefaultDataBufferFactory.sharedInstance.wrap(bytes));
+        }
+
+        private void overflow(ValidationOutcome outcome) {
+            overflowed = true;
+            skipped(route, size, outcome);
+            discard();
+        }
+
+        private void validate() {
+            if (overflowed) {
+                return;
+            }
+            if (copies.isEmpty()) {
+                discard();
+                return;
+            }
+            List<DataBuffer> body = copies;
+            long bytes = held;
+            copies = new ArrayList<>();
+            held = 0;
+            validationMetrics.bodyReceived(ValidationResultCache.Direction.RESPONSE, route, System.nanoTime() - start, bytes);
+            validationScheduler.run(() -> {
+                        responseValidationService.validate(route, body, contentEncoding, ndjson);
+                        passed(route);
+                    })
+                    .doFinally(signal -> retained.addAndGet(-bytes))
+                    .subscribe(null, e -> failed(route, e));
+        }
+
+        private void discard() {
+            retained.addAndGet(-held);
+            held = 0;
+            copies = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Поэлементная проверка одного ответа без копирования частей. Части разбираются в потоке ответа, разобранные
+     * элементы проверяет в {@link ValidationScheduler} одна задача, пока очередь элементов не опустеет
+     */
+    private final class ElementTee {
+        private final Route route;
+        private final long limit;
+        private final long start = System.nanoTime();
+        private final JsonElementStreamParser parser;
+        //разобранные элементы, ожидающие проверки; их размер учтен в retained
+        private final Queue<Element> elements = new ConcurrentLinkedQueue<>();
+        //задача проверки элементов запущена; проверка и отчет выполняются только при установленном флаге
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean reported = new AtomicBoolean();
+        private final List<String> validationErrors = new ArrayList<>();
+        private long schemaNanos;
+        //размер тела, индекс следующего элемента и размер незавершенного элемента, учтенный в retained
+        private long size;
+        private int index;
+        private long pending;
+        //тело получено полностью или разбор завершился ошибкой failure
+        private volatile boolean finished;
+        private volatile boolean discarded;
+        private volatile ValidationException failure;
+
+        private ElementTee(Route route, long limit, boolean ndjson) {
+            this.route = route;
+            this.limit = limit;
+            this.parser = new JsonElementStreamParser(ndjson, this::parsed);
+        }
+
+        private void feed(DataBuffer dataBuffer) {
+            if (finished || discarded) {
+                release();
+                return;
+            }
+            size += dataBuffer.readableByteCount();
+            if (size > limit) {
+                overflow(ValidationOutcome.BODY_TOO_LARGE);
+                return;
+            }
+            try {
+                parser.feed(dataBuffer);
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            long current = parser.getPendingBytes();
+            if (retained.addAndGet(current - pending) > validateActivator.getShadowBufferLimit().toBytes()) {
+                pending = current;
+                overflow(ValidationOutcome.SHED);
+                return;
+            }
+            pending = current;
+            schedule();
+        }
+
+        private void parsed(JsonNode element, long bytes) {
+            retained.addAndGet(bytes);
+            elements.add(new Element(parser.isElementWise() ? index++ : -1, element, bytes));
+        }
+
+        private void finish() {
+            if (finished || discarded) {
+                release();
+                return;
+            }
+            if (size == 0) {
+                discard();
+                return;
+            }
+            try {
+                parser.finish();
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            release();
+            validationMetrics.bodyReceived(ValidationResultCache.Direction.RESPONSE, route, System.nanoTime() - start, size);
+            validationMetrics.parsed(ValidationResultCache.Direction.RESPONSE, route, parser.getParseNanos());
+            finished = true;
+            schedule();
+        }
+
+        private void fail(IOException e) {
+            release();
+            failure = responseValidationService.deserializationError(e);
+            finished = true;
+            schedule();
+        }
+
+        private void overflow(ValidationOutcome outcome) {
+            skipped(route, size, outcome);
+            discard();
+        }
+
+        private void schedule() {
+            if ((elements.isEmpty() && !finished) || !draining.compareAndSet(false, true)) {
+                return;
+            }
+            validationScheduler.run(this::drain)
+                    .subscribe(null, e -> {
+                        //задача не запущена (очередь заполнена) или завершилась ошибкой: ответ больше не проверяется
+                        if (reported.compareAndSet(false, true)) {
+                            failed(route, e);
+                        }
+                        abandon();
+                        draining.set(false);
+                    });
+        }
+
+        private void drain() {
+            do {
+                Element element;
+                while ((element = elements.poll()) != null) {
+                    try {
+                        if (!discarded && failure == null && !maxErrorsReached()) {
+                            validate(element);
+                        }
+                    } finally {
+                        retained.addAndGet(-element.bytes);
+                    }
+                }
+                //все элементы добавлены в очередь до установки finished
+                if (finished && elements.isEmpty() && !discarded && reported.compareAndSet(false, true)) {
+                    report();
+                }
+                draining.set(false);
+            } while ((!elements.isEmpty() || (finished && !discarded && !reported.get())) && draining.compareAndSet(false, true));
+        }
+
+        private void validate(Element element) {
+            long schemaStart = System.nanoTime();
+            if (element.index < 0) {
+                validationErrors.addAll(responseValidationService.schemaErrors(route, element.node));
+            } else {
+                validationErrors.addAll(responseValidationService.elementErrors(route, element.index, element.node));
+            }
+            schemaNanos += System.nanoTime() - schemaStart;
+        }
+
+        private boolean maxErrorsReached() {
+            return route.getMaxErrors() > 0 && validationErrors.size() >= route.getMaxErrors();
+        }
+
+        private void report() {
+            if (failure != null) {
+                failed(route, failure);
+                return;
+            }
+            validationMetrics.validated(ValidationResultCache.Direction.RESPONSE, route, schemaNanos);
+            if (validationErrors.isEmpty()) {
+                log.debug("No validation errors in {} elements of response {}", index, route);
+                passed(route);
+            } else {
+                failed(route, responseValidationService.invalidResponse(validationErrors));
+            }
+        }
+
+        /**
+         * Освобождает незавершенный элемент; вызывается в потоке ответа
+         */
+        private void release() {
+            retained.addAndGet(-pending);
+            pending = 0;
+        }
+
+        private void discard() {
+            release();
+            abandon();
+        }
+
+        /**
+         * Освобождает элементы, ожидающие проверки; незавершенный элемент освобождается в потоке ответа
+         */
+        private void abandon() {
+            discarded = true;
+            Element element;
+            while ((element = elements.poll()) != null) {
+                retained.addAndGet(-element.bytes);
+            }
+        }
+    }
+
+    /**
+     * Разобранный элемент ответа: индекс в массиве (записи NDJSON) или -1 для тела, которое не является массивом
+     */
+    private static final class Element {
+        private final int index;
+        private final JsonNode node;
+        private final long bytes;
+
+        private Element(int index, JsonNode node, long bytes) {
+            this.index = index;
+            this.node = node;
+            this.bytes = bytes;
+        }
+    }
+
+    private void skipped(Route route, long size, ValidationOutcome outcome) {
+        log.warn("Shadow validation of response {} skipped: {}", route, outcome);
+        validationMetrics.bodyRejected(ValidationResultCache.Direction.RESPONSE, route.getMethod(), route, size);
+        validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, route.getMethod(), route, outcome);
+    }
+
+    private void passed(Route route) {
+        validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, route.getMethod(), route, ValidationOutcome.PASS);
+        responseSampler.record(route, true);
+    }
+
+    private void failed(Route route, Throwable e) {
+        if (e instanceof ValidationException) {
+            ValidationException validationException = (ValidationException) e;
+            ValidationOutcome outcome = validationException.getOutcome();
+            validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, route.getMethod(), route, outcome);
+            if (outcome == ValidationOutcome.VALIDATION_ERROR || outcome == ValidationOutcome.PARSE_ERROR) {
+                responseSampler.record(route, false);
+            }
+            log.warn("Shadow validation of response {} failed: {} {}", route, outcome, details(route, validationException));
+        } else if (e instanceof RejectedExecutionException) {
+            validationMetrics.outcome(ValidationResultCache.Direction.RESPONSE, route.getMethod(), route, ValidationOutcome.SHED);
+        } else {
+            log.error("Shadow validation of response {} failed", route, e);
+        }
+    }
+
+    /**
+     * @return ошибки валидации, не больше maxErrors маршрута
+     */
+    private static List<String> details(Route route, ValidationException e) {
+        List<String> details = e.getDetails();
+        if (details == null) {
+            return Collections.emptyList();
+        }
+        int maxErrors = route.getMaxErrors();
+        return maxErrors > 0 && details.size() > maxErrors ? details.subList(0, maxErrors) : details;
+    }
+}
@@ -4,26 +4,31 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import com.networknt.schema.JsonSchema;
-import com.networknt.schema.ValidationMessage;
-
 import lombok.extern.slf4j.Slf4j;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 
-import java.util.Map;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Set;
 import java.util.Collections;
-import java.util.stream.Collectors;
 
+import ru.example.gateway.cache.BodyHasher;
+import ru.example.gateway.cache.ValidationResultCache;
 import ru.example.gateway.config.exception.ValidationException;
-import ru.example.gateway.model.ModifiedPath;
+import ru.example.gateway.metrics.ValidationMetrics;
+import ru.example.gateway.model.BodyLimits;
+import ru.example.gateway.model.ValidationOutcome;
+import ru.example.gateway.parser.ContentEncodings;
+import ru.example.gateway.parser.JsonTreeStreamParser;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.routing.RouteIndex;
 import ru.example.gateway.service.IValidationService;
 
 /**
@@ -35,10 +40,18 @@ public class RequestValidationService implements IValidationService {
     public static final String VALIDATION_ERROR = "validation error";
     public static final String DESERIALIZE_ERROR = "deserialization error";
     public static final String NO_SCHEME_ERROR = "can't find json validation scheme";
+    public static final String BODY_TOO_LARGE_ERROR = "request body is too large";
+    public static final String OVERLOADED_ERROR = "validation is overloaded";
+
+    //ответы с ошибкой без переменных частей: создаются и сериализуются один раз
+    private static final ValidationException SCHEMA_MISS = new ValidationException(VALIDATION_ERROR,
+            Collections.singletonList(NO_SCHEME_ERROR), HttpStatus.PRECONDITION_FAILED, ValidationOutcome.SCHEMA_MISS);
+    private static final ValidationException OVERLOADED = new ValidationException(OVERLOADED_ERROR,
+            Collections.singletonList("validation queue is full"), HttpStatus.SERVICE_UNAVAILABLE, ValidationOutcome.SHED);
 
     //Bean в котором хранятся пути запросов и схемы валидации для них
-    @Resource(name = "requestSchemaMap")
-    private Map<String, Map<String, JsonSchema>> requestsSchemaMap;
+    @Resource(name = "requestRouteIndex")
+    private RouteIndex requestRouteIndex;
     private ObjectMapper mapper;
 
     @Autowired
@@ -46,6 +59,27 @@ public class RequestValidationService implements IValidationService {
         this.mapper = mapper;
     }
 
+    private ValidationResultCache validationResultCache;
+
+    @Autowired
+    public void setValidationResultCache(ValidationResultCache validationResultCache) {
+        this.validationResultCache = validationResultCache;
+    }
+
+    private ValidationMetrics validationMetrics;
+
+    @Autowired
+    public void setValidationMetrics(ValidationMetrics validationMetrics) {
+        this.validationMetrics = validationMetrics;
+    }
+
+    private BodyLimits bodyLimits;
+
+    @Autowired
+    public void setBodyLimits(BodyLimits bodyLimits) {
+        this.bodyLimits = bodyLimits;
+    }
+
 
     /**
      * Выполняет валидацию тела запроса на основе json схемы заданной в файле конфигурации для его метода и пути
@@ -55,40 +89,163 @@ public class RequestValidationService implements IValidationService {
      * @param path       путь запроса
      */
     public String validate(String httpMethod, String body, String path) {
-        if (requestsSchemaMap.containsKey(httpMethod)) {
-            Map<String, JsonSchema> requestSchemaMapForCurrentMethod = requestsSchemaMap.get(httpMethod);
-            ModifiedPath modifiedPath = isSchemaMapContainsPath(requestSchemaMapForCurrentMethod, path);
-            if (modifiedPath.isSchemaMapContainsPath()) {
-                path = modifiedPath.isPathModified() ? modifiedPath.getModifiedPath() : path;
-                JsonNode jsonNode;
-                try {
-                    jsonNode = mapper.readTree(body);
-                } catch (JsonProcessingException e) {
-                    //если не получается распарсить тело запроса - возвращаем ошибку
-                    log.error("Can't parse request body. Error: {}", e.getMessage());
-                    List<String> exceptions = new ArrayList<>(Collections.singletonList(e.getMessage()));
-                    throw new ValidationException(DESERIALIZE_ERROR, exceptions, HttpStatus.BAD_REQUEST);
-                }
-                JsonSchema schema = requestSchemaMapForCurrentMethod.get(path);
-
-                //выполняем валидацию и пропускаем запрос дальше или возвращаем в ответ ошибку
-                Set<ValidationMessage> validate = schema.validate(jsonNode);
-
-                if (validate.isEmpty()) {
-                    log.debug("No validation errors in request {}, {}", httpMethod, path);
-                } else {
-                    List<String> validationErrors = validate.stream().map(Object::toString).collect(Collectors.toList());
-                    log.error("Validation errors in request: {}", validationErrors);
-                    throw new ValidationException(VALIDATION_ERROR, validationErrors, HttpStatus.PRECONDITION_FAILED);
-                }
+        Route route = getRoute(HttpMethod.resolve(httpMethod.toUpperCase()), path);
+        JsonNode jsonNode;
+        try {
+            jsonNode = mapper.readTree(body);
+        } catch (JsonProcessingException e) {
+            throw deserializationError(e);
+        }
+        validate(route, jsonNode);
+        return "";
+    }
+
+    /**
+     * Находит маршрут со схемой валидации для метода и пути запроса
+     *
+     * @param httpMethod http метод
+     * @param path       путь запроса
+     * @return маршрут из {@link RouteIndex}
+     * @throws ValidationException если схема для метода и пути не задана
+     */
+    public Route getRoute(HttpMethod httpMethod, String path) {
+        if (requestRouteIndex.containsMethod(httpMethod)) {
+            Route route = requestRouteIndex.find(httpMethod, path);
+            if (route != null) {
+                return route;
             } else {
                 log.info("No JSON schema for path {} (method - {}).", path, httpMethod);
-                throw new ValidationException(VALIDATION_ERROR, Collections.singletonList(NO_SCHEME_ERROR), HttpStatus.PRECONDITION_FAILED);
+                throw SCHEMA_MISS;
             }
         } else {
             log.info("No JSON schema for method {} (path - {}).", httpMethod, path);
-            throw new ValidationException(VALIDATION_ERROR, Collections.singletonList(NO_SCHEME_ERROR), HttpStatus.PRECONDITION_FAILED);
+            throw SCHEMA_MISS;
         }
-        return "";
+    }
+
+    /**
+     * Выполняет валидацию уже разобранного тела запроса
+     *
+     * @param route    маршрут, полученный из {@link #getRoute(HttpMethod, String)}
+     * @param jsonNode тело запроса
+     * @throws ValidationException если тело не соответствует схеме
+     */
+    public void validate(Route route, JsonNode jsonNode) {
+        //выполняем валидацию и пропускаем запрос дальше или возвращаем в ответ ошибку
+        long start = System.nanoTime();
+        List<String> validationErrors = schemaErrors(route, jsonNode);
+        validationMetrics.validated(ValidationResultCache.Direction.REQUEST, route, System.nanoTime() - start);
+
+        if (validationErrors.isEmpty()) {
+            log.debug("No validation errors in request {}", route);
+        } else {
+            log.error("Validation errors in request: {}", validationErrors);
+            throw new ValidationException(VALIDATION_ERROR, validationErrors, HttpStatus.PRECONDITION_FAILED);
+        }
+    }
+
+    /**
+     * Завершает потоковый разбор тела запроса и проверяет его по схеме. Если включен {@link ValidationResultCache},
+     * хэш считается из тех же частей, которые получил парсер, и при попадании в кэш проверка по схеме не выполняется
+     *
+     * @param route  маршрут, полученный из {@link #getRoute(HttpMethod, String)}
+     * @param parser парсер, получивший все части тела
+     * @param hasher хэш тех же частей или null, если кэш результатов не используется
+     * @throws ValidationException если тело некорректно или не соответствует схеме
+     */
+    public void validate(Route route, JsonTreeStreamParser parser, BodyHasher hasher) {
+        Runnable validation = () -> {
+            JsonNode jsonNode;
+            try {
+                jsonNode = parser.finish();
+            } catch (IOException e) {
+                throw deserializationError(e);
+            } finally {
+                validationMetrics.parsed(ValidationResultCache.Direction.REQUEST, route, parser.getParseNanos());
+            }
+            validate(route, jsonNode);
+        };
+        if (hasher == null) {
+            validation.run();
+        } else {
+            validationResultCache.validate(ValidationResultCache.Direction.REQUEST, route, hasher, null,
+                    ValidationResultCache.Mode.BODY, validation);
+        }
+    }
+
+    /**
+     * Выполняет валидацию тела запроса, уже полностью полученного в виде частей: тело разбирается целиком, а при
+     * попадании в {@link ValidationResultCache} не разбирается
+     *
+     * @param route       маршрут, полученный из {@link #getRoute(HttpMethod, String)}
+     * @param dataBuffers части тела запроса (не изменяются и не освобождаются)
+     * @throws ValidationException если тело не соответствует схеме
+     */
+    public void validate(Route route, List<? extends DataBuffer> dataBuffers) {
+        validate(route, dataBuffers, null);
+    }
+
+    /**
+     * Выполняет валидацию тела запроса со сжатием из заголовка 'Content-Encoding'. Тело распаковывается по мере разбора,
+     * размер распакованного тела ограничен {@link BodyLimits#getMaxInflatedSize()}
+     *
+     * @param route           маршрут, полученный из {@link #getRoute(HttpMethod, String)}
+     * @param dataBuffers     части тела запроса (не изменяются и не освобождаются)
+     * @param contentEncoding значение заголовка 'Content-Encoding' или null
+     * @throws ValidationException если тело не соответствует схеме
+     */
+    public void validate(Route route, List<? extends DataBuffer> dataBuffers, String contentEncoding) {
+        validationResultCache.validate(ValidationResultCache.Direction.REQUEST, route, dataBuffers, contentEncoding,
+                ValidationResultCache.Mode.BODY, () -> {
+            JsonNode jsonNode;
+            long start = System.nanoTime();
+            try {
+                jsonNode = mapper.readTree(ContentEncodings.decode(dataBuffers, contentEncoding, bodyLimits.getMaxInflatedSize().toBytes()));
+            } catch (ContentEncodings.InflatedSizeExceededException e) {
+                throw bodyTooLarge(route, e.getLimit());
+            } catch (IOException e) {
+                throw deserializationError(e);
+            } finally {
+                validationMetrics.parsed(ValidationResultCache.Direction.REQUEST, route, System.nanoTime() - start);
+            }
+            validate(route, jsonNode);
+        });
+    }
+
+    /**
+     * Формирует исключение для тела запроса, которое не удалось распарсить
+     *
+     * @param e ошибка парсера
+     * @return {@link ValidationException} с описанием ошибки
+     */
+    public ValidationException deserializationError(IOException e) {
+        //если не получается распарсить тело запроса - возвращаем ошибку
+        log.error("Can't parse request body. Error: {}", e.getMessage());
+        List<String> exceptions = new ArrayList<>(Collections.singletonList(e.getMessage()));
+        return new ValidationException(DESERIALIZE_ERROR, exceptions, HttpStatus.BAD_REQUEST, ValidationOutcome.PARSE_ERROR);
+    }
+
+    /**
+     * Формирует исключение для тела запроса больше ограничения
+     *
+     * @param route маршрут запроса
+     * @param limit ограничение размера тела в байтах
+     * @return {@link ValidationException} со статусом 413
+     */
+    public ValidationException bodyTooLarge(Route route, long limit) {
+        log.warn("Request body for {} exceeds {} bytes", route, limit);
+        return new ValidationException(BODY_TOO_LARGE_ERROR, Collections.singletonList("max body size is " + limit + " bytes"),
+                HttpStatus.PAYLOAD_TOO_LARGE, ValidationOutcome.BODY_TOO_LARGE);
+    }
+
+    /**
+     * Формирует исключение для запроса, который не поместился в очередь валидации
+     *
+     * @param route маршрут запроса
+     * @return {@link ValidationException} со статусом 503
+     */
+    public ValidationException overloaded(Route route) {
+        log.warn("Validation queue is full, request {} rejected", route);
+        return OVERLOADED;
     }
 }
@@ -1,29 +1,37 @@
 package ru.example.gateway.service.implementation;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-
 import com.networknt.schema.JsonSchema;
-import com.networknt.schema.ValidationMessage;
 
 import lombok.extern.slf4j.Slf4j;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 
-import java.util.Map;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Set;
-import java.util.stream.Collectors;
 
+import ru.example.gateway.cache.ValidationResultCache;
 import ru.example.gateway.config.exception.ValidationException;
-import ru.example.gateway.model.ModifiedPath;
+import ru.example.gateway.metrics.ValidationMetrics;
+import ru.example.gateway.model.BodyLimits;
+import ru.example.gateway.model.ValidateActivator;
+import ru.example.gateway.model.ValidationOutcome;
+import ru.example.gateway.parser.ContentEncodings;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.routing.RouteIndex;
 import ru.example.gateway.service.IValidationService;
 
 @Service
@@ -33,14 +41,43 @@ public class ResponseValidationService implements IValidationService {
     private static final String SERVER_ERROR_MESSAGE = "Error";
     private static final String SERVER_DETAILS_MESSAGE = "Server response error";
 
+    //ответы с ошибкой без переменных частей: создаются и сериализуются один раз
+    private static final ValidationException SCHEMA_MISS = serverError(HttpStatus.INTERNAL_SERVER_ERROR, ValidationOutcome.SCHEMA_MISS);
+    private static final ValidationException BODY_TOO_LARGE = serverError(HttpStatus.INTERNAL_SERVER_ERROR, ValidationOutcome.BODY_TOO_LARGE);
+    private static final ValidationException OVERLOADED = serverError(HttpStatus.SERVICE_UNAVAILABLE, ValidationOutcome.SHED);
+
     private ObjectMapper mapper;
     @Autowired
     public void setMapper(ObjectMapper mapper) {
         this.mapper = mapper;
     }
 
-    @Resource(name = "responseSchemaMap")
-    private Map<String, Map<String, JsonSchema>> responsesSchema;
+    private ValidationResultCache validationResultCache;
+    @Autowired
+    public void setValidationResultCache(ValidationResultCache validationResultCache) {
+        this.validationResultCache = validationResultCache;
+    }
+
+    private ValidationMetrics validationMetrics;
+    @Autowired
+    public void setValidationMetrics(ValidationMetrics validationMetrics) {
+        this.validationMetrics = validationMetrics;
+    }
+
+    private BodyLimits bodyLimits;
+    @Autowired
+    public void setBodyLimits(BodyLimits bodyLimits) {
+        this.bodyLimits = bodyLimits;
+    }
+
+    private ValidateActivator validateActivator;
+    @Autowired
+    public void setValidateActivator(ValidateActivator validateActivator) {
+        this.validateActivator = validateActivator;
+    }
+
+    @Resource(name = "responseRouteIndex")
+    private RouteIndex responseRouteIndex;
 
     /**
      * Выполняет валидацию тела ответа на основе json схемы заданной в файле конфигурации для его метода и пути
@@ -54,35 +91,254 @@ public class ResponseValidationService implements IValidationService {
         try {
             jsonNode = mapper.readTree(body);
         } catch (JsonProcessingException e) {
-            log.error("Can't parse response body. Error: {}", e.getMessage());
-            List<String> exceptions = new ArrayList<>(Collections.singletonList(e.getMessage()));
-            throw new ValidationException(SERVER_ERROR_MESSAGE, exceptions, HttpStatus.INTERNAL_SERVER_ERROR);
+            throw deserializationError(e);
         }
-        if (responsesSchema.containsKey(httpMethod)) {
-            Map<String, JsonSchema> jsonSchemaMapForCurrentMethod = responsesSchema.get(httpMethod);
-            ModifiedPath modifiedPath = isSchemaMapContainsPath(jsonSchemaMapForCurrentMethod, path);
-            if (modifiedPath.isSchemaMapContainsPath()) {
-                path = modifiedPath.isPathModified() ? modifiedPath.getModifiedPath() : path;
-                JsonSchema jsonSchema = jsonSchemaMapForCurrentMethod.get(path);
-                Set<ValidationMessage> validate = jsonSchema.validate(jsonNode);
-                if (validate.isEmpty()) {
-                    log.debug("No validation errors in response {}, {}", httpMethod, path);
-                } else {
-                    List<String> validationErrors = validate.stream().map(Object::toString).collect(Collectors.toList());
-                    log.error("Validation errors in response: {}", validationErrors);
-                    throw new ValidationException(SERVER_ERROR_MESSAGE,
-                            Collections.singletonList(SERVER_DETAILS_MESSAGE), HttpStatus.INTERNAL_SERVER_ERROR);
-                }
+        validate(getRoute(HttpMethod.resolve(httpMethod.toUpperCase()), path), jsonNode);
+        return body;
+    }
+
+    /**
+     * Находит маршрут со схемой валидации для метода и пути запроса
+     * @param httpMethod http метод
+     * @param path путь запроса
+     * @return маршрут из {@link RouteIndex} или null, если схема не задана
+     */
+    public Route findRoute(HttpMethod httpMethod, String path) {
+        return responseRouteIndex.containsMethod(httpMethod) ? responseRouteIndex.find(httpMethod, path) : null;
+    }
+
+    /**
+     * Находит маршрут со схемой валидации для метода и пути запроса
+     * @param httpMethod http метод
+     * @param path путь запроса
+     * @return маршрут из {@link RouteIndex}
+     */
+    public Route getRoute(HttpMethod httpMethod, String path) {
+        if (responseRouteIndex.containsMethod(httpMethod)) {
+            Route route = responseRouteIndex.find(httpMethod, path);
+            if (route != null) {
+                return route;
             } else {
                 log.info("No JSON schema for path {} (method - {}).", path, httpMethod);
-                throw new ValidationException(SERVER_ERROR_MESSAGE,
-                        Collections.singletonList(SERVER_DETAILS_MESSAGE), HttpStatus.INTERNAL_SERVER_ERROR);
+                throw SCHEMA_MISS;
             }
         } else {
             log.info("No JSON schema for method {} (path - {}).", httpMethod, path);
-            throw new ValidationException(SERVER_ERROR_MESSAGE,
-                    Collections.singletonList(SERVER_DETAILS_MESSAGE), HttpStatus.INTERNAL_SERVER_ERROR);
+            throw SCHEMA_MISS;
         }
-        return body;
+    }
+
+    /**
+     * Выполняет валидацию тела ответа, разбирая его напрямую из буферов ответа (без объединения и строкового
+     * представления). Буферы не изменяются и не освобождаются. Результат может быть взят из {@link ValidationResultCache}
+     * @param route маршрут, полученный из {@link #getRoute(HttpMethod, String)}
+     * @param dataBuffers части тела ответа
+     */
+    public void validate(Route route, List<? extends DataBuffer> dataBuffers) {
+        validate(route, dataBuffers, null);
+    }
+
+    /**
+     * Выполняет валидацию тела ответа со сжатием из заголовка 'Content-Encoding'. Тело распаковывается по мере разбора,
+     * размер распакованного тела ограничен {@link BodyLimits#getMaxInflatedSize()}
+     * @param route маршрут, полученный из {@link #getRoute(HttpMethod, String)}
+     * @param dataBuffers части тела ответа
+     * @param contentEncoding значение заголовка 'Content-Encoding' или null
+     */
+    public void validate(Route route, List<? extends DataBuffer> dataBuffers, String contentEncoding) {
+        validate(route, dataBuffers, contentEncoding, false);
+    }
+
+    /**
+     * Выполняет валидацию тела ответа. Если включена поэлементная валидация
+     * ({@link ValidateActivator#isElementWiseOn()}) и у маршрута есть схема элемента, а также для ответов NDJSON,
+     * элементы массива верхнего уровня (записи NDJSON) разбираются и проверяются по одному, поэтому дерево всего
+     * тела не строится. Ошибки элементов содержат их индекс: '$[3].qty: ...'
+     * @param route маршрут, полученный из {@link #getRoute(HttpMethod, String)}
+     * @param dataBuffers части тела ответа
+     * @param contentEncoding значение заголовка 'Content-Encoding' или null
+     * @param ndjson true для ответа 'application/x-ndjson': каждая запись проверяется по схеме элемента или,
+     *               если ее нет, по схеме маршрута
+     */
+    public void validate(Route route, List<? extends DataBuffer> dataBuffers, String contentEncoding, boolean ndjson) {
+        boolean elementWise = ndjson || (validateActivator.isElementWiseOn() && route.getElementSchema() != null);
+        ValidationResultCache.Mode mode = ndjson ? ValidationResultCache.Mode.NDJSON
+                : elementWise ? ValidationResultCache.Mode.ELEMENTS : ValidationResultCache.Mode.BODY;
+        validationResultCache.validate(ValidationResultCache.Direction.RESPONSE, route, dataBuffers, contentEncoding, mode, () -> {
+            if (elementWise) {
+                validateElements(route, dataBuffers, contentEncoding, ndjson);
+                return;
+            }
+            JsonNode jsonNode;
+            long start = System.nanoTime();
+            try {
+                jsonNode = mapper.readTree(ContentEncodings.decode(dataBuffers, contentEncoding, bodyLimits.getMaxInflatedSize().toBytes()));
+            } catch (ContentEncodings.InflatedSizeExceededException e) {
+                throw bodyTooLarge(route, e.getLimit());
+            } catch (IOException e) {
+                throw deserializationError(e);
+            } finally {
+                validationMetrics.parsed(ValidationResultCache.Direction.RESPONSE, route, System.nanoTime() - start);
+            }
+            validate(route, jsonNode);
+        });
+    }
+
+    /**
+     * Выполняет валидацию уже разобранного тела ответа
+     * @param route маршрут со схемой валидации
+     * @param jsonNode тело ответа
+     */
+    public void validate(Route route, JsonNode jsonNode) {
+        long start = System.nanoTime();
+        List<String> validationErrors = schemaErrors(route, jsonNode);
+        validationMetrics.validated(ValidationResultCache.Direction.RESPONSE, route, System.nanoTime() - start);
+        if (validationErrors.isEmpty()) {
+            log.debug("No validation errors in response {}", route);
+        } else {
+            throw invalidResponse(validationErrors);
+        }
+    }
+
+    /**
+     * Проверяет тело по схеме маршрута. Массив маршрута со схемой элемента проверяется по элементам, как и при
+     * поэлементной валидации: json-schema-validator 1.0.72 не применяет 'items' по спецификации 2020-12, поэтому
+     * проверка всего массива по схеме маршрута не нашла бы ошибок элементов, и вердикт зависел бы от
+     * {@link ValidateActivator#isElementWiseOn()}
+     * @param route маршрут со схемой валидации
+     * @param jsonNode разобранное тело
+     * @return ошибки валидации, не больше {@link Route#getMaxErrors()}, или пустой список
+     */
+    @Override
+    public List<String> schemaErrors(Route route, JsonNode jsonNode) {
+        if (route.getElementSchema() == null || !jsonNode.isArray()) {
+            return IValidationService.super.schemaErrors(route, jsonNode);
+        }
+        int maxErrors = route.getMaxErrors();
+        List<String> validationErrors = new ArrayList<>();
+        for (int i = 0; i < jsonNode.size() && (maxErrors <= 0 || validationErrors.size() < maxErrors); i++) {
+            validationErrors.addAll(elementErrors(route, i, jsonNode.get(i)));
+        }
+        return maxErrors > 0 && validationErrors.size() > maxErrors ? validationErrors.subList(0, maxErrors) : validationErrors;
+    }
+
+    /**
+     * Разбирает тело потоковым парсером и проверяет элементы по одному: разобранный элемент после проверки больше
+     * не хранится. Тело, которое не является массивом, проверяется целиком по схеме маршрута
+     */
+    private void validateElements(Route route, List<? extends DataBuffer> dataBuffers, String contentEncoding, boolean ndjson) {
+        int maxErrors = route.getMaxErrors();
+        List<String> validationErrors = new ArrayList<>();
+        long start = System.nanoTime();
+        long schemaNanos = 0;
+        int elements = 0;
+        try (JsonParser parser = mapper.getFactory().createParser(
+                ContentEncodings.decode(dataBuffers, contentEncoding, bodyLimits.getMaxInflatedSize().toBytes()))) {
+            JsonToken token = parser.nextToken();
+            if (!ndjson) {
+                if (token != JsonToken.START_ARRAY) {
+                    //не массив: схема маршрута сообщит о несоответствии типа
+                    JsonNode jsonNode = mapper.readTree(parser);
+                    if (jsonNode == null) {
+                        throw new JsonParseException(parser, "No content to map due to end-of-input");
+                    }
+                    validationMetrics.parsed(ValidationResultCache.Direction.RESPONSE, route, System.nanoTime() - start);
+                    validate(route, jsonNode);
+                    return;
+                }
+                token = parser.nextToken();
+            }
+            while (token != null && token != JsonToken.END_ARRAY && (maxErrors <= 0 || validationErrors.size() < maxErrors)) {
+                JsonNode element = mapper.readTree(parser);
+                long schemaStart = System.nanoTime();
+                validationErrors.addAll(elementErrors(route, elements, element));
+                schemaNanos += System.nanoTime() - schemaStart;
+                elements++;
+                token = parser.nextToken();
+            }
+            if (token == null && !ndjson) {
+                throw new JsonParseException(parser, "Unexpected end-of-input: expected close marker for Array");
+            }
+        } catch (ContentEncodings.InflatedSizeExceededException e) {
+            throw bodyTooLarge(route, e.getLimit());
+        } catch (IOException e) {
+            throw deserializationError(e);
+        }
+        validationMetrics.parsed(ValidationResultCache.Direction.RESPONSE, route, System.nanoTime() - start - schemaNanos);
+        validationMetrics.validated(ValidationResultCache.Direction.RESPONSE, route, schemaNanos);
+        if (maxErrors > 0 && validationErrors.size() > maxErrors) {
+            validationErrors = validationErrors.subList(0, maxErrors);
+        }
+        if (validationErrors.isEmpty()) {
+            log.debug("No validation errors in {} elements of response {}", elements, route);
+        } else {
+            throw invalidResponse(validationErrors);
+        }
+    }
+
+    /**
+     * Проверяет элемент массива верхнего уровня (запись NDJSON) по схеме элемента маршрута или, если ее нет,
+     * по схеме маршрута
+     * @param route маршрут со схемой
+     * @param index индекс элемента в теле
+     * @param element разобранный элемент
+     * @return ошибки валидации с индексом элемента в пути, не больше maxErrors маршрута, или пустой список
+     */
+    public List<String> elementErrors(Route route, int index, JsonNode element) {
+        JsonSchema schema = route.getElementSchema() != null ? route.getElementSchema() : route.getSchema();
+        List<String> errors = schemaErrors(schema, route.getMaxErrors(), element);
+        if (errors.isEmpty()) {
+            return errors;
+        }
+        List<String> validationErrors = new ArrayList<>(errors.size());
+        for (String error : errors) {
+            //путь ошибки элемента '$.qty' дополняется его индексом: '$[3].qty'
+            validationErrors.add(error.startsWith("$") ? "$[" + index + "]" + error.substring(1) : "$[" + index + "]: " + error);
+        }
+        return validationErrors;
+    }
+
+    /**
+     * Формирует исключение для тела ответа, которое не удалось разобрать
+     * @param e ошибка разбора
+     */
+    public ValidationException deserializationError(IOException e) {
+        log.error("Can't parse response body. Error: {}", e.getMessage());
+        List<String> exceptions = new ArrayList<>(Collections.singletonList(e.getMessage()));
+        return new ValidationException(SERVER_ERROR_MESSAGE, exceptions, HttpStatus.INTERNAL_SERVER_ERROR, ValidationOutcome.PARSE_ERROR);
+    }
+
+    /**
+     * Формирует исключение для тела ответа больше ограничения
+     * @param route маршрут или null, если схема для ответа не задана
+     * @param limit ограничение размера тела в байтах
+     */
+    public ValidationException bodyTooLarge(Route route, long limit) {
+        log.error("Response body for {} exceeds {} bytes", route, limit);
+        return BODY_TOO_LARGE;
+    }
+
+    /**
+     * Формирует исключение для ответа, который не поместился в очередь валидации
+     * @param route маршрут со схемой
+     */
+    public ValidationException overloaded(Route route) {
+        log.error("Validation queue is full, response {} rejected", route);
+        return OVERLOADED;
+    }
+
+    /**
+     * Формирует исключение для ответа, не прошедшего валидацию. Ошибки доступны в
+     * {@link ValidationException#getDetails()} для лога, клиент получает только общее описание ошибки сервера
+     * @param validationErrors ошибки валидации
+     */
+    public ValidationException invalidResponse(List<String> validationErrors) {
+        log.error("Validation errors in response: {}", validationErrors);
+        return new ValidationException(SERVER_ERROR_MESSAGE, validationErrors, Collections.singletonList(SERVER_DETAILS_MESSAGE),
+                HttpStatus.INTERNAL_SERVER_ERROR, ValidationOutcome.VALIDATION_ERROR);
+    }
+
+    private static ValidationException serverError(HttpStatus httpStatus, ValidationOutcome outcome) {
+        return new ValidationException(SERVER_ERROR_MESSAGE, Collections.singletonList(SERVER_DETAILS_MESSAGE), httpStatus, outcome);
     }
 }
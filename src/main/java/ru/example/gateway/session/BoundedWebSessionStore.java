@@ -0,0 +1,437 @@
+package ru.example.gateway.session;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.util.IdGenerator;
+import org.springframework.util.JdkIdGenerator;
+import org.springframework.web.server.WebSession;
+import org.springframework.web.server.session.WebSessionStore;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToDoubleFunction;
+
+import ru.example.gateway.model.SessionStore;
+
+/**
+ * Хранилище web-сессий с ограничением размера вместо неограниченного InMemoryWebSessionStore. Атрибуты
+ * сессии хранятся сериализованными ({@link SessionAttributes}), при каждом запросе восстанавливается отдельная
+ * копия сессии, которая сохраняется при отправке ответа. Количество сессий в памяти ограничено
+ * {@link SessionStore#getMaxSessions()}: при превышении вытесняется сессия, к которой дольше всего не обращались,
+ * в файловый уровень ({@link SessionFileTier}), если он включен, иначе она удаляется. Сессии с истекшим временем
+ * простоя удаляются при обращении и периодической проверке (не чаще раза в минуту). Количество и объем сессий
+ * публикуются в метриках {@link #SESSIONS} и {@link #SESSION_BYTES} с тегом tier (memory/file), вытеснения -
+ * в {@link #EVICTIONS} с тегами tier и reason (capacity/idle/spilled)
+ */
+@Slf4j
+public class BoundedWebSessionStore implements WebSessionStore {
+
+    public static final String SESSIONS = "gateway.sessions";
+    public static final String SESSION_BYTES = "gateway.sessions.bytes";
+    public static final String EVICTIONS = "gateway.sessions.evictions";
+
+    private static final Duration EXPIRATION_CHECK_PERIOD = Duration.ofSeconds(60);
+    private static final IdGenerator ID_GENERATOR = new JdkIdGenerator();
+
+    private final int maxSessions;
+    private final Duration maxIdleTime;
+    private final SessionAttributes codec;
+    private final SessionFileTier fileTier;
+    private final Counter idleEvictions;
+    private final Counter capacityEvictions;
+    private final Counter spilled;
+
+    //сессии в порядке обращения: первая - та, к которой дольше всего не обращались
+    private final LinkedHashMap<String, StoredSession> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private Clock clock = Clock.system(ZoneId.of("GMT"));
+    private volatile Instant nextExpirationCheck = Instant.MIN;
+
+    /**
+     * @param sessionStore  настройки хранилища
+     * @param maxIdleTime   время простоя новых сессий
+     * @param meterRegistry реестр метрик
+     */
+    public BoundedWebSessionStore(SessionStore sessionStore, Duration maxIdleTime, MeterRegistry meterRegistry) {
+        this.maxSessions = sessionStore.getMaxSessions();
+        this.maxIdleTime = maxIdleTime;
+        this.codec = new SessionAttributes(sessionStore.isCompressOn(), getClass().getClassLoader(), sessionStore.getAllowedClasses());
+        this.idleEvictions = evictions(meterRegistry, "memory", "idle");
+        this.capacityEvictions = evictions(meterRegistry, "memory", "capacity");
+        this.spilled = evictions(meterRegistry, "memory", "spilled");
+        gauge(meterRegistry, SESSIONS, "memory", store -> store.count(), "Web sessions in store");
+        gauge(meterRegistry, SESSION_BYTES, "memory", store -> store.bytes(), "Approximate size of stored web sessions");
+        SessionStore.FileTier fileTierProperties = sessionStore.getFileTier();
+        if (fileTierProperties.isEnabled()) {
+            this.fileTier = new SessionFileTier(Paths.get(fileTierProperties.getPath()), fileTierProperties.getMaxSessions(),
+                    evictions(meterRegistry, "file", "capacity"), evictions(meterRegistry, "file", "idle"));
+            gauge(meterRegistry, SESSIONS, "file", store -> store.fileTier.count(), "Web sessions in store");
+            gauge(meterRegistry, SESSION_BYTES, "file", store -> store.fileTier.bytes(), "Approximate size of stored web sessions");
+        } else {
+            this.fileTier = null;
+        }
+    }
+
+    /**
+     * Часы для проверки времени простоя, по умолчанию системные в GMT
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+        this.nextExpirationCheck = Instant.MIN;
+    }
+
+    @Override
+    public Mono<WebSession> createWebSession() {
+        Instant now = clock.instant();
+        expireIdleSessions(now);
+        //генератор идентификаторов использует SecureRandom, который может блокировать поток
+        return Mono.<WebSession>fromSupplier(() -> new BoundedWebSession(ID_GENERATOR.generateId().toString(), now, now,
+                        maxIdleTime, new ConcurrentHashMap<>(), false))
+                .subscribeOn(Schedulers.boundedElastic())
+                .publishOn(Schedulers.parallel());
+    }
+
+    @Override
+    public Mono<WebSession> retrieveSession(String id) {
+        Instant now = clock.instant();
+        expireIdleSessions(now);
+        StoredSession stored;
+        synchronized (sessions) {
+            stored = sessions.get(id);
+            if (stored != null && stored.isExpired(now.toEpochMilli())) {
+                remove(id);
+                idleEvictions.increment();
+                return Mono.empty();
+            }
+            if (stored != null) {
+                stored.lastAccessTime = now.toEpochMilli();
+            }
+        }
+        if (stored != null) {
+            return restore(stored, now);
+        }
+        if (fileTier == null) {
+            return Mono.empty();
+        }
+        return fileTier.take(id).flatMap(promoted -> {
+            if (promoted.isExpired(now.toEpochMilli())) {
+                idleEvictions.increment();
+                return Mono.empty();
+            }
+            promoted.lastAccessTime = now.toEpochMilli();
+            put(promoted);
+            return restore(promoted, now);
+        });
+    }
+
+    @Override
+    public Mono<Void> removeSession(String id) {
+        return Mono.fromRunnable(() -> {
+            //под блокировкой: копия сессии из другого запроса не должна сохраниться между удалением из памяти и файлов
+            synchronized (sessions) {
+                remove(id);
+                if (fileTier != null) {
+                    fileTier.remove(id);
+                }
+            }
+        });
+    }
+
+    @Override
+    public Mono<WebSession> updateLastAccessTime(WebSession webSession) {
+        return Mono.fromSupplier(() -> {
+            BoundedWebSession session = (BoundedWebSession) webSession;
+            session.lastAccessTime = clock.instant();
+            return session;
+        });
+    }
+
+    /**
+     * Удаляет сессии с истекшим временем простоя, не чаще раза в минуту
+     */
+    void expireIdleSessions(Instant now) {
+        if (now.isBefore(nextExpirationCheck)) {
+            return;
+        }
+        nextExpirationCheck = now.plus(EXPIRATION_CHECK_PERIOD);
+        long millis = now.toEpochMilli();
+        int expired = 0;
+        synchronized (sessions) {
+            Iterator<StoredSession> iterator = sessions.values().iterator();
+            while (iterator.hasNext()) {
+                StoredSession session = iterator.next();
+                if (session.isExpired(millis)) {
+                    iterator.remove();
+                    bytes -= session.size();
+                    expired++;
+                }
+            }
+        }
+        idleEvictions.increment(expired);
+        if (fileTier != null) {
+            fileTier.expire(millis);
+        }
+    }
+
+    /**
+     * @return количество сессий в памяти
+     */
+    public int count() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    /**
+     * @return приблизительный объем сессий в памяти в байтах
+     */
+    public long bytes() {
+        synchronized (sessions) {
+            return bytes;
+        }
+    }
+
+    /**
+     * Удаляет все сессии и файлы файлового уровня. Вызывается при остановке приложения
+     */
+    public void clear() {
+        synchronized (sessions) {
+            sessions.clear();
+            bytes = 0;
+        }
+        if (fileTier != null) {
+            fileTier.clear();
+        }
+    }
+
+    private Mono<WebSession> restore(StoredSession stored, Instant now) {
+        Map<String, Object> attributes;
+        try {
+            attributes = codec.decode(stored.attributes);
+        } catch (IllegalStateException e) {
+            log.warn("Session {} is dropped: {}", stored.id, e.getMessage());
+            return removeSession(stored.id).then(Mono.empty());
+        }
+        return Mono.just(new BoundedWebSession(stored.id, Instant.ofEpochMilli(stored.creationTime), now,
+                Duration.ofMillis(stored.maxIdleTime), attributes, true));
+    }
+
+    /**
+     * Сохраняет копию сессии. Копия, восстановленная из хранилища, сохраняется, только если сессия с ее
+     * идентификатором еще хранится: иначе сессия удалена (например, при выходе) или ее идентификатор изменен в
+     * другом запросе, и сохранение вернуло бы ее вместе с контекстом безопасности
+     */
+    private void save(BoundedWebSession session) {
+        StoredSession stored = new StoredSession(session.getId(), session.creationTime.toEpochMilli(),
+                session.lastAccessTime.toEpochMilli(), session.maxIdleTime.toMillis(), codec.encode(session.attributes));
+        if (!put(stored, session.restored)) {
+            log.debug("Session {} was removed by another request and is not saved", stored.id);
+        }
+    }
+
+    private void put(StoredSession stored) {
+        put(stored, false);
+    }
+
+    /**
+     * Сохраняет сессию в памяти, вытесняя сессии сверх ограничения
+     *
+     * @param existing true, если сессию можно сохранить, только если она уже есть в памяти или в файлах
+     * @return false, если сессия не сохранена
+     */
+    private boolean put(StoredSession stored, boolean existing) {
+        synchronized (sessions) {
+            if (existing && !sessions.containsKey(stored.id)) {
+                if (fileTier == null || !fileTier.contains(stored.id)) {
+                    return false;
+                }
+                //сессия возвращается в память, файл больше не нужен
+                fileTier.remove(stored.id);
+            }
+            StoredSession previous = sessions.put(stored.id, stored);
+            if (previous != null) {
+                bytes -= previous.size();
+            }
+            bytes += stored.size();
+            if (sessions.size() <= maxSessions) {
+                return true;
+            }
+            List<StoredSession> evicted = new ArrayList<>();
+            Iterator<StoredSession> eldest = sessions.values().iterator();
+            while (sessions.size() > maxSessions && eldest.hasNext()) {
+                StoredSession session = eldest.next();
+                eldest.remove();
+                bytes -= session.size();
+                evicted.add(session);
+            }
+            if (fileTier != null) {
+                //очередь записи заполняется под блокировкой, чтобы вытесненная сессия всегда была в памяти или в файлах
+                spilled.increment(evicted.size());
+                fileTier.write(evicted);
+            } else {
+                capacityEvictions.increment(evicted.size());
+                log.debug("Session store is full, {} least recently used sessions are dropped", evicted.size());
+            }
+        }
+        return true;
+    }
+
+    private void remove(String id) {
+        StoredSession removed = sessions.remove(id);
+        if (removed != null) {
+            bytes -= removed.size();
+        }
+    }
+
+    private void gauge(MeterRegistry meterRegistry, String name, String tier, ToDoubleFunction<BoundedWebSessionStore> value,
+                       String description) {
+        Gauge.builder(name, this, value)
+                .description(description)
+                .tag("tier", tier)
+                .register(meterRegistry);
+    }
+
+    private static Counter evictions(MeterRegistry meterRegistry, String tier, String reason) {
+        return Counter.builder(EVICTIONS)
+                .description("Web sessions evicted from store by tier and reason")
+                .tags("tier", tier, "reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Копия сессии на время запроса. Изменения атрибутов сохраняются в хранилище при отправке ответа
+     * ({@link #save()}), поэтому из разных запросов одной сессии сохраняется последний. Копия сессии, которая
+     * удалена или получила новый идентификатор в другом запросе, не сохраняется
+     */
+    private class BoundedWebSession implements WebSession {
+
+        private final AtomicReference<String> id;
+        private final Map<String, Object> attributes;
+        private final Instant creationTime;
+        private final AtomicReference<State> state;
+        //копия восстановлена из хранилища и ее идентификатор не менялся в этом запросе
+        private volatile boolean restored;
+        private volatile Instant lastAccessTime;
+        private volatile Duration maxIdleTime;
+
+        private BoundedWebSession(String id, Instant creationTime, Instant lastAccessTime, Duration maxIdleTime,
+                                  Map<String, Object> attributes, boolean started) {
+            this.id = new AtomicReference<>(id);
+            this.creationTime = creationTime;
+            this.lastAccessTime = lastAccessTime;
+            this.maxIdleTime = maxIdleTime;
+            this.attributes = attributes;
+            this.state = new AtomicReference<>(started ? State.STARTED : State.NEW);
+            this.restored = started;
+        }
+
+        @Override
+        public String getId() {
+            return id.get();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Instant getCreationTime() {
+            return creationTime;
+        }
+
+        @Override
+        public Instant getLastAccessTime() {
+            return lastAccessTime;
+        }
+
+        @Override
+        public void setMaxIdleTime(Duration maxIdleTime) {
+            this.maxIdleTime = maxIdleTime;
+        }
+
+        @Override
+        public Duration getMaxIdleTime() {
+            return maxIdleTime;
+        }
+
+        @Override
+        public void start() {
+            state.compareAndSet(State.NEW, State.STARTED);
+        }
+
+        @Override
+        public boolean isStarted() {
+            return state.get() == State.STARTED || !attributes.isEmpty();
+        }
+
+        @Override
+        public Mono<Void> changeSessionId() {
+            String previous = id.get();
+            return Mono.fromSupplier(() -> ID_GENERATOR.generateId().toString())
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .publishOn(Schedulers.parallel())
+                    .doOnNext(next -> {
+                        id.set(next);
+                        restored = false;
+                        state.compareAndSet(State.NEW, State.STARTED);
+                    })
+                    .then(removeSession(previous));
+        }
+
+        @Override
+        public Mono<Void> invalidate() {
+            state.set(State.EXPIRED);
+            attributes.clear();
+            return removeSession(id.get());
+        }
+
+        @Override
+        public Mono<Void> save() {
+            if (!attributes.isEmpty()) {
+                state.compareAndSet(State.NEW, State.STARTED);
+            }
+            if (!isStarted()) {
+                return Mono.empty();
+            }
+            if (isExpired()) {
+                return removeSession(id.get());
+            }
+            return Mono.fromRunnable(() -> BoundedWebSessionStore.this.save(this));
+        }
+
+        @Override
+        public boolean isExpired() {
+            if (state.get() == State.EXPIRED) {
+                return true;
+            }
+            if (isStarted() && !maxIdleTime.isNegative() && clock.instant().minus(maxIdleTime).isAfter(lastAccessTime)) {
+                state.set(State.EXPIRED);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private enum State {
+        NEW, STARTED, EXPIRED
+    }
+}
@@ -0,0 +1,155 @@
+package ru.example.gateway.session;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.core.ConfigurableObjectInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Сериализация атрибутов сессии в массив байт. Хранилище держит в памяти только массив, а не граф объектов
+ * (контекст безопасности, токены, запросы авторизации). Первый байт - признак сжатия, поэтому сохраненные
+ * ранее данные читаются при любом значении настройки сжатия. Атрибуты, которые не реализуют
+ * {@link Serializable}, не сохраняются. При чтении создаются только объекты классов из {@link #ALLOWED_CLASSES} и
+ * дополнительного списка настроек: данные из файлового уровня не должны приводить к созданию произвольных классов
+ */
+@Slf4j
+class SessionAttributes {
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final int PLAIN = 0;
+    private static final int DEFLATED = 1;
+
+    /**
+     * Классы и пакеты (с вложенными) атрибутов сессии oauth2Login: контекст безопасности, токены, запросы авторизации,
+     * CSRF токен
+     */
+    static final List<String> ALLOWED_CLASSES = Arrays.asList("java.lang.Object", "java.lang.String", "java.lang.Boolean",
+            "java.lang.Character", "java.lang.Number", "java.lang.Byte", "java.lang.Short", "java.lang.Integer",
+            "java.lang.Long", "java.lang.Float", "java.lang.Double", "java.lang.Enum", "java.util.", "java.time.",
+            "java.math.", "java.net.URI", "java.net.URL", "org.springframework.security.");
+
+    private final boolean compress;
+    private final ClassLoader classLoader;
+    //имена классов и пакетов (с '.' в конце), объекты которых можно восстанавливать
+    private final List<String> allowedClasses;
+
+    SessionAttributes(boolean compress, ClassLoader classLoader, List<String> allowedClasses) {
+        this.compress = compress;
+        this.classLoader = classLoader;
+        this.allowedClasses = new ArrayList<>(ALLOWED_CLASSES);
+        this.allowedClasses.addAll(allowedClasses);
+    }
+
+    byte[] encode(Map<String, Object> attributes) {
+        if (attributes.isEmpty()) {
+            return EMPTY;
+        }
+        HashMap<String, Object> serializable = new HashMap<>(attributes.size() * 2);
+        attributes.forEach((name, value) -> {
+            if (value instanceof Serializable) {
+                serializable.put(name, value);
+            } else {
+                log.warn("Session attribute {} of type {} is not serializable and is not stored", name, value.getClass().getName());
+            }
+        });
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        bytes.write(compress ? DEFLATED : PLAIN);
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        try (OutputStream out = compress ? new DeflaterOutputStream(bytes, deflater) : bytes;
+             ObjectOutputStream objects = new ObjectOutputStream(out)) {
+            objects.writeObject(serializable);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize session attributes: " + e.getMessage(), e);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> decode(byte[] data) {
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+        if (data.length == 0) {
+            return attributes;
+        }
+        InputStream bytes = new ByteArrayInputStream(data, 1, data.length - 1);
+        Inflater inflater = data[0] == DEFLATED ? new Inflater() : null;
+        try (InputStream in = inflater != null ? new InflaterInputStream(bytes, inflater) : bytes;
+             ObjectInputStream objects = new FilteredObjectInputStream(in)) {
+            attributes.putAll((Map<String, Object>) objects.readObject());
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Failed to deserialize session attributes: " + e.getMessage(), e);
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * @param className имя класса из потока объектов
+     * @return true, если объекты класса можно восстанавливать
+     */
+    boolean isAllowed(String className) {
+        //массивы: '[Ljava.lang.String;', '[[B'
+        String name = className.replaceFirst("^\\[+", "");
+        if (name.length() == 1) {
+            return true;
+        }
+        if (name.startsWith("L") && name.endsWith(";")) {
+            name = name.substring(1, name.length() - 1);
+        }
+        for (String allowed : allowedClasses) {
+            if (allowed.endsWith(".") ? name.startsWith(allowed) : name.equals(allowed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Поток объектов, который восстанавливает только разрешенные классы и не создает прокси-классы
+     */
+    private final class FilteredObjectInputStream extends ConfigurableObjectInputStream {
+
+        private FilteredObjectInputStream(InputStream in) throws IOException {
+            super(in, classLoader);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass classDesc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(classDesc.getName())) {
+                throw new InvalidClassException(classDesc.getName(), "class is not allowed in session attributes");
+            }
+            return super.resolveClass(classDesc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException(String.join(",", interfaces), "proxy classes are not allowed in session attributes");
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package ru.example.gateway.session;
+
+import io.micrometer.core.instrument.Counter;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.util.FileCopyUtils;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Файловый уровень хранилища сессий: сессии, вытесненные из памяти, записываются в отдельные файлы каталога.
+ * В памяти остается только индекс (идентификатор, файл, время обращения). Файл читается и удаляется при первом
+ * обращении к сессии, она возвращается в память. Количество файлов ограничено, при превышении удаляются
+ * сессии, вытесненные раньше остальных. Операции с файлами выполняются на {@link Schedulers#boundedElastic()},
+ * пока файл записывается, сессия доступна из очереди записи. Файлы содержат токены пользователей, поэтому каталог
+ * должен принадлежать пользователю процесса и быть недоступен остальным: он создается с правами 0700 (права
+ * существующего каталога ограничиваются до 0700), файлы - с правами 0600, каталог другого пользователя или
+ * символическая ссылка не используются
+ */
+@Slf4j
+class SessionFileTier {
+
+    private static final String SUFFIX = ".session";
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+
+    private final Path directory;
+    private final int maxSessions;
+    private final Counter capacityEvictions;
+    private final Counter idleEvictions;
+    private final AtomicLong sequence = new AtomicLong();
+
+    //индекс и очередь записи изменяются только под блокировкой индекса
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>();
+    private final Map<String, StoredSession> pending = new HashMap<>();
+    private long bytes;
+
+    SessionFileTier(Path directory, int maxSessions, Counter capacityEvictions, Counter idleEvictions) {
+        this.directory = directory;
+        this.maxSessions = maxSessions;
+        this.capacityEvictions = capacityEvictions;
+        this.idleEvictions = idleEvictions;
+        try {
+            createOwnerOnly(directory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create session directory " + directory + ": " + e.getMessage(), e);
+        }
+        clear();
+    }
+
+    /**
+     * Записывает вытесненные из памяти сессии в фоне
+     */
+    void write(List<StoredSession> sessions) {
+        synchronized (index) {
+            sessions.forEach(session -> pending.put(session.id, session));
+        }
+        Mono.fromRunnable(() -> sessions.forEach(this::writeFile))
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe();
+    }
+
+    /**
+     * Забирает сессию из файлового уровня
+     *
+     * @return сессия или пустой Mono, если ее нет
+     */
+    Mono<StoredSession> take(String id) {
+        Entry entry;
+        synchronized (index) {
+            StoredSession spilled = pending.remove(id);
+            if (spilled != null) {
+                return Mono.just(spilled);
+            }
+            entry = index.remove(id);
+            if (entry == null) {
+                return Mono.empty();
+            }
+            bytes -= entry.size;
+        }
+        return Mono.fromCallable(() -> read(entry.file)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    void remove(String id) {
+        Entry entry;
+        synchronized (index) {
+            pending.remove(id);
+            entry = index.remove(id);
+            if (entry == null) {
+                return;
+            }
+            bytes -= entry.size;
+        }
+        delete(Collections.singletonList(entry.file));
+    }
+
+    /**
+     * Удаляет сессии с истекшим временем простоя
+     */
+    void expire(long now) {
+        List<Path> expired = new ArrayList<>();
+        synchronized (index) {
+            Iterator<Entry> entries = index.values().iterator();
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                if (entry.maxIdleTime >= 0 && now - entry.lastAccessTime > entry.maxIdleTime) {
+                    entries.remove();
+                    bytes -= entry.size;
+                    expired.add(entry.file);
+                }
+            }
+        }
+        if (!expired.isEmpty()) {
+            idleEvictions.increment(expired.size());
+            delete(expired);
+        }
+    }
+
+    /**
+     * @return true, если сессия записана или записывается в файл
+     */
+    boolean contains(String id) {
+        synchronized (index) {
+            return pending.containsKey(id) || index.containsKey(id);
+        }
+    }
+
+    int count() {
+        synchronized (index) {
+            return index.size() + pending.size();
+        }
+    }
+
+    long bytes() {
+        synchronized (index) {
+            return bytes;
+        }
+    }
+
+    /**
+     * Удаляет файлы сессий из каталога
+     */
+    void clear() {
+        synchronized (index) {
+            index.clear();
+            pending.clear();
+            bytes = 0;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to clean session directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private void writeFile(StoredSession session) {
+        Path file = directory.resolve(sequence.incrementAndGet() + SUFFIX);
+        try (OutputStream out = Files.newOutputStream(Files.createFile(file, fileAttributes(OWNER_ONLY_FILE)),
+                StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+            out.write(serialize(session));
+        } catch (IOException e) {
+            log.warn("Failed to write session to {}, session is dropped: {}", file, e.getMessage());
+            synchronized (index) {
+                pending.remove(session.id, session);
+            }
+            capacityEvictions.increment();
+            return;
+        }
+        List<Path> evicted = new ArrayList<>();
+        boolean taken;
+        synchronized (index) {
+            //сессию забрали или удалили, пока файл записывался
+            taken = !pending.remove(session.id, session);
+            if (!taken) {
+                int size = session.size();
+                Entry previous = index.put(session.id, new Entry(file, session.lastAccessTime, session.maxIdleTime, size));
+                if (previous != null) {
+                    bytes -= previous.size;
+                    evicted.add(previous.file);
+                }
+                bytes += size;
+                Iterator<Entry> eldest = index.values().iterator();
+                while (index.size() > maxSessions && eldest.hasNext()) {
+                    Entry entry = eldest.next();
+                    eldest.remove();
+                    bytes -= entry.size;
+                    evicted.add(entry.file);
+                    capacityEvictions.increment();
+                }
+            }
+        }
+        if (taken) {
+            evicted.add(file);
+        }
+        evicted.forEach(SessionFileTier::deleteQuietly);
+    }
+
+    private static StoredSession read(Path file) throws IOException {
+        byte[] data;
+        try (InputStream in = Files.newInputStream(file, LinkOption.NOFOLLOW_LINKS)) {
+            data = FileCopyUtils.copyToByteArray(in);
+        } finally {
+            deleteQuietly(file);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        String id = in.readUTF();
+        long creationTime = in.readLong();
+        long lastAccessTime = in.readLong();
+        long maxIdleTime = in.readLong();
+        byte[] attributes = new byte[in.readInt()];
+        in.readFully(attributes);
+        return new StoredSession(id, creationTime, lastAccessTime, maxIdleTime, attributes);
+    }
+
+    private static byte[] serialize(StoredSession session) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(session.attributes.length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(session.id);
+        out.writeLong(session.creationTime);
+        out.writeLong(session.lastAccessTime);
+        out.writeLong(session.maxIdleTime);
+        out.writeInt(session.attributes.length);
+        out.write(session.attributes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Создает каталог с правами 0700 или проверяет существующий: он должен принадлежать пользователю процесса и не
+     * быть символической ссылкой, его права ограничиваются до 0700
+     *
+     * @throws IOException если каталог нельзя создать или он принадлежит другому пользователю
+     */
+    private static void createOwnerOnly(Path directory) throws IOException {
+        Files.createDirectories(directory, fileAttributes(OWNER_ONLY_DIRECTORY));
+        if (!posix()) {
+            return;
+        }
+        PosixFileAttributes attributes = Files.readAttributes(directory, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isDirectory()) {
+            throw new IOException(directory + " is not a directory or is a symbolic link");
+        }
+        String user = System.getProperty("user.name");
+        if (!attributes.owner().getName().equals(user)) {
+            throw new IOException(directory + " is owned by " + attributes.owner().getName() + ", not by " + user);
+        }
+        if (!attributes.permissions().equals(OWNER_ONLY_DIRECTORY)) {
+            log.info("Permissions of session directory {} restricted from {} to rwx------", directory,
+                    PosixFilePermissions.toString(attributes.permissions()));
+            Files.setPosixFilePermissions(directory, OWNER_ONLY_DIRECTORY);
+        }
+    }
+
+    private static FileAttribute<?>[] fileAttributes(Set<PosixFilePermission> permissions) {
+        return posix() ? new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(permissions)} : new FileAttribute<?>[0];
+    }
+
+    private static boolean posix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+
+    private static void delete(List<Path> files) {
+        Mono.fromRunnable(() -> files.forEach(SessionFileTier::deleteQuietly))
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete session file {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static final class Entry {
+        private final Path file;
+        private final long lastAccessTime;
+        private final long maxIdleTime;
+        private final int size;
+
+        private Entry(Path file, long lastAccessTime, long maxIdleTime, int size) {
+            this.file = file;
+            this.lastAccessTime = lastAccessTime;
+            this.maxIdleTime = maxIdleTime;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package ru.example.gateway.session;
+
+/**
+ * Сохраненная сессия: время создания, последнего обращения и допустимого простоя (в миллисекундах,
+ * отрицательное - без ограничения) и сериализованные атрибуты ({@link SessionAttributes})
+ */
+final class StoredSession {
+
+    final String id;
+    final long creationTime;
+    final long maxIdleTime;
+    final byte[] attributes;
+    long lastAccessTime;
+
+    StoredSession(String id, long creationTime, long lastAccessTime, long maxIdleTime, byte[] attributes) {
+        this.id = id;
+        this.creationTime = creationTime;
+        this.lastAccessTime = lastAccessTime;
+        this.maxIdleTime = maxIdleTime;
+        this.attributes = attributes;
+    }
+
+    boolean isExpired(long now) {
+        return maxIdleTime >= 0 && now - lastAccessTime > maxIdleTime;
+    }
+
+    /**
+     * @return приблизительный объем памяти сессии: атрибуты, идентификатор и поля
+     */
+    int size() {
+        return attributes.length + id.length() * 2 + 64;
+    }
+}
@@ -0,0 +1,132 @@
+package ru.example.gateway.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.example.gateway.config.BeansConfig;
+import ru.example.gateway.config.CachingConfig;
+import ru.example.gateway.config.exception.ValidationException;
+import ru.example.gateway.metrics.ValidationMetrics;
+import ru.example.gateway.model.ValidateActivator;
+import ru.example.gateway.model.ValidationPolicies;
+import ru.example.gateway.routing.Route;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ValidationResultCacheTests {
+
+	private static final Route ROUTE = new Route(HttpMethod.POST, "/lam/items", null, 1L);
+
+	private final ValidationResultCache cache = new ValidationResultCache();
+	private final AtomicInteger validations = new AtomicInteger();
+
+	ValidationResultCacheTests() {
+		ValidateActivator validateActivator = new ValidateActivator();
+		validateActivator.setResultCacheOn(true);
+		cache.setCacheManager(new ConcurrentMapCacheManager(CachingConfig.VALIDATION_RESULTS_CACHE));
+		cache.setValidateActivator(validateActivator);
+	}
+
+	@Test
+	void hitSkipsValidation() {
+		cache.validate(ValidationResultCache.Direction.REQUEST, ROUTE, body("{\"a\":1}"), validations::incrementAndGet);
+		cache.validate(ValidationResultCache.Direction.REQUEST, ROUTE, Arrays.asList(buffer("{\"a\""), buffer(":1}")),
+				validations::incrementAndGet);
+		cache.validate(ValidationResultCache.Direction.REQUEST, ROUTE, body("{\"a\":2}"), validations::incrementAndGet);
+
+		assertEquals(2, validations.get());
+	}
+
+	@Test
+	void separatesEncodingsAndParseModes() {
+		cache.validate(ValidationResultCache.Direction.RESPONSE, ROUTE, body("[1]"), null, ValidationResultCache.Mode.BODY,
+				validations::incrementAndGet);
+		cache.validate(ValidationResultCache.Direction.RESPONSE, ROUTE, body("[1]"), " Identity", ValidationResultCache.Mode.BODY,
+				validations::incrementAndGet);
+		cache.validate(ValidationResultCache.Direction.RESPONSE, ROUTE, body("[1]"), "gzip", ValidationResultCache.Mode.BODY,
+				validations::incrementAndGet);
+		cache.validate(ValidationResultCache.Direction.RESPONSE, ROUTE, body("[1]"), "x-gzip", ValidationResultCache.Mode.BODY,
+				validations::incrementAndGet);
+		cache.validate(ValidationResultCache.Direction.RESPONSE, ROUTE, body("[1]"), null, ValidationResultCache.Mode.ELEMENTS,
+				validations::incrementAndGet);
+		cache.validate(ValidationResultCache.Direction.RESPONSE, ROUTE, body("[1]"), null, ValidationResultCache.Mode.NDJSON,
+				validations::incrementAndGet);
+
+		assertEquals(4, validations.get());
+	}
+
+	@Test
+	void rethrowsCachedFailure() {
+		ValidationException failure = new ValidationException("Invalid request", Collections.singletonList("$.a: wrong type"),
+				HttpStatus.BAD_REQUEST);
+		Runnable failing = () -> {
+			validations.incrementAndGet();
+			throw failure;
+		};
+
+		assertSame(failure, assertThrows(ValidationException.class,
+				() -> cache.validate(ValidationResultCache.Direction.REQUEST, ROUTE, body("[]"), failing)));
+		assertSame(failure, assertThrows(ValidationException.class,
+				() -> cache.validate(ValidationResultCache.Direction.REQUEST, ROUTE, body("[]"), failing)));
+		assertEquals(1, validations.get());
+	}
+
+	@Test
+	void invalidatesOnRouteIndexRebuild() {
+		BeansConfig beansConfig = new BeansConfig();
+		beansConfig.setValidationResultCache(cache);
+		beansConfig.setValidationPolicies(new ValidationPolicies());
+		ValidationMetrics validationMetrics = new ValidationMetrics();
+		validationMetrics.setMeterRegistry(new SimpleMeterRegistry());
+		beansConfig.setValidationMetrics(validationMetrics);
+		cache.validate(ValidationResultCache.Direction.REQUEST, ROUTE, body("{}"), validations::incrementAndGet);
+
+		beansConfig.requestRouteIndex();
+		cache.validate(ValidationResultCache.Direction.REQUEST, ROUTE, body("{}"), validations::incrementAndGet);
+
+		assertEquals(2, validations.get());
+	}
+
+	@Test
+	void hashesWithSipHashKey() {
+		// эталонные значения SipHash-2-4 для ключа 00..0f
+		long k0 = 0x0706050403020100L;
+		long k1 = 0x0f0e0d0c0b0a0908L;
+		byte[] message = new byte[15];
+		for (int i = 0; i < message.length; i++) {
+			message[i] = (byte) i;
+		}
+		BodyHasher empty = new BodyHasher(k0, k1);
+		BodyHasher split = new BodyHasher(k0, k1);
+		split.update(ByteBuffer.wrap(message, 0, 3));
+		split.update(ByteBuffer.wrap(message, 3, 12));
+
+		assertEquals(0x726fdb47dd0e0e31L, empty.getValue());
+		assertEquals(0xa129ca6149be45e5L, split.getValue());
+		assertNotEquals(new BodyHasher(k0, k1 + 1).getValue(), empty.getValue());
+	}
+
+	private static List<DataBuffer> body(String value) {
+		return Collections.singletonList(buffer(value));
+	}
+
+	private static DataBuffer buffer(String value) {
+		return DefaultDataBufferFactory.sharedInstance.wrap(value.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,169 @@
+package ru.example.gateway.config.security;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ru.example.gateway.model.JwtVerification;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Проверка токенов с ключами из локального JWKS эндпоинта вместо Keycloak
+ */
+class CachingReactiveJwtDecoderTests {
+
+	private final AtomicReference<JWKSet> served = new AtomicReference<>();
+	private final AtomicReference<String> cacheControl = new AtomicReference<>();
+	private final AtomicInteger fetches = new AtomicInteger();
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final JwtVerification jwtVerification = new JwtVerification();
+	private final HttpServer server;
+
+	private RefreshingJwkSource jwkSource;
+
+	CachingReactiveJwtDecoderTests() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/certs", exchange -> {
+			fetches.incrementAndGet();
+			byte[] body = served.get().toString(true).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			if (cacheControl.get() != null) {
+				exchange.getResponseHeaders().add("Cache-Control", cacheControl.get());
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	void stop() {
+		if (jwkSource != null) {
+			jwkSource.stop();
+		}
+		server.stop(0);
+	}
+
+	@Test
+	void verifiesTokenOnceUntilExpiry() throws JOSEException {
+		RSAKey key = key("first");
+		served.set(new JWKSet(key));
+		CachingReactiveJwtDecoder decoder = decoder();
+		String token = token(key, Instant.now().plusSeconds(60));
+
+		assertEquals("user", decoder.decode(token).block().getSubject());
+		assertEquals("user", decoder.decode(token).block().getSubject());
+
+		assertEquals(1, fetches.get());
+		assertEquals(1, registry.get(CachingReactiveJwtDecoder.VERIFICATION).tag("result", "valid").timer().count());
+		assertEquals(1, registry.get("cache.gets").tags("cache", CachingReactiveJwtDecoder.CACHE_NAME, "result", "hit")
+				.functionCounter().count(), 0.001);
+		assertEquals(1, decoder.size());
+	}
+
+	@Test
+	void doesNotCacheRejectedTokens() throws JOSEException {
+		RSAKey key = key("first");
+		served.set(new JWKSet(key));
+		CachingReactiveJwtDecoder decoder = decoder();
+		String expired = token(key, Instant.now().minusSeconds(120));
+
+		for (int i = 0; i < 2; i++) {
+			assertThrows(JwtException.class, () -> decoder.decode(expired).block());
+		}
+
+		assertEquals(2, registry.get(CachingReactiveJwtDecoder.VERIFICATION).tag("result", "invalid").timer().count());
+		assertEquals(0, decoder.size());
+	}
+
+	@Test
+	void refreshesKeysForUnknownKidNotMoreOftenThanAllowed() throws JOSEException {
+		RSAKey first = key("first");
+		RSAKey second = key("second");
+		served.set(new JWKSet(first));
+		jwtVerification.setJwksMinRefreshInterval(Duration.ZERO);
+		CachingReactiveJwtDecoder decoder = decoder();
+		served.set(new JWKSet(second));
+
+		assertEquals("user", decoder.decode(token(second, Instant.now().plusSeconds(60))).block().getSubject());
+		assertEquals(2, fetches.get());
+
+		jwtVerification.setJwksMinRefreshInterval(Duration.ofMinutes(1));
+		String unknown = token(key("unknown"), Instant.now().plusSeconds(60));
+		assertThrows(JwtException.class, () -> decoder.decode(unknown).block());
+		assertEquals(2, fetches.get());
+	}
+
+	@Test
+	void refreshesKeysInBackgroundBeforeMaxAge() throws JOSEException, InterruptedException {
+		RSAKey first = key("first");
+		RSAKey second = key("second");
+		served.set(new JWKSet(first));
+		cacheControl.set("public, max-age=1");
+		jwtVerification.setJwksMinRefreshInterval(Duration.ofMillis(100));
+		decoder();
+		served.set(new JWKSet(second));
+
+		for (int i = 0; i < 100 && jwkSource.getKeys().getKeyByKeyId("second") == null; i++) {
+			Thread.sleep(20);
+		}
+
+		assertEquals("second", jwkSource.getKeys().getKeys().get(0).getKeyID());
+		assertEquals(1, registry.get(RefreshingJwkSource.REFRESHES).tags("trigger", "scheduled", "result", "success")
+				.counter().count(), 1);
+	}
+
+	/**
+	 * Декодер с загруженными ключами, как после запуска приложения
+	 */
+	private CachingReactiveJwtDecoder decoder() {
+		jwkSource = new RefreshingJwkSource(WebClient.create(), "http://127.0.0.1:" + server.getAddress().getPort() + "/certs",
+				null, jwtVerification, registry);
+		jwkSource.refresh("scheduled").block();
+		return new CachingReactiveJwtDecoder(NimbusReactiveJwtDecoder.withJwkSource(jwkSource).build(), 100, registry);
+	}
+
+	private static RSAKey key(String kid) throws JOSEException {
+		return new RSAKeyGenerator(2048).keyID(kid).generate();
+	}
+
+	private static String token(RSAKey key, Instant expiresAt) throws JOSEException {
+		JWTClaimsSet claims = new JWTClaimsSet.Builder()
+				.subject("user")
+				.issueTime(Date.from(expiresAt.minusSeconds(300)))
+				.expirationTime(Date.from(expiresAt))
+				.build();
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims);
+		jwt.sign(new RSASSASigner(key));
+		return jwt.serialize();
+	}
+}
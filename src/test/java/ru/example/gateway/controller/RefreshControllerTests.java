@@ -0,0 +1,46 @@
+package ru.example.gateway.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+
+import ru.example.gateway.model.RefreshStatus;
+import ru.example.gateway.service.RefreshService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class RefreshControllerTests {
+
+	private static final String TOKEN = "secret";
+
+	private final RefreshStatus known = new RefreshStatus(7);
+	private final RefreshController controller = new RefreshController(new RefreshService() {
+		@Override
+		public synchronized RefreshStatus getStatus(long id) {
+			return id == known.getId() ? known : null;
+		}
+	});
+
+	RefreshControllerTests() {
+		ReflectionTestUtils.setField(controller, "gitLabAccessToken", TOKEN);
+	}
+
+	@Test
+	void requiresTokenForRefreshStatus() {
+		assertEquals(HttpStatus.FORBIDDEN, controller.status(null, 7).getStatusCode());
+		assertEquals(Collections.singletonList("Missing access token"), controller.status(null, 7).getBody());
+		assertEquals(HttpStatus.FORBIDDEN, controller.status("wrong", 7).getStatusCode());
+		assertEquals(Collections.singletonList("Invalid access token"), controller.status("wrong", 7).getBody());
+		assertEquals(HttpStatus.FORBIDDEN, controller.status("wrong", 8).getStatusCode());
+	}
+
+	@Test
+	void returnsRefreshStatusWithValidToken() {
+		assertEquals(HttpStatus.OK, controller.status(TOKEN, 7).getStatusCode());
+		assertSame(known, controller.status(TOKEN, 7).getBody());
+		assertEquals(HttpStatus.NOT_FOUND, controller.status(TOKEN, 8).getStatusCode());
+	}
+}
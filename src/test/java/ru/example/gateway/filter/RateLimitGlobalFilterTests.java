@@ -0,0 +1,130 @@
+package ru.example.gateway.filter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+
+import java.security.Principal;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.example.gateway.model.RateLimits;
+import ru.example.gateway.ratelimit.RateLimiter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RateLimitGlobalFilterTests {
+
+	private static final String ROUTE_ID = "lam";
+
+	private final RateLimits rateLimits = new RateLimits();
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final RateLimitGlobalFilter filter = new RateLimitGlobalFilter();
+	private final AtomicInteger forwarded = new AtomicInteger();
+
+	RateLimitGlobalFilterTests() {
+		rateLimits.setEnabled(true);
+		RateLimiter rateLimiter = new RateLimiter();
+		rateLimiter.setRateLimits(rateLimits);
+		rateLimiter.setMeterRegistry(registry);
+		rateLimiter.start();
+		filter.setRateLimits(rateLimits);
+		filter.setRateLimiter(rateLimiter);
+	}
+
+	@Test
+	void rejectsPrincipalOverLimitWithoutAffectingOthers() {
+		rateLimits.getDefaults().setPrincipal(limit(1, 2));
+
+		ServerWebExchange first = exchange("alice");
+		filter(first);
+		filter(exchange("alice"));
+		ServerWebExchange rejected = exchange("alice");
+		filter(rejected);
+		filter(exchange("bob"));
+
+		assertEquals(3, forwarded.get());
+		assertEquals("2", first.getResponse().getHeaders().getFirst(RateLimitGlobalFilter.RATE_LIMIT_LIMIT));
+		assertEquals("1", first.getResponse().getHeaders().getFirst(RateLimitGlobalFilter.RATE_LIMIT_REMAINING));
+		assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getResponse().getStatusCode());
+		assertEquals("0", rejected.getResponse().getHeaders().getFirst(RateLimitGlobalFilter.RATE_LIMIT_REMAINING));
+		assertEquals("1", rejected.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+		assertEquals("{\"status\":\"Too many requests\",\"details\":[\"Request rate limit exceeded\"]}",
+				((MockServerHttpResponse) rejected.getResponse()).getBodyAsString().block());
+		assertEquals(Boolean.TRUE, rejected.getAttribute(ResponseGlobalFilter.SKIP_VALIDATION_ATTRIBUTE));
+		assertEquals(1, registry.get(RateLimiter.REJECTIONS).tags("route", ROUTE_ID, "scope", "principal").counter().count());
+	}
+
+	@Test
+	void rejectedPrincipalDoesNotConsumeRouteTokens() {
+		RateLimits.Policy policy = new RateLimits.Policy();
+		policy.setPrincipal(limit(1, 1));
+		policy.setRoute(limit(1, 2));
+		rateLimits.getRoutes().put(ROUTE_ID, policy);
+
+		for (int i = 0; i < 5; i++) {
+			filter(exchange("alice"));
+		}
+		filter(exchange("bob"));
+		ServerWebExchange anonymous = exchange(null);
+		filter(anonymous);
+
+		assertEquals(2, forwarded.get());
+		assertEquals(HttpStatus.TOO_MANY_REQUESTS, anonymous.getResponse().getStatusCode());
+		assertEquals(1, registry.get(RateLimiter.REJECTIONS).tags("route", ROUTE_ID, "scope", "route").counter().count());
+		assertEquals(4, registry.get(RateLimiter.REJECTIONS).tags("route", ROUTE_ID, "scope", "principal").counter().count());
+	}
+
+	@Test
+	void passesRequestsWithoutLimitsOrRoute() {
+		rateLimits.getDefaults().setPrincipal(limit(1, 1));
+		rateLimits.getRoutes().put(ROUTE_ID, new RateLimits.Policy());
+
+		for (int i = 0; i < 3; i++) {
+			ServerWebExchange exchange = exchange("alice");
+			filter(exchange);
+			assertNull(exchange.getResponse().getHeaders().getFirst(RateLimitGlobalFilter.RATE_LIMIT_LIMIT));
+		}
+		MockServerWebExchange unrouted = MockServerWebExchange.from(MockServerHttpRequest.get("/lam/items").build());
+		filter(unrouted);
+
+		assertEquals(4, forwarded.get());
+	}
+
+	private void filter(ServerWebExchange exchange) {
+		filter.filter(exchange, e -> {
+			forwarded.incrementAndGet();
+			return Mono.empty();
+		}).block();
+	}
+
+	private static ServerWebExchange exchange(String principal) {
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/lam/items").build());
+		exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR, Route.async()
+				.id(ROUTE_ID)
+				.uri("http://localhost")
+				.predicate(e -> true)
+				.build());
+		if (principal == null) {
+			return exchange;
+		}
+		return exchange.mutate().principal(Mono.just((Principal) () -> principal)).build();
+	}
+
+	private static RateLimits.Limit limit(long replenishRate, long burstCapacity) {
+		RateLimits.Limit limit = new RateLimits.Limit();
+		limit.setReplenishRate(replenishRate);
+		limit.setBurstCapacity(burstCapacity);
+		return limit;
+	}
+}
@@ -0,0 +1,186 @@
+package ru.example.gateway.filter;
+
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SpecVersion;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.handler.DefaultWebFilterChain;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.example.gateway.model.RequestCoalescing;
+import ru.example.gateway.routing.RouteIndex;
+import ru.example.gateway.service.implementation.ResponseValidationService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RequestCoalescingFilterTests {
+
+	private static final String PATH = "/lam/list";
+	private static final String BODY = "[{\"qty\":1}]";
+
+	private final RequestCoalescing requestCoalescing = new RequestCoalescing();
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final RequestCoalescingFilter filter = new RequestCoalescingFilter();
+	private final AtomicInteger forwarded = new AtomicInteger();
+	private final Sinks.Empty<Void> release = Sinks.empty();
+
+	RequestCoalescingFilterTests() {
+		RouteIndex routeIndex = RouteIndex.builder()
+				.add(HttpMethod.GET, PATH, JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V202012).getSchema("{\"type\":\"array\"}"))
+				.build();
+		ResponseValidationService responseValidationService = new ResponseValidationService();
+		ReflectionTestUtils.setField(responseValidationService, "responseRouteIndex", routeIndex);
+		requestCoalescing.setEnabled(true);
+		requestCoalescing.getRoutes().add(PATH);
+		filter.setRequestCoalescing(requestCoalescing);
+		filter.setResponseValidationService(responseValidationService);
+		filter.setMeterRegistry(registry);
+		filter.registerMetrics();
+	}
+
+	@Test
+	void sharesOneUpstreamCallBetweenConcurrentDuplicates() {
+		MockServerWebExchange leader = exchange("application/json");
+		MockServerWebExchange follower = exchange("application/json");
+		MockServerWebExchange other = exchange("text/plain");
+
+		Mono<Void> all = Mono.when(filter(leader, new HttpHeaders()), filter(follower, new HttpHeaders()), filter(other, new HttpHeaders()));
+		Mono<Void> completed = all.cache();
+		completed.subscribe();
+		release.tryEmitEmpty();
+		completed.block(Duration.ofSeconds(5));
+
+		assertEquals(2, forwarded.get());
+		assertEquals(BODY, leader.getResponse().getBodyAsString().block());
+		assertEquals(BODY, follower.getResponse().getBodyAsString().block());
+		assertEquals(HttpStatus.OK, follower.getResponse().getStatusCode());
+		assertEquals(MediaType.APPLICATION_JSON, follower.getResponse().getHeaders().getContentType());
+		assertEquals(2, requests("leader"));
+		assertEquals(1, requests("follower"));
+		assertEquals(0, registry.get(RequestCoalescingFilter.IN_FLIGHT).gauge().value());
+	}
+
+	@Test
+	void fallsBackAfterMaxWait() throws InterruptedException {
+		requestCoalescing.setMaxWait(Duration.ofMillis(50));
+		MockServerWebExchange leader = exchange("application/json");
+		MockServerWebExchange follower = exchange("application/json");
+
+		filter(leader, new HttpHeaders()).subscribe();
+		Mono<Void> followed = filter(follower, new HttpHeaders()).cache();
+		followed.subscribe();
+		Thread.sleep(200);
+		release.tryEmitEmpty();
+		followed.block(Duration.ofSeconds(5));
+
+		assertEquals(2, forwarded.get());
+		assertEquals(BODY, follower.getResponse().getBodyAsString().block());
+		assertEquals(1, requests("fallback"));
+	}
+
+	@Test
+	void doesNotShareResponseWithCookie() {
+		HttpHeaders cookie = new HttpHeaders();
+		cookie.add(HttpHeaders.SET_COOKIE, "SESSION=1");
+		MockServerWebExchange leader = exchange("application/json");
+		MockServerWebExchange follower = exchange("application/json");
+
+		Mono<Void> completed = Mono.when(filter(leader, cookie), filter(follower, cookie)).cache();
+		completed.subscribe();
+		release.tryEmitEmpty();
+		completed.block(Duration.ofSeconds(5));
+
+		assertEquals(2, forwarded.get());
+		assertEquals("SESSION=1", follower.getResponse().getHeaders().getFirst(HttpHeaders.SET_COOKIE));
+		assertEquals(1, requests("fallback"));
+	}
+
+	@Test
+	void forwardsDuplicateArrivingAfterUnsharedResponseStarted() {
+		Sinks.Empty<Void> rest = Sinks.empty();
+		MockServerWebExchange leader = exchange("application/json");
+		MockServerWebExchange late = exchange("application/json");
+
+		Mono<Void> led = new DefaultWebFilterChain(filtered -> {
+			filtered.getResponse().setStatusCode(HttpStatus.OK);
+			return filtered.getResponse().writeWith(Mono.just(buffer("[{\"qty\":1}"))
+					.concatWith(rest.asMono().then(Mono.fromSupplier(() -> buffer("]")))));
+		}, Collections.singletonList(filter)).filter(leader).cache();
+		led.subscribe();
+		Mono<Void> forwardedLate = filter(late, new HttpHeaders()).cache();
+		forwardedLate.subscribe();
+		release.tryEmitEmpty();
+		rest.tryEmitEmpty();
+		Mono.when(led, forwardedLate).block(Duration.ofSeconds(5));
+
+		assertEquals(1, forwarded.get());
+		assertEquals(BODY, leader.getResponse().getBodyAsString().block());
+		assertEquals(BODY, late.getResponse().getBodyAsString().block());
+		assertEquals(2, requests("leader"));
+		assertEquals(0, requests("follower"));
+	}
+
+	@Test
+	void doesNotShareRateLimitHeaders() {
+		HttpHeaders rateLimited = new HttpHeaders();
+		rateLimited.add("RateLimit-Remaining", "9");
+		MockServerWebExchange leader = exchange("application/json");
+		MockServerWebExchange follower = exchange("application/json");
+
+		Mono<Void> completed = Mono.when(filter(leader, rateLimited), filter(follower, rateLimited)).cache();
+		completed.subscribe();
+		release.tryEmitEmpty();
+		completed.block(Duration.ofSeconds(5));
+
+		assertEquals(1, forwarded.get());
+		assertEquals(BODY, follower.getResponse().getBodyAsString().block());
+		assertEquals("9", leader.getResponse().getHeaders().getFirst("RateLimit-Remaining"));
+		assertNull(follower.getResponse().getHeaders().getFirst("RateLimit-Remaining"));
+	}
+
+	/**
+	 * Сервис отвечает после release
+	 */
+	private Mono<Void> filter(MockServerWebExchange exchange, HttpHeaders upstream) {
+		return new DefaultWebFilterChain(filtered -> {
+			forwarded.incrementAndGet();
+			return release.asMono().then(Mono.defer(() -> {
+				filtered.getResponse().setStatusCode(HttpStatus.OK);
+				filtered.getResponse().getHeaders().putAll(upstream);
+				filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+				return filtered.getResponse().writeWith(Mono.just(buffer(BODY)));
+			}));
+		}, Collections.singletonList(filter)).filter(exchange);
+	}
+
+	private double requests(String role) {
+		return registry.get(RequestCoalescingFilter.REQUESTS).tag("role", role).counter().count();
+	}
+
+	private static DataBuffer buffer(String value) {
+		return DefaultDataBufferFactory.sharedInstance.wrap(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static MockServerWebExchange exchange(String accept) {
+		return MockServerWebExchange.from(MockServerHttpRequest.get(PATH).header(HttpHeaders.ACCEPT, accept).build());
+	}
+}
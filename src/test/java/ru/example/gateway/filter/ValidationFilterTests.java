@@ -0,0 +1,818 @@
+package ru.example.gateway.filter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SpecVersion;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.handler.DefaultWebFilterChain;
+
+import io.netty.buffer.PooledByteBufAllocator;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ru.example.gateway.cache.ValidatedResponseCache;
+import ru.example.gateway.cache.ValidationResultCache;
+import ru.example.gateway.config.CachingConfig;
+import ru.example.gateway.metrics.ValidationMetrics;
+import ru.example.gateway.model.BodyLimits;
+import ru.example.gateway.model.ResponseCaching;
+import ru.example.gateway.model.ResponseSampling;
+import ru.example.gateway.model.ValidateActivator;
+import ru.example.gateway.model.ValidationQueue;
+import ru.example.gateway.routing.RouteIndex;
+import ru.example.gateway.sampling.ResponseSampler;
+import ru.example.gateway.scheduler.ValidationScheduler;
+import ru.example.gateway.service.ShadowResponseValidator;
+import ru.example.gateway.service.implementation.RequestValidationService;
+import ru.example.gateway.service.implementation.ResponseValidationService;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ValidationFilterTests {
+
+	private static final String PATH = "/lam/items";
+	private static final String SCHEMA = "{\"$schema\":\"https://json-schema.org/draft/2020-12/schema\",\"type\":\"object\"}";
+	private static final String LIST_PATH = "/lam/list";
+	private static final String LIST_SCHEMA = "{\"$schema\":\"https://json-schema.org/draft/2020-12/schema\",\"type\":\"array\"}";
+	private static final String ELEMENT_SCHEMA = "{\"$schema\":\"https://json-schema.org/draft/2020-12/schema\",\"type\":\"object\","
+			+ "\"properties\":{\"qty\":{\"type\":\"integer\"}}}";
+
+	//тело из 10 частей по 11 байт и фигурные скобки
+	private static final String CHUNK = "\"a\":\"1234\"";
+	private static final int BODY_LENGTH = 111;
+
+	private final BodyLimits bodyLimits = new BodyLimits();
+	private final ValidationQueue validationQueue = new ValidationQueue();
+	private final ValidationScheduler validationScheduler = new ValidationScheduler();
+	private final ResponseSampling responseSampling = new ResponseSampling();
+	private final ValidateActivator validateActivator = new ValidateActivator();
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final SimpleMeterRegistry validationSchedulerRegistry = new SimpleMeterRegistry();
+	private final RequestGlobalFilter requestFilter = new RequestGlobalFilter();
+	private final ResponseGlobalFilter responseFilter = new ResponseGlobalFilter();
+	private final ResponseCaching responseCaching = new ResponseCaching();
+	private final ValidatedResponseCache validatedResponseCache = new ValidatedResponseCache();
+	private final ResponseCacheFilter cacheFilter = new ResponseCacheFilter();
+
+	ValidationFilterTests() {
+		JsonSchemaFactory factory = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V202012);
+		RouteIndex routeIndex = RouteIndex.builder()
+				.add(HttpMethod.POST, PATH, factory.getSchema(SCHEMA))
+				.add(HttpMethod.GET, LIST_PATH, factory.getSchema(LIST_SCHEMA), factory.getSchema(ELEMENT_SCHEMA), 0)
+				.build();
+		validateActivator.setRequestOn(true);
+		validateActivator.setResponseOn(true);
+		ValidationResultCache validationResultCache = new ValidationResultCache();
+		validationResultCache.setCacheManager(new ConcurrentMapCacheManager(CachingConfig.VALIDATION_RESULTS_CACHE));
+		validationResultCache.setValidateActivator(validateActivator);
+		ValidationMetrics validationMetrics = new ValidationMetrics();
+		validationMetrics.setMeterRegistry(registry);
+		validationQueue.setThreads(1);
+		validationQueue.setQueueSize(1);
+		validationScheduler.setValidationQueue(validationQueue);
+		validationScheduler.setMeterRegistry(validationSchedulerRegistry);
+		validationScheduler.start();
+
+		RequestValidationService requestValidationService = new RequestValidationService();
+		requestValidationService.setMapper(new ObjectMapper());
+		requestValidationService.setValidationResultCache(validationResultCache);
+		requestValidationService.setValidationMetrics(validationMetrics);
+		requestValidationService.setBodyLimits(bodyLimits);
+		ReflectionTestUtils.setField(requestValidationService, "requestRouteIndex", routeIndex);
+		ResponseValidationService responseValidationService = new ResponseValidationService();
+		responseValidationService.setMapper(new ObjectMapper());
+		responseValidationService.setValidationResultCache(validationResultCache);
+		responseValidationService.setValidationMetrics(validationMetrics);
+		responseValidationService.setBodyLimits(bodyLimits);
+		responseValidationService.setValidateActivator(validateActivator);
+		ReflectionTestUtils.setField(responseValidationService, "responseRouteIndex", routeIndex);
+
+		requestFilter.setValidateActivator(validateActivator);
+		requestFilter.setRequestValidationService(requestValidationService);
+		requestFilter.setValidationMetrics(validationMetrics);
+		requestFilter.setBodyLimits(bodyLimits);
+		requestFilter.setValidationScheduler(validationScheduler);
+		requestFilter.setValidationQueue(validationQueue);
+		responseFilter.setValidateActivator(validateActivator);
+		responseFilter.setResponseSchemasService(responseValidationService);
+		responseFilter.setValidationMetrics(validationMetrics);
+		responseFilter.setBodyLimits(bodyLimits);
+		responseFilter.setValidationScheduler(validationScheduler);
+		responseFilter.setValidationQueue(validationQueue);
+		ResponseSampler responseSampler = new ResponseSampler();
+		responseSampler.setResponseSampling(responseSampling);
+		responseFilter.setResponseSampler(responseSampler);
+		ShadowResponseValidator shadowResponseValidator = new ShadowResponseValidator();
+		shadowResponseValidator.setValidateActivator(validateActivator);
+		shadowResponseValidator.setResponseValidationService(responseValidationService);
+		shadowResponseValidator.setValidationScheduler(validationScheduler);
+		shadowResponseValidator.setValidationMetrics(validationMetrics);
+		shadowResponseValidator.setResponseSampler(responseSampler);
+		shadowResponseValidator.setMeterRegistry(registry);
+		shadowResponseValidator.registerMetrics();
+		responseFilter.setShadowResponseValidator(shadowResponseValidator);
+
+		responseCaching.setEnabled(true);
+		responseCaching.getRoutes().put(LIST_PATH, Duration.ZERO);
+		validatedResponseCache.setResponseCaching(responseCaching);
+		validatedResponseCache.setMeterRegistry(registry);
+		validatedResponseCache.start();
+		cacheFilter.setResponseCaching(responseCaching);
+		cacheFilter.setValidatedResponseCache(validatedResponseCache);
+		cacheFilter.setResponseValidationService(responseValidationService);
+		cacheFilter.setValidateActivator(validateActivator);
+	}
+
+	@AfterEach
+	void shutdown() {
+		validationScheduler.shutdown();
+	}
+
+	@Test
+	void rejectsRequestOnceLimitIsCrossed() {
+		bodyLimits.setMaxRequestSize(DataSize.ofBytes(50));
+		AtomicBoolean forwarded = new AtomicBoolean();
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post(PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(body()));
+
+		requestFilter.filter(exchange, filtered -> {
+			forwarded.set(true);
+			return Mono.empty();
+		}).block();
+
+		assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, exchange.getResponse().getStatusCode());
+		assertFalse(forwarded.get());
+	}
+
+	@Test
+	void streamsRequestAndSkipsSchemaValidationOnResultCacheHit() {
+		validateActivator.setResultCacheOn(true);
+		AtomicInteger forwarded = new AtomicInteger();
+		for (int i = 0; i < 2; i++) {
+			MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post(PATH)
+					.contentType(MediaType.APPLICATION_JSON)
+					.body(body()));
+
+			requestFilter.filter(exchange, filtered -> {
+				forwarded.incrementAndGet();
+				return Mono.empty();
+			}).block();
+		}
+		MockServerWebExchange malformed = MockServerWebExchange.from(MockServerHttpRequest.post(PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(Flux.just(buffer("{\"a\":}"), buffer("{}"))));
+		requestFilter.filter(malformed, filtered -> {
+			forwarded.incrementAndGet();
+			return Mono.empty();
+		}).block();
+
+		assertEquals(2, forwarded.get());
+		assertEquals(1, registry.get(ValidationMetrics.SCHEMA_VALIDATION).tag("direction", "request").timer().count());
+		assertEquals(HttpStatus.BAD_REQUEST, malformed.getResponse().getStatusCode());
+	}
+
+	@Test
+	void rejectsRequestByContentLengthWithoutReadingBody() {
+		bodyLimits.setMaxRequestSize(DataSize.ofBytes(50));
+		AtomicBoolean read = new AtomicBoolean();
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post(PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+				.contentLength(100)
+				.body(body().doOnSubscribe(subscription -> read.set(true))));
+
+		requestFilter.filter(exchange, filtered -> Mono.empty()).block();
+
+		assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, exchange.getResponse().getStatusCode());
+		assertFalse(read.get());
+	}
+
+	@Test
+	void passesRouteLimitOverride() {
+		bodyLimits.setMaxRequestSize(DataSize.ofBytes(50));
+		BodyLimits.Limit limit = new BodyLimits.Limit();
+		limit.setMaxRequestSize(DataSize.ofBytes(200));
+		bodyLimits.getRoutes().put(PATH, limit);
+		AtomicReference<String> forwarded = new AtomicReference<>();
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post(PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(body()));
+
+		requestFilter.filter(exchange, filtered -> DataBufferUtils.join(filtered.getRequest().getBody())
+				.doOnNext(joined -> forwarded.set(joined.toString(StandardCharsets.UTF_8)))
+				.then()).block();
+
+		assertNull(exchange.getResponse().getStatusCode());
+		assertEquals(BODY_LENGTH, forwarded.get().length());
+	}
+
+	@Test
+	void passesOversizedResponseThroughByDefault() {
+		bodyLimits.setMaxResponseSize(DataSize.ofBytes(50));
+		MockServerWebExchange exchange = responseExchange();
+
+		responseFilter.filter(exchange, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(body());
+		}).block();
+
+		assertNull(exchange.getResponse().getStatusCode());
+		assertEquals(BODY_LENGTH, exchange.getResponse().getBodyAsString().block().length());
+	}
+
+	@Test
+	void failsOversizedResponseWhenConfigured() {
+		bodyLimits.setMaxResponseSize(DataSize.ofBytes(50));
+		bodyLimits.setOversizedResponse(BodyLimits.OversizedPolicy.FAIL);
+		MockServerWebExchange exchange = responseExchange();
+
+		responseFilter.filter(exchange, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(body());
+		}).block();
+
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, exchange.getResponse().getStatusCode());
+	}
+
+	@Test
+	void validatesResponseUnderLimit() {
+		MockServerWebExchange exchange = responseExchange();
+
+		responseFilter.filter(exchange, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(Flux.just(buffer("[1]")));
+		}).block();
+
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, exchange.getResponse().getStatusCode());
+	}
+
+	@Test
+	void passesUnsampledResponseWithoutBuffering() {
+		responseSampling.setRate(0.0);
+		MockServerWebExchange exchange = responseExchange();
+
+		responseFilter.filter(exchange, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(Flux.just(buffer("[1]")));
+		}).block();
+
+		assertNull(exchange.getResponse().getStatusCode());
+		assertEquals("[1]", exchange.getResponse().getBodyAsString().block());
+	}
+
+	@Test
+	void streamsEventStreamWithoutBuffering() {
+		MockServerWebExchange exchange = responseExchange();
+		exchange.getResponse().setWriteHandler(written -> Flux.from(written).take(1).doOnNext(DataBufferUtils::release).then());
+
+		responseFilter.filter(exchange, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.TEXT_EVENT_STREAM);
+			return filtered.getResponse().writeWith(Flux.concat(Flux.just(buffer("data: 1\n\n")), Flux.never()));
+		}).block(Duration.ofSeconds(5));
+
+		assertNull(exchange.getResponse().getStatusCode());
+	}
+
+	@Test
+	void passesBodilessAndExcludedResponses() {
+		List<MockServerWebExchange> exchanges = Arrays.asList(
+				MockServerWebExchange.from(MockServerHttpRequest.head(PATH).build()),
+				MockServerWebExchange.from(MockServerHttpRequest.post("/actuator/health").build()),
+				responseExchange(),
+				responseExchange());
+		exchanges.get(2).getResponse().setStatusCode(HttpStatus.NO_CONTENT);
+		exchanges.get(3).getAttributes().put(ResponseGlobalFilter.SKIP_VALIDATION_ATTRIBUTE, Boolean.TRUE);
+
+		for (MockServerWebExchange exchange : exchanges) {
+			responseFilter.filter(exchange, filtered -> {
+				filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+				return filtered.getResponse().writeWith(Flux.just(buffer("[1]")));
+			}).block();
+
+			assertEquals("[1]", exchange.getResponse().getBodyAsString().block());
+		}
+		assertEquals(0, outcomes("validation_error"), 0.001);
+	}
+
+	@Test
+	void reportsInvalidShadowResponseWithoutChangingIt() throws InterruptedException {
+		validateActivator.setResponseMode(ValidateActivator.ResponseMode.SHADOW);
+		MockServerWebExchange exchange = responseExchange();
+
+		responseFilter.filter(exchange, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(Flux.just(buffer("["), buffer("1]")));
+		}).block();
+
+		assertNull(exchange.getResponse().getStatusCode());
+		assertEquals("[1]", exchange.getResponse().getBodyAsString().block());
+		awaitOutcome("validation_error", 1);
+		assertEquals(0, registry.get(ShadowResponseValidator.RETAINED_BYTES).gauge().value(), 0.001);
+	}
+
+	@Test
+	void skipsShadowValidationOverRetainedLimit() throws InterruptedException {
+		validateActivator.setResponseMode(ValidateActivator.ResponseMode.SHADOW);
+		validateActivator.setShadowBufferLimit(DataSize.ofBytes(20));
+		MockServerWebExchange exchange = responseExchange();
+
+		responseFilter.filter(exchange, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(body());
+		}).block();
+
+		assertEquals(BODY_LENGTH, exchange.getResponse().getBodyAsString().block().length());
+		awaitOutcome("shed", 1);
+		assertEquals(0, registry.get(ShadowResponseValidator.RETAINED_BYTES).gauge().value(), 0.001);
+	}
+
+	@Test
+	void reportsInvalidShadowElementsWithoutCopies() throws InterruptedException {
+		validateActivator.setResponseMode(ValidateActivator.ResponseMode.SHADOW);
+		validateActivator.setElementWiseOn(true);
+		MockServerWebExchange exchange = listExchange();
+
+		responseFilter.filter(exchange, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(Flux.just(buffer("[{\"qty\":1},{\"qty\""), buffer(":\"x\"}]")));
+		}).block();
+
+		assertNull(exchange.getResponse().getStatusCode());
+		assertEquals("[{\"qty\":1},{\"qty\":\"x\"}]", exchange.getResponse().getBodyAsString().block());
+		awaitOutcome("validation_error", 1);
+		assertEquals(0, registry.get(ShadowResponseValidator.RETAINED_BYTES).gauge().value(), 0.001);
+	}
+
+	@Test
+	void validatesShadowElementsOfBodyOverRetainedLimit() throws InterruptedException {
+		validationQueue.setEnabled(false);
+		validateActivator.setResponseMode(ValidateActivator.ResponseMode.SHADOW);
+		validateActivator.setElementWiseOn(true);
+		validateActivator.setShadowBufferLimit(DataSize.ofBytes(20));
+		MockServerWebExchange exchange = listExchange();
+
+		responseFilter.filter(exchange, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(Flux.range(0, 10).map(i -> buffer((i == 0 ? "[" : ",") + "{\"qty\":" + i + "}"))
+					.concatWith(Flux.just(buffer("]"))));
+		}).block();
+
+		assertEquals(101, exchange.getResponse().getBodyAsString().block().length());
+		awaitOutcome("pass", 1);
+		assertEquals(0, outcomes("shed"), 0.001);
+		assertEquals(0, registry.get(ShadowResponseValidator.RETAINED_BYTES).gauge().value(), 0.001);
+	}
+
+	@Test
+	void rejectsRequestWithoutSchemaWithSameErrorBody() {
+		for (int i = 0; i < 2; i++) {
+			MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/lam/unknown")
+					.contentType(MediaType.APPLICATION_JSON)
+					.body(body()));
+
+			requestFilter.filter(exchange, filtered -> Mono.empty()).block();
+
+			String error = "{\"status\":\"validation error\",\"details\":[\"can't find json validation scheme\"]}";
+			assertEquals(HttpStatus.PRECONDITION_FAILED, exchange.getResponse().getStatusCode());
+			assertEquals(error, exchange.getResponse().getBodyAsString().block());
+			assertEquals(error.length(), exchange.getResponse().getHeaders().getContentLength());
+		}
+	}
+
+	@Test
+	void rejectsRequestWhenQueueIsFull() throws InterruptedException {
+		CountDownLatch release = saturate();
+		try {
+			MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post(PATH)
+					.contentType(MediaType.APPLICATION_JSON)
+					.body(body()));
+
+			requestFilter.filter(exchange, filtered -> Mono.empty()).block();
+
+			assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exchange.getResponse().getStatusCode());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	void skipsResponseValidationWhenQueueIsFull() throws InterruptedException {
+		CountDownLatch release = saturate();
+		try {
+			MockServerWebExchange exchange = responseExchange();
+
+			responseFilter.filter(exchange, filtered -> {
+				filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+				return filtered.getResponse().writeWith(Flux.just(buffer("[1]")));
+			}).block();
+
+			assertNull(exchange.getResponse().getStatusCode());
+			assertEquals("[1]", exchange.getResponse().getBodyAsString().block());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	void releasesResponseBuffersWhenCancelledWhileValidationIsQueued() throws InterruptedException {
+		CountDownLatch release = occupy();
+		try {
+			NettyDataBuffer body = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT).allocateBuffer(16);
+			body.write("{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+			MockServerWebExchange exchange = responseExchange();
+
+			Disposable response = responseFilter.filter(exchange, filtered -> {
+				filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+				return filtered.getResponse().writeWith(Flux.just(body));
+			}).subscribe();
+			for (int i = 0; i < 100 && queued() < 1; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, queued(), 0.001);
+
+			response.dispose();
+
+			assertEquals(0, body.getNativeBuffer().refCnt());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	void forwardsCompressedRequestUnchanged() throws IOException {
+		byte[] compressed = gzip("{\"a\":\"1234\"}");
+		AtomicReference<byte[]> forwarded = new AtomicReference<>();
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post(PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+				.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+				.body(split(compressed)));
+
+		requestFilter.filter(exchange, filtered -> DataBufferUtils.join(filtered.getRequest().getBody())
+				.doOnNext(joined -> forwarded.set(bytes(joined)))
+				.then()).block();
+
+		assertNull(exchange.getResponse().getStatusCode());
+		assertArrayEquals(compressed, forwarded.get());
+	}
+
+	@Test
+	void rejectsRequestInflatedOverLimit() throws IOException {
+		bodyLimits.setMaxInflatedSize(DataSize.ofKilobytes(1));
+		StringBuilder json = new StringBuilder("{\"a\":\"");
+		for (int i = 0; i < 100_000; i++) {
+			json.append('a');
+		}
+		byte[] compressed = gzip(json.append("\"}").toString());
+		AtomicBoolean forwarded = new AtomicBoolean();
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post(PATH)
+				.contentType(MediaType.APPLICATION_JSON)
+				.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+				.body(split(compressed)));
+
+		requestFilter.filter(exchange, filtered -> {
+			forwarded.set(true);
+			return Mono.empty();
+		}).block();
+
+		assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, exchange.getResponse().getStatusCode());
+		assertFalse(forwarded.get());
+	}
+
+	@Test
+	void validatesCompressedResponse() throws IOException {
+		byte[] valid = deflate("{\"a\":\"1234\"}");
+		MockServerWebExchange passed = responseExchange();
+
+		responseFilter.filter(passed, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			filtered.getResponse().getHeaders().set(HttpHeaders.CONTENT_ENCODING, "deflate");
+			return filtered.getResponse().writeWith(split(valid));
+		}).block();
+
+		assertNull(passed.getResponse().getStatusCode());
+		assertArrayEquals(valid, DataBufferUtils.join(passed.getResponse().getBody()).map(ValidationFilterTests::bytes).block());
+
+		byte[] invalid = gzip("[1]");
+		MockServerWebExchange failed = responseExchange();
+
+		responseFilter.filter(failed, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			filtered.getResponse().getHeaders().set(HttpHeaders.CONTENT_ENCODING, "gzip");
+			return filtered.getResponse().writeWith(split(invalid));
+		}).block();
+
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, failed.getResponse().getStatusCode());
+		assertNull(failed.getResponse().getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+	}
+
+	@Test
+	void validatesArrayResponseByElements() {
+		validateActivator.setElementWiseOn(true);
+		MockServerWebExchange valid = listExchange();
+		MockServerWebExchange invalid = listExchange();
+
+		responseFilter.filter(valid, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(Flux.just(buffer("[{\"qty\":1},"), buffer("{\"qty\":2}]")));
+		}).block();
+		responseFilter.filter(invalid, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(Flux.just(buffer("[{\"qty\":1},"), buffer("{\"qty\":\"x\"}]")));
+		}).block();
+
+		assertNull(valid.getResponse().getStatusCode());
+		assertEquals("[{\"qty\":1},{\"qty\":2}]", valid.getResponse().getBodyAsString().block());
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, invalid.getResponse().getStatusCode());
+	}
+
+	@Test
+	void appliesItemsSchemaToWholeArrayResponse() {
+		MockServerWebExchange exchange = listExchange();
+
+		responseFilter.filter(exchange, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(Flux.just(buffer("[{\"qty\":1},"), buffer("{\"qty\":\"x\"}]")));
+		}).block();
+
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, exchange.getResponse().getStatusCode());
+	}
+
+	@Test
+	void validatesNdjsonResponseByRecords() {
+		validateActivator.setElementWiseOn(true);
+		MockServerWebExchange valid = listExchange();
+		MockServerWebExchange invalid = listExchange();
+
+		responseFilter.filter(valid, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_NDJSON);
+			return filtered.getResponse().writeWith(Flux.just(buffer("{\"qty\":1}\n{\"qty\""), buffer(":2}\n")));
+		}).block();
+		responseFilter.filter(invalid, filtered -> {
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_NDJSON);
+			return filtered.getResponse().writeWith(Flux.just(buffer("{\"qty\":1}\n{\"qty\":\"x\"}\n")));
+		}).block();
+
+		assertNull(valid.getResponse().getStatusCode());
+		assertEquals("{\"qty\":1}\n{\"qty\":2}\n", valid.getResponse().getBodyAsString().block());
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, invalid.getResponse().getStatusCode());
+	}
+
+	@Test
+	void servesFreshValidatedResponseFromCache() {
+		AtomicInteger forwarded = new AtomicInteger();
+		HttpHeaders upstream = new HttpHeaders();
+		upstream.setCacheControl("max-age=60");
+		upstream.setETag("\"v1\"");
+
+		MockServerWebExchange first = listExchange();
+		cached(first, forwarded, HttpStatus.OK, upstream, "[{\"qty\":1}]");
+		MockServerWebExchange hit = listExchange();
+		cached(hit, forwarded, HttpStatus.OK, upstream, "[]");
+		MockServerWebExchange conditional = MockServerWebExchange.from(MockServerHttpRequest.get(LIST_PATH)
+				.ifNoneMatch("\"v1\"")
+				.build());
+		cached(conditional, forwarded, HttpStatus.OK, upstream, "[]");
+		cached(MockServerWebExchange.from(MockServerHttpRequest.get(LIST_PATH + "?page=2").build()), forwarded, HttpStatus.OK, upstream, "[]");
+
+		assertEquals(2, forwarded.get());
+		assertEquals(HttpStatus.OK, hit.getResponse().getStatusCode());
+		assertEquals("[{\"qty\":1}]", hit.getResponse().getBodyAsString().block());
+		assertEquals("\"v1\"", hit.getResponse().getHeaders().getETag());
+		assertEquals("0", hit.getResponse().getHeaders().getFirst(HttpHeaders.AGE));
+		assertEquals(HttpStatus.NOT_MODIFIED, conditional.getResponse().getStatusCode());
+		assertEquals(1, cacheRequests("hit"));
+		assertEquals(1, cacheRequests("not_modified"));
+		assertEquals(2, cacheRequests("miss"));
+	}
+
+	@Test
+	void revalidatesStaleResponseWithConditionalRequest() {
+		AtomicInteger forwarded = new AtomicInteger();
+		AtomicReference<String> condition = new AtomicReference<>();
+		HttpHeaders upstream = new HttpHeaders();
+		upstream.setCacheControl("no-cache");
+		upstream.setETag("\"v1\"");
+		cached(listExchange(), forwarded, HttpStatus.OK, upstream, "[{\"qty\":1}]");
+
+		MockServerWebExchange revalidated = listExchange();
+		new DefaultWebFilterChain(exchange -> {
+			forwarded.incrementAndGet();
+			condition.set(exchange.getRequest().getHeaders().getFirst(HttpHeaders.IF_NONE_MATCH));
+			exchange.getResponse().setStatusCode(HttpStatus.NOT_MODIFIED);
+			exchange.getResponse().getHeaders().setETag("\"v1\"");
+			return exchange.getResponse().writeWith(Flux.empty());
+		}, Arrays.asList(cacheFilter, responseFilter)).filter(revalidated).block();
+
+		assertEquals(2, forwarded.get());
+		assertEquals("\"v1\"", condition.get());
+		assertEquals(HttpStatus.OK, revalidated.getResponse().getStatusCode());
+		assertEquals("[{\"qty\":1}]", revalidated.getResponse().getBodyAsString().block());
+		assertEquals(1, cacheRequests("revalidated"));
+	}
+
+	@Test
+	void cachesOnlyValidatedStorableResponses() {
+		AtomicInteger forwarded = new AtomicInteger();
+		HttpHeaders upstream = new HttpHeaders();
+		upstream.setCacheControl("max-age=60");
+		HttpHeaders privateUpstream = new HttpHeaders();
+		privateUpstream.setCacheControl("private, max-age=60");
+
+		MockServerWebExchange invalid = listExchange();
+		cached(invalid, forwarded, HttpStatus.OK, upstream, "{}");
+		cached(listExchange(), forwarded, HttpStatus.OK, upstream, "{}");
+		cached(listExchange(), forwarded, HttpStatus.OK, privateUpstream, "[]");
+		cached(listExchange(), forwarded, HttpStatus.OK, privateUpstream, "[]");
+		cached(listExchange(), forwarded, HttpStatus.OK, upstream, "[]");
+		validatedResponseCache.retain(RouteIndex.empty());
+		cached(listExchange(), forwarded, HttpStatus.OK, upstream, "[]");
+		cached(listExchange(), forwarded, HttpStatus.OK, upstream, "[]");
+
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, invalid.getResponse().getStatusCode());
+		assertEquals(6, forwarded.get());
+		assertEquals(1, cacheRequests("hit"));
+	}
+
+	@Test
+	void cachesResponseToAuthorizedRequestOnlyWhenSharedCachingIsAllowed() {
+		AtomicInteger forwarded = new AtomicInteger();
+		HttpHeaders upstream = new HttpHeaders();
+		upstream.setCacheControl("max-age=60");
+		HttpHeaders shared = new HttpHeaders();
+		shared.setCacheControl("public, max-age=60");
+
+		cached(authorizedExchange("alice"), forwarded, HttpStatus.OK, upstream, "[{\"qty\":1}]");
+		MockServerWebExchange other = authorizedExchange("bob");
+		cached(other, forwarded, HttpStatus.OK, upstream, "[{\"qty\":2}]");
+		cached(MockServerWebExchange.from(MockServerHttpRequest.get(LIST_PATH).header(HttpHeaders.COOKIE, "SESSION=1").build()),
+				forwarded, HttpStatus.OK, upstream, "[]");
+		cached(authorizedExchange("alice"), forwarded, HttpStatus.OK, shared, "[{\"qty\":3}]");
+		MockServerWebExchange hit = authorizedExchange("bob");
+		cached(hit, forwarded, HttpStatus.OK, shared, "[]");
+
+		assertEquals(4, forwarded.get());
+		assertEquals("[{\"qty\":2}]", other.getResponse().getBodyAsString().block());
+		assertEquals("[{\"qty\":3}]", hit.getResponse().getBodyAsString().block());
+		assertEquals(1, cacheRequests("hit"));
+	}
+
+	/**
+	 * Занимает единственный поток пула валидации, очередь остается свободной
+	 */
+	private CountDownLatch occupy() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		validationScheduler.run(() -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}).subscribe();
+		started.await();
+		return release;
+	}
+
+	private double queued() {
+		return validationSchedulerRegistry.get("executor.queued").tag("name", ValidationScheduler.NAME).gauge().value();
+	}
+
+	/**
+	 * Занимает единственный поток пула и место в очереди
+	 */
+	private CountDownLatch saturate() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Runnable blocked = () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		validationScheduler.run(blocked).subscribe();
+		started.await();
+		validationScheduler.run(blocked).subscribe();
+		return release;
+	}
+
+	private void awaitOutcome(String outcome, double expected) throws InterruptedException {
+		for (int i = 0; i < 100 && outcomes(outcome) < expected; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(expected, outcomes(outcome), 0.001);
+	}
+
+	private double outcomes(String outcome) {
+		Counter counter = registry.find(ValidationMetrics.OUTCOMES).tags("direction", "response", "outcome", outcome).counter();
+		return counter == null ? 0 : counter.count();
+	}
+
+	/**
+	 * Передает обмен через кэш и проверку ответов; сервис отвечает status с заголовками upstream и телом body
+	 */
+	private void cached(MockServerWebExchange exchange, AtomicInteger forwarded, HttpStatus status, HttpHeaders upstream, String body) {
+		new DefaultWebFilterChain(filtered -> {
+			forwarded.incrementAndGet();
+			filtered.getResponse().setStatusCode(status);
+			filtered.getResponse().getHeaders().putAll(upstream);
+			filtered.getResponse().getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return filtered.getResponse().writeWith(Flux.just(buffer(body)));
+		}, Arrays.asList(cacheFilter, responseFilter)).filter(exchange).block();
+	}
+
+	private double cacheRequests(String result) {
+		return registry.get(ValidatedResponseCache.REQUESTS).tag("result", result).counter().count();
+	}
+
+	private static MockServerWebExchange responseExchange() {
+		return MockServerWebExchange.from(MockServerHttpRequest.post(PATH).build());
+	}
+
+	private static MockServerWebExchange listExchange() {
+		return MockServerWebExchange.from(MockServerHttpRequest.get(LIST_PATH).build());
+	}
+
+	private static MockServerWebExchange authorizedExchange(String user) {
+		return MockServerWebExchange.from(MockServerHttpRequest.get(LIST_PATH).header(HttpHeaders.AUTHORIZATION, "Bearer " + user).build());
+	}
+
+	private static Flux<DataBuffer> body() {
+		return Flux.range(0, 10).map(i -> buffer((i == 0 ? "{" : ",") + CHUNK.replace('a', (char) ('a' + i)) + (i == 9 ? "}" : "")));
+	}
+
+	/**
+	 * Делит тело на две части, чтобы распаковка шла через границу буферов
+	 */
+	private static Flux<DataBuffer> split(byte[] bytes) {
+		int half = bytes.length / 2;
+		return Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(bytes, 0, half)),
+				DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(bytes, half, bytes.length)));
+	}
+
+	private static byte[] bytes(DataBuffer dataBuffer) {
+		byte[] bytes = new byte[dataBuffer.readableByteCount()];
+		dataBuffer.read(bytes);
+		return bytes;
+	}
+
+	private static byte[] gzip(String value) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(value.getBytes(StandardCharsets.UTF_8));
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] deflate(String value) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+			deflate.write(value.getBytes(StandardCharsets.UTF_8));
+		}
+		return out.toByteArray();
+	}
+
+	private static DataBuffer buffer(String value) {
+		return DefaultDataBufferFactory.sharedInstance.wrap(value.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,75 @@
+package ru.example.gateway.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+
+import java.util.concurrent.TimeUnit;
+
+import ru.example.gateway.cache.ValidationResultCache.Direction;
+import ru.example.gateway.model.ValidationOutcome;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.routing.RouteIndex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ValidationMetricsTests {
+
+	private static final String TEMPLATE = "/lam/orders/{id:int}/items";
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final ValidationMetrics metrics = new ValidationMetrics();
+
+	ValidationMetricsTests() {
+		metrics.setMeterRegistry(registry);
+	}
+
+	@Test
+	void tagsMetersWithRouteTemplate() {
+		Route route = route();
+		metrics.bodyReceived(Direction.REQUEST, route, 2_000_000, 512);
+		metrics.parsed(Direction.REQUEST, route, 1_000_000);
+		metrics.validated(Direction.REQUEST, route, 3_000_000);
+		metrics.outcome(Direction.REQUEST, HttpMethod.POST, route, ValidationOutcome.PASS);
+		metrics.outcome(Direction.REQUEST, HttpMethod.POST, route, ValidationOutcome.VALIDATION_ERROR);
+
+		Timer schema = registry.get(ValidationMetrics.SCHEMA_VALIDATION)
+				.tags("direction", "request", "method", "POST", "route", TEMPLATE).timer();
+		assertEquals(3, schema.totalTime(TimeUnit.MILLISECONDS), 0.001);
+		assertEquals(512, registry.get(ValidationMetrics.BODY_SIZE).tag("route", TEMPLATE).summary().totalAmount(), 0.001);
+		assertEquals(1, outcomes("request", TEMPLATE, "pass").count(), 0.001);
+		assertEquals(1, outcomes("request", TEMPLATE, "validation_error").count(), 0.001);
+		assertEquals(0, outcomes("request", TEMPLATE, "parse_error").count(), 0.001);
+		assertNull(registry.find(ValidationMetrics.PARSE).tag("direction", "response").timer());
+	}
+
+	@Test
+	void countsSchemaMissWithoutRawPath() {
+		metrics.outcome(Direction.RESPONSE, HttpMethod.GET, null, ValidationOutcome.SCHEMA_MISS);
+		metrics.outcome(Direction.RESPONSE, HttpMethod.GET, null, ValidationOutcome.SCHEMA_MISS);
+
+		assertEquals(2, outcomes("response", ValidationMetrics.UNMATCHED_ROUTE, "schema_miss").count(), 0.001);
+	}
+
+	@Test
+	void reusesMetersAfterIndexRebuild() {
+		metrics.outcome(Direction.REQUEST, HttpMethod.POST, route(), ValidationOutcome.PASS);
+		metrics.outcome(Direction.REQUEST, HttpMethod.POST, route(), ValidationOutcome.PASS);
+
+		assertEquals(2, outcomes("request", TEMPLATE, "pass").count(), 0.001);
+		assertEquals(ValidationOutcome.values().length, registry.get(ValidationMetrics.OUTCOMES).counters().size());
+	}
+
+	//каждый вызов формирует новый индекс, как при обновлении схем
+	private static Route route() {
+		return RouteIndex.builder().add(HttpMethod.POST, TEMPLATE, null).build().find(HttpMethod.POST, "/lam/orders/42/items");
+	}
+
+	private Counter outcomes(String direction, String route, String outcome) {
+		return registry.get(ValidationMetrics.OUTCOMES).tags("direction", direction, "route", route, "outcome", outcome).counter();
+	}
+}
@@ -0,0 +1,97 @@
+package ru.example.gateway.parser;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonElementStreamParserTests {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+	private final List<JsonNode> elements = new ArrayList<>();
+	private final List<Long> sizes = new ArrayList<>();
+
+	@Test
+	void emitsArrayElementsAsSoonAsTheyAreComplete() throws IOException {
+		JsonElementStreamParser parser = parser(false);
+
+		feed(parser, "[{\"qty\":1}, {\"qty\"");
+		assertEquals(Arrays.asList(mapper.readTree("{\"qty\":1}")), elements);
+		assertEquals(6, parser.getPendingBytes());
+
+		feed(parser, ":[2,3]},\"x\" ]");
+		parser.finish();
+
+		assertTrue(parser.isElementWise());
+		assertEquals(Arrays.asList(mapper.readTree("{\"qty\":1}"), mapper.readTree("{\"qty\":[2,3]}"), mapper.readTree("\"x\"")),
+				elements);
+		assertEquals(Arrays.asList(9L, 13L, 3L), sizes);
+		assertEquals(0, parser.getPendingBytes());
+	}
+
+	@Test
+	void emitsNdjsonRecordsFedByteByByte() throws IOException {
+		JsonElementStreamParser parser = parser(true);
+		for (byte b : "{\"a\":1}\n{\"a\":[true,null]}\n7".getBytes(StandardCharsets.UTF_8)) {
+			parser.feed(bufferFactory.wrap(new byte[]{b}));
+		}
+		assertEquals(2, elements.size());
+
+		parser.finish();
+
+		assertEquals(Arrays.asList(mapper.readTree("{\"a\":1}"), mapper.readTree("{\"a\":[true,null]}"), mapper.readTree("7")),
+				elements);
+	}
+
+	@Test
+	void emitsWholeBodyThatIsNotArray() throws IOException {
+		JsonElementStreamParser parser = parser(false);
+		feed(parser, "{\"items\":[1,2]}");
+		parser.finish();
+
+		assertFalse(parser.isElementWise());
+		assertEquals(Arrays.asList(mapper.readTree("{\"items\":[1,2]}")), elements);
+	}
+
+	@Test
+	void rejectsEmptyAndIncompleteBodies() throws IOException {
+		assertThrows(JsonParseException.class, () -> parser(false).finish());
+
+		JsonElementStreamParser array = parser(false);
+		feed(array, "[1,2");
+		assertThrows(IOException.class, array::finish);
+
+		JsonElementStreamParser ndjson = parser(true);
+		feed(ndjson, "{\"a\":1}\n{\"a\"");
+		assertThrows(IOException.class, ndjson::finish);
+
+		JsonElementStreamParser malformed = parser(false);
+		feed(malformed, "[{\"a\":");
+		assertThrows(JsonParseException.class, () -> feed(malformed, "}]"));
+	}
+
+	private JsonElementStreamParser parser(boolean ndjson) {
+		return new JsonElementStreamParser(ndjson, (element, bytes) -> {
+			elements.add(element);
+			sizes.add(bytes);
+		});
+	}
+
+	private void feed(JsonElementStreamParser parser, String chunk) throws IOException {
+		parser.feed(bufferFactory.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+	}
+}
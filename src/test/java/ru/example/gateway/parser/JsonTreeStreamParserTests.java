@@ -0,0 +1,69 @@
+package ru.example.gateway.parser;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonTreeStreamParserTests {
+
+	private static final String JSON = "{\"username\":\"user\",\"active\":true,\"age\":42,\"balance\":12.5,"
+			+ "\"big\":123456789012345678901234567890,\"roles\":[\"admin\",{\"id\":1},[]],\"city\":null}";
+
+	private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+	private final DefaultDataBufferFactory directBufferFactory = new DefaultDataBufferFactory(true);
+
+	@Test
+	void buildsSameTreeAsObjectMapperWhenFedByteByByte() throws IOException {
+		JsonTreeStreamParser parser = new JsonTreeStreamParser();
+		byte[] bytes = JSON.getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < bytes.length; i++) {
+			DefaultDataBufferFactory factory = i % 2 == 0 ? bufferFactory : directBufferFactory;
+			parser.feed(factory.wrap(new byte[]{bytes[i]}));
+		}
+		JsonNode expected = new ObjectMapper().readTree(JSON);
+		assertEquals(expected, parser.finish());
+	}
+
+	@Test
+	void parsesScalarRootOnEndOfInput() throws IOException {
+		JsonTreeStreamParser parser = new JsonTreeStreamParser();
+		parser.feed(bufferFactory.wrap("123".getBytes(StandardCharsets.UTF_8)));
+		assertFalse(parser.isComplete());
+		assertEquals(123, parser.finish().intValue());
+	}
+
+	@Test
+	void rejectsMalformedChunkImmediately() throws IOException {
+		JsonTreeStreamParser parser = new JsonTreeStreamParser();
+		parser.feed(bufferFactory.wrap("{\"a\":".getBytes(StandardCharsets.UTF_8)));
+		assertThrows(JsonParseException.class, () -> parser.feed(bufferFactory.wrap("}".getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	void rejectsEmptyAndIncompleteBodies() throws IOException {
+		assertThrows(JsonParseException.class, () -> new JsonTreeStreamParser().finish());
+
+		JsonTreeStreamParser parser = new JsonTreeStreamParser();
+		parser.feed(bufferFactory.wrap("[1,2".getBytes(StandardCharsets.UTF_8)));
+		assertThrows(IOException.class, parser::finish);
+	}
+
+	@Test
+	void ignoresDataAfterRootValue() throws IOException {
+		JsonTreeStreamParser parser = new JsonTreeStreamParser();
+		parser.feed(bufferFactory.wrap("{} garbage".getBytes(StandardCharsets.UTF_8)));
+		assertTrue(parser.isComplete());
+		assertTrue(parser.finish().isObject());
+	}
+}
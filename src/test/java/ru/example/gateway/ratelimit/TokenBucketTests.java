@@ -0,0 +1,62 @@
+package ru.example.gateway.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTests {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	void allowsBurstThenReplenishesAtRate() {
+		long now = 1_000 * SECOND;
+		TokenBucket bucket = new TokenBucket(now);
+		long interval = SECOND / 10;
+
+		for (int remaining = 4; remaining >= 0; remaining--) {
+			assertEquals(remaining, bucket.tryConsume(now, interval, 5));
+		}
+		assertEquals(-interval, bucket.tryConsume(now, interval, 5));
+		assertEquals(5 * interval, bucket.nanosUntilFull(now));
+
+		assertEquals(0, bucket.tryConsume(now + interval, interval, 5));
+		assertEquals(-interval / 2, bucket.tryConsume(now + interval + interval / 2, interval, 5));
+		assertEquals(4, bucket.tryConsume(now + 100 * interval, interval, 5));
+	}
+
+	@Test
+	void neverGivesMoreTokensThanCapacityUnderContention() throws InterruptedException {
+		long now = System.nanoTime();
+		TokenBucket bucket = new TokenBucket(now);
+		AtomicInteger allowed = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int i = 0; i < 8; i++) {
+			executor.execute(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				for (int j = 0; j < 1000; j++) {
+					if (bucket.tryConsume(now, SECOND, 100) >= 0) {
+						allowed.incrementAndGet();
+					}
+				}
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertEquals(100, allowed.get());
+	}
+}
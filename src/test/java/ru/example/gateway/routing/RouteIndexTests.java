@@ -0,0 +1,86 @@
+package ru.example.gateway.routing;
+
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SpecVersion;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RouteIndexTests {
+
+	private final RouteIndex index = RouteIndex.builder()
+			.add(HttpMethod.POST, "/lam/user/adduser", null)
+			.add(HttpMethod.PUT, "/lam/user", null)
+			.add(HttpMethod.GET, "/lam/orders/{id}/items/{itemId:int}", null)
+			.add(HttpMethod.GET, "/lam/orders/{id}/items/last", null)
+			.add(HttpMethod.GET, "/lam/files/{id:uuid}", null)
+			.add(HttpMethod.GET, "/lam/files/{name}", null)
+			.add(HttpMethod.GET, "/lam/codes/{code:[A-Z]{3}}", null)
+			.build();
+
+	@Test
+	void findsLiteralRoutesByMethod() {
+		assertEquals("/lam/user/adduser", template(HttpMethod.POST, "/lam/user/adduser"));
+		assertNull(index.find(HttpMethod.PUT, "/lam/user/adduser"));
+		assertNull(index.find(HttpMethod.DELETE, "/lam/user"));
+		assertNull(index.find(null, "/lam/user"));
+	}
+
+	@Test
+	void keepsTrailingNumericIdCompatibility() {
+		assertEquals("/lam/user", template(HttpMethod.PUT, "/lam/user/42"));
+		assertNull(index.find(HttpMethod.PUT, "/lam/user/abc"));
+		assertNull(index.find(HttpMethod.PUT, "/lam/user/42/x"));
+	}
+
+	@Test
+	void matchesTemplatedSegmentsAnywhere() {
+		assertEquals("/lam/orders/{id}/items/{itemId:int}", template(HttpMethod.GET, "/lam/orders/a-1/items/7"));
+		assertEquals("/lam/orders/{id}/items/last", template(HttpMethod.GET, "/lam/orders/a-1/items/last"));
+		assertNull(index.find(HttpMethod.GET, "/lam/orders/a-1/items/x"));
+		assertEquals("/lam/codes/{code:[A-Z]{3}}", template(HttpMethod.GET, "/lam/codes/RUB"));
+		assertNull(index.find(HttpMethod.GET, "/lam/codes/rub"));
+	}
+
+	@Test
+	void prefersTypedVariablesOverPlainOnes() {
+		assertEquals("/lam/files/{id:uuid}", template(HttpMethod.GET, "/lam/files/123e4567-e89b-12d3-a456-426614174000"));
+		assertEquals("/lam/files/{name}", template(HttpMethod.GET, "/lam/files/report.json"));
+	}
+
+	@Test
+	void rejectsDuplicateTemplates() {
+		RouteIndex.Builder builder = RouteIndex.builder().add(HttpMethod.GET, "/a/{id}", null);
+		assertThrows(IllegalArgumentException.class, () -> builder.add(HttpMethod.GET, "/a/{other}", null));
+	}
+
+	@Test
+	void replacesRouteSchemasInPlace() {
+		JsonSchema schema = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V202012).getSchema("{\"type\":\"object\"}");
+		Route previous = index.find(HttpMethod.GET, "/lam/orders/a-1/items/7");
+
+		Route route = index.update(HttpMethod.GET, "/lam/orders/{id}/items/{itemId:int}", schema, null);
+
+		assertSame(route, index.find(HttpMethod.GET, "/lam/orders/a-1/items/7"));
+		assertSame(schema, route.getSchema());
+		assertTrue(route.getVersion() > previous.getVersion());
+		assertTrue(index.getRoutes().contains(route));
+		assertFalse(index.getRoutes().contains(previous));
+		assertEquals(7, index.size());
+		assertNull(index.update(HttpMethod.GET, "/lam/orders/{id}/items/{itemId:int}", schema, null));
+		assertNull(index.update(HttpMethod.GET, "/lam/unknown", schema, null));
+	}
+
+	private String template(HttpMethod method, String path) {
+		Route route = index.find(method, path);
+		return route == null ? null : route.getTemplate();
+	}
+}
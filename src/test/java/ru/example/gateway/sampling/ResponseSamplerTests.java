@@ -0,0 +1,100 @@
+package ru.example.gateway.sampling;
+
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SpecVersion;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+
+import ru.example.gateway.model.ResponseSampling;
+import ru.example.gateway.routing.Route;
+import ru.example.gateway.routing.RouteIndex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseSamplerTests {
+
+	private static final String TEMPLATE = "/lam/orders/{id:int}";
+
+	private final ResponseSampling responseSampling = new ResponseSampling();
+	private final ResponseSampler sampler = new ResponseSampler();
+
+	ResponseSamplerTests() {
+		sampler.setResponseSampling(responseSampling);
+	}
+
+	@Test
+	void validatesEveryResponseByDefault() {
+		Route route = route();
+		for (int i = 0; i < 100; i++) {
+			assertTrue(sampler.sample(route));
+		}
+	}
+
+	@Test
+	void usesRouteRate() {
+		responseSampling.getRoutes().put(TEMPLATE, 0.0);
+		Route route = route();
+
+		assertFalse(sampler.sample(route));
+		assertEquals(0.0, sampler.getRate(route));
+	}
+
+	@Test
+	void lowersRateAfterCleanValidationsAndResetsOnFailure() {
+		responseSampling.getAdaptive().setEnabled(true);
+		responseSampling.getAdaptive().setCleanValidations(3);
+		responseSampling.getAdaptive().setMinRate(0.2);
+		Route route = route();
+
+		for (int i = 0; i < 3; i++) {
+			sampler.record(route, true);
+		}
+		assertEquals(0.5, sampler.getRate(route));
+		for (int i = 0; i < 6; i++) {
+			sampler.record(route, true);
+		}
+		assertEquals(0.2, sampler.getRate(route));
+
+		sampler.record(route, false);
+		assertEquals(1.0, sampler.getRate(route));
+		sampler.record(route, true);
+		assertEquals(1.0, sampler.getRate(route));
+	}
+
+	@Test
+	void keepsRateWhenAdaptiveIsOff() {
+		Route route = route();
+		for (int i = 0; i < 5000; i++) {
+			sampler.record(route, true);
+		}
+		assertEquals(1.0, sampler.getRate(route));
+	}
+
+	@Test
+	void keepsRatesOfOtherRoutesWhenSchemaIsReplacedInPlace() {
+		responseSampling.getAdaptive().setEnabled(true);
+		responseSampling.getAdaptive().setCleanValidations(1);
+		RouteIndex routeIndex = RouteIndex.builder()
+				.add(HttpMethod.GET, TEMPLATE, null)
+				.add(HttpMethod.GET, "/lam/items", null)
+				.build();
+		Route orders = routeIndex.find(HttpMethod.GET, "/lam/orders/1");
+		Route items = routeIndex.find(HttpMethod.GET, "/lam/items");
+		sampler.record(orders, true);
+		sampler.record(items, true);
+
+		Route updated = routeIndex.update(HttpMethod.GET, "/lam/items",
+				JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V202012).getSchema("{}"), null);
+		assertEquals(1.0, sampler.getRate(updated));
+		sampler.retain(routeIndex);
+
+		assertEquals(0.5, sampler.getRate(orders));
+	}
+
+	private static Route route() {
+		return RouteIndex.builder().add(HttpMethod.GET, TEMPLATE, null).build().find(HttpMethod.GET, "/lam/orders/1");
+	}
+}
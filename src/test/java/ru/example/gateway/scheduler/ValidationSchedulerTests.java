@@ -0,0 +1,148 @@
+package ru.example.gateway.scheduler;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ru.example.gateway.model.ValidationQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ValidationSchedulerTests {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final ValidationQueue validationQueue = new ValidationQueue();
+	private final ValidationScheduler scheduler = new ValidationScheduler();
+
+	ValidationSchedulerTests() {
+		validationQueue.setThreads(1);
+		validationQueue.setQueueSize(1);
+		scheduler.setValidationQueue(validationQueue);
+		scheduler.setMeterRegistry(registry);
+		scheduler.start();
+	}
+
+	@AfterEach
+	void shutdown() {
+		scheduler.shutdown();
+	}
+
+	@Test
+	void runsValidationOffCallerThread() {
+		AtomicReference<String> thread = new AtomicReference<>();
+
+		scheduler.run(() -> thread.set(Thread.currentThread().getName())).block(Duration.ofSeconds(5));
+
+		assertNotEquals(Thread.currentThread().getName(), thread.get());
+		assertEquals(ValidationScheduler.NAME + "-1", thread.get());
+	}
+
+	@Test
+	void propagatesValidationErrors() {
+		Mono<Void> failed = scheduler.run(() -> {
+			throw new IllegalStateException("invalid");
+		});
+
+		assertThrows(IllegalStateException.class, () -> failed.block(Duration.ofSeconds(5)));
+	}
+
+	@Test
+	void rejectsWhenQueueIsFull() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Runnable blocked = () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		scheduler.run(blocked).subscribe();
+		started.await();
+		scheduler.run(blocked).subscribe();
+
+		assertEquals(1, registry.get("executor.queued").tag("name", ValidationScheduler.NAME).gauge().value(), 0.001);
+		assertThrows(RejectedExecutionException.class, () -> scheduler.run(() -> { }).block(Duration.ofSeconds(5)));
+		release.countDown();
+	}
+
+	@Test
+	void releasesBodyWhenCancelledInQueue() throws InterruptedException {
+		CountDownLatch release = occupy();
+		AtomicInteger validations = new AtomicInteger();
+		AtomicInteger released = new AtomicInteger();
+
+		Disposable pending = scheduler.run(validations::incrementAndGet, released::incrementAndGet).subscribe();
+		pending.dispose();
+
+		assertEquals(1, released.get());
+		release.countDown();
+		scheduler.run(() -> { }).block(Duration.ofSeconds(5));
+		assertEquals(0, validations.get());
+		assertEquals(1, released.get());
+	}
+
+	@Test
+	void releasesBodyAfterRunningValidationWhenCancelled() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch finish = new CountDownLatch(1);
+		AtomicInteger released = new AtomicInteger();
+		Disposable running = scheduler.run(() -> {
+			started.countDown();
+			await(finish);
+		}, released::incrementAndGet).subscribe();
+		started.await();
+
+		running.dispose();
+
+		assertEquals(0, released.get());
+		finish.countDown();
+		scheduler.run(() -> { }).block(Duration.ofSeconds(5));
+		assertEquals(1, released.get());
+	}
+
+	@Test
+	void runsInlineWhenDisabled() {
+		validationQueue.setEnabled(false);
+		AtomicReference<String> thread = new AtomicReference<>();
+
+		scheduler.run(() -> thread.set(Thread.currentThread().getName())).block();
+
+		assertEquals(Thread.currentThread().getName(), thread.get());
+	}
+
+	/**
+	 * Занимает единственный поток пула до вызова countDown у результата
+	 */
+	private CountDownLatch occupy() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		scheduler.run(() -> {
+			started.countDown();
+			await(release);
+		}).subscribe();
+		started.await();
+		return release;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
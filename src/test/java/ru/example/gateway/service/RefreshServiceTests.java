@@ -0,0 +1,137 @@
+package ru.example.gateway.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.autoconfigure.RefreshAutoConfiguration;
+import org.springframework.cloud.context.refresh.ConfigDataContextRefresher;
+import org.springframework.cloud.context.scope.refresh.RefreshScope;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.example.gateway.config.BeansConfig;
+import ru.example.gateway.model.RefreshStatus;
+import ru.example.gateway.model.SchemaChanges;
+import ru.example.gateway.routing.RouteIndex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RefreshServiceTests {
+
+	private final RefreshService service = new RefreshService();
+	private final AtomicInteger schemaRefreshes = new AtomicInteger();
+	private final AtomicInteger contextRefreshes = new AtomicInteger();
+	private final AtomicInteger inPlaceUpdates = new AtomicInteger();
+	private final Set<String> changedKeys = new HashSet<>();
+
+	RefreshServiceTests() {
+		ReflectionTestUtils.setField(service, "debounce", Duration.ofMillis(200));
+		ReflectionTestUtils.setField(service, "requestsSchemas", Collections.emptyMap());
+		ReflectionTestUtils.setField(service, "responsesSchemas", Collections.emptyMap());
+		ReflectionTestUtils.setField(service, "requestRouteIndex", RouteIndex.empty());
+		ReflectionTestUtils.setField(service, "responseRouteIndex", RouteIndex.empty());
+		service.setSchemaRegistry(new SchemaRegistry() {
+			@Override
+			public synchronized SchemaChanges refresh() {
+				schemaRefreshes.incrementAndGet();
+				SchemaChanges changes = new SchemaChanges("a", "b");
+				changes.getModified().add("request/user.json");
+				return changes;
+			}
+		});
+		service.setContextRefresher(new ConfigDataContextRefresher(null, null, new RefreshAutoConfiguration.RefreshProperties()) {
+			@Override
+			public synchronized Set<String> refreshEnvironment() {
+				return new HashSet<>(changedKeys);
+			}
+
+			@Override
+			protected void updateEnvironment() {
+			}
+		});
+		service.setRefreshScope(new RefreshScope() {
+			@Override
+			public void refreshAll() {
+				contextRefreshes.incrementAndGet();
+			}
+		});
+		service.setBeansConfig(new BeansConfig() {
+			@Override
+			public int applySchemaChanges() {
+				return inPlaceUpdates.incrementAndGet();
+			}
+		});
+	}
+
+	@AfterEach
+	void shutdown() {
+		service.shutdown();
+	}
+
+	@Test
+	void coalescesWebhooksWithinDebounceWindow() throws InterruptedException {
+		RefreshStatus first = service.request();
+		RefreshStatus second = service.request();
+		RefreshStatus third = service.request();
+
+		await(first);
+
+		assertSame(first, second);
+		assertSame(first, third);
+		assertEquals(3, first.getRequests());
+		assertEquals(1, schemaRefreshes.get());
+		assertEquals(RefreshStatus.State.DONE, first.getState());
+		assertEquals(Collections.singletonList("request/user.json"), first.getReport().getModified());
+	}
+
+	@Test
+	void appliesSchemaOnlyPushInPlace() throws InterruptedException {
+		changedKeys.add("config.client.version");
+		await(service.request());
+
+		changedKeys.add("response.get.lam.users");
+		RefreshStatus status = service.request();
+		await(status);
+
+		assertEquals(1, inPlaceUpdates.get());
+		assertEquals(1, contextRefreshes.get());
+		assertTrue(status.getReport().isContextRefreshed());
+		assertEquals(0, status.getReport().getUpdatedRoutes());
+	}
+
+	@Test
+	void keepsLastTwentyRefreshes() throws InterruptedException {
+		ReflectionTestUtils.setField(service, "debounce", Duration.ZERO);
+		for (int i = 0; i < 25; i++) {
+			await(service.request());
+		}
+
+		List<RefreshStatus> history = service.getHistory();
+
+		assertEquals(20, history.size());
+		assertEquals(25, history.get(0).getId());
+		assertEquals(6, history.get(19).getId());
+		assertNull(service.getStatus(5));
+		assertNotNull(service.getStatus(6));
+		assertEquals(25, schemaRefreshes.get());
+	}
+
+	private static void await(RefreshStatus status) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (status.getState() != RefreshStatus.State.DONE && status.getState() != RefreshStatus.State.FAILED) {
+			assertTrue(System.nanoTime() < deadline, "refresh " + status.getId() + " did not finish");
+			Thread.sleep(10);
+		}
+		assertFalse(status.getState() == RefreshStatus.State.FAILED, status.getError());
+	}
+}
@@ -0,0 +1,305 @@
+package ru.example.gateway.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaException;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import ru.example.gateway.model.SchemaChanges;
+import ru.example.gateway.model.ValidationPolicies;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SchemaRegistryTests {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final SchemaRegistry registry = new SchemaRegistry();
+
+	@TempDir
+	Path repository;
+
+	private ObjectId head = ObjectId.fromString("1111111111111111111111111111111111111111");
+	private SchemaChanges changes;
+
+	@Test
+	void resolvesRelativeReferencesFromLocalFiles() throws IOException {
+		Map<String, String> files = registry.getJsonFiles();
+		files.put("common/defs.json", "{\"$defs\":{\"id\":{\"type\":\"integer\",\"minimum\":1}}}");
+		files.put("request/adduser.json", "{\"type\":\"object\",\"properties\":{\"id\":{\"$ref\":\"../common/defs.json#/$defs/id\"}}}");
+		files.put("response/adduser.json", "{\"type\":\"object\",\"properties\":{\"userId\":{\"$ref\":\"/common/defs.json#/$defs/id\"}}}");
+
+		JsonSchema request = registry.getSchema("request/addUser.json");
+		JsonSchema response = registry.getSchema("response/adduser.json");
+
+		assertTrue(request.validate(MAPPER.readTree("{\"id\":5}")).isEmpty());
+		assertEquals(1, request.validate(MAPPER.readTree("{\"id\":0}")).size());
+		assertEquals(1, response.validate(MAPPER.readTree("{\"userId\":\"x\"}")).size());
+		assertSame(request, registry.getSchema("request/adduser.json"));
+	}
+
+	@Test
+	void resolvesAbsoluteReferencesToLocalFilesWithoutNetwork() throws IOException {
+		Map<String, String> files = registry.getJsonFiles();
+		files.put("/common/name.json", "{\"type\":\"string\",\"maxLength\":3}");
+		files.put("/request/user.json", "{\"$id\":\"https://gitlab.invalid/lam/config/request/user.json\","
+				+ "\"properties\":{\"name\":{\"$ref\":\"../common/name.json\"}}}");
+
+		JsonSchema schema = registry.getSchema("/request/user.json");
+
+		assertTrue(schema.validate(MAPPER.readTree("{\"name\":\"abc\"}")).isEmpty());
+		assertEquals(1, schema.validate(MAPPER.readTree("{\"name\":\"abcd\"}")).size());
+	}
+
+	@Test
+	void resolvesExternalReferencesOnlyByKnownIdOrGatewayPath() throws IOException {
+		Map<String, String> files = registry.getJsonFiles();
+		files.put("/common.json", "{\"type\":\"string\"}");
+		files.put("/types/code.json", "{\"$id\":\"https://schemas.invalid/code\",\"type\":\"string\",\"maxLength\":2}");
+		files.put("/request/external.json", "{\"properties\":{\"a\":{\"$ref\":\"https://other.invalid/schemas/common.json\"}}}");
+		files.put("/request/gateway.json", "{\"properties\":{\"a\":{\"$ref\":\"https://gateway.invalid/jsonschema/common.json\"}}}");
+		files.put("/request/id.json", "{\"properties\":{\"a\":{\"$ref\":\"https://schemas.invalid/code\"}}}");
+
+		assertThrows(JsonSchemaException.class, () -> registry.getSchema("/request/external.json"));
+		assertEquals(1, registry.getSchema("/request/gateway.json").validate(MAPPER.readTree("{\"a\":1}")).size());
+		assertEquals(1, registry.getSchema("/request/id.json").validate(MAPPER.readTree("{\"a\":\"abc\"}")).size());
+	}
+
+	@Test
+	void failsOnMissingLocalReference() {
+		registry.getJsonFiles().put("request/broken.json", "{\"properties\":{\"id\":{\"$ref\":\"missing.json\"}}}");
+
+		assertThrows(JsonSchemaException.class, () -> registry.getSchema("request/broken.json"));
+		assertThrows(IllegalArgumentException.class, () -> registry.getSchema("request/unknown.json"));
+	}
+
+	@Test
+	void stopsOnFirstErrorWithFailFastPolicy() throws IOException {
+		registry.getJsonFiles().put("request/items.json", "{\"additionalProperties\":{\"type\":\"integer\"}}");
+		ValidationPolicies.Policy policy = new ValidationPolicies.Policy();
+		policy.setFailFast(true);
+
+		JsonSchema schema = registry.getSchema("request/items.json", policy);
+
+		assertNotSame(registry.getSchema("request/items.json"), schema);
+		assertEquals(3, registry.getSchema("request/items.json").validate(MAPPER.readTree("{\"a\":\"a\",\"b\":\"b\",\"c\":\"c\"}")).size());
+		JsonSchemaException error = assertThrows(JsonSchemaException.class, () -> schema.validate(MAPPER.readTree("{\"a\":\"a\",\"b\":\"b\",\"c\":\"c\"}")));
+		assertEquals(1, error.getValidationMessages().size());
+	}
+
+	@Test
+	void ignoresFailFastForBranchingSchemas() throws IOException {
+		registry.getJsonFiles().put("common/id.json", "{\"anyOf\":[{\"type\":\"integer\"},{\"type\":\"string\"}]}");
+		registry.getJsonFiles().put("request/ids.json", "{\"additionalProperties\":{\"$ref\":\"../common/id.json\"}}");
+		ValidationPolicies.Policy policy = new ValidationPolicies.Policy();
+		policy.setMaxErrors(1);
+
+		JsonSchema schema = registry.getSchema("request/ids.json", policy);
+
+		assertTrue(schema.validate(MAPPER.readTree("{\"a\":\"a\",\"b\":1}")).isEmpty());
+		assertFalse(schema.validate(MAPPER.readTree("{\"a\":true}")).isEmpty());
+	}
+
+	@Test
+	void skipsFormatWhenDisabledByPolicy() throws IOException {
+		registry.getJsonFiles().put("common/email.json", "{\"type\":\"string\",\"format\":\"email\"}");
+		registry.getJsonFiles().put("request/contact.json", "{\"properties\":{\"email\":{\"$ref\":\"../common/email.json\"},"
+				+ "\"format\":{\"type\":\"string\",\"format\":\"date\"}}}");
+		ValidationPolicies.Policy policy = new ValidationPolicies.Policy();
+		policy.setFormatAssertions(false);
+
+		JsonSchema strict = registry.getSchema("request/contact.json");
+		JsonSchema lenient = registry.getSchema("request/contact.json", policy);
+
+		String body = "{\"email\":\"x\",\"format\":\"y\"}";
+		assertEquals(2, strict.validate(MAPPER.readTree(body)).size());
+		assertTrue(lenient.validate(MAPPER.readTree(body)).isEmpty());
+		assertEquals(1, lenient.validate(MAPPER.readTree("{\"format\":1}")).size());
+	}
+
+	@Test
+	void compilesElementSchemaOnlyForPlainArrays() throws IOException {
+		registry.getJsonFiles().put("response/orders.json", "{\"type\":\"array\",\"$defs\":{\"qty\":{\"type\":\"integer\"}},"
+				+ "\"items\":{\"properties\":{\"qty\":{\"$ref\":\"#/$defs/qty\"}}}}");
+		registry.getJsonFiles().put("response/top.json", "{\"type\":\"array\",\"maxItems\":10,\"items\":{\"type\":\"integer\"}}");
+		registry.getJsonFiles().put("response/order.json", "{\"type\":\"object\"}");
+
+		JsonSchema element = registry.getElementSchema("response/orders.json", null);
+
+		assertTrue(element.validate(MAPPER.readTree("{\"qty\":1}")).isEmpty());
+		assertEquals(1, element.validate(MAPPER.readTree("{\"qty\":\"x\"}")).size());
+		assertSame(element, registry.getElementSchema("response/orders.json", null));
+		assertNull(registry.getElementSchema("response/top.json", null));
+		assertNull(registry.getElementSchema("response/order.json", null));
+	}
+
+	@Test
+	void resolvesPolicyFromRouteAndDefaults() {
+		ValidationPolicies policies = new ValidationPolicies();
+		policies.getDefaults().setMaxErrors(10);
+		ValidationPolicies.Policy route = new ValidationPolicies.Policy();
+		route.setFailFast(true);
+		policies.getRequest().put("/lam/items", route);
+
+		ValidationPolicies.Policy policy = policies.requestPolicy("/lam/items");
+
+		assertTrue(policy.getFailFast());
+		assertEquals(10, policy.getMaxErrors());
+		assertTrue(policy.getFormatAssertions());
+		assertEquals(false, policies.responsePolicy("/lam/items").getFailFast());
+	}
+
+	@Test
+	void recompilesModifiedAndTransitivelyDependentSchemas() throws Exception {
+		write("common/id.json", "{\"type\":\"integer\",\"minimum\":1}");
+		write("request/user.json", "{\"properties\":{\"id\":{\"$ref\":\"../common/id.json\"}}}");
+		write("request/group.json", "{\"properties\":{\"owner\":{\"$ref\":\"user.json\"}}}");
+		write("request/other.json", "{\"type\":\"object\"}");
+		loadFromRepository();
+		JsonSchema user = registry.getSchema("/request/user.json");
+		JsonSchema group = registry.getSchema("/request/group.json");
+		JsonSchema other = registry.getSchema("/request/other.json");
+
+		write("common/id.json", "{\"type\":\"integer\",\"minimum\":10}");
+		commit().getModified().add("common/id.json");
+		registry.refresh();
+
+		assertNotSame(user, registry.getSchema("/request/user.json"));
+		assertNotSame(group, registry.getSchema("/request/group.json"));
+		assertSame(other, registry.getSchema("/request/other.json"));
+		assertEquals(1, registry.getSchema("/request/user.json").validate(MAPPER.readTree("{\"id\":5}")).size());
+		assertEquals(1, registry.getSchema("/request/group.json").validate(MAPPER.readTree("{\"owner\":{\"id\":5}}")).size());
+		assertEquals(head.getName(), registry.getCommit());
+	}
+
+	@Test
+	void removesDeletedFilesAndFailsDependentSchemas() throws Exception {
+		write("common/id.json", "{\"type\":\"integer\"}");
+		write("request/user.json", "{\"properties\":{\"id\":{\"$ref\":\"../common/id.json\"}}}");
+		write("request/other.json", "{\"type\":\"object\"}");
+		loadFromRepository();
+		registry.getSchema("/request/user.json");
+		JsonSchema other = registry.getSchema("/request/other.json");
+
+		Files.delete(repository.resolve("common/id.json"));
+		commit().getRemoved().add("common/id.json");
+		registry.refresh();
+
+		assertFalse(registry.getJsonFiles().containsKey("/common/id.json"));
+		assertThrows(IllegalArgumentException.class, () -> registry.getSchema("/common/id.json"));
+		assertThrows(JsonSchemaException.class, () -> registry.getSchema("/request/user.json"));
+		assertSame(other, registry.getSchema("/request/other.json"));
+	}
+
+	@Test
+	void compilesAddedFilesAndKeepsCacheForSameCommit() throws Exception {
+		write("request/other.json", "{\"type\":\"object\"}");
+		loadFromRepository();
+		JsonSchema other = registry.getSchema("/request/other.json");
+		assertThrows(IllegalArgumentException.class, () -> registry.getSchema("/request/new.json"));
+
+		write("request/new.json", "{\"type\":\"array\"}");
+		commit().getAdded().add("request/new.json");
+		registry.refresh();
+		SchemaChanges unchanged = registry.refresh();
+
+		assertEquals(1, registry.getSchema("/request/new.json").validate(MAPPER.readTree("{}")).size());
+		assertSame(other, registry.getSchema("/request/other.json"));
+		assertTrue(unchanged.isEmpty());
+		assertEquals(head.getName(), unchanged.getPreviousCommit());
+	}
+
+	@Test
+	void replacesSnapshotFilesThatDifferFromRepository() throws Exception {
+		write("request/user.json", "{\"type\":\"object\"}");
+		write("request/other.json", "{\"type\":\"array\"}");
+		Map<String, String> snapshot = new HashMap<>();
+		snapshot.put("/request/user.json", "{\"type\":\"string\"}");
+		snapshot.put("/request/other.json", "{\"type\":\"array\"}");
+		snapshot.put("/request/extra.json", "{}");
+		SchemaSnapshotService snapshotService = connectRepository(repository.resolve("snapshot/schemas.snapshot").toString());
+		snapshotService.write(head.getName(), snapshot);
+		registry.init();
+		assertEquals(1, registry.getSchema("/request/user.json").validate(MAPPER.readTree("{}")).size());
+		JsonSchema other = registry.getSchema("/request/other.json");
+
+		SchemaChanges changes = registry.syncWithRepository();
+
+		assertEquals(Collections.singletonList("/request/user.json"), changes.getModified());
+		assertEquals(Collections.singletonList("/request/extra.json"), changes.getRemoved());
+		assertTrue(registry.getSchema("/request/user.json").validate(MAPPER.readTree("{}")).isEmpty());
+		assertSame(other, registry.getSchema("/request/other.json"));
+		assertEquals(registry.getJsonFiles(), snapshotService.read().getFiles());
+		assertTrue(registry.syncWithRepository().isEmpty());
+	}
+
+	/**
+	 * Загружает файлы из {@link #repository}, обновление репозитория заменено переходом на коммит {@link #commit()}
+	 */
+	private void loadFromRepository() throws Exception {
+		connectRepository("");
+		registry.load();
+	}
+
+	/**
+	 * @param snapshotPath путь к снимку, пустой - без снимка
+	 * @return служба снимка реестра
+	 */
+	private SchemaSnapshotService connectRepository(String snapshotPath) {
+		LocalRepoService localRepoService = new LocalRepoService() {
+			@Override
+			public void getRepoToLocal() {
+			}
+
+			@Override
+			public ObjectId getHead() {
+				return head;
+			}
+
+			@Override
+			public SchemaChanges diff(ObjectId oldHead, ObjectId newHead) {
+				return changes;
+			}
+		};
+		ReflectionTestUtils.setField(localRepoService, "pathToLocalRepo", repository.toString());
+		SchemaSnapshotService snapshotService = new SchemaSnapshotService();
+		ReflectionTestUtils.setField(snapshotService, "snapshotPath", snapshotPath);
+		registry.setLocalRepoService(localRepoService);
+		registry.setSnapshotService(snapshotService);
+		return snapshotService;
+	}
+
+	/**
+	 * @return изменения следующего коммита, заполняются тестом
+	 */
+	private SchemaChanges commit() {
+		ObjectId previous = head;
+		head = ObjectId.fromString(previous.getName().replace('1', '2'));
+		changes = new SchemaChanges(previous.getName(), head.getName());
+		return changes;
+	}
+
+	private void write(String file, String content) throws IOException {
+		Path path = repository.resolve(file);
+		Files.createDirectories(path.getParent());
+		Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+	}
+}
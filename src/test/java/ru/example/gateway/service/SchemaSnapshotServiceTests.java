@@ -0,0 +1,88 @@
+package ru.example.gateway.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import ru.example.gateway.model.SchemaSnapshot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class SchemaSnapshotServiceTests {
+
+	private static final String COMMIT = "0123456789abcdef0123456789abcdef01234567";
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void readsWrittenSnapshot() {
+		SchemaSnapshotService service = service(directory.resolve("snapshot/schemas.snapshot"));
+		Map<String, String> files = new HashMap<>();
+		files.put("/request/adduser.json", "{\"type\":\"object\",\"title\":\"Пользователь\"}");
+		files.put("/response/empty.json", "");
+
+		service.write(COMMIT, files);
+		SchemaSnapshot snapshot = service.read();
+
+		assertEquals(COMMIT, snapshot.getCommit());
+		assertEquals(files, snapshot.getFiles());
+	}
+
+	@Test
+	void ignoresMissingOrCorruptedSnapshot() throws Exception {
+		Path path = directory.resolve("schemas.snapshot");
+		SchemaSnapshotService service = service(path);
+		assertNull(service.read());
+
+		service.write(COMMIT, Collections.singletonMap("/a.json", "{}"));
+		byte[] bytes = Files.readAllBytes(path);
+		bytes[bytes.length / 2] ^= 1;
+		Files.write(path, bytes);
+		assertNull(service.read());
+
+		Files.write(path, new byte[]{1, 2, 3});
+		assertNull(service.read());
+	}
+
+	@Test
+	void doesNothingWhenDisabled() {
+		SchemaSnapshotService service = new SchemaSnapshotService();
+		ReflectionTestUtils.setField(service, "snapshotPath", "");
+		service.write(COMMIT, Collections.singletonMap("/a.json", "{}"));
+		assertNull(service.read());
+	}
+
+	@Test
+	void writesOwnerOnlyAndRejectsSnapshotWritableByOthers() throws Exception {
+		assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+		Path path = directory.resolve("snapshot/schemas.snapshot");
+		SchemaSnapshotService service = service(path);
+
+		service.write(COMMIT, Collections.singletonMap("/a.json", "{}"));
+
+		assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(path.getParent())));
+		assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+		Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-rw-rw-"));
+		assertNull(service.read());
+		Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+		Files.setPosixFilePermissions(path.getParent(), PosixFilePermissions.fromString("rwxrwxrwx"));
+		assertNull(service.read());
+	}
+
+	private static SchemaSnapshotService service(Path path) {
+		SchemaSnapshotService service = new SchemaSnapshotService();
+		ReflectionTestUtils.setField(service, "snapshotPath", path.toString());
+		return service;
+	}
+}
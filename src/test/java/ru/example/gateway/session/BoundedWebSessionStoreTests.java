@@ -0,0 +1,251 @@
+package ru.example.gateway.session;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.server.WebSession;
+
+import java.io.Serializable;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import ru.example.gateway.model.SessionStore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class BoundedWebSessionStoreTests {
+
+	private static final Duration TIMEOUT = Duration.ofMinutes(30);
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final SessionStore properties = new SessionStore();
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void storesSerializedAttributesAndRestoresCopy() {
+		BoundedWebSessionStore store = store();
+		WebSession session = saved(store, "user");
+
+		WebSession retrieved = store.retrieveSession(session.getId()).block();
+
+		assertNotNull(retrieved);
+		assertNotSame(session, retrieved);
+		assertEquals(new ArrayList<>(Collections.singletonList("user")), retrieved.getAttributes().get("principal"));
+		assertEquals(1, registry.get(BoundedWebSessionStore.SESSIONS).tag("tier", "memory").gauge().value());
+		assertTrue(registry.get(BoundedWebSessionStore.SESSION_BYTES).tag("tier", "memory").gauge().value() > 0);
+	}
+
+	@Test
+	void doesNotStoreEmptyOrNonSerializableAttributes() {
+		BoundedWebSessionStore store = store();
+		WebSession empty = store.createWebSession().block();
+		empty.save().block();
+		WebSession session = saved(store, "user");
+		session.getAttributes().put("handler", new Object());
+		session.save().block();
+
+		assertNull(store.retrieveSession(empty.getId()).block());
+		WebSession retrieved = store.retrieveSession(session.getId()).block();
+		assertFalse(retrieved.getAttributes().containsKey("handler"));
+		assertTrue(retrieved.getAttributes().containsKey("principal"));
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedSessionOverCapacity() {
+		properties.setMaxSessions(2);
+		BoundedWebSessionStore store = store();
+		WebSession first = saved(store, "first");
+		WebSession second = saved(store, "second");
+		store.retrieveSession(first.getId()).block();
+		WebSession third = saved(store, "third");
+
+		assertNotNull(store.retrieveSession(first.getId()).block());
+		assertNull(store.retrieveSession(second.getId()).block());
+		assertNotNull(store.retrieveSession(third.getId()).block());
+		assertEquals(2, store.count());
+		assertEquals(1, registry.get(BoundedWebSessionStore.EVICTIONS).tags("tier", "memory", "reason", "capacity").counter().count());
+	}
+
+	@Test
+	void expiresIdleSessions() {
+		BoundedWebSessionStore store = store();
+		Instant start = Instant.now();
+		store.setClock(Clock.fixed(start, ZoneId.of("GMT")));
+		WebSession idle = saved(store, "idle");
+		store.setClock(Clock.fixed(start.plus(TIMEOUT).minusSeconds(1), ZoneId.of("GMT")));
+		WebSession active = saved(store, "active");
+
+		store.setClock(Clock.fixed(start.plus(TIMEOUT).plusSeconds(1), ZoneId.of("GMT")));
+
+		assertNull(store.retrieveSession(idle.getId()).block());
+		assertNotNull(store.retrieveSession(active.getId()).block());
+		assertEquals(1, store.count());
+		assertEquals(1, registry.get(BoundedWebSessionStore.EVICTIONS).tags("tier", "memory", "reason", "idle").counter().count());
+	}
+
+	@Test
+	void removesSessionOnInvalidateAndIdChange() {
+		BoundedWebSessionStore store = store();
+		WebSession invalidated = saved(store, "invalidated");
+		WebSession renamed = saved(store, "renamed");
+		String previousId = renamed.getId();
+
+		store.retrieveSession(invalidated.getId()).block().invalidate().block();
+		renamed.changeSessionId().block();
+		renamed.save().block();
+
+		assertNull(store.retrieveSession(invalidated.getId()).block());
+		assertNull(store.retrieveSession(previousId).block());
+		assertNotNull(store.retrieveSession(renamed.getId()).block());
+	}
+
+	@Test
+	void doesNotRestoreSessionInvalidatedByAnotherRequest() {
+		BoundedWebSessionStore store = store();
+		WebSession session = saved(store, "user");
+		WebSession logout = store.retrieveSession(session.getId()).block();
+		WebSession inFlight = store.retrieveSession(session.getId()).block();
+
+		logout.invalidate().block();
+		inFlight.getAttributes().put("visited", "yes");
+		inFlight.save().block();
+
+		assertNull(store.retrieveSession(session.getId()).block());
+		assertEquals(0, store.count());
+	}
+
+	@Test
+	void doesNotRestorePreviousIdAfterIdChange() {
+		BoundedWebSessionStore store = store();
+		WebSession session = saved(store, "user");
+		String previousId = session.getId();
+		WebSession login = store.retrieveSession(previousId).block();
+		WebSession inFlight = store.retrieveSession(previousId).block();
+
+		login.changeSessionId().block();
+		login.save().block();
+		inFlight.save().block();
+
+		assertNull(store.retrieveSession(previousId).block());
+		assertNotNull(store.retrieveSession(login.getId()).block());
+		assertEquals(1, store.count());
+	}
+
+	@Test
+	void spillsToFileTierAndPromotesBack() throws Exception {
+		properties.setMaxSessions(1);
+		properties.getFileTier().setEnabled(true);
+		properties.getFileTier().setPath(directory.toString());
+		BoundedWebSessionStore store = store();
+		WebSession first = saved(store, "first");
+		WebSession second = saved(store, "second");
+		awaitFiles(1);
+
+		assertEquals(1, files());
+		assertEquals(1, registry.get(BoundedWebSessionStore.SESSIONS).tag("tier", "file").gauge().value());
+
+		WebSession promoted = store.retrieveSession(first.getId()).block();
+
+		assertEquals(new ArrayList<>(Collections.singletonList("first")), promoted.getAttributes().get("principal"));
+		assertNotNull(store.retrieveSession(second.getId()).block());
+		assertEquals(1, store.count());
+		assertEquals(3, registry.get(BoundedWebSessionStore.EVICTIONS).tags("tier", "memory", "reason", "spilled").counter().count());
+		awaitFiles(1);
+
+		store.clear();
+		assertEquals(0, files());
+	}
+
+	@Test
+	void writesSessionFilesOwnerOnly() throws Exception {
+		assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+		Path sessions = Files.createDirectory(directory.resolve("sessions"), PosixFilePermissions.asFileAttribute(
+				PosixFilePermissions.fromString("rwxrwxrwx")));
+		Files.setPosixFilePermissions(sessions, PosixFilePermissions.fromString("rwxrwxrwx"));
+		properties.setMaxSessions(1);
+		properties.getFileTier().setEnabled(true);
+		properties.getFileTier().setPath(sessions.toString());
+		BoundedWebSessionStore store = store();
+		saved(store, "first");
+		saved(store, "second");
+		awaitFiles(sessions, 1);
+
+		assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(sessions)));
+		try (Stream<Path> files = Files.list(sessions)) {
+			Path file = files.findFirst().get();
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+		}
+		store.clear();
+	}
+
+	@Test
+	void restoresOnlyAllowedAttributeClasses() {
+		BoundedWebSessionStore store = store();
+		WebSession session = saved(store, "user");
+		session.getAttributes().put("payload", new Payload());
+		session.save().block();
+
+		assertNull(store.retrieveSession(session.getId()).block());
+
+		properties.setAllowedClasses(Collections.singletonList(Payload.class.getName()));
+		store = store();
+		session = saved(store, "user");
+		session.getAttributes().put("payload", new Payload());
+		session.save().block();
+
+		assertTrue(store.retrieveSession(session.getId()).block().getAttributes().get("payload") instanceof Payload);
+	}
+
+	private BoundedWebSessionStore store() {
+		return new BoundedWebSessionStore(properties, TIMEOUT, registry);
+	}
+
+	private static WebSession saved(BoundedWebSessionStore store, String principal) {
+		WebSession session = store.createWebSession().block();
+		session.getAttributes().put("principal", new ArrayList<>(Collections.singletonList(principal)));
+		session.save().block();
+		return session;
+	}
+
+	private void awaitFiles(long count) throws Exception {
+		awaitFiles(directory, count);
+	}
+
+	private static void awaitFiles(Path directory, long count) throws Exception {
+		for (int i = 0; i < 100 && files(directory) != count; i++) {
+			Thread.sleep(10);
+		}
+	}
+
+	private long files() throws Exception {
+		return files(directory);
+	}
+
+	private static long files(Path directory) throws Exception {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.count();
+		}
+	}
+
+	static class Payload implements Serializable {
+		private static final long serialVersionUID = 1L;
+	}
+}